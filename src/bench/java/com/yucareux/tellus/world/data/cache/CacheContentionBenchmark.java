@@ -0,0 +1,193 @@
+package com.yucareux.tellus.world.data.cache;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hammers a GeoTIFF-style internal tile cache from many threads: a ManagedCache read through
+// getIfPresent and get(key, loader), against the synchronized access-ordered LinkedHashMap the
+// land cover and Koppen readers used before. Both caches are large enough for every tile, so the
+// timings differ by locking rather than hit rate. Loads are counted, so tiles decoded twice by
+// racing misses show up next to the timings.
+//
+//   ./gradlew cacheBenchmark -PbenchArgs="<threads> <lookupsPerThread> <rounds>"
+final class CacheContentionBenchmark {
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int TILE_BYTES = 256 * 256;
+	private static final int TILES = 256;
+	// Keeps the tile reads from being optimized away.
+	private static volatile long blackhole;
+
+	private CacheContentionBenchmark() {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		System.out.printf("%d threads x %d lookups, %d tiles of %d bytes, %d rounds after %d warm-up, %d cores%n",
+				threads, lookups, TILES, TILE_BYTES, rounds, WARMUP_ROUNDS,
+				Runtime.getRuntime().availableProcessors());
+		Result legacy = run("synchronized", threads, lookups, rounds, LegacyCache::new);
+		Result managed = run("managed", threads, lookups, rounds, ManagedTileCache::new);
+		report("synchronized", legacy, threads, lookups);
+		report("managed", managed, threads, lookups);
+		System.out.printf("speedup: %.2fx median%n", legacy.medianMillis() / managed.medianMillis());
+		if (threads > Runtime.getRuntime().availableProcessors()) {
+			System.out.println("note: more threads than cores, so lock contention is mostly time-slicing here");
+		}
+	}
+
+	private static Result run(String label, int threads, int lookups, int rounds, CacheFactory factory)
+			throws InterruptedException {
+		double[] times = new double[rounds];
+		long[] loads = new long[rounds];
+		for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+			LongAdder loadCount = new LongAdder();
+			TileCache cache = factory.create(loadCount);
+			System.gc();
+			CountDownLatch start = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(threads);
+			long[] sinks = new long[threads];
+			Throwable[] failures = new Throwable[threads];
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				Thread worker = new Thread(() -> {
+					SplittableRandom random = new SplittableRandom(0x5eedL + thread);
+					long sink = 0L;
+					try {
+						start.await();
+						for (int i = 0; i < lookups; i++) {
+							byte[] tile = cache.get(random.nextInt(TILES));
+							sink += tile[i & (TILE_BYTES - 1)];
+						}
+					} catch (Throwable e) {
+						failures[thread] = e;
+					} finally {
+						sinks[thread] = sink;
+						done.countDown();
+					}
+				}, "cache-bench-" + thread);
+				worker.start();
+			}
+			long begin = System.nanoTime();
+			start.countDown();
+			done.await();
+			long elapsed = System.nanoTime() - begin;
+			for (Throwable failure : failures) {
+				if (failure != null) {
+					throw new IllegalStateException(label + " cache failed", failure);
+				}
+			}
+			cache.clear();
+			if (round >= 0) {
+				times[round] = elapsed / 1.0e6;
+				loads[round] = loadCount.sum();
+			}
+			blackhole = Arrays.stream(sinks).sum();
+		}
+		System.out.printf("  %s rounds ms %s%n", label, Arrays.toString(times));
+		Arrays.sort(times);
+		Arrays.sort(loads);
+		return new Result(times[times.length / 2], times[0], loads[loads.length / 2]);
+	}
+
+	private static void report(String label, Result result, int threads, int lookups) {
+		double perSecond = (double) threads * lookups / (result.medianMillis() / 1000.0);
+		System.out.printf("%-12s median %8.1f ms, best %8.1f ms, %6.1f M lookups/s, %d loads%n",
+				label, result.medianMillis(), result.bestMillis(), perSecond / 1.0e6, result.loads());
+	}
+
+	// Stands in for inflating one internal tile.
+	private static byte[] decode(int key, LongAdder loads) {
+		loads.increment();
+		byte[] tile = new byte[TILE_BYTES];
+		int state = key * 0x9E3779B9;
+		for (int i = 0; i < tile.length; i++) {
+			state = state * 1103515245 + 12345;
+			tile[i] = (byte) (state >>> 24);
+		}
+		return tile;
+	}
+
+	private record Result(double medianMillis, double bestMillis, long loads) {
+	}
+
+	private interface TileCache {
+		byte[] get(int key) throws Exception;
+
+		void clear();
+	}
+
+	private interface CacheFactory {
+		TileCache create(LongAdder loads);
+	}
+
+	// The pre-ManagedCache getTile: every lookup takes the monitor, and misses decode outside it.
+	private static final class LegacyCache implements TileCache {
+		private final LongAdder loads;
+		private final Map<Integer, byte[]> tiles = new LinkedHashMap<>(TILES, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > TILES;
+			}
+		};
+
+		private LegacyCache(LongAdder loads) {
+			this.loads = loads;
+		}
+
+		@Override
+		public byte[] get(int key) {
+			synchronized (this.tiles) {
+				byte[] cached = this.tiles.get(key);
+				if (cached != null) {
+					return cached;
+				}
+			}
+			byte[] tile = decode(key, this.loads);
+			synchronized (this.tiles) {
+				this.tiles.put(key, tile);
+			}
+			return tile;
+		}
+
+		@Override
+		public void clear() {
+			synchronized (this.tiles) {
+				this.tiles.clear();
+			}
+		}
+	}
+
+	// The same access path GeoTiffTile.getTile uses now.
+	private static final class ManagedTileCache implements TileCache {
+		private final LongAdder loads;
+		private final ManagedCache<Integer, byte[]> tiles =
+				ManagedCache.<Integer, byte[]>builder("bench-tiles", tile -> tile.length).build();
+
+		private ManagedTileCache(LongAdder loads) {
+			this.loads = loads;
+		}
+
+		@Override
+		public byte[] get(int key) throws ExecutionException {
+			byte[] cached = this.tiles.getIfPresent(key);
+			if (cached != null) {
+				return cached;
+			}
+			return this.tiles.get(key, () -> decode(key, this.loads));
+		}
+
+		@Override
+		public void clear() {
+			// Drops the entries from the shared budget, so later rounds start from the same state.
+			this.tiles.invalidateAll();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.yucareux.tellus.world.data.cover;
+
+import com.yucareux.tellus.world.data.tiff.MappedTiffSource;
+import com.yucareux.tellus.world.data.tiff.SyntheticTiff;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Runs smoothed land cover sampling on a synthetic WorldCover-style COG two ways: the precomputed
+// smoothed tiles, and the per-sample majority vote they replaced. Every pixel of the file is
+// compared first, then both are timed over a block-by-block sweep of a window. Each round opens
+// the file afresh, so the smoothed timing includes building its tiles.
+//
+//   ./gradlew landCoverBenchmark -PbenchArgs="<sizePixels> <windowPixels> <rounds>"
+final class LandCoverSmoothingBenchmark {
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int TILE_SIZE = 256;
+	private static final int RADIUS = 1;
+	private static final int STEP = 1;
+	private static final double ORIGIN_LON = 0.0;
+	private static final double ORIGIN_LAT = 3.0;
+	private static final int[] CLASSES = {10, 20, 30, 40, 50, 60, 90, 95, 100};
+	private static final int WATER = 80;
+	// Keeps the sampled values from being optimized away.
+	private static volatile long blackhole;
+
+	private LandCoverSmoothingBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int window = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		double pixelScale = 3.0 / size;
+
+		Path file = Files.createTempFile("tellus-landcover-bench", ".tif");
+		try {
+			SyntheticTiff.writeTiled(file, size, size, TILE_SIZE, SyntheticTiff.COMPRESSION_DEFLATE,
+					SyntheticTiff.PREDICTOR_NONE, ORIGIN_LON, ORIGIN_LAT, pixelScale, LandCoverSmoothingBenchmark::cover);
+			// Past the file edge both paths ask the neighbouring file; here that is the same pattern continued.
+			TellusLandCoverSource.CoverLookup outside = (lon, lat, step) -> cover(
+					(int) Math.floor((lon - ORIGIN_LON) / pixelScale),
+					(int) Math.floor((ORIGIN_LAT - lat) / pixelScale)
+			);
+			System.out.printf("%dx%d COG with %d px deflate tiles (%d KiB), %dx%d window, %d rounds after %d warm-up%n",
+					size, size, TILE_SIZE, Files.size(file) / 1024, window, window, rounds, WARMUP_ROUNDS);
+
+			long differences = compare(file, size, outside);
+			System.out.printf("differences over all %d pixels: %d%n", (long) size * size, differences);
+
+			int windowX = Math.max(0, (size - window) / 2 - TILE_SIZE / 2);
+			int windowY = Math.max(0, (size - window) / 2 - TILE_SIZE / 2);
+			int windowSize = Math.min(window, size - Math.max(windowX, windowY));
+			double[] vote = new double[rounds];
+			double[] smoothed = new double[rounds];
+			for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+				double voteMillis = time(file, windowX, windowY, windowSize, false, outside);
+				double smoothedMillis = time(file, windowX, windowY, windowSize, true, outside);
+				if (round >= 0) {
+					vote[round] = voteMillis;
+					smoothed[round] = smoothedMillis;
+				}
+			}
+			System.out.printf("  per-sample vote rounds ms %s%n", Arrays.toString(vote));
+			System.out.printf("  smoothed tiles rounds ms %s%n", Arrays.toString(smoothed));
+			Arrays.sort(vote);
+			Arrays.sort(smoothed);
+			long samples = (long) windowSize * windowSize;
+			System.out.printf("per-sample vote: median %8.1f ms, best %8.1f ms, %6.1f ns/sample%n",
+					vote[rounds / 2], vote[0], vote[rounds / 2] * 1.0e6 / samples);
+			System.out.printf("smoothed tiles:  median %8.1f ms, best %8.1f ms, %6.1f ns/sample%n",
+					smoothed[rounds / 2], smoothed[0], smoothed[rounds / 2] * 1.0e6 / samples);
+			System.out.printf("speedup: %.2fx median%n", vote[rounds / 2] / smoothed[rounds / 2]);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static long compare(Path file, int size, TellusLandCoverSource.CoverLookup outside) throws IOException {
+		TellusLandCoverSource.GeoTiffTile tile = open(file);
+		try {
+			long differences = 0L;
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					int expected = TellusLandCoverSource.voteSmoothedValue(tile, x, y, RADIUS, STEP, outside);
+					if (tile.sampleSmoothedValue(x, y, outside) != expected) {
+						differences++;
+					}
+				}
+			}
+			return differences;
+		} finally {
+			tile.close();
+		}
+	}
+
+	private static double time(
+			Path file,
+			int minX,
+			int minY,
+			int size,
+			boolean smoothed,
+			TellusLandCoverSource.CoverLookup outside
+	) throws IOException {
+		TellusLandCoverSource.GeoTiffTile tile = open(file);
+		try {
+			// Decode the raw tiles first so both paths start from the same warm cache.
+			for (int y = minY - RADIUS; y < minY + size + RADIUS; y += TILE_SIZE / 2) {
+				for (int x = minX - RADIUS; x < minX + size + RADIUS; x += TILE_SIZE / 2) {
+					tile.sampleValue(x, y);
+				}
+			}
+			long sum = 0L;
+			long start = System.nanoTime();
+			for (int y = minY; y < minY + size; y++) {
+				for (int x = minX; x < minX + size; x++) {
+					sum += smoothed
+							? tile.sampleSmoothedValue(x, y, outside)
+							: TellusLandCoverSource.voteSmoothedValue(tile, x, y, RADIUS, STEP, outside);
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			blackhole = sum;
+			return elapsed / 1.0e6;
+		} finally {
+			tile.close();
+		}
+	}
+
+	private static TellusLandCoverSource.GeoTiffTile open(Path file) throws IOException {
+		return TellusLandCoverSource.GeoTiffTile.open(file, MappedTiffSource.open(file));
+	}
+
+	// Patches of land classes with single-pixel speckle for the vote to remove, plus a river.
+	private static int cover(int x, int y) {
+		if (Math.abs(y - 900 - 200 * Math.sin(x / 170.0)) < 4.0) {
+			return WATER;
+		}
+		int hash = mix(x, y);
+		if ((hash & 15) == 0) {
+			return CLASSES[(hash >>> 8) % CLASSES.length];
+		}
+		return CLASSES[Math.floorMod(mix(Math.floorDiv(x, 23), Math.floorDiv(y, 17)), CLASSES.length)];
+	}
+
+	private static int mix(int x, int y) {
+		int hash = x * 0x27d4eb2d ^ y * 0x165667b1;
+		hash ^= hash >>> 15;
+		hash *= 0x85ebca6b;
+		return (hash ^ (hash >>> 13)) & Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,270 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+// Writes small tiled, geographic, single-band 8-bit GeoTIFFs for the bench harnesses, so they run
+// against real files without downloading any.
+public final class SyntheticTiff {
+	public static final int COMPRESSION_NONE = TiffDecoder.COMPRESSION_NONE;
+	public static final int COMPRESSION_LZW = TiffDecoder.COMPRESSION_LZW;
+	public static final int COMPRESSION_DEFLATE = TiffDecoder.COMPRESSION_DEFLATE;
+	public static final int PREDICTOR_NONE = TiffDecoder.PREDICTOR_NONE;
+	public static final int PREDICTOR_HORIZONTAL = TiffDecoder.PREDICTOR_HORIZONTAL;
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_LONG = 4;
+	private static final int TYPE_DOUBLE = 12;
+	private static final int LZW_CLEAR = 256;
+	private static final int LZW_END = 257;
+	private static final int LZW_FIRST = 258;
+	private static final int LZW_LAST = 4093;
+
+	private SyntheticTiff() {
+	}
+
+	@FunctionalInterface
+	public interface Pixels {
+		int value(int x, int y);
+	}
+
+	// Where each encoded tile landed in the file, for harnesses that read tiles without the reader.
+	public record Tiles(long[] offsets, long[] byteCounts) {
+	}
+
+	// The raster covers pixelScale degrees per pixel, with its top-left corner at originLon/originLat.
+	public static Tiles writeTiled(
+			Path target,
+			int width,
+			int height,
+			int tileSize,
+			int compression,
+			int predictor,
+			double originLon,
+			double originLat,
+			double pixelScale,
+			Pixels pixels
+	) throws IOException {
+		int tilesPerRow = (width + tileSize - 1) / tileSize;
+		int tilesPerColumn = (height + tileSize - 1) / tileSize;
+		int tileCount = tilesPerRow * tilesPerColumn;
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(new byte[8]);
+		long[] offsets = new long[tileCount];
+		long[] byteCounts = new long[tileCount];
+		byte[] raw = new byte[tileSize * tileSize];
+		for (int tile = 0; tile < tileCount; tile++) {
+			int originX = (tile % tilesPerRow) * tileSize;
+			int originY = (tile / tilesPerRow) * tileSize;
+			for (int y = 0; y < tileSize; y++) {
+				for (int x = 0; x < tileSize; x++) {
+					int px = originX + x;
+					int py = originY + y;
+					// Edge tiles are padded to full size, as GDAL does.
+					raw[x + y * tileSize] = px < width && py < height ? (byte) pixels.value(px, py) : 0;
+				}
+			}
+			byte[] encoded = encode(raw, tileSize, compression, predictor);
+			offsets[tile] = data.size();
+			byteCounts[tile] = encoded.length;
+			data.write(encoded);
+			if ((data.size() & 1) != 0) {
+				data.write(0);
+			}
+		}
+
+		List<Entry> entries = new ArrayList<>();
+		entries.add(Entry.of(256, TYPE_LONG, width));
+		entries.add(Entry.of(257, TYPE_LONG, height));
+		entries.add(Entry.of(258, TYPE_SHORT, 8));
+		entries.add(Entry.of(259, TYPE_SHORT, compression));
+		entries.add(Entry.of(262, TYPE_SHORT, 1));
+		entries.add(Entry.of(277, TYPE_SHORT, 1));
+		if (predictor != TiffDecoder.PREDICTOR_NONE) {
+			entries.add(Entry.of(317, TYPE_SHORT, predictor));
+		}
+		entries.add(Entry.of(322, TYPE_LONG, tileSize));
+		entries.add(Entry.of(323, TYPE_LONG, tileSize));
+		entries.add(new Entry(324, TYPE_LONG, offsets));
+		entries.add(new Entry(325, TYPE_LONG, byteCounts));
+		entries.add(Entry.of(339, TYPE_SHORT, TiffDecoder.FORMAT_UINT));
+		entries.add(new Entry(33550, TYPE_DOUBLE, new double[] {pixelScale, pixelScale, 0.0}));
+		entries.add(new Entry(33922, TYPE_DOUBLE, new double[] {0.0, 0.0, 0.0, originLon, originLat, 0.0}));
+		// GTModelType geographic, GTRasterType pixel-is-area.
+		entries.add(new Entry(34735, TYPE_SHORT, new long[] {1, 1, 0, 2, 1024, 0, 1, 2, 1025, 0, 1, 1}));
+
+		long ifdOffset = data.size();
+		long extraOffset = ifdOffset + 2 + entries.size() * 12L + 4;
+		ByteBuffer ifd = ByteBuffer.allocate((int) (extraOffset - ifdOffset)).order(ByteOrder.LITTLE_ENDIAN);
+		ByteArrayOutputStream extra = new ByteArrayOutputStream();
+		ifd.putShort((short) entries.size());
+		for (Entry entry : entries) {
+			byte[] payload = entry.payload();
+			ifd.putShort((short) entry.tag());
+			ifd.putShort((short) entry.type());
+			ifd.putInt(entry.count());
+			if (payload.length <= 4) {
+				ifd.put(payload);
+				ifd.put(new byte[4 - payload.length]);
+			} else {
+				ifd.putInt((int) (extraOffset + extra.size()));
+				extra.write(payload);
+			}
+		}
+		ifd.putInt(0);
+
+		byte[] file = data.toByteArray();
+		ByteBuffer header = ByteBuffer.wrap(file, 0, 8).order(ByteOrder.LITTLE_ENDIAN);
+		header.putShort((short) 0x4949);
+		header.putShort((short) 42);
+		header.putInt((int) ifdOffset);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(file.length + ifd.capacity() + extra.size());
+		out.write(file);
+		out.write(ifd.array());
+		out.write(extra.toByteArray());
+		Files.write(target, out.toByteArray());
+		return new Tiles(offsets, byteCounts);
+	}
+
+	private static byte[] encode(byte[] raw, int tileSize, int compression, int predictor) {
+		byte[] samples = raw.clone();
+		if (predictor == TiffDecoder.PREDICTOR_HORIZONTAL) {
+			for (int y = 0; y < tileSize; y++) {
+				int row = y * tileSize;
+				for (int x = tileSize - 1; x > 0; x--) {
+					samples[row + x] = (byte) (raw[row + x] - raw[row + x - 1]);
+				}
+			}
+		} else if (predictor != TiffDecoder.PREDICTOR_NONE) {
+			throw new IllegalArgumentException("Unsupported predictor " + predictor);
+		}
+		return switch (compression) {
+			case TiffDecoder.COMPRESSION_NONE -> samples;
+			case TiffDecoder.COMPRESSION_LZW -> lzw(samples);
+			case TiffDecoder.COMPRESSION_DEFLATE -> deflate(samples);
+			default -> throw new IllegalArgumentException("Unsupported compression " + compression);
+		};
+	}
+
+	private static byte[] deflate(byte[] samples) {
+		Deflater deflater = new Deflater(6);
+		try {
+			deflater.setInput(samples);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(samples.length / 2);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	// MSB-first codes with TIFF's early width change, clearing the table before it fills.
+	private static byte[] lzw(byte[] samples) {
+		LzwWriter out = new LzwWriter(samples.length);
+		int[] table = new int[4096 * 256];
+		int width = 9;
+		int next = LZW_FIRST;
+		out.write(LZW_CLEAR, width);
+		int prefix = -1;
+		for (byte sample : samples) {
+			int value = sample & 0xFF;
+			if (prefix < 0) {
+				prefix = value;
+				continue;
+			}
+			int key = prefix << 8 | value;
+			int code = table[key];
+			if (code != 0) {
+				prefix = code;
+				continue;
+			}
+			out.write(prefix, width);
+			table[key] = next++;
+			if (next == 1 << width && width < 12) {
+				width++;
+			}
+			if (next > LZW_LAST) {
+				out.write(LZW_CLEAR, width);
+				Arrays.fill(table, 0);
+				width = 9;
+				next = LZW_FIRST;
+			}
+			prefix = value;
+		}
+		if (prefix >= 0) {
+			out.write(prefix, width);
+		}
+		out.write(LZW_END, width);
+		return out.finish();
+	}
+
+	private static final class LzwWriter {
+		private final ByteArrayOutputStream out;
+		private int bits;
+		private int bitCount;
+
+		private LzwWriter(int capacity) {
+			this.out = new ByteArrayOutputStream(capacity);
+		}
+
+		void write(int code, int width) {
+			this.bits = this.bits << width | code;
+			this.bitCount += width;
+			while (this.bitCount >= 8) {
+				this.out.write(this.bits >>> (this.bitCount - 8));
+				this.bitCount -= 8;
+			}
+			this.bits &= (1 << this.bitCount) - 1;
+		}
+
+		byte[] finish() {
+			if (this.bitCount > 0) {
+				this.out.write(this.bits << (8 - this.bitCount));
+				this.bitCount = 0;
+			}
+			return this.out.toByteArray();
+		}
+	}
+
+	private record Entry(int tag, int type, Object values) {
+		static Entry of(int tag, int type, long value) {
+			return new Entry(tag, type, new long[] {value});
+		}
+
+		int count() {
+			return this.values instanceof double[] doubles ? doubles.length : ((long[]) this.values).length;
+		}
+
+		byte[] payload() {
+			if (this.values instanceof double[] doubles) {
+				ByteBuffer buffer = ByteBuffer.allocate(doubles.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+				for (double value : doubles) {
+					buffer.putDouble(value);
+				}
+				return buffer.array();
+			}
+			long[] longs = (long[]) this.values;
+			int size = this.type == TYPE_SHORT ? 2 : 4;
+			ByteBuffer buffer = ByteBuffer.allocate(longs.length * size).order(ByteOrder.LITTLE_ENDIAN);
+			for (long value : longs) {
+				if (size == 2) {
+					buffer.putShort((short) value);
+				} else {
+					buffer.putInt((int) value);
+				}
+			}
+			return buffer.array();
+		}
+	}
+}
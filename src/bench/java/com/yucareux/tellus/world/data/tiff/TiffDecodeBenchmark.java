@@ -0,0 +1,185 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.InflaterInputStream;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Measures internal tile decode throughput of the shared GeoTIFF reader for LZW and deflate, with
+// and without the horizontal predictor, from mapped and channel-backed sources. Two references
+// run on the same files: the per-tile byte[] plus InflaterInputStream path the land cover and
+// Koppen readers used before (deflate only), and the JDK's ImageIO TIFF reader. Every decoder's
+// output is checked against the pixels that were written before anything is timed.
+//
+//   ./gradlew tiffBenchmark -PbenchArgs="<tilesPerSide> <tileSize> <rounds>"
+final class TiffDecodeBenchmark {
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int[][] LAYOUTS = {
+			{SyntheticTiff.COMPRESSION_LZW, SyntheticTiff.PREDICTOR_NONE},
+			{SyntheticTiff.COMPRESSION_LZW, SyntheticTiff.PREDICTOR_HORIZONTAL},
+			{SyntheticTiff.COMPRESSION_DEFLATE, SyntheticTiff.PREDICTOR_NONE},
+			{SyntheticTiff.COMPRESSION_DEFLATE, SyntheticTiff.PREDICTOR_HORIZONTAL},
+	};
+	private static final ThreadLocal<byte[]> TILE = ThreadLocal.withInitial(() -> new byte[0]);
+	// Keeps the decoded tiles from being optimized away.
+	private static volatile long blackhole;
+
+	private TiffDecodeBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int tilesPerSide = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int tileSize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int size = tilesPerSide * tileSize;
+		System.out.printf("%dx%d 8-bit raster in %d px tiles, %d rounds after %d warm-up%n",
+				size, size, tileSize, rounds, WARMUP_ROUNDS);
+
+		for (int[] layout : LAYOUTS) {
+			int compression = layout[0];
+			int predictor = layout[1];
+			String label = (compression == SyntheticTiff.COMPRESSION_LZW ? "lzw" : "deflate")
+					+ (predictor == SyntheticTiff.PREDICTOR_HORIZONTAL ? "+predictor" : "");
+			Path file = Files.createTempFile("tellus-tiff-bench", ".tif");
+			try {
+				SyntheticTiff.Tiles tiles = SyntheticTiff.writeTiled(file, size, size, tileSize, compression, predictor,
+						0.0, 1.0, 1.0 / size, TiffDecodeBenchmark::pixel);
+				System.out.printf("%s (%d KiB):%n", label, Files.size(file) / 1024);
+				try (GeoTiffFile mapped = GeoTiffFile.open(MappedTiffSource.open(file));
+						GeoTiffFile channel = GeoTiffFile.open(FileTiffSource.open(file));
+						FileChannel raw = FileChannel.open(file)) {
+					run("mapped", mapped.base(), rounds, tile -> decode(mapped.base(), tile));
+					run("channel", channel.base(), rounds, tile -> decode(channel.base(), tile));
+					if (predictor == SyntheticTiff.PREDICTOR_NONE && compression == SyntheticTiff.COMPRESSION_DEFLATE) {
+						run("inflater stream", mapped.base(), rounds, tile -> inflateStream(raw, tiles, mapped.base(), tile));
+					}
+				}
+				try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+					ImageReader reader = tiffReader();
+					reader.setInput(input);
+					try (GeoTiffFile geometry = GeoTiffFile.open(MappedTiffSource.open(file))) {
+						run("imageio", geometry.base(), rounds, tile -> imageIo(reader, geometry.base(), tile));
+					} finally {
+						reader.dispose();
+					}
+				}
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static void run(String label, GeoTiffImage image, int rounds, TileDecoder decoder) throws IOException {
+		int tileSize = image.tileWidth();
+		for (int tile = 0; tile < image.tileCount(); tile++) {
+			byte[] pixels = decoder.decode(tile);
+			int originX = (tile % image.tilesPerRow()) * tileSize;
+			int originY = (tile / image.tilesPerRow()) * image.tileHeight();
+			for (int y = 0; y < image.tileHeight(); y++) {
+				for (int x = 0; x < tileSize; x++) {
+					if (pixels[x + y * tileSize] != (byte) pixel(originX + x, originY + y)) {
+						throw new IllegalStateException(label + " decoded tile " + tile + " wrongly at " + x + "," + y);
+					}
+				}
+			}
+		}
+
+		double[] times = new double[rounds];
+		for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+			long sum = 0L;
+			long start = System.nanoTime();
+			for (int tile = 0; tile < image.tileCount(); tile++) {
+				sum += decoder.decode(tile)[tile & 255];
+			}
+			long elapsed = System.nanoTime() - start;
+			blackhole = sum;
+			if (round >= 0) {
+				times[round] = elapsed / 1.0e6;
+			}
+		}
+		Arrays.sort(times);
+		double megabytes = (double) image.tileCount() * tileSize * image.tileHeight() / (1024.0 * 1024.0);
+		System.out.printf("  %-16s median %8.1f ms, best %8.1f ms, %7.1f MiB/s%n",
+				label, times[rounds / 2], times[0], megabytes / (times[rounds / 2] / 1000.0));
+	}
+
+	private static byte[] decode(GeoTiffImage image, int tile) throws IOException {
+		byte[] buffer = TILE.get();
+		int length = image.tileWidth() * image.tileHeight();
+		if (buffer.length != length) {
+			buffer = new byte[length];
+			TILE.set(buffer);
+		}
+		image.readTile(tile, buffer);
+		return buffer;
+	}
+
+	// The allocation pattern the readers had before the shared decoder: a fresh compressed array and
+	// InflaterInputStream per tile.
+	private static byte[] inflateStream(FileChannel channel, SyntheticTiff.Tiles tiles, GeoTiffImage image, int tile)
+			throws IOException {
+		long offset = tiles.offsets()[tile];
+		byte[] compressed = new byte[(int) tiles.byteCounts()[tile]];
+		ByteBuffer buffer = ByteBuffer.wrap(compressed);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		byte[] out = new byte[image.tileWidth() * image.tileHeight()];
+		try (InputStream stream = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+			int read = 0;
+			while (read < out.length) {
+				int count = stream.read(out, read, out.length - read);
+				if (count < 0) {
+					break;
+				}
+				read += count;
+			}
+		}
+		return out;
+	}
+
+	private static byte[] imageIo(ImageReader reader, GeoTiffImage image, int tile) throws IOException {
+		int tileX = tile % image.tilesPerRow();
+		int tileY = tile / image.tilesPerRow();
+		return ((DataBufferByte) reader.readTile(0, tileX, tileY).getRaster().getDataBuffer()).getData();
+	}
+
+	private static ImageReader tiffReader() throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
+		if (!readers.hasNext()) {
+			throw new IOException("No ImageIO TIFF reader available");
+		}
+		return readers.next();
+	}
+
+	// Blocky classes with speckle and a smooth gradient, so both codecs and the predictor have
+	// something realistic to work on.
+	private static int pixel(int x, int y) {
+		int hash = x * 0x27d4eb2d ^ y * 0x165667b1;
+		hash ^= hash >>> 15;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		if ((hash & 31) == 0) {
+			return hash >>> 24;
+		}
+		int patch = (x / 29) * 31 + (y / 19) * 17;
+		return ((patch * 37) & 0x3F) + ((x + y) >> 5 & 0x3F);
+	}
+
+	@FunctionalInterface
+	private interface TileDecoder {
+		byte[] decode(int tile) throws IOException;
+	}
+}
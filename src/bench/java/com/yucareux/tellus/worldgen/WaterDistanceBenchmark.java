@@ -0,0 +1,178 @@
+package com.yucareux.tellus.worldgen;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+
+// Runs both tellus.water.distance implementations, the chamfer sweeps and the bucket queue, on
+// region-sized grids cut from the water fixture and compares their cost arrays cell by cell. The
+// cases mirror the resolver's fields: the inland depth field over lake and river water, and the
+// shoreline blend over land at its usual 10-block reach and at a longer reach where lakes force
+// paths to wind. Cost fields must match exactly; nearest surfaces may differ only where two
+// sources tie, so those are counted rather than failed.
+//
+//   ./gradlew waterDistanceBenchmark -PbenchArgs="<gridSize> <rounds>"
+final class WaterDistanceBenchmark {
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int COST_CARDINAL = 10;
+	private static final int DEPTH_BLOCKS = 154;
+	private static final int[] NEIGHBORS_4 = {1, 0, -1, 0, 0, 1, 0, -1};
+
+	private WaterDistanceBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int[] gridSizes = args.length > 0 ? new int[] {Integer.parseInt(args[0])} : new int[] {376, 1088};
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+		boolean mismatch = false;
+		for (int gridSize : gridSizes) {
+			Grid grid = new Grid(gridSize);
+			System.out.printf("%dx%d grid: %d inland water cells, %d land cells%n",
+					gridSize, gridSize, count(grid.inlandWater), count(grid.land));
+			mismatch |= compare("depth field", grid, grid.inlandWater, grid.shoreWater, null, DEPTH_BLOCKS, rounds);
+			mismatch |= compare("blend 10", grid, grid.land, grid.shoreLand, grid.shoreLandSurface, 10, rounds);
+			mismatch |= compare("blend 64", grid, grid.land, grid.shoreLand, grid.shoreLandSurface, 64, rounds);
+		}
+		if (mismatch) {
+			System.out.println("FAILED: chamfer and queue cost fields differ");
+			System.exit(1);
+		}
+	}
+
+	private static boolean compare(
+			String label,
+			Grid grid,
+			boolean[] allowed,
+			IntArrayList sources,
+			int @Nullable [] sourceSurface,
+			int maxBlocks,
+			int rounds
+	) {
+		int area = grid.size * grid.size;
+		int[] queueCost = new int[area];
+		int[] chamferCost = new int[area];
+		int @Nullable [] queueSurface = sourceSurface != null ? sourceSurface.clone() : null;
+		int @Nullable [] chamferSurface = sourceSurface != null ? sourceSurface.clone() : null;
+		double[] queueTimes = new double[rounds];
+		double[] chamferTimes = new double[rounds];
+		for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+			if (sourceSurface != null) {
+				System.arraycopy(sourceSurface, 0, queueSurface, 0, area);
+				System.arraycopy(sourceSurface, 0, chamferSurface, 0, area);
+			}
+			long start = System.nanoTime();
+			if (queueSurface != null) {
+				WaterSurfaceResolver.computeQueueDistanceWithSurface(
+						queueCost, queueSurface, allowed, sources, grid.size, maxBlocks, COST_CARDINAL);
+			} else {
+				WaterSurfaceResolver.computeQueueDistance(queueCost, allowed, sources, grid.size, maxBlocks, COST_CARDINAL);
+			}
+			long queueElapsed = System.nanoTime() - start;
+			start = System.nanoTime();
+			WaterSurfaceResolver.computeChamferDistance(
+					chamferCost, chamferSurface, allowed, sources, grid.size, maxBlocks, COST_CARDINAL);
+			long chamferElapsed = System.nanoTime() - start;
+			if (round >= 0) {
+				queueTimes[round] = queueElapsed / 1.0e6;
+				chamferTimes[round] = chamferElapsed / 1.0e6;
+			}
+		}
+
+		long reached = 0L;
+		long costDifferences = 0L;
+		long surfaceDifferences = 0L;
+		for (int i = 0; i < area; i++) {
+			if (queueCost[i] != chamferCost[i]) {
+				costDifferences++;
+				continue;
+			}
+			if (queueCost[i] == Integer.MAX_VALUE) {
+				continue;
+			}
+			reached++;
+			if (queueSurface != null && queueSurface[i] != chamferSurface[i]) {
+				surfaceDifferences++;
+			}
+		}
+		Arrays.sort(queueTimes);
+		Arrays.sort(chamferTimes);
+		System.out.printf("  %-12s %3d blocks: queue median %6.2f ms, chamfer median %6.2f ms; %d cells reached, "
+						+ "%d cost differences%s%n",
+				label, maxBlocks, queueTimes[rounds / 2], chamferTimes[rounds / 2], reached, costDifferences,
+				queueSurface != null ? ", " + surfaceDifferences + " nearest-surface ties resolved differently" : "");
+		return costDifferences != 0;
+	}
+
+	private static int count(boolean[] mask) {
+		int count = 0;
+		for (boolean value : mask) {
+			if (value) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// A square of the fixture straddling the coast, with the masks and source lists the resolver
+	// would build for it.
+	private static final class Grid {
+		private final int size;
+		private final boolean[] inlandWater;
+		private final boolean[] land;
+		private final IntArrayList shoreWater = new IntArrayList();
+		private final IntArrayList shoreLand = new IntArrayList();
+		private final int[] shoreLandSurface;
+
+		private Grid(int size) {
+			this.size = size;
+			int area = size * size;
+			int minX = (int) WaterFixtureInputs.OCEAN_EDGE - size / 4;
+			int minZ = 96 - size / 2;
+			this.inlandWater = new boolean[area];
+			this.land = new boolean[area];
+			boolean[] ocean = new boolean[area];
+			int[] surface = new int[area];
+			for (int z = 0; z < size; z++) {
+				for (int x = 0; x < size; x++) {
+					int index = z * size + x;
+					double blockX = minX + x;
+					double blockZ = minZ + z;
+					surface[index] = (int) Math.ceil(WaterFixtureInputs.elevation(blockX, blockZ) / 35.0) + 64;
+					if (blockX < WaterFixtureInputs.OCEAN_EDGE) {
+						ocean[index] = true;
+					} else if (WaterFixtureInputs.isLake(blockX, blockZ) || WaterFixtureInputs.isRiver(blockX, blockZ)) {
+						this.inlandWater[index] = true;
+					} else {
+						this.land[index] = true;
+					}
+				}
+			}
+
+			this.shoreLandSurface = new int[area];
+			boolean[] landSource = new boolean[area];
+			for (int index = 0; index < area; index++) {
+				boolean water = this.inlandWater[index] || ocean[index];
+				int x = index % size;
+				int z = index / size;
+				boolean shore = false;
+				for (int n = 0; n < NEIGHBORS_4.length; n += 2) {
+					int nx = x + NEIGHBORS_4[n];
+					int nz = z + NEIGHBORS_4[n + 1];
+					if (nx < 0 || nz < 0 || nx >= size || nz >= size) {
+						continue;
+					}
+					int neighbor = nz * size + nx;
+					if (this.inlandWater[index] && this.land[neighbor] && !shore) {
+						shore = true;
+						this.shoreWater.add(index);
+					}
+					if (water && this.land[neighbor] && !landSource[neighbor]) {
+						landSource[neighbor] = true;
+						this.shoreLandSurface[neighbor] = surface[index];
+						this.shoreLand.add(neighbor);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.yucareux.tellus.worldgen;
+
+import com.yucareux.tellus.world.data.elevation.TellusElevationSource;
+import com.yucareux.tellus.world.data.mask.TellusLandMaskSource;
+import org.jspecify.annotations.Nullable;
+
+// Deterministic terrain in block coordinates for the water harnesses: ocean west of OCEAN_EDGE,
+// lake basins and a meandering river. Elevations are metres at the default world scale.
+final class WaterFixtureInputs implements WaterSurfaceResolver.Inputs {
+	static final int ESA_NO_DATA = 0;
+	static final int ESA_TREE_COVER = 10;
+	static final int ESA_WATER = 80;
+	static final double OCEAN_EDGE = -96.0;
+	private static final double METERS_PER_BLOCK = 35.0;
+
+	@Override
+	public int sampleCoverClass(double blockX, double blockZ, double worldScale) {
+		if (blockX < OCEAN_EDGE) {
+			return ESA_NO_DATA;
+		}
+		return isLake(blockX, blockZ) || isRiver(blockX, blockZ) ? ESA_WATER : ESA_TREE_COVER;
+	}
+
+	@Override
+	public TellusLandMaskSource.LandMaskSample sampleLandMask(double blockX, double blockZ, double worldScale) {
+		return TellusLandMaskSource.LandMaskSample.known(blockX >= OCEAN_EDGE);
+	}
+
+	@Override
+	public double sampleElevationMeters(
+			double blockX,
+			double blockZ,
+			double worldScale,
+			TellusElevationSource.OceanZoomPolicy oceanZoom
+	) {
+		return elevation(blockX, blockZ);
+	}
+
+	@Override
+	public void sampleElevationGrid(
+			double minX,
+			double minZ,
+			int width,
+			int height,
+			double step,
+			double worldScale,
+			boolean @Nullable [] highResOcean,
+			double[] out
+	) {
+		for (int z = 0; z < height; z++) {
+			for (int x = 0; x < width; x++) {
+				out[z * width + x] = elevation(minX + x * step, minZ + z * step);
+			}
+		}
+	}
+
+	@Override
+	public void sampleElevationGrid(
+			double minX,
+			double minZ,
+			int width,
+			int height,
+			double step,
+			double worldScale,
+			TellusElevationSource.OceanZoomPolicy oceanZoom,
+			double[] out
+	) {
+		sampleElevationGrid(minX, minZ, width, height, step, worldScale, (boolean[]) null, out);
+	}
+
+	@Override
+	public long failedSampleCount() {
+		return 0L;
+	}
+
+	static double elevation(double x, double z) {
+		if (x < OCEAN_EDGE) {
+			return -METERS_PER_BLOCK * (2.0 + (OCEAN_EDGE - x) * 0.15);
+		}
+		double blocks = 8.0 + 10.0 * Math.sin(x / 90.0) * Math.cos(z / 70.0) + 4.0 * Math.sin((x + z) / 37.0);
+		if (isLake(x, z)) {
+			blocks -= 6.0;
+		} else if (isRiver(x, z)) {
+			blocks -= 3.0;
+		}
+		return blocks * METERS_PER_BLOCK;
+	}
+
+	static boolean isLake(double x, double z) {
+		return Math.cos(x / 60.0) * Math.cos(z / 60.0) > 0.75;
+	}
+
+	static boolean isRiver(double x, double z) {
+		return Math.abs(z - 40.0 * Math.sin(x / 80.0) - 96.0) < 6.0;
+	}
+}
@@ -0,0 +1,136 @@
+package com.yucareux.tellus.worldgen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+// Times WaterSurfaceResolver region builds on a synthetic fixture: coastline, lake basins and a
+// meandering river, sampled without any network source or on-disk store. The build pool size is
+// fixed when the resolver class loads, so each parallelism runs in its own JVM.
+//
+//   ./gradlew waterBenchmark -PbenchArgs="<regionsPerSide> <rounds> <parallelism>"
+final class WaterRegionBenchmark {
+	private static final String PARALLELISM_PROPERTY = "tellus.water.parallelism";
+	private static final String CHILD_PROPERTY = "tellus.bench.child";
+	private static final String RESULT_PREFIX = "result ";
+	private static final int REGION_SIZE = 64;
+	private static final int WARMUP_ROUNDS = 2;
+
+	private WaterRegionBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int regionsPerSide = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int parallelism = args.length > 2
+				? Integer.parseInt(args[2])
+				: Math.max(2, Runtime.getRuntime().availableProcessors());
+		if (Boolean.getBoolean(CHILD_PROPERTY)) {
+			runChild(regionsPerSide, rounds);
+			return;
+		}
+
+		System.out.printf("Fixture: %dx%d regions of %d blocks, %d rounds after %d warm-up, %d cores%n",
+				regionsPerSide, regionsPerSide, REGION_SIZE, rounds, WARMUP_ROUNDS,
+				Runtime.getRuntime().availableProcessors());
+		Result serial = fork(1, regionsPerSide, rounds);
+		Result parallel = fork(parallelism, regionsPerSide, rounds);
+		System.out.printf("parallelism %2d: median %8.1f ms, best %8.1f ms%n", 1, serial.medianMillis(), serial.bestMillis());
+		System.out.printf("parallelism %2d: median %8.1f ms, best %8.1f ms%n", parallelism, parallel.medianMillis(), parallel.bestMillis());
+		System.out.printf("speedup: %.2fx median, %.2fx best%n",
+				serial.medianMillis() / parallel.medianMillis(), serial.bestMillis() / parallel.bestMillis());
+		if (!serial.checksum().equals(parallel.checksum())) {
+			System.out.println("WARNING: region contents differ between parallelism 1 and " + parallelism);
+		}
+		if (parallelism > Runtime.getRuntime().availableProcessors()) {
+			System.out.println("note: parallelism " + parallelism + " exceeds the available cores, so no speedup is possible here");
+		}
+	}
+
+	// Runs this class again with the given pool size and returns its median and best round in ms,
+	// plus a checksum of the built regions.
+	private static Result fork(int parallelism, int regionsPerSide, int rounds) throws IOException, InterruptedException {
+		String java = ProcessHandle.current().info().command().orElse("java");
+		List<String> command = new ArrayList<>();
+		command.add(java);
+		// Heap and GC flags given to the harness apply to both runs.
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (!argument.startsWith("-D" + PARALLELISM_PROPERTY) && !argument.startsWith("-D" + CHILD_PROPERTY)) {
+				command.add(argument);
+			}
+		}
+		command.add("-D" + PARALLELISM_PROPERTY + "=" + parallelism);
+		command.add("-D" + CHILD_PROPERTY + "=true");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(WaterRegionBenchmark.class.getName());
+		command.add(Integer.toString(regionsPerSide));
+		command.add(Integer.toString(rounds));
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		@Nullable Result result = null;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) {
+					String[] parts = line.substring(RESULT_PREFIX.length()).split(" ");
+					result = new Result(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), parts[2]);
+				} else {
+					System.out.println("  [" + parallelism + "] " + line);
+				}
+			}
+		}
+		int exit = process.waitFor();
+		if (exit != 0 || result == null) {
+			throw new IllegalStateException("Benchmark run with parallelism " + parallelism + " failed (exit " + exit + ")");
+		}
+		return result;
+	}
+
+	private static void runChild(int regionsPerSide, int rounds) {
+		// Starts at the coast so every build sees ocean, shoreline, lakes and river.
+		int minRegion = -regionsPerSide / 2 - 1;
+		long checksum = 0L;
+		double[] times = new double[rounds];
+		for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+			// A fresh resolver per round, so its region and sample caches start empty.
+			WaterSurfaceResolver resolver = new WaterSurfaceResolver(new WaterFixtureInputs(), EarthGeneratorSettings.DEFAULT, null);
+			// Earlier rounds' regions stay in the shared cache until evicted; keep their garbage out of the timing.
+			System.gc();
+			long start = System.nanoTime();
+			for (int rz = 0; rz < regionsPerSide; rz++) {
+				for (int rx = 0; rx < regionsPerSide; rx++) {
+					resolver.resolveColumnData((minRegion + rx) * REGION_SIZE, (minRegion + rz) * REGION_SIZE, WaterFixtureInputs.ESA_WATER);
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			if (round >= 0) {
+				times[round] = elapsed / 1.0e6;
+			}
+			// Every column of the cached regions, read back outside the timed section.
+			long sum = 0L;
+			int minBlock = minRegion * REGION_SIZE;
+			int span = regionsPerSide * REGION_SIZE;
+			for (int z = minBlock; z < minBlock + span; z++) {
+				for (int x = minBlock; x < minBlock + span; x++) {
+					WaterSurfaceResolver.WaterColumnData column = resolver.resolveColumnData(x, z, WaterFixtureInputs.ESA_WATER);
+					sum = sum * 31 + column.waterSurface() * 7L + column.terrainSurface() + (column.isOcean() ? 1 : 0);
+				}
+			}
+			resolver.close();
+			checksum = sum;
+		}
+		Arrays.sort(times);
+		System.out.printf("parallelism %s, rounds ms %s, checksum %x%n",
+				System.getProperty(PARALLELISM_PROPERTY), Arrays.toString(times), checksum);
+		System.out.println(RESULT_PREFIX + times[times.length / 2] + " " + times[0] + " " + Long.toHexString(checksum));
+	}
+
+	private record Result(double medianMillis, double bestMillis, String checksum) {
+	}
+}
@@ -181,21 +181,18 @@ public final class TerrainPreview implements AutoCloseable {
 		double radius = GRID_RADIUS_BLOCKS;
 		double step = (radius * 2.0) / (size - 1);
 
-		for (int z = 0; z < size; z++) {
-			double blockZ = centerZ - radius + z * step;
-			for (int x = 0; x < size; x++) {
-				double blockX = centerX - radius + x * step;
-				int idx = x + z * size;
-				boolean oceanZoom = useOceanZoom(blockX, blockZ, worldScale);
-				double elevation = this.elevationSource.sampleElevationMeters(
-						blockX,
-						blockZ,
-						worldScale,
-						oceanZoom
-				);
-				elevations[idx] = elevation;
-				blockHeights[idx] = applyHeightScale(elevation, settings);
-			}
+		this.elevationSource.sampleElevationGrid(
+				centerX - radius,
+				centerZ - radius,
+				size,
+				size,
+				step,
+				worldScale,
+				(blockX, blockZ) -> useOceanZoom(blockX, blockZ, worldScale),
+				elevations
+		);
+		for (int i = 0; i < elevations.length; i++) {
+			blockHeights[i] = applyHeightScale(elevations[i], settings);
 		}
 
 		float[] heights = new float[size * size];
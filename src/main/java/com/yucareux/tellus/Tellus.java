@@ -128,6 +128,8 @@ public class Tellus implements ModInitializer {
 			});
 		});
 
+		ServerLifecycleEvents.SERVER_STOPPED.register(server -> EarthChunkGenerator.releaseSharedResources());
+
 		if (FabricLoader.getInstance().isModLoaded("distanthorizons")) {
 			DistantHorizonsIntegration.bootstrap();
 		}
@@ -149,6 +149,15 @@ public final class TellusLodGenerator implements IDhApiWorldGenerator {
 		@SuppressWarnings("unchecked")
 		final Holder<Biome>[] biomeHolders = (Holder<Biome>[]) new Holder[area];
 		boolean hasWaterInTile = false;
+		final int[] sampledSurfaces = new int[area];
+		generator.sampleSurfaceHeights(
+				baseX + cellOffset,
+				baseZ + cellOffset,
+				lodSizePoints,
+				lodSizePoints,
+				cellSize,
+				sampledSurfaces
+		);
 
 		for (int baseLocalZ = 0; baseLocalZ < lodSizePoints; baseLocalZ += coverStride) {
 			for (int baseLocalX = 0; baseLocalX < lodSizePoints; baseLocalX += coverStride) {
@@ -169,7 +178,7 @@ public final class TellusLodGenerator implements IDhApiWorldGenerator {
 						final int worldX = baseX + localX * cellSize + cellOffset;
 						final int index = localZ * lodSizePoints + localX;
 						final WaterSurfaceResolver.WaterColumnData fastColumn =
-								generator.resolveLodWaterColumn(worldX, worldZ, coverClass);
+								generator.resolveLodWaterColumnForSurface(sampledSurfaces[index], coverClass);
 						final int surfaceY = Mth.clamp(fastColumn.terrainSurface(), minY, maxY - 1);
 						final int waterSurface = Mth.clamp(fastColumn.waterSurface(), minY, maxY - 1);
 						final boolean underwater = fastColumn.hasWater() && waterSurface > surfaceY;
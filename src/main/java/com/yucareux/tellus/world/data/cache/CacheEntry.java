@@ -0,0 +1,61 @@
+package com.yucareux.tellus.world.data.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.jspecify.annotations.Nullable;
+
+final class CacheEntry<K, V> {
+	static final int QUEUE_NONE = 0;
+	static final int QUEUE_SMALL = 1;
+	static final int QUEUE_MAIN = 2;
+	static final int QUEUE_REMOVED = 3;
+
+	final ManagedCache<K, V> owner;
+	final K key;
+	private final CompletableFuture<V> future = new CompletableFuture<>();
+	private final @Nullable Thread loadingThread;
+	private volatile @Nullable V value;
+	volatile int frequency;
+	volatile int epoch;
+	long weight;
+	int queue = QUEUE_NONE;
+	// Links in the manager's probation or main queue; guarded by the manager lock.
+	@Nullable CacheEntry<?, ?> previous;
+	@Nullable CacheEntry<?, ?> next;
+
+	CacheEntry(ManagedCache<K, V> owner, K key) {
+		this.owner = owner;
+		this.key = key;
+		this.loadingThread = Thread.currentThread();
+	}
+
+	@Nullable V value() {
+		return this.value;
+	}
+
+	void complete(V value, long weight) {
+		this.weight = weight;
+		this.value = value;
+		this.future.complete(value);
+	}
+
+	void fail(Throwable cause) {
+		this.future.completeExceptionally(cause);
+	}
+
+	V await() throws ExecutionException {
+		V value = this.value;
+		if (value != null) {
+			return value;
+		}
+		if (this.loadingThread == Thread.currentThread() && !this.future.isDone()) {
+			throw new ExecutionException(new IllegalStateException("Recursive load of " + this.key));
+		}
+		try {
+			return this.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ExecutionException(e);
+		}
+	}
+}
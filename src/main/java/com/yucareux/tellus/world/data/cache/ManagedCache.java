@@ -0,0 +1,136 @@
+package com.yucareux.tellus.world.data.cache;
+
+import com.google.common.cache.CacheLoader;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import org.jspecify.annotations.Nullable;
+
+public final class ManagedCache<K, V> {
+	private final TellusCacheManager manager;
+	private final String name;
+	private final ToLongFunction<? super V> weigher;
+	private final @Nullable Consumer<? super V> removalListener;
+	private final @Nullable CacheLoader<? super K, V> loader;
+	private final ConcurrentHashMap<K, CacheEntry<K, V>> entries = new ConcurrentHashMap<>();
+
+	private ManagedCache(Builder<K, V> builder, @Nullable CacheLoader<? super K, V> loader) {
+		this.manager = TellusCacheManager.shared();
+		this.name = builder.name;
+		this.weigher = builder.weigher;
+		this.removalListener = builder.removalListener;
+		this.loader = loader;
+	}
+
+	public static <K, V> Builder<K, V> builder(String name, ToLongFunction<? super V> weigher) {
+		return new Builder<>(name, weigher);
+	}
+
+	public String name() {
+		return this.name;
+	}
+
+	public @Nullable V getIfPresent(K key) {
+		CacheEntry<K, V> entry = this.entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		V value = entry.value();
+		if (value != null) {
+			this.manager.touch(entry);
+		}
+		return value;
+	}
+
+	public V get(K key) throws ExecutionException {
+		CacheLoader<? super K, V> loader = this.loader;
+		if (loader == null) {
+			throw new IllegalStateException("Cache " + this.name + " has no loader");
+		}
+		return get(key, () -> loader.load(key));
+	}
+
+	public V get(K key, Callable<? extends V> loader) throws ExecutionException {
+		CacheEntry<K, V> entry = this.entries.get(key);
+		if (entry == null) {
+			CacheEntry<K, V> created = new CacheEntry<>(this, key);
+			entry = this.entries.putIfAbsent(key, created);
+			if (entry == null) {
+				return load(created, loader);
+			}
+		}
+		V value = entry.await();
+		this.manager.touch(entry);
+		return value;
+	}
+
+	public void invalidate(K key) {
+		CacheEntry<K, V> entry = this.entries.remove(key);
+		if (entry != null && this.manager.remove(entry)) {
+			notifyRemoved(entry);
+		}
+	}
+
+	public void invalidateAll() {
+		for (K key : this.entries.keySet()) {
+			invalidate(key);
+		}
+	}
+
+	private V load(CacheEntry<K, V> entry, Callable<? extends V> loader) throws ExecutionException {
+		V value;
+		try {
+			value = Objects.requireNonNull(loader.call(), () -> "Cache " + this.name + " loaded null for " + entry.key);
+		} catch (Throwable t) {
+			this.entries.remove(entry.key, entry);
+			entry.fail(t);
+			if (t instanceof Error error) {
+				throw error;
+			}
+			throw new ExecutionException(t);
+		}
+		entry.complete(value, Math.max(0L, this.weigher.applyAsLong(value)));
+		this.manager.admit(entry);
+		return value;
+	}
+
+	void detach(CacheEntry<?, ?> entry) {
+		this.entries.remove(entry.key, entry);
+	}
+
+	@SuppressWarnings("unchecked")
+	void notifyRemoved(CacheEntry<?, ?> entry) {
+		Consumer<? super V> listener = this.removalListener;
+		Object value = entry.value();
+		if (listener != null && value != null) {
+			listener.accept((V) value);
+		}
+	}
+
+	public static final class Builder<K, V> {
+		private final String name;
+		private final ToLongFunction<? super V> weigher;
+		private @Nullable Consumer<? super V> removalListener;
+
+		private Builder(String name, ToLongFunction<? super V> weigher) {
+			this.name = name;
+			this.weigher = weigher;
+		}
+
+		public Builder<K, V> removalListener(Consumer<? super V> removalListener) {
+			this.removalListener = removalListener;
+			return this;
+		}
+
+		public ManagedCache<K, V> build() {
+			return new ManagedCache<>(this, null);
+		}
+
+		public ManagedCache<K, V> build(CacheLoader<? super K, V> loader) {
+			return new ManagedCache<>(this, loader);
+		}
+	}
+}
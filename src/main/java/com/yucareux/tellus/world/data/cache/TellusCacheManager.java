@@ -0,0 +1,248 @@
+package com.yucareux.tellus.world.data.cache;
+
+import com.yucareux.tellus.Tellus;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jspecify.annotations.Nullable;
+
+public final class TellusCacheManager {
+	private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+	private static final long FALLBACK_MAX_HEAP = 4096L * BYTES_PER_MEGABYTE;
+	private static final long MIN_BUDGET = 32L * BYTES_PER_MEGABYTE;
+	private static final long ENTRY_OVERHEAD_BYTES = 96;
+	private static final int SMALL_QUEUE_PERCENT = 10;
+	private static final int EPOCHS_PER_BUDGET = 32;
+	private static final int MAX_FREQUENCY = 3;
+	private static final int MIN_GHOSTS = 256;
+	private static final TellusCacheManager SHARED = new TellusCacheManager(resolveBudget());
+
+	private final long budgetBytes;
+	private final long smallBudgetBytes;
+	private final long epochBytes;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final EntryQueue small = new EntryQueue();
+	private final EntryQueue main = new EntryQueue();
+	private final LinkedHashSet<GhostKey> ghosts = new LinkedHashSet<>();
+	private long smallBytes;
+	private long mainBytes;
+	private long admittedSinceEpoch;
+	private int residentEntries;
+	private volatile int epoch = 1;
+
+	private TellusCacheManager(long budgetBytes) {
+		this.budgetBytes = Math.max(MIN_BUDGET, budgetBytes);
+		this.smallBudgetBytes = this.budgetBytes * SMALL_QUEUE_PERCENT / 100;
+		this.epochBytes = this.budgetBytes / EPOCHS_PER_BUDGET;
+	}
+
+	public static TellusCacheManager shared() {
+		return SHARED;
+	}
+
+	// Hits only bump a saturating counter, at most once per epoch. An epoch ends after a
+	// thirty-second of the budget has been admitted, so the burst of reads that follows a load
+	// does not count as reuse.
+	void touch(CacheEntry<?, ?> entry) {
+		int epoch = this.epoch;
+		if (entry.epoch != epoch) {
+			entry.epoch = epoch;
+			int frequency = entry.frequency;
+			if (frequency < MAX_FREQUENCY) {
+				entry.frequency = frequency + 1;
+			}
+		}
+	}
+
+	// New entries land in a small probation queue; only entries read again in a later epoch are
+	// moved to the main queue. A one-pass sweep (pregeneration, distant LODs) therefore cycles
+	// through the probation queue without pushing the hot set around players out of the main one.
+	void admit(CacheEntry<?, ?> entry) {
+		List<CacheEntry<?, ?>> evicted;
+		this.lock.lock();
+		try {
+			if (entry.queue != CacheEntry.QUEUE_NONE) {
+				return;
+			}
+			long weight = entry.weight + ENTRY_OVERHEAD_BYTES;
+			entry.weight = weight;
+			if (this.ghosts.remove(new GhostKey(entry.owner, entry.key))) {
+				entry.queue = CacheEntry.QUEUE_MAIN;
+				this.main.addLast(entry);
+				this.mainBytes += weight;
+			} else {
+				entry.queue = CacheEntry.QUEUE_SMALL;
+				this.small.addLast(entry);
+				this.smallBytes += weight;
+			}
+			this.residentEntries++;
+			this.admittedSinceEpoch += weight;
+			if (this.admittedSinceEpoch >= this.epochBytes) {
+				this.admittedSinceEpoch = 0;
+				this.epoch++;
+			}
+			entry.epoch = this.epoch;
+			evicted = evictLocked();
+		} finally {
+			this.lock.unlock();
+		}
+		notifyRemoved(evicted);
+	}
+
+	boolean remove(CacheEntry<?, ?> entry) {
+		this.lock.lock();
+		try {
+			return unlinkLocked(entry);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	// Takes the entry out of its queue as well as the budget, so an invalidated value is not kept
+	// reachable until eviction happens to reach it.
+	private boolean unlinkLocked(CacheEntry<?, ?> entry) {
+		switch (entry.queue) {
+			case CacheEntry.QUEUE_SMALL -> {
+				this.smallBytes -= entry.weight;
+				this.small.remove(entry);
+			}
+			case CacheEntry.QUEUE_MAIN -> {
+				this.mainBytes -= entry.weight;
+				this.main.remove(entry);
+			}
+			case CacheEntry.QUEUE_NONE -> {
+				entry.queue = CacheEntry.QUEUE_REMOVED;
+				return false;
+			}
+			default -> {
+				return false;
+			}
+		}
+		entry.queue = CacheEntry.QUEUE_REMOVED;
+		this.residentEntries--;
+		return true;
+	}
+
+	private List<CacheEntry<?, ?>> evictLocked() {
+		List<CacheEntry<?, ?>> evicted = List.of();
+		while (this.smallBytes + this.mainBytes > this.budgetBytes) {
+			CacheEntry<?, ?> victim;
+			CacheEntry<?, ?> probation = this.small.peekFirst();
+			if (probation != null && (this.smallBytes > this.smallBudgetBytes || this.main.isEmpty())) {
+				CacheEntry<?, ?> entry = probation;
+				if (entry.frequency > 0) {
+					this.small.remove(entry);
+					entry.frequency = 0;
+					entry.queue = CacheEntry.QUEUE_MAIN;
+					this.smallBytes -= entry.weight;
+					this.mainBytes += entry.weight;
+					this.main.addLast(entry);
+					continue;
+				}
+				rememberGhost(entry);
+				victim = entry;
+			} else {
+				CacheEntry<?, ?> entry = this.main.peekFirst();
+				if (entry == null) {
+					break;
+				}
+				int frequency = entry.frequency;
+				if (frequency > 0) {
+					entry.frequency = frequency - 1;
+					this.main.remove(entry);
+					this.main.addLast(entry);
+					continue;
+				}
+				victim = entry;
+			}
+			unlinkLocked(victim);
+			victim.owner.detach(victim);
+			if (evicted.isEmpty()) {
+				evicted = new ArrayList<>();
+			}
+			evicted.add(victim);
+		}
+		return evicted;
+	}
+
+	private void rememberGhost(CacheEntry<?, ?> entry) {
+		this.ghosts.add(new GhostKey(entry.owner, entry.key));
+		int limit = Math.max(MIN_GHOSTS, this.residentEntries);
+		Iterator<GhostKey> iterator = this.ghosts.iterator();
+		while (this.ghosts.size() > limit && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	private static void notifyRemoved(List<CacheEntry<?, ?>> entries) {
+		for (CacheEntry<?, ?> entry : entries) {
+			entry.owner.notifyRemoved(entry);
+		}
+	}
+
+	private static long resolveBudget() {
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		if (maxHeap == Long.MAX_VALUE) {
+			maxHeap = FALLBACK_MAX_HEAP;
+		}
+		long budget = maxHeap / 4;
+		String value = System.getProperty("tellus.cache.maxMegabytes");
+		if (value != null) {
+			try {
+				budget = Math.max(1L, Long.parseLong(value)) * BYTES_PER_MEGABYTE;
+			} catch (NumberFormatException ignored) {
+			}
+		}
+		Tellus.LOGGER.info("Tellus data cache budget: {} MiB", Math.max(MIN_BUDGET, budget) / BYTES_PER_MEGABYTE);
+		return budget;
+	}
+
+	private record GhostKey(ManagedCache<?, ?> owner, Object key) {
+	}
+
+	// A doubly linked list threaded through the entries themselves, so removing an arbitrary entry
+	// is as cheap as polling the head.
+	private static final class EntryQueue {
+		private @Nullable CacheEntry<?, ?> head;
+		private @Nullable CacheEntry<?, ?> tail;
+
+		private boolean isEmpty() {
+			return this.head == null;
+		}
+
+		private @Nullable CacheEntry<?, ?> peekFirst() {
+			return this.head;
+		}
+
+		private void addLast(CacheEntry<?, ?> entry) {
+			entry.previous = this.tail;
+			entry.next = null;
+			if (this.tail == null) {
+				this.head = entry;
+			} else {
+				this.tail.next = entry;
+			}
+			this.tail = entry;
+		}
+
+		private void remove(CacheEntry<?, ?> entry) {
+			CacheEntry<?, ?> previous = entry.previous;
+			CacheEntry<?, ?> next = entry.next;
+			if (previous == null) {
+				this.head = next;
+			} else {
+				previous.next = next;
+			}
+			if (next == null) {
+				this.tail = previous;
+			} else {
+				next.previous = previous;
+			}
+			entry.previous = null;
+			entry.next = null;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package com.yucareux.tellus.world.data.cover;
+
+import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.http.TileFetcher;
+import com.yucareux.tellus.world.data.tiff.FileTiffSource;
+import com.yucareux.tellus.world.data.tiff.TiffByteSource;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jspecify.annotations.Nullable;
+
+// Reads a remote Cloud-Optimized GeoTIFF through HTTP Range requests. Every fetched range is
+// written at its original offset into a sparse local file and recorded in a small range log, so
+// later sessions only download the internal tiles they have not seen yet.
+final class CogRangeSource implements TiffByteSource {
+	private static final int HEADER_PROBE_BYTES = 64 * 1024;
+	private static final int RANGE_RECORD_BYTES = Long.BYTES + Integer.BYTES;
+
+	private final URI uri;
+	private final Path dataPath;
+	private final Path logPath;
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+	private volatile FileChannel data;
+	private volatile FileChannel rangeLog;
+	private volatile boolean closed;
+
+	private CogRangeSource(URI uri, Path dataPath, Path logPath, FileChannel data, FileChannel rangeLog) {
+		this.uri = uri;
+		this.dataPath = dataPath;
+		this.logPath = logPath;
+		this.data = data;
+		this.rangeLog = rangeLog;
+	}
+
+	static @Nullable CogRangeSource open(URI uri, Path dataPath) throws IOException {
+		Files.createDirectories(dataPath.getParent());
+		Path logPath = dataPath.resolveSibling(dataPath.getFileName() + ".ranges");
+		FileChannel data = openData(dataPath);
+		FileChannel rangeLog;
+		try {
+			rangeLog = openLog(logPath);
+		} catch (IOException e) {
+			data.close();
+			throw e;
+		}
+		CogRangeSource source = new CogRangeSource(uri, dataPath, logPath, data, rangeLog);
+		try {
+			source.replayLog();
+			if (!source.contains(0L, 8)) {
+				byte[] header = TileFetcher.shared().fetchPrefix(uri, HEADER_PROBE_BYTES);
+				if (header == null) {
+					source.close();
+					Files.deleteIfExists(dataPath);
+					Files.deleteIfExists(logPath);
+					return null;
+				}
+				source.store(0L, header);
+			}
+			return source;
+		} catch (IOException | RuntimeException e) {
+			source.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void read(ByteBuffer buffer, long offset) throws IOException {
+		int length = buffer.remaining();
+		if (length == 0) {
+			return;
+		}
+		if (!contains(offset, length)) {
+			byte[] bytes = TileFetcher.shared().fetchRange(this.uri, offset, length);
+			store(offset, bytes);
+			buffer.put(bytes);
+			return;
+		}
+		int start = buffer.position();
+		withData(channel -> {
+			buffer.position(start);
+			FileTiffSource.readFully(channel, buffer, offset);
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		try {
+			this.data.close();
+		} finally {
+			this.rangeLog.close();
+		}
+	}
+
+	// The cache closes a tile on eviction while samplers may still hold it, and an interrupt during
+	// a read closes the channel for good. Either way the I/O is retried on a fresh channel instead
+	// of failing, which callers would turn into NO_DATA. Once the source is closed the retry uses a
+	// throwaway channel; otherwise the shared channel is replaced for everyone.
+	private void withData(ChannelIo io) throws IOException {
+		FileChannel channel = this.data;
+		try {
+			io.run(channel);
+			return;
+		} catch (ClosedByInterruptException e) {
+			if (!this.closed) {
+				reopenData(channel);
+			}
+			throw new InterruptedIOException("Interrupted while reading " + this.uri);
+		} catch (ClosedChannelException e) {
+			// Retried below.
+		}
+		if (this.closed) {
+			try (FileChannel reopened = openData(this.dataPath)) {
+				io.run(reopened);
+			}
+			return;
+		}
+		io.run(reopenData(channel));
+	}
+
+	private void withLog(ChannelIo io) throws IOException {
+		FileChannel channel = this.rangeLog;
+		try {
+			io.run(channel);
+			return;
+		} catch (ClosedByInterruptException e) {
+			if (!this.closed) {
+				reopenLog(channel);
+			}
+			throw new InterruptedIOException("Interrupted while recording ranges for " + this.uri);
+		} catch (ClosedChannelException e) {
+			// Retried below.
+		}
+		if (this.closed) {
+			try (FileChannel reopened = openLog(this.logPath)) {
+				io.run(reopened);
+			}
+			return;
+		}
+		io.run(reopenLog(channel));
+	}
+
+	private synchronized FileChannel reopenData(FileChannel failed) throws IOException {
+		if (this.data == failed) {
+			this.data = openData(this.dataPath);
+		}
+		return this.data;
+	}
+
+	private synchronized FileChannel reopenLog(FileChannel failed) throws IOException {
+		if (this.rangeLog == failed) {
+			this.rangeLog = openLog(this.logPath);
+		}
+		return this.rangeLog;
+	}
+
+	private static FileChannel openData(Path dataPath) throws IOException {
+		return FileChannel.open(
+				dataPath,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.SPARSE
+		);
+	}
+
+	private static FileChannel openLog(Path logPath) throws IOException {
+		return FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private synchronized boolean contains(long offset, int length) {
+		Map.Entry<Long, Long> range = this.ranges.floorEntry(offset);
+		return range != null && range.getValue() >= offset + length;
+	}
+
+	private void store(long offset, byte[] bytes) throws IOException {
+		withData(channel -> {
+			FileTiffSource.writeFully(channel, ByteBuffer.wrap(bytes), offset);
+			// The range must reach disk before a log record can claim it.
+			channel.force(false);
+		});
+		synchronized (this) {
+			ByteBuffer record = ByteBuffer.allocate(RANGE_RECORD_BYTES);
+			record.putLong(offset).putInt(bytes.length).flip();
+			withLog(channel -> {
+				record.position(0);
+				FileTiffSource.writeFully(channel, record, channel.size());
+			});
+			addRange(offset, offset + bytes.length);
+		}
+	}
+
+	private synchronized void replayLog() throws IOException {
+		long size = this.rangeLog.size();
+		long complete = size - size % RANGE_RECORD_BYTES;
+		if (complete != size) {
+			Tellus.LOGGER.debug("Discarding torn range record in cache for {}", this.uri);
+			this.rangeLog.truncate(complete);
+		}
+		ByteBuffer records = ByteBuffer.allocate((int) complete);
+		FileTiffSource.readFully(this.rangeLog, records, 0L);
+		records.flip();
+		long dataSize = this.data.size();
+		while (records.hasRemaining()) {
+			long offset = records.getLong();
+			int length = records.getInt();
+			if (offset >= 0 && length > 0 && offset + length <= dataSize) {
+				addRange(offset, offset + length);
+			}
+		}
+	}
+
+	private void addRange(long start, long end) {
+		Map.Entry<Long, Long> before = this.ranges.floorEntry(start);
+		if (before != null && before.getValue() >= start) {
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+		Map.Entry<Long, Long> next = this.ranges.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			this.ranges.remove(next.getKey());
+			next = this.ranges.ceilingEntry(start);
+		}
+		this.ranges.put(start, end);
+	}
+
+	@FunctionalInterface
+	private interface ChannelIo {
+		void run(FileChannel channel) throws IOException;
+	}
+}
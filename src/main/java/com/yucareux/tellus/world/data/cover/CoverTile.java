@@ -0,0 +1,92 @@
+package com.yucareux.tellus.world.data.cover;
+
+import org.jspecify.annotations.Nullable;
+
+// A decoded internal GeoTIFF tile of class codes. WorldCover only uses a dozen classes, so most
+// tiles fit a 4-bit palette; tiles with a single class (open ocean, desert, ice sheets) keep no
+// pixel array at all and share one instance per class.
+final class CoverTile {
+	private static final int MAX_PALETTE = 16;
+	private static final CoverTile[] UNIFORM = new CoverTile[256];
+
+	static {
+		for (int value = 0; value < UNIFORM.length; value++) {
+			UNIFORM[value] = new CoverTile(value, null, null);
+		}
+	}
+
+	private final int uniformValue;
+	private final byte @Nullable [] palette;
+	private final byte @Nullable [] data;
+
+	private CoverTile(int uniformValue, byte @Nullable [] palette, byte @Nullable [] data) {
+		this.uniformValue = uniformValue;
+		this.palette = palette;
+		this.data = data;
+	}
+
+	static CoverTile uniform(int value) {
+		return UNIFORM[value & 0xFF];
+	}
+
+	// Never keeps a reference to values, so callers may decode every tile into the same buffer.
+	static CoverTile pack(byte[] values) {
+		int[] indexOf = new int[256];
+		byte[] palette = new byte[MAX_PALETTE];
+		int paletteSize = 0;
+		for (byte value : values) {
+			int code = Byte.toUnsignedInt(value);
+			if (indexOf[code] == 0) {
+				if (paletteSize == MAX_PALETTE) {
+					return new CoverTile(-1, null, values.clone());
+				}
+				palette[paletteSize++] = value;
+				indexOf[code] = paletteSize;
+			}
+		}
+		if (paletteSize <= 1) {
+			return uniform(values.length == 0 ? 0 : values[0]);
+		}
+
+		byte[] packed = new byte[(values.length + 1) >> 1];
+		for (int i = 0; i < values.length; i++) {
+			int index = indexOf[Byte.toUnsignedInt(values[i])] - 1;
+			packed[i >> 1] |= (byte) (index << ((i & 1) << 2));
+		}
+		byte[] trimmed = new byte[paletteSize];
+		System.arraycopy(palette, 0, trimmed, 0, paletteSize);
+		return new CoverTile(-1, trimmed, packed);
+	}
+
+	boolean isUniform() {
+		return this.uniformValue >= 0;
+	}
+
+	int uniformValue() {
+		return this.uniformValue;
+	}
+
+	int get(int index) {
+		if (this.uniformValue >= 0) {
+			return this.uniformValue;
+		}
+		byte[] data = this.data;
+		byte[] palette = this.palette;
+		if (palette == null) {
+			return Byte.toUnsignedInt(data[index]);
+		}
+		int nibble = (data[index >> 1] >> ((index & 1) << 2)) & 0xF;
+		return Byte.toUnsignedInt(palette[nibble]);
+	}
+
+	long heapBytes() {
+		long bytes = 0L;
+		if (this.palette != null) {
+			bytes += this.palette.length;
+		}
+		if (this.data != null) {
+			bytes += this.data.length;
+		}
+		return bytes;
+	}
+}
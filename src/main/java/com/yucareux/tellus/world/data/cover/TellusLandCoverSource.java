@@ -1,30 +1,28 @@
 package com.yucareux.tellus.world.data.cover;
 
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.yucareux.tellus.Tellus;
-import java.io.ByteArrayInputStream;
-import java.io.EOFException;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import com.yucareux.tellus.world.data.http.TileFetcher;
+import com.yucareux.tellus.world.data.tiff.GeoTiffFile;
+import com.yucareux.tellus.world.data.tiff.GeoTiffImage;
+import com.yucareux.tellus.world.data.tiff.MappedTiffSource;
+import com.yucareux.tellus.world.data.tiff.TiffByteSource;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Mth;
 import org.jetbrains.annotations.NotNull;
+import org.jspecify.annotations.Nullable;
 
 public final class TellusLandCoverSource {
 	private static final double EQUATOR_CIRCUMFERENCE = 40075017.0;
@@ -36,31 +34,28 @@ public final class TellusLandCoverSource {
 	private static final int SNOW_ICE_CLASS = 70;
 	private static final int WATER_CLASS = 80;
 	private static final int NO_DATA_CLASS = 0;
-	private static final int MAX_CACHE_TILES = intProperty("tellus.landcover.cacheTiles", 64);
 	private static final double RESOLUTION_METERS = 10.0;
 	private static final double DOWNSAMPLE_START_PIXELS = 4.0;
 	private static final int MAX_DOWNSAMPLE_STEP = 256;
-	private static final int TILE_CACHE_ENTRIES = intProperty("tellus.landcover.tileCacheEntries", 32);
 	private static final int SMOOTH_RADIUS_PIXELS = 1;
+	private static final boolean RANGE_READS =
+			Boolean.parseBoolean(System.getProperty("tellus.landcover.rangeReads", "true"));
+	private static final boolean SMOOTHED_TILES =
+			Boolean.parseBoolean(System.getProperty("tellus.landcover.smoothedTiles", "true"));
 	private static final ThreadLocal<CoverSmoothScratch> COVER_SMOOTH_SCRATCH =
 			ThreadLocal.withInitial(CoverSmoothScratch::new);
+	private static final LongAdder FAILED_SAMPLES = new LongAdder();
 
 	private static final String ENDPOINT = "https://esa-worldcover.s3.eu-central-1.amazonaws.com/v200/2021/map";
 	private static final String TILE_PATTERN = "ESA_WorldCover_10m_2021_v200_%s_Map.tif";
 
 	private final Path cacheRoot;
-	private final LoadingCache<@NotNull TileKey, @NotNull GeoTiffTile> cache;
+	private final ManagedCache<@NotNull TileKey, @NotNull GeoTiffTile> cache;
 
 	public TellusLandCoverSource() {
 		this.cacheRoot = FabricLoader.getInstance().getGameDir().resolve("tellus/cache/worldcover2021");
-		this.cache = CacheBuilder.newBuilder()
-				.maximumSize(MAX_CACHE_TILES)
-				.removalListener(notification -> {
-					GeoTiffTile tile = (GeoTiffTile) notification.getValue();
-					if (tile != null) {
-						tile.close();
-					}
-				})
+		this.cache = ManagedCache.<@NotNull TileKey, @NotNull GeoTiffTile>builder("landcover", GeoTiffTile::heapBytes)
+				.removalListener(GeoTiffTile::close)
 				.build(new CacheLoader<>() {
 					@Override
 					public GeoTiffTile load(TileKey key) throws Exception {
@@ -69,6 +64,13 @@ public final class TellusLandCoverSource {
 				});
 	}
 
+	// Counts samples answered with no-data because a tile failed to load, as opposed to tiles that do
+	// not exist. Callers that persist derived data compare it across a build and skip the write when
+	// it moved.
+	public long failedSampleCount() {
+		return FAILED_SAMPLES.sum();
+	}
+
 	public boolean isSnowIce(double blockX, double blockZ, double worldScale) {
 		return sampleCoverClass(blockX, blockZ, worldScale) == SNOW_ICE_CLASS;
 	}
@@ -88,7 +90,7 @@ public final class TellusLandCoverSource {
 		double lon = blockX / blocksPerDegree;
 		double lat = -blockZ / blocksPerDegree;
 
-		return sampleCoverClassAtLonLat(lon, lat);
+		return sampleCoverClassAtLonLat(lon, lat, step);
 	}
 
 	public int sampleSmoothedCoverClass(double blockX, double blockZ, double worldScale) {
@@ -105,29 +107,38 @@ public final class TellusLandCoverSource {
 		double blocksPerDegree = metersPerDegree / worldScale;
 		double lon = blockX / blocksPerDegree;
 		double lat = -blockZ / blocksPerDegree;
-		return sampleSmoothedCoverClassAtLonLat(lon, lat, SMOOTH_RADIUS_PIXELS);
+		return sampleSmoothedCoverClassAtLonLat(lon, lat, SMOOTH_RADIUS_PIXELS, step);
 	}
 
-	private int sampleCoverClassAtLonLat(double lon, double lat) {
+	private int sampleCoverClassAtLonLat(double lon, double lat, int step) {
 		TileKey key = tileKeyForLonLat(lon, lat);
 		if (key == null) {
 			return 0;
 		}
-		GeoTiffTile tile = getTile(key);
+		GeoTiffTile tile = getTile(key).forStep(step);
 		return tile.sample(lon, lat);
 	}
 
-	private int sampleSmoothedCoverClassAtLonLat(double lon, double lat, int radiusPixels) {
+	private int sampleSmoothedCoverClassAtLonLat(double lon, double lat, int radiusPixels, int step) {
 		TileKey key = tileKeyForLonLat(lon, lat);
 		if (key == null) {
 			return 0;
 		}
-		GeoTiffTile tile = getTile(key);
+		GeoTiffTile tile = getTile(key).forStep(step);
 		Pixel center = tile.toPixel(lon, lat);
 		if (center == null) {
 			return 0;
 		}
-		int centerValue = tile.sampleValue(center.x(), center.y());
+		if (SMOOTHED_TILES && radiusPixels == SMOOTH_RADIUS_PIXELS) {
+			return tile.sampleSmoothedValue(center.x(), center.y(), this::sampleCoverClassAtLonLat);
+		}
+		return voteSmoothedValue(tile, center.x(), center.y(), radiusPixels, step, this::sampleCoverClassAtLonLat);
+	}
+
+	// Majority vote over the neighbourhood of one pixel, ignoring water and no-data neighbours.
+	// Neighbours past the file edge come from outside.
+	static int voteSmoothedValue(GeoTiffTile tile, int centerX, int centerY, int radiusPixels, int step, CoverLookup outside) {
+		int centerValue = tile.sampleValue(centerX, centerY);
 		if (radiusPixels <= 0 || centerValue == WATER_CLASS || centerValue == NO_DATA_CLASS) {
 			return centerValue;
 		}
@@ -135,11 +146,11 @@ public final class TellusLandCoverSource {
 		CoverSmoothScratch scratch = COVER_SMOOTH_SCRATCH.get();
 		scratch.reset();
 
-		if (tile.isNeighborhoodInBounds(center.x(), center.y(), radiusPixels)) {
+		if (tile.isNeighborhoodInBounds(centerX, centerY, radiusPixels)) {
 			for (int dy = -radiusPixels; dy <= radiusPixels; dy++) {
-				int py = center.y() + dy;
+				int py = centerY + dy;
 				for (int dx = -radiusPixels; dx <= radiusPixels; dx++) {
-					int px = center.x() + dx;
+					int px = centerX + dx;
 					int value = tile.sampleValue(px, py);
 					if (value == WATER_CLASS || value == NO_DATA_CLASS) {
 						continue;
@@ -149,16 +160,16 @@ public final class TellusLandCoverSource {
 			}
 		} else {
 			for (int dy = -radiusPixels; dy <= radiusPixels; dy++) {
-				int py = center.y() + dy;
+				int py = centerY + dy;
 				for (int dx = -radiusPixels; dx <= radiusPixels; dx++) {
-					int px = center.x() + dx;
+					int px = centerX + dx;
 					int value;
 					if (tile.isInside(px, py)) {
 						value = tile.sampleValue(px, py);
 					} else {
 						double neighborLon = tile.lonForPixel(px);
 						double neighborLat = tile.latForPixel(py);
-						value = sampleCoverClassAtLonLat(neighborLon, neighborLat);
+						value = outside.sample(neighborLon, neighborLat, step);
 					}
 					if (value == WATER_CLASS || value == NO_DATA_CLASS) {
 						continue;
@@ -250,23 +261,17 @@ public final class TellusLandCoverSource {
 		}
 	}
 
-	private static int intProperty(String key, int defaultValue) {
-		String value = System.getProperty(key);
-		if (value == null) {
-			return defaultValue;
-		}
-		try {
-			return Math.max(1, Integer.parseInt(value));
-		} catch (NumberFormatException ignored) {
-			return defaultValue;
-		}
-	}
-
 	private GeoTiffTile getTile(TileKey key) {
+		GeoTiffTile cached = this.cache.getIfPresent(key);
+		if (cached != null) {
+			return cached;
+		}
+		TileFetcher.shared().promote(tileUri(key));
 		try {
 			return this.cache.get(key);
 		} catch (Exception e) {
 			Tellus.LOGGER.warn("Failed to load land cover tile {}", key, e);
+			FAILED_SAMPLES.increment();
 			return GeoTiffTile.MISSING;
 		}
 	}
@@ -274,7 +279,15 @@ public final class TellusLandCoverSource {
 	private GeoTiffTile loadTile(TileKey key) throws IOException {
 		Path cachePath = this.cacheRoot.resolve(key.fileName());
 		if (Files.exists(cachePath)) {
-			return GeoTiffTile.open(cachePath);
+			return GeoTiffTile.open(cachePath, MappedTiffSource.open(cachePath));
+		}
+		if (RANGE_READS) {
+			Path partialPath = cachePath.resolveSibling(key.fileName() + ".partial");
+			CogRangeSource source = CogRangeSource.open(tileUri(key), partialPath);
+			if (source == null) {
+				return GeoTiffTile.MISSING;
+			}
+			return GeoTiffTile.open(partialPath, source);
 		}
 		byte[] data = downloadTile(key);
 		if (data == null) {
@@ -282,21 +295,15 @@ public final class TellusLandCoverSource {
 		}
 
 		cacheTile(cachePath, data);
-		return GeoTiffTile.open(cachePath);
+		return GeoTiffTile.open(cachePath, MappedTiffSource.open(cachePath));
 	}
 
 	private byte[] downloadTile(TileKey key) throws IOException {
-		URI uri = URI.create(String.format("%s/%s", ENDPOINT, key.fileName()));
-		HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-		connection.setConnectTimeout(8000);
-		connection.setReadTimeout(8000);
-		connection.setRequestProperty("User-Agent", "Tellus/1.0 (Minecraft Mod)");
-		if (connection.getResponseCode() == 404) {
-			return null;
-		}
-		try (InputStream input = connection.getInputStream()) {
-			return input.readAllBytes();
-		}
+		return TileFetcher.shared().fetch(tileUri(key));
+	}
+
+	private static URI tileUri(TileKey key) {
+		return URI.create(String.format("%s/%s", ENDPOINT, key.fileName()));
 	}
 
 	private void cacheTile(Path cachePath, byte[] data) {
@@ -324,98 +331,88 @@ public final class TellusLandCoverSource {
 		}
 	}
 
-	private static final class GeoTiffTile {
-		private static final int TAG_IMAGE_WIDTH = 256;
-		private static final int TAG_IMAGE_HEIGHT = 257;
-		private static final int TAG_TILE_WIDTH = 322;
-		private static final int TAG_TILE_HEIGHT = 323;
-		private static final int TAG_TILE_OFFSETS = 324;
-		private static final int TAG_TILE_BYTE_COUNTS = 325;
-		private static final int TAG_COMPRESSION = 259;
-		private static final int TAG_MODEL_PIXEL_SCALE = 33550;
-		private static final int TAG_MODEL_TIEPOINT = 33922;
-
-		private static final int TYPE_SHORT = 3;
-		private static final int TYPE_LONG = 4;
-
-		private static final int COMPRESSION_DEFLATE = 8;
+	static final class GeoTiffTile {
+		private static final short UNKNOWN_UNIFORM = -1;
+		private static final short NOT_UNIFORM = -2;
+		private static final ThreadLocal<byte[]> DECODE_BUFFER = ThreadLocal.withInitial(() -> new byte[0]);
 		private static final GeoTiffTile MISSING = new GeoTiffTile();
 
 		private final Path path;
-		private final FileChannel channel;
+		private final @Nullable GeoTiffFile file;
+		private final @Nullable GeoTiffImage image;
 		private final int width;
 		private final int height;
 		private final int tileWidth;
 		private final int tileHeight;
 		private final int tilesPerRow;
-		private final long[] tileOffsets;
-		private final int[] tileByteCounts;
-		private final double pixelScaleX;
-		private final double pixelScaleY;
-		private final double tieLon;
-		private final double tieLat;
-		private final Map<Integer, byte[]> tileCache;
+		private final int decimation;
+		private final GeoTiffTile[] overviews;
+		private final short[] uniformClasses;
+		private final ManagedCache<Integer, CoverTile> tileCache;
+		private final ManagedCache<Integer, CoverTile> smoothedCache;
 
 		private GeoTiffTile() {
 			this.path = null;
-			this.channel = null;
+			this.file = null;
+			this.image = null;
 			this.width = 0;
 			this.height = 0;
 			this.tileWidth = 0;
 			this.tileHeight = 0;
 			this.tilesPerRow = 0;
-			this.tileOffsets = null;
-			this.tileByteCounts = null;
-			this.pixelScaleX = 0.0;
-			this.pixelScaleY = 0.0;
-			this.tieLon = 0.0;
-			this.tieLat = 0.0;
-			this.tileCache = Map.of();
-		}
-
-		private GeoTiffTile(
-				Path path,
-				FileChannel channel,
-				int width,
-				int height,
-				int tileWidth,
-				int tileHeight,
-				long[] tileOffsets,
-				int[] tileByteCounts,
-				double pixelScaleX,
-				double pixelScaleY,
-				double tieLon,
-				double tieLat
-		) {
-			this.path = path;
-			this.channel = channel;
-			this.width = width;
-			this.height = height;
-			this.tileWidth = tileWidth;
-			this.tileHeight = tileHeight;
-			this.tilesPerRow = (int) Math.ceil(width / (double) tileWidth);
-			this.tileOffsets = tileOffsets;
-			this.tileByteCounts = tileByteCounts;
-			this.pixelScaleX = pixelScaleX;
-			this.pixelScaleY = pixelScaleY;
-			this.tieLon = tieLon;
-			this.tieLat = tieLat;
-			this.tileCache = new LinkedHashMap<>(TILE_CACHE_ENTRIES, 0.75f, true) {
-				@Override
-				protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
-					return size() > TILE_CACHE_ENTRIES;
-				}
-			};
+			this.decimation = 1;
+			this.overviews = new GeoTiffTile[0];
+			this.uniformClasses = new short[0];
+			this.tileCache = newTileCache();
+			this.smoothedCache = newSmoothedCache();
 		}
 
-		static GeoTiffTile open(Path path) throws IOException {
-			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
-			try {
-				return readFromChannel(path, channel);
-			} catch (IOException e) {
-				channel.close();
-				throw e;
+		private GeoTiffTile(Path path, @Nullable GeoTiffFile file, GeoTiffImage image, GeoTiffTile[] overviews) {
+			this.path = path;
+			this.file = file;
+			this.image = image;
+			this.width = image.width();
+			this.height = image.height();
+			this.tileWidth = image.tileWidth();
+			this.tileHeight = image.tileHeight();
+			this.tilesPerRow = image.tilesPerRow();
+			this.decimation = image.decimation();
+			this.overviews = overviews;
+			this.uniformClasses = new short[image.tileCount()];
+			Arrays.fill(this.uniformClasses, UNKNOWN_UNIFORM);
+			this.tileCache = newTileCache();
+			this.smoothedCache = newSmoothedCache();
+		}
+
+		private static ManagedCache<Integer, CoverTile> newTileCache() {
+			return ManagedCache.<Integer, CoverTile>builder("landcover-tiles", CoverTile::heapBytes).build();
+		}
+
+		private static ManagedCache<Integer, CoverTile> newSmoothedCache() {
+			return ManagedCache.<Integer, CoverTile>builder("landcover-smoothed", CoverTile::heapBytes).build();
+		}
+
+		static GeoTiffTile open(Path path, TiffByteSource source) throws IOException {
+			GeoTiffFile file = GeoTiffFile.open(source);
+			List<GeoTiffImage> images = file.overviews();
+			GeoTiffTile[] overviews = new GeoTiffTile[images.size()];
+			for (int i = 0; i < overviews.length; i++) {
+				overviews[i] = new GeoTiffTile(path, null, images.get(i), new GeoTiffTile[0]);
+			}
+			return new GeoTiffTile(path, file, file.base(), overviews);
+		}
+
+		// Picks the coarsest overview that is still at least as fine as the sampling step, so each
+		// sample touches one overview pixel instead of a sparse grid across many full-resolution tiles.
+		GeoTiffTile forStep(int step) {
+			GeoTiffTile selected = this;
+			for (GeoTiffTile overview : this.overviews) {
+				if (overview.decimation > step) {
+					break;
+				}
+				selected = overview;
 			}
+			return selected;
 		}
 
 		int sample(double lon, double lat) {
@@ -427,36 +424,64 @@ public final class TellusLandCoverSource {
 		}
 
 		Pixel toPixel(double lon, double lat) {
-			if (this == MISSING) {
+			GeoTiffImage image = this.image;
+			if (image == null) {
 				return null;
 			}
-			int pixelX = (int) Math.floor((lon - this.tieLon) / this.pixelScaleX);
-			int pixelY = (int) Math.floor((this.tieLat - lat) / this.pixelScaleY);
-			if (pixelX < 0 || pixelY < 0 || pixelX >= this.width || pixelY >= this.height) {
+			int pixelX = image.pixelX(lon);
+			int pixelY = image.pixelY(lat);
+			if (!isInside(pixelX, pixelY)) {
 				return null;
 			}
 			return new Pixel(pixelX, pixelY);
 		}
 
 		int sampleValue(int pixelX, int pixelY) {
-			if (this == MISSING || pixelX < 0 || pixelY < 0 || pixelX >= this.width || pixelY >= this.height) {
+			if (!isInside(pixelX, pixelY)) {
 				return 0;
 			}
 			int tileX = pixelX / this.tileWidth;
 			int tileY = pixelY / this.tileHeight;
 			int tileIndex = tileY * this.tilesPerRow + tileX;
+			int uniform = this.uniformClasses[tileIndex];
+			if (uniform >= 0) {
+				return uniform;
+			}
 
-			byte[] tile;
+			CoverTile tile;
 			try {
 				tile = getTile(tileIndex);
 			} catch (IOException e) {
 				Tellus.LOGGER.warn("Failed to read land cover tile {} in {}", tileIndex, this.path, e);
+				FAILED_SAMPLES.increment();
 				return 0;
 			}
 
 			int localX = pixelX - tileX * this.tileWidth;
 			int localY = pixelY - tileY * this.tileHeight;
-			return Byte.toUnsignedInt(tile[localX + localY * this.tileWidth]);
+			return tile.get(localX + localY * this.tileWidth);
+		}
+
+		int sampleSmoothedValue(int pixelX, int pixelY, CoverLookup outside) {
+			if (!isInside(pixelX, pixelY)) {
+				return 0;
+			}
+			int tileX = pixelX / this.tileWidth;
+			int tileY = pixelY / this.tileHeight;
+			int tileIndex = tileY * this.tilesPerRow + tileX;
+
+			CoverTile tile;
+			try {
+				tile = getSmoothedTile(tileIndex, outside);
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to smooth land cover tile {} in {}", tileIndex, this.path, e);
+				FAILED_SAMPLES.increment();
+				return 0;
+			}
+
+			int localX = pixelX - tileX * this.tileWidth;
+			int localY = pixelY - tileY * this.tileHeight;
+			return tile.get(localX + localY * this.tileWidth);
 		}
 
 		boolean isInside(int pixelX, int pixelY) {
@@ -471,238 +496,154 @@ public final class TellusLandCoverSource {
 		}
 
 		double lonForPixel(int pixelX) {
-			return this.tieLon + (pixelX + 0.5) * this.pixelScaleX;
+			return this.image != null ? this.image.lonForPixel(pixelX) : 0.0;
 		}
 
 		double latForPixel(int pixelY) {
-			return this.tieLat - (pixelY + 0.5) * this.pixelScaleY;
+			return this.image != null ? this.image.latForPixel(pixelY) : 0.0;
+		}
+
+		long heapBytes() {
+			GeoTiffFile file = this.file;
+			if (file == null) {
+				return 0L;
+			}
+			long bytes = file.heapBytes() + (long) this.uniformClasses.length * Short.BYTES;
+			for (GeoTiffTile overview : this.overviews) {
+				bytes += (long) overview.uniformClasses.length * Short.BYTES;
+			}
+			return bytes;
 		}
 
 		void close() {
-			if (this.channel == null) {
+			this.tileCache.invalidateAll();
+			this.smoothedCache.invalidateAll();
+			for (GeoTiffTile overview : this.overviews) {
+				overview.tileCache.invalidateAll();
+				overview.smoothedCache.invalidateAll();
+			}
+			if (this.file == null) {
 				return;
 			}
 			try {
-				this.channel.close();
+				this.file.close();
 			} catch (IOException e) {
 				Tellus.LOGGER.warn("Failed to close land cover tile {}", this.path, e);
 			}
 		}
 
-		private byte[] getTile(int tileIndex) throws IOException {
-			synchronized (this.tileCache) {
-				byte[] cached = this.tileCache.get(tileIndex);
-				if (cached != null) {
-					return cached;
-				}
+		private CoverTile getTile(int tileIndex) throws IOException {
+			CoverTile cached = this.tileCache.getIfPresent(tileIndex);
+			if (cached != null) {
+				return cached;
 			}
-
-			byte[] tile = readTile(tileIndex);
-			synchronized (this.tileCache) {
-				this.tileCache.put(tileIndex, tile);
-			}
-			return tile;
-		}
-
-		private byte[] readTile(int tileIndex) throws IOException {
-			long offset = this.tileOffsets[tileIndex];
-			int length = this.tileByteCounts[tileIndex];
-			byte[] compressed = new byte[length];
 			try {
-				readFully(this.channel, compressed, offset);
-			} catch (ClosedChannelException e) {
-				if (this.path == null) {
-					throw e;
-				}
-				try (FileChannel reopened = FileChannel.open(this.path, StandardOpenOption.READ)) {
-					readFully(reopened, compressed, offset);
+				return this.tileCache.get(tileIndex, () -> readTile(tileIndex));
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException io) {
+					throw io;
 				}
+				throw new IOException("Failed to decode land cover tile " + tileIndex + " in " + this.path, e.getCause());
 			}
-			return inflate(compressed, this.tileWidth * this.tileHeight);
 		}
 
-		private static GeoTiffTile readFromChannel(Path path, FileChannel channel) throws IOException {
-			ByteBuffer header = ByteBuffer.allocate(8);
-			readFully(channel, header, 0);
-			header.flip();
-
-			short order = header.getShort();
-			ByteOrder byteOrder = switch (order) {
-				case 0x4949 -> ByteOrder.LITTLE_ENDIAN;
-				case 0x4D4D -> ByteOrder.BIG_ENDIAN;
-				default -> throw new IOException("Invalid TIFF byte order");
-			};
-			header.order(byteOrder);
-
-			short magic = header.getShort();
-			if (magic != 42) {
-				throw new IOException("Invalid TIFF magic");
+		private CoverTile getSmoothedTile(int tileIndex, CoverLookup outside) throws IOException {
+			CoverTile cached = this.smoothedCache.getIfPresent(tileIndex);
+			if (cached != null) {
+				return cached;
 			}
-
-			int ifdOffset = header.getInt();
-			ByteBuffer countBuffer = ByteBuffer.allocate(2).order(byteOrder);
-			readFully(channel, countBuffer, ifdOffset);
-			countBuffer.flip();
-			int entryCount = Short.toUnsignedInt(countBuffer.getShort());
-
-			ByteBuffer entries = ByteBuffer.allocate(entryCount * 12).order(byteOrder);
-			readFully(channel, entries, ifdOffset + 2L);
-			entries.flip();
-
-			int width = -1;
-			int height = -1;
-			int tileWidth = -1;
-			int tileHeight = -1;
-			int compression = -1;
-			long[] tileOffsets = null;
-			int[] tileByteCounts = null;
-			double[] pixelScale = null;
-			double[] tiepoint = null;
-
-			for (int i = 0; i < entryCount; i++) {
-				int tag = Short.toUnsignedInt(entries.getShort());
-				int type = Short.toUnsignedInt(entries.getShort());
-				int count = entries.getInt();
-				int value = entries.getInt();
-				switch (tag) {
-					case TAG_IMAGE_WIDTH -> width = readIntValue(type, count, value, byteOrder);
-					case TAG_IMAGE_HEIGHT -> height = readIntValue(type, count, value, byteOrder);
-					case TAG_TILE_WIDTH -> tileWidth = readIntValue(type, count, value, byteOrder);
-					case TAG_TILE_HEIGHT -> tileHeight = readIntValue(type, count, value, byteOrder);
-					case TAG_COMPRESSION -> compression = readIntValue(type, count, value, byteOrder);
-					case TAG_TILE_OFFSETS -> tileOffsets = readLongArray(channel, value, count, byteOrder);
-					case TAG_TILE_BYTE_COUNTS -> tileByteCounts = readIntArray(channel, value, count, byteOrder);
-					case TAG_MODEL_PIXEL_SCALE -> pixelScale = readDoubleArray(channel, value, count, byteOrder);
-					case TAG_MODEL_TIEPOINT -> tiepoint = readDoubleArray(channel, value, count, byteOrder);
-					default -> {
+			try {
+				return this.smoothedCache.get(tileIndex, () -> buildSmoothedTile(tileIndex, outside));
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException io) {
+					throw io;
+				}
+				throw new IOException("Failed to smooth land cover tile " + tileIndex + " in " + this.path, e.getCause());
+			}
+		}
+
+		// Runs the majority vote once for a whole internal tile. The halo ring is filled from the
+		// neighbouring internal tiles, or from the adjacent WorldCover file past this file's edge, so
+		// the result matches the per-sample vote everywhere.
+		private CoverTile buildSmoothedTile(int tileIndex, CoverLookup outside) throws IOException {
+			int radius = SMOOTH_RADIUS_PIXELS;
+			int originX = (tileIndex % this.tilesPerRow) * this.tileWidth;
+			int originY = (tileIndex / this.tilesPerRow) * this.tileHeight;
+			int haloWidth = this.tileWidth + radius * 2;
+			int haloHeight = this.tileHeight + radius * 2;
+			CoverTile raw = getTile(tileIndex);
+			byte[] halo = new byte[haloWidth * haloHeight];
+			for (int y = 0; y < haloHeight; y++) {
+				int localY = y - radius;
+				int py = originY + localY;
+				for (int x = 0; x < haloWidth; x++) {
+					int localX = x - radius;
+					int px = originX + localX;
+					int value;
+					if (!isInside(px, py)) {
+						value = outside.sample(lonForPixel(px), latForPixel(py), this.decimation);
+					} else if (localX >= 0 && localY >= 0 && localX < this.tileWidth && localY < this.tileHeight) {
+						value = raw.get(localX + localY * this.tileWidth);
+					} else {
+						value = sampleValue(px, py);
 					}
+					halo[x + y * haloWidth] = (byte) value;
 				}
 			}
 
-			if (compression != COMPRESSION_DEFLATE) {
-				throw new IOException("Unsupported TIFF compression " + compression);
-			}
-			if (width <= 0 || height <= 0 || tileWidth <= 0 || tileHeight <= 0) {
-				throw new IOException("Missing TIFF size tags");
-			}
-			if (tileOffsets == null || tileByteCounts == null) {
-				throw new IOException("Missing TIFF tile offsets");
-			}
-			if (pixelScale == null || pixelScale.length < 2 || tiepoint == null || tiepoint.length < 5) {
-				throw new IOException("Missing TIFF georeference tags");
-			}
-
-			return new GeoTiffTile(
-					path,
-					channel,
-					width,
-					height,
-					tileWidth,
-					tileHeight,
-					tileOffsets,
-					tileByteCounts,
-					pixelScale[0],
-					pixelScale[1],
-					tiepoint[3],
-					tiepoint[4]
-			);
-		}
-
-		private static int readIntValue(int type, int count, int value, ByteOrder order) throws IOException {
-			if (count != 1) {
-				throw new IOException("Expected single TIFF value");
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(4).order(order);
-			buffer.putInt(value);
-			buffer.flip();
-			if (type == TYPE_SHORT) {
-				return Short.toUnsignedInt(buffer.getShort());
-			}
-			if (type == TYPE_LONG) {
-				return buffer.getInt();
-			}
-			throw new IOException("Unsupported TIFF value type " + type);
-		}
-
-		private static long[] readLongArray(FileChannel channel, long offset, int count, ByteOrder order) throws IOException {
-			if (count <= 0) {
-				return new long[0];
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(order);
-			readFully(channel, buffer, offset);
-			buffer.flip();
-			long[] values = new long[count];
-			for (int i = 0; i < count; i++) {
-				values[i] = Integer.toUnsignedLong(buffer.getInt());
-			}
-			return values;
-		}
-
-		private static int[] readIntArray(FileChannel channel, long offset, int count, ByteOrder order) throws IOException {
-			if (count <= 0) {
-				return new int[0];
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(order);
-			readFully(channel, buffer, offset);
-			buffer.flip();
-			int[] values = new int[count];
-			for (int i = 0; i < count; i++) {
-				values[i] = buffer.getInt();
-			}
-			return values;
-		}
-
-		private static double[] readDoubleArray(FileChannel channel, long offset, int count, ByteOrder order) throws IOException {
-			if (count <= 0) {
-				return new double[0];
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(order);
-			readFully(channel, buffer, offset);
-			buffer.flip();
-			double[] values = new double[count];
-			for (int i = 0; i < count; i++) {
-				values[i] = buffer.getDouble();
-			}
-			return values;
-		}
-
-		private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
-			long position = offset;
-			while (buffer.hasRemaining()) {
-				int read = channel.read(buffer, position);
-				if (read < 0) {
-					throw new EOFException("Unexpected end of file");
+			byte[] smoothed = new byte[this.tileWidth * this.tileHeight];
+			int maxX = Math.min(this.tileWidth, this.width - originX);
+			int maxY = Math.min(this.tileHeight, this.height - originY);
+			CoverSmoothScratch scratch = COVER_SMOOTH_SCRATCH.get();
+			for (int y = 0; y < maxY; y++) {
+				for (int x = 0; x < maxX; x++) {
+					int centerValue = Byte.toUnsignedInt(halo[(x + radius) + (y + radius) * haloWidth]);
+					if (centerValue == WATER_CLASS || centerValue == NO_DATA_CLASS) {
+						smoothed[x + y * this.tileWidth] = (byte) centerValue;
+						continue;
+					}
+					scratch.reset();
+					for (int dy = 0; dy <= radius * 2; dy++) {
+						int row = (y + dy) * haloWidth + x;
+						for (int dx = 0; dx <= radius * 2; dx++) {
+							int value = Byte.toUnsignedInt(halo[row + dx]);
+							if (value == WATER_CLASS || value == NO_DATA_CLASS) {
+								continue;
+							}
+							scratch.add(value);
+						}
+					}
+					smoothed[x + y * this.tileWidth] = (byte) scratch.pickMajority(centerValue);
 				}
-				position += read;
 			}
+			return CoverTile.pack(smoothed);
 		}
 
-		private static void readFully(FileChannel channel, byte[] dest, long offset) throws IOException {
-			readFully(channel, ByteBuffer.wrap(dest), offset);
-		}
-
-		private static byte[] inflate(byte[] compressed, int expectedSize) throws IOException {
-			byte[] output = new byte[expectedSize];
-			try (InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
-				int offset = 0;
-				while (offset < expectedSize) {
-					int read = inflater.read(output, offset, expectedSize - offset);
-					if (read < 0) {
-						break;
-					}
-					offset += read;
-				}
-				if (offset != expectedSize) {
-					throw new IOException("Unexpected inflated data length");
-				}
-				return output;
+		// Remembers which tiles hold a single class, so later samples of them skip the cache and
+		// never decompress again after the tile has been evicted. Decoding goes through a per-thread
+		// buffer; only the packed form is kept.
+		private CoverTile readTile(int tileIndex) throws IOException {
+			int size = this.tileWidth * this.tileHeight;
+			byte[] buffer = DECODE_BUFFER.get();
+			if (buffer.length != size) {
+				buffer = new byte[size];
+				DECODE_BUFFER.set(buffer);
 			}
+			this.image.readTile(tileIndex, buffer);
+			CoverTile tile = CoverTile.pack(buffer);
+			this.uniformClasses[tileIndex] = tile.isUniform() ? (short) tile.uniformValue() : NOT_UNIFORM;
+			return tile;
 		}
 	}
 
 	private record Pixel(int x, int y) {
 	}
 
+	@FunctionalInterface
+	interface CoverLookup {
+		int sample(double lon, double lat, int step);
+	}
+
 	private static final class CoverSmoothScratch {
 		private final int[] counts = new int[256];
 		private final int[] used = new int[256];
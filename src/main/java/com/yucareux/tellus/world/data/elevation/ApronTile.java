@@ -0,0 +1,108 @@
+package com.yucareux.tellus.world.data.elevation;
+
+import net.minecraft.util.Mth;
+import org.jspecify.annotations.Nullable;
+
+final class ApronTile {
+	private final int size;
+	private final int stride;
+	private final short[] data;
+	private final float @Nullable [] ocean;
+
+	private ApronTile(int size, short[] data, float @Nullable [] ocean) {
+		this.size = size;
+		this.stride = size + 1;
+		this.data = data;
+		this.ocean = ocean;
+	}
+
+	// The trailing row and column hold the first pixels of the right and lower neighbours, which is
+	// exactly what bilinear interpolation reads past the tile edge. Missing neighbours repeat the edge.
+	static ApronTile build(
+			ShortRaster base,
+			@Nullable ShortRaster right,
+			@Nullable ShortRaster below,
+			@Nullable ShortRaster belowRight
+	) {
+		int size = base.width();
+		int stride = size + 1;
+		int last = size - 1;
+		short[] data = new short[stride * stride];
+		for (int y = 0; y < size; y++) {
+			int row = y * stride;
+			for (int x = 0; x < size; x++) {
+				data[row + x] = base.get(x, y);
+			}
+			data[row + size] = right != null ? right.get(0, y) : base.get(last, y);
+		}
+		int apronRow = size * stride;
+		for (int x = 0; x < size; x++) {
+			data[apronRow + x] = below != null ? below.get(x, 0) : base.get(x, last);
+		}
+		short corner;
+		if (belowRight != null) {
+			corner = belowRight.get(0, 0);
+		} else if (right != null) {
+			corner = right.get(0, last);
+		} else if (below != null) {
+			corner = below.get(last, 0);
+		} else {
+			corner = base.get(last, last);
+		}
+		data[apronRow + size] = corner;
+		return new ApronTile(size, data, null);
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	long heapBytes() {
+		float[] ocean = this.ocean;
+		return (long) this.data.length * Short.BYTES + (ocean != null ? (long) ocean.length * Float.BYTES : 0L);
+	}
+
+	boolean hasNonPositive() {
+		for (short value : this.data) {
+			if (value <= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Attaches the ocean-zoom surface evaluated at each of this tile's pixel positions (including the apron).
+	ApronTile withOcean(float[] ocean) {
+		if (ocean.length != this.data.length) {
+			throw new IllegalArgumentException("Ocean layer size mismatch");
+		}
+		return new ApronTile(this.size, this.data, ocean);
+	}
+
+	double sample(double localX, double localY) {
+		int x0 = (int) localX;
+		int y0 = (int) localY;
+		double dx = localX - x0;
+		double dy = localY - y0;
+		int index = x0 + y0 * this.stride;
+		short[] data = this.data;
+		double lerpX0 = Mth.lerp(dx, data[index], data[index + 1]);
+		double lerpX1 = Mth.lerp(dx, data[index + this.stride], data[index + this.stride + 1]);
+		return Mth.lerp(dy, lerpX0, lerpX1);
+	}
+
+	double sampleOcean(double localX, double localY) {
+		float[] ocean = this.ocean;
+		if (ocean == null) {
+			return Double.NaN;
+		}
+		int x0 = (int) localX;
+		int y0 = (int) localY;
+		double dx = localX - x0;
+		double dy = localY - y0;
+		int index = x0 + y0 * this.stride;
+		double lerpX0 = Mth.lerp(dx, ocean[index], ocean[index + 1]);
+		double lerpX1 = Mth.lerp(dx, ocean[index + this.stride], ocean[index + this.stride + 1]);
+		return Mth.lerp(dy, lerpX0, lerpX1);
+	}
+}
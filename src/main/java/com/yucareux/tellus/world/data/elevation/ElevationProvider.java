@@ -0,0 +1,11 @@
+package com.yucareux.tellus.world.data.elevation;
+
+interface ElevationProvider {
+	double sampleMeters(double lon, double lat);
+
+	// Misses answered while data that may cover them is still being prepared, such as a local
+	// import in progress.
+	default long provisionalSampleCount() {
+		return 0L;
+	}
+}
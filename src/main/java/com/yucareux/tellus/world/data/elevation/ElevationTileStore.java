@@ -0,0 +1,325 @@
+package com.yucareux.tellus.world.data.elevation;
+
+import com.yucareux.tellus.Tellus;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jspecify.annotations.Nullable;
+
+// Elevation tiles persisted across restarts in memory-mapped segments. Sources that point at the
+// same directory share one store through acquire and release; the index file is locked so a second
+// process cannot append to it at the same time, and that process runs without the store instead.
+final class ElevationTileStore implements AutoCloseable {
+	private static final byte[] INDEX_SIGNATURE = "TELLUS/ELEVSTORE".getBytes(StandardCharsets.US_ASCII);
+	private static final int INDEX_VERSION = 1;
+	private static final int INDEX_HEADER_SIZE = INDEX_SIGNATURE.length + 4;
+	private static final int INDEX_ENTRY_SIZE = 24;
+	private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final Map<Path, ElevationTileStore> OPEN = new HashMap<>();
+
+	private final Path root;
+	private final FileChannel indexChannel;
+	private final ConcurrentMap<Long, Location> locations = new ConcurrentHashMap<>();
+	private final Object writeLock = new Object();
+	private volatile Segment[] segments = new Segment[0];
+	private int writeSegment;
+	private int writeOffset;
+	private volatile boolean closed;
+	// Guarded by OPEN.
+	private int references;
+
+	private ElevationTileStore(Path root, FileChannel indexChannel) {
+		this.root = root;
+		this.indexChannel = indexChannel;
+	}
+
+	// Returns the store for root, opening it on first use. Every successful acquire must be paired
+	// with one release.
+	static @Nullable ElevationTileStore acquire(Path root) {
+		Path key = root.toAbsolutePath().normalize();
+		synchronized (OPEN) {
+			ElevationTileStore store = OPEN.get(key);
+			if (store == null) {
+				store = open(key);
+				if (store == null) {
+					return null;
+				}
+				OPEN.put(key, store);
+			}
+			store.references++;
+			return store;
+		}
+	}
+
+	void release() {
+		synchronized (OPEN) {
+			if (--this.references > 0) {
+				return;
+			}
+			OPEN.remove(this.root, this);
+		}
+		close();
+	}
+
+	private static @Nullable ElevationTileStore open(Path root) {
+		try {
+			Files.createDirectories(root);
+			FileChannel indexChannel = FileChannel.open(
+					root.resolve("index.dat"),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE
+			);
+			ElevationTileStore store = new ElevationTileStore(root, indexChannel);
+			try {
+				store.lock();
+				store.loadIndex();
+			} catch (IOException e) {
+				store.close();
+				throw e;
+			}
+			return store;
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to open elevation tile store {}", root, e);
+			return null;
+		}
+	}
+
+	@Nullable ShortRaster get(int zoom, int x, int y) {
+		Location location = this.locations.get(key(zoom, x, y));
+		if (location == null || this.closed) {
+			return null;
+		}
+		try {
+			return view(location);
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to map stored elevation tile {}/{}/{}", zoom, x, y, e);
+			return null;
+		}
+	}
+
+	ShortRaster put(int zoom, int x, int y, ShortRaster raster) throws IOException {
+		long key = key(zoom, x, y);
+		Location existing = this.locations.get(key);
+		if (existing != null) {
+			return view(existing);
+		}
+		int byteSize = raster.width() * raster.height() * Short.BYTES;
+		if (byteSize > SEGMENT_BYTES) {
+			throw new IOException("Elevation tile too large for store");
+		}
+		Location location;
+		synchronized (this.writeLock) {
+			if (this.closed) {
+				return raster;
+			}
+			existing = this.locations.get(key);
+			if (existing != null) {
+				return view(existing);
+			}
+			if (this.writeOffset + byteSize > SEGMENT_BYTES) {
+				this.writeSegment++;
+				this.writeOffset = 0;
+			}
+			location = new Location(this.writeSegment, this.writeOffset, raster.width(), raster.height());
+			MappedByteBuffer segment = segment(location.segment());
+			raster.copyTo(slice(segment, location.offset(), byteSize, false).asShortBuffer());
+			this.writeOffset += byteSize;
+			// The payload must reach disk before an index entry can point at it.
+			segment.force(location.offset(), byteSize);
+			appendIndexEntry(key, location);
+			this.locations.put(key, location);
+		}
+		return view(location);
+	}
+
+	// Closing releases the index lock with the channel. Mappings handed out earlier stay valid.
+	@Override
+	public void close() {
+		synchronized (this.writeLock) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+		}
+		try {
+			this.indexChannel.close();
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to close elevation tile store index", e);
+		}
+		Segment[] segments;
+		synchronized (this) {
+			segments = this.segments;
+		}
+		for (Segment segment : segments) {
+			if (segment == null) {
+				continue;
+			}
+			try {
+				segment.channel().close();
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to close elevation tile segment", e);
+			}
+		}
+	}
+
+	private void lock() throws IOException {
+		FileLock lock;
+		try {
+			lock = this.indexChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			throw new IOException("Elevation tile store " + this.root + " is in use by another process");
+		}
+	}
+
+	private void loadIndex() throws IOException {
+		long size = this.indexChannel.size();
+		if (size < INDEX_HEADER_SIZE) {
+			this.indexChannel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ORDER);
+			header.put(INDEX_SIGNATURE);
+			header.putInt(INDEX_VERSION);
+			header.flip();
+			writeFully(header, 0);
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ORDER);
+		readFully(header, 0);
+		header.flip();
+		byte[] signature = new byte[INDEX_SIGNATURE.length];
+		header.get(signature);
+		int version = header.getInt();
+		if (!Arrays.equals(signature, INDEX_SIGNATURE) || version != INDEX_VERSION) {
+			throw new IOException("Unsupported elevation tile store index in " + this.root);
+		}
+
+		long entryCount = (size - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE;
+		ByteBuffer entries = ByteBuffer.allocate((int) (entryCount * INDEX_ENTRY_SIZE)).order(ORDER);
+		readFully(entries, INDEX_HEADER_SIZE);
+		entries.flip();
+		int lastSegment = 0;
+		int lastEnd = 0;
+		for (long i = 0; i < entryCount; i++) {
+			long key = entries.getLong();
+			int segment = entries.getInt();
+			int offset = entries.getInt();
+			int width = Short.toUnsignedInt(entries.getShort());
+			int height = Short.toUnsignedInt(entries.getShort());
+			entries.getInt();
+			int end = offset + width * height * Short.BYTES;
+			if (segment < 0 || offset < 0 || width <= 0 || height <= 0 || end > SEGMENT_BYTES) {
+				continue;
+			}
+			this.locations.put(key, new Location(segment, offset, width, height));
+			if (segment > lastSegment || (segment == lastSegment && end > lastEnd)) {
+				lastSegment = segment;
+				lastEnd = end;
+			}
+		}
+		// Drop any partially written trailing entry so appends stay aligned.
+		this.indexChannel.truncate(INDEX_HEADER_SIZE + entryCount * INDEX_ENTRY_SIZE);
+		this.writeSegment = lastSegment;
+		this.writeOffset = lastEnd;
+	}
+
+	private void appendIndexEntry(long key, Location location) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ORDER);
+		entry.putLong(key);
+		entry.putInt(location.segment());
+		entry.putInt(location.offset());
+		entry.putShort((short) location.width());
+		entry.putShort((short) location.height());
+		entry.putInt(0);
+		entry.flip();
+		writeFully(entry, this.indexChannel.size());
+	}
+
+	private ShortRaster view(Location location) throws IOException {
+		int byteSize = location.width() * location.height() * Short.BYTES;
+		ByteBuffer bytes = slice(segment(location.segment()), location.offset(), byteSize, true);
+		return ShortRaster.wrap(location.width(), location.height(), bytes.asShortBuffer());
+	}
+
+	private static ByteBuffer slice(MappedByteBuffer segment, int offset, int length, boolean readOnly) {
+		ByteBuffer view = readOnly ? segment.asReadOnlyBuffer() : segment.duplicate();
+		view.position(offset).limit(offset + length);
+		return view.slice().order(ORDER);
+	}
+
+	private MappedByteBuffer segment(int index) throws IOException {
+		Segment[] current = this.segments;
+		if (index < current.length && current[index] != null) {
+			return current[index].buffer();
+		}
+		synchronized (this) {
+			current = this.segments;
+			if (index < current.length && current[index] != null) {
+				return current[index].buffer();
+			}
+			if (this.closed) {
+				throw new IOException("Elevation tile store " + this.root + " is closed");
+			}
+			Segment[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+			FileChannel channel = FileChannel.open(
+					this.root.resolve(String.format("segment-%05d.bin", index)),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE
+			);
+			try {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+				grown[index] = new Segment(channel, buffer);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			this.segments = grown;
+			return grown[index].buffer();
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			int read = this.indexChannel.read(buffer, offset);
+			if (read < 0) {
+				throw new IOException("Unexpected end of elevation tile store index");
+			}
+			offset += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			offset += this.indexChannel.write(buffer, offset);
+		}
+	}
+
+	private static long key(int zoom, int x, int y) {
+		return ((long) zoom << 58) | ((long) x << 29) | (y & 0x1FFFFFFFL);
+	}
+
+	private record Location(int segment, int offset, int width, int height) {
+	}
+
+	private record Segment(FileChannel channel, MappedByteBuffer buffer) {
+	}
+}
@@ -0,0 +1,149 @@
+package com.yucareux.tellus.world.data.elevation;
+
+import com.yucareux.tellus.world.data.tiff.GeoTiffFile;
+import com.yucareux.tellus.world.data.tiff.GeoTiffImage;
+import com.yucareux.tellus.world.data.tiff.MappedTiffSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Converts a single-band geographic GeoTIFF DEM into a TELLUS/RASTER file. Parsing and block
+// decoding go through the shared tiff reader; this class only picks the value encoding.
+final class GeoTiffDemImporter {
+	private static final double VALUE_PRECISION = 0.1;
+	private static final short NO_DATA = Short.MIN_VALUE;
+	private static final int BLOCK_CACHE_MIN = 16;
+
+	private GeoTiffDemImporter() {
+	}
+
+	static void importFile(Path source, Path target) throws IOException {
+		try (GeoTiffFile file = GeoTiffFile.open(MappedTiffSource.open(source))) {
+			DemImage dem = new DemImage(file);
+			TellusRasterReader.GeoReference geo = dem.geoReference();
+			GeoTiffImage image = file.base();
+			TellusRasterWriter.write(target, image.width(), image.height(), geo, (x, y, width, height, out) -> {
+				dem.readWindow(x, y, width, height, geo, out);
+			});
+		}
+	}
+
+	private static final class DemImage {
+		private final GeoTiffFile file;
+		private final GeoTiffImage image;
+		private final Map<Integer, double[]> blockCache;
+
+		private DemImage(GeoTiffFile file) {
+			this.file = file;
+			this.image = file.base();
+			int cacheSize = Math.max(BLOCK_CACHE_MIN, this.image.tilesPerRow() * 2);
+			this.blockCache = new LinkedHashMap<>(cacheSize, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		}
+
+		TellusRasterReader.GeoReference geoReference() throws IOException {
+			GeoTiffImage image = this.image;
+			if (this.file.isProjected()) {
+				throw new IOException("GeoTIFF uses a projected CRS; reproject it to EPSG:4326 first");
+			}
+			double pixelLon = image.pixelScaleX();
+			double pixelLat = image.pixelScaleY();
+			double originLon = image.originLon();
+			double originLat = image.originLat();
+			if (!this.file.isGeographic() && (Math.abs(originLon) > 180.0 || Math.abs(originLat) > 90.0)) {
+				throw new IOException("GeoTIFF does not look like a geographic raster");
+			}
+			if (!(pixelLon > 0.0) || !(pixelLat > 0.0)) {
+				throw new IOException("Invalid GeoTIFF pixel scale");
+			}
+
+			// Signed 8- and 16-bit heights fit the raster's shorts directly, so they skip the min/max pass.
+			if (image.isSignedInteger() && image.bitsPerSample() <= 16) {
+				return new TellusRasterReader.GeoReference(originLon, originLat, pixelLon, pixelLat, 1.0, 0.0, NO_DATA);
+			}
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int block = 0; block < image.tileCount(); block++) {
+				double[] values = this.block(block);
+				int blockX = (block % image.tilesPerRow()) * image.tileWidth();
+				int blockY = (block / image.tilesPerRow()) * image.tileHeight();
+				int columns = Math.min(image.tileWidth(), image.width() - blockX);
+				int rows = Math.min(image.tileHeight(), image.height() - blockY);
+				for (int row = 0; row < rows; row++) {
+					int rowStart = row * image.tileWidth();
+					for (int column = 0; column < columns; column++) {
+						double value = values[rowStart + column];
+						if (this.isValid(value)) {
+							min = Math.min(min, value);
+							max = Math.max(max, value);
+						}
+					}
+				}
+			}
+			if (min > max) {
+				min = 0.0;
+				max = 0.0;
+			}
+			double valueScale = Math.max(VALUE_PRECISION, (max - min) / 65534.0);
+			double valueOffset = (min + max) * 0.5;
+			return new TellusRasterReader.GeoReference(originLon, originLat, pixelLon, pixelLat, valueScale, valueOffset, NO_DATA);
+		}
+
+		void readWindow(int x, int y, int width, int height, TellusRasterReader.GeoReference geo, short[] out)
+				throws IOException {
+			GeoTiffImage image = this.image;
+			int blockWidth = image.tileWidth();
+			int blockHeight = image.tileHeight();
+			int firstColumn = x / blockWidth;
+			int lastColumn = (x + width - 1) / blockWidth;
+			int firstRow = y / blockHeight;
+			int lastRow = (y + height - 1) / blockHeight;
+			for (int blockRow = firstRow; blockRow <= lastRow; blockRow++) {
+				for (int blockColumn = firstColumn; blockColumn <= lastColumn; blockColumn++) {
+					double[] block = this.block(blockColumn + blockRow * image.tilesPerRow());
+					int blockX = blockColumn * blockWidth;
+					int blockY = blockRow * blockHeight;
+					int startX = Math.max(x, blockX);
+					int endX = Math.min(x + width, Math.min(blockX + blockWidth, image.width()));
+					int startY = Math.max(y, blockY);
+					int endY = Math.min(y + height, Math.min(blockY + blockHeight, image.height()));
+					for (int py = startY; py < endY; py++) {
+						int src = (py - blockY) * blockWidth;
+						int dst = (py - y) * width;
+						for (int px = startX; px < endX; px++) {
+							out[dst + px - x] = this.encode(block[src + px - blockX], geo);
+						}
+					}
+				}
+			}
+		}
+
+		private short encode(double value, TellusRasterReader.GeoReference geo) {
+			if (!this.isValid(value)) {
+				return geo.noData();
+			}
+			long raw = Math.round((value - geo.valueOffset()) / geo.valueScale());
+			return (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, raw));
+		}
+
+		private boolean isValid(double value) {
+			return !Double.isNaN(value) && value != this.image.noData();
+		}
+
+		private double[] block(int index) throws IOException {
+			double[] cached = this.blockCache.get(index);
+			if (cached != null) {
+				return cached;
+			}
+			double[] values = new double[this.image.tileWidth() * this.image.tileHeight()];
+			this.image.readSamples(index, values);
+			this.blockCache.put(index, values);
+			return values;
+		}
+	}
+}
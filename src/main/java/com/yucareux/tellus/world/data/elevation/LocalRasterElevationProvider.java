@@ -0,0 +1,189 @@
+package com.yucareux.tellus.world.data.elevation;
+
+import com.yucareux.tellus.Tellus;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.jspecify.annotations.Nullable;
+
+// Serves local DEM rasters from the tellus.dem.dir directory. GeoTIFFs without an up-to-date
+// .tellus conversion are imported on a background thread; rasters that are already converted are
+// served right away, and each import joins them as soon as it finishes.
+final class LocalRasterElevationProvider implements ElevationProvider {
+	private static final String RASTER_EXTENSION = ".tellus";
+	private static final Comparator<Source> BY_PATH = Comparator.comparing(source -> source.file().path());
+
+	private volatile List<Source> sources;
+	private volatile boolean importing;
+	private final LongAdder provisionalSamples = new LongAdder();
+
+	private LocalRasterElevationProvider(List<Source> sources, boolean importing) {
+		this.sources = sources;
+		this.importing = importing;
+	}
+
+	static @Nullable LocalRasterElevationProvider open(Path root) {
+		if (!Files.isDirectory(root)) {
+			return null;
+		}
+		List<Import> imports = pendingImports(root);
+		Set<Path> pendingTargets = new HashSet<>();
+		for (Import pending : imports) {
+			pendingTargets.add(pending.target());
+		}
+		List<Source> sources = new ArrayList<>();
+		try (Stream<Path> files = Files.list(root)) {
+			for (Path path : files.sorted().toList()) {
+				// Stale conversions stay closed until their re-import has replaced them.
+				if (!path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(RASTER_EXTENSION)
+						|| pendingTargets.contains(path)) {
+					continue;
+				}
+				Source source = openSource(path);
+				if (source != null) {
+					sources.add(source);
+				}
+			}
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to list local elevation rasters in {}", root, e);
+		}
+		if (imports.isEmpty()) {
+			return sources.isEmpty() ? null : new LocalRasterElevationProvider(List.copyOf(sources), false);
+		}
+		LocalRasterElevationProvider provider = new LocalRasterElevationProvider(List.copyOf(sources), true);
+		Thread thread = new Thread(() -> provider.runImports(imports), "tellus-dem-import");
+		thread.setDaemon(true);
+		thread.start();
+		return provider;
+	}
+
+	@Override
+	public double sampleMeters(double lon, double lat) {
+		for (Source source : this.sources) {
+			double sample = source.sample(lon, lat);
+			if (!Double.isNaN(sample)) {
+				return sample;
+			}
+		}
+		if (this.importing) {
+			this.provisionalSamples.increment();
+		}
+		return Double.NaN;
+	}
+
+	@Override
+	public long provisionalSampleCount() {
+		return this.provisionalSamples.sum();
+	}
+
+	private void runImports(List<Import> imports) {
+		try {
+			for (Import pending : imports) {
+				Tellus.LOGGER.info("Importing local elevation GeoTIFF {}", pending.source());
+				try {
+					GeoTiffDemImporter.importFile(pending.source(), pending.target());
+				} catch (IOException e) {
+					Tellus.LOGGER.warn("Failed to import local elevation GeoTIFF {}", pending.source(), e);
+					continue;
+				}
+				Source source = openSource(pending.target());
+				if (source != null) {
+					List<Source> sources = new ArrayList<>(this.sources);
+					sources.add(source);
+					sources.sort(BY_PATH);
+					this.sources = List.copyOf(sources);
+				}
+			}
+		} finally {
+			this.importing = false;
+		}
+	}
+
+	private static @Nullable Source openSource(Path path) {
+		try {
+			TellusRasterFile file = TellusRasterFile.open(path);
+			TellusRasterReader.GeoReference geo = file.geo();
+			if (geo == null) {
+				Tellus.LOGGER.warn("Ignoring local elevation raster {} without georeference", path);
+				file.close();
+				return null;
+			}
+			Tellus.LOGGER.info("Loaded local elevation raster {} ({}x{})", path, file.width(), file.height());
+			return new Source(file, geo);
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to open local elevation raster {}", path, e);
+			return null;
+		}
+	}
+
+	// GeoTIFFs whose .tellus conversion is missing or older than the GeoTIFF itself.
+	private static List<Import> pendingImports(Path root) {
+		List<Import> imports = new ArrayList<>();
+		try (Stream<Path> files = Files.list(root)) {
+			for (Path path : files.sorted().toList()) {
+				String name = path.getFileName().toString();
+				String lower = name.toLowerCase(Locale.ROOT);
+				int extension = lower.endsWith(".tif") ? 4 : lower.endsWith(".tiff") ? 5 : -1;
+				if (extension < 0) {
+					continue;
+				}
+				Path target = path.resolveSibling(name.substring(0, name.length() - extension) + RASTER_EXTENSION);
+				if (Files.exists(target) && Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(path)) >= 0) {
+					continue;
+				}
+				imports.add(new Import(path, target));
+			}
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to scan {} for GeoTIFF elevation files", root, e);
+		}
+		return imports;
+	}
+
+	private record Import(Path source, Path target) {
+	}
+
+	private record Source(TellusRasterFile file, TellusRasterReader.GeoReference geo) {
+		double sample(double lon, double lat) {
+			double pixelX = (lon - this.geo.originLon()) / this.geo.pixelLon() - 0.5;
+			double pixelY = (this.geo.originLat() - lat) / this.geo.pixelLat() - 0.5;
+			int width = this.file.width();
+			int height = this.file.height();
+			if (!(pixelX >= -0.5 && pixelX <= width - 0.5 && pixelY >= -0.5 && pixelY <= height - 0.5)) {
+				return Double.NaN;
+			}
+			pixelX = Math.max(0.0, Math.min(width - 1, pixelX));
+			pixelY = Math.max(0.0, Math.min(height - 1, pixelY));
+			int x0 = (int) pixelX;
+			int y0 = (int) pixelY;
+			int x1 = Math.min(x0 + 1, width - 1);
+			int y1 = Math.min(y0 + 1, height - 1);
+			double fx = pixelX - x0;
+			double fy = pixelY - y0;
+			try {
+				short noData = this.geo.noData();
+				short v00 = this.file.get(x0, y0);
+				short v10 = this.file.get(x1, y0);
+				short v01 = this.file.get(x0, y1);
+				short v11 = this.file.get(x1, y1);
+				if (v00 == noData || v10 == noData || v01 == noData || v11 == noData) {
+					return Double.NaN;
+				}
+				double top = v00 + (v10 - v00) * fx;
+				double bottom = v01 + (v11 - v01) * fx;
+				double raw = top + (bottom - top) * fy;
+				return raw * this.geo.valueScale() + this.geo.valueOffset();
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to sample local elevation raster {}", this.file.path(), e);
+				return Double.NaN;
+			}
+		}
+	}
+}
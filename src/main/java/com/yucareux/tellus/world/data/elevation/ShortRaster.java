@@ -1,30 +1,84 @@
 package com.yucareux.tellus.world.data.elevation;
 
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 
-record ShortRaster(int width, int height, short[] data) {
+final class ShortRaster {
+    private final int width;
+    private final int height;
+    private final short[] data;
+    private final ShortBuffer buffer;
+
+    private ShortRaster(int width, int height, short[] data, ShortBuffer buffer) {
+        this.width = width;
+        this.height = height;
+        this.data = data;
+        this.buffer = buffer;
+    }
 
     static ShortRaster create(int width, int height) {
-        return new ShortRaster(width, height, new short[width * height]);
+        return new ShortRaster(width, height, new short[width * height], null);
     }
 
     static ShortRaster wrap(int width, int height, short[] data) {
         if (data.length != width * height) {
             throw new IllegalArgumentException("Invalid raster buffer");
         }
-        return new ShortRaster(width, height, data);
+        return new ShortRaster(width, height, data, null);
+    }
+
+    static ShortRaster wrap(int width, int height, ShortBuffer buffer) {
+        if (buffer.remaining() != width * height) {
+            throw new IllegalArgumentException("Invalid raster buffer");
+        }
+        return new ShortRaster(width, height, null, buffer.slice());
+    }
+
+    int width() {
+        return this.width;
+    }
+
+    int height() {
+        return this.height;
     }
 
+    boolean isMapped() {
+        return this.buffer != null;
+    }
+
+    // Mapped rasters live in the page cache; only the buffer view itself is on the heap.
+    long heapBytes() {
+        return this.buffer != null ? 0L : (long) this.width * this.height * Short.BYTES;
+    }
+
+    short[] data() {
+        if (this.data == null) {
+            throw new IllegalStateException("Raster is backed by a mapped buffer");
+        }
+        return this.data;
+    }
 
     short get(int x, int y) {
-        return this.data[x + y * this.width];
+        int index = x + y * this.width;
+        if (this.data != null) {
+            return this.data[index];
+        }
+        return this.buffer.get(index);
+    }
+
+    void copyTo(ShortBuffer target) {
+        if (this.data != null) {
+            target.put(this.data);
+        } else {
+            target.put(this.buffer.duplicate());
+        }
     }
 
     void set(int x, int y, short value) {
-        this.data[x + y * this.width] = value;
+        this.data()[x + y * this.width] = value;
     }
 
     void fill(short value) {
-        Arrays.fill(this.data, value);
+        Arrays.fill(this.data(), value);
     }
 }
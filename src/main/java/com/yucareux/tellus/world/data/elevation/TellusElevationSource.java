@@ -1,22 +1,26 @@
 package com.yucareux.tellus.world.data.elevation;
 
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import com.yucareux.tellus.world.data.http.TileFetcher;
+import com.yucareux.tellus.world.data.image.PngDecoder;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import javax.imageio.ImageIO;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Mth;
 import org.jetbrains.annotations.NotNull;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 
 public final class TellusElevationSource {
 	private static final double EQUATOR_CIRCUMFERENCE = 40075017.0;
@@ -32,21 +36,47 @@ public final class TellusElevationSource {
 	private static final double DOWNSAMPLE_START_PIXELS = 4.0;
 	private static final int MAX_DOWNSAMPLE_STEP = 256;
 	private static final String ENDPOINT = "https://s3.amazonaws.com/elevation-tiles-prod/terrarium";
-	private static final int MAX_CACHE_TILES = intProperty("tellus.elevation.cacheTiles", 512);
+	private static final int MAX_GRID_WINDOW_TILES = 64;
+	private static final OceanZoomPolicy ALWAYS_OCEAN_ZOOM = (blockX, blockZ) -> true;
+	private static final OceanZoomPolicy NEVER_OCEAN_ZOOM = (blockX, blockZ) -> false;
+	private static final boolean STORE_ENABLED =
+			Boolean.parseBoolean(System.getProperty("tellus.elevation.store", "true"));
 
+	private final LongAdder failedSamples = new LongAdder();
 	private final Path cacheRoot;
-	private final LoadingCache<@NonNull TileKey, @NotNull ShortRaster> cache;
+	private final @Nullable ElevationTileStore store;
+	private final @Nullable ElevationProvider localProvider;
+	private final ManagedCache<@NonNull TileKey, @NotNull ShortRaster> cache;
+	private final ManagedCache<@NonNull TileKey, @NotNull ApronTile> apronCache;
 
 	public TellusElevationSource() {
-		this.cacheRoot = FabricLoader.getInstance().getGameDir().resolve("tellus/cache/elevation-tellus");
-		this.cache = CacheBuilder.newBuilder()
-				.maximumSize(MAX_CACHE_TILES)
+		Path gameDir = FabricLoader.getInstance().getGameDir();
+		this.cacheRoot = gameDir.resolve("tellus/cache/elevation-tellus");
+		this.store = STORE_ENABLED ? ElevationTileStore.acquire(gameDir.resolve("tellus/cache/elevation-store")) : null;
+		this.localProvider = LocalRasterElevationProvider.open(gameDir.resolve(System.getProperty("tellus.dem.dir", "tellus/dem")));
+		this.cache = ManagedCache.<@NonNull TileKey, @NotNull ShortRaster>builder("elevation", ShortRaster::heapBytes)
 				.build(new CacheLoader<@NonNull TileKey, @NotNull ShortRaster>() {
 					@Override
 					public ShortRaster load(@NonNull TileKey key) throws Exception {
 						return TellusElevationSource.this.loadTile(key);
 					}
 				});
+		this.apronCache = ManagedCache.<@NonNull TileKey, @NotNull ApronTile>builder("elevation-apron", ApronTile::heapBytes)
+				.build(new CacheLoader<@NonNull TileKey, @NotNull ApronTile>() {
+					@Override
+					public ApronTile load(@NonNull TileKey key) throws Exception {
+						return TellusElevationSource.this.loadApronTile(key);
+					}
+				});
+	}
+
+	// Counts tile lookups that fell back to the ocean surface or sea level because a tile failed to
+	// load, as opposed to tiles that do not exist. Callers that persist derived data compare it across
+	// a build and skip the write when it moved. Samples that missed the local rasters while a
+	// GeoTIFF import was still running count too, since the finished import may cover them.
+	public long failedSampleCount() {
+		ElevationProvider local = this.localProvider;
+		return this.failedSamples.sum() + (local != null ? local.provisionalSampleCount() : 0L);
 	}
 
 	public double sampleElevationMeters(double blockX, double blockZ, double worldScale) {
@@ -54,32 +84,192 @@ public final class TellusElevationSource {
 	}
 
 	public double sampleElevationMeters(double blockX, double blockZ, double worldScale, boolean highResOcean) {
+		return sampleElevationMeters(blockX, blockZ, worldScale, highResOcean ? ALWAYS_OCEAN_ZOOM : NEVER_OCEAN_ZOOM);
+	}
+
+	public double sampleElevationMeters(double blockX, double blockZ, double worldScale, OceanZoomPolicy oceanZoom) {
 		if (worldScale <= 0.0) {
 			return 0.0;
 		}
 
+		double blocksPerDegree = (EQUATOR_CIRCUMFERENCE / 360.0) / worldScale;
+		ElevationProvider local = this.localProvider;
+		if (local != null) {
+			double localSample = local.sampleMeters(blockX / blocksPerDegree, -blockZ / blocksPerDegree);
+			if (!Double.isNaN(localSample)) {
+				return localSample;
+			}
+		}
+
+		double sampleX = blockX;
+		double sampleZ = blockZ;
 		int step = downsampleStep(worldScale, RESOLUTION_METERS);
 		if (step > 1) {
-			blockX = downsampleBlock(blockX, step);
-			blockZ = downsampleBlock(blockZ, step);
+			sampleX = downsampleBlock(sampleX, step);
+			sampleZ = downsampleBlock(sampleZ, step);
 		}
 
+		double normX = mercatorX(sampleX / blocksPerDegree);
+		double normY = mercatorY(-sampleZ / blocksPerDegree);
+		if (Double.isNaN(normX) || Double.isNaN(normY)) {
+			return 0.0;
+		}
 		int zoom = Mth.clamp(selectZoom(worldScale), MIN_ZOOM, LAND_MAX_ZOOM);
-		double sample = sampleAtZoom(blockX, blockZ, worldScale, zoom);
-		if (!Double.isNaN(sample)) {
-			if (sample <= 0.0 && highResOcean) {
-				double oceanSample = sampleAtZoom(blockX, blockZ, worldScale, OCEAN_MAX_ZOOM);
-				if (!Double.isNaN(oceanSample)) {
-					return oceanSample;
+		return sampleNormalized(zoom, normX, normY, null, null, oceanZoom, blockX, blockZ);
+	}
+
+	public void sampleElevationGrid(
+			double minX,
+			double minZ,
+			int width,
+			int height,
+			double step,
+			double worldScale,
+			boolean @Nullable [] highResOcean,
+			double[] out
+	) {
+		if (highResOcean != null && highResOcean.length < width * height) {
+			throw new IllegalArgumentException("Ocean zoom mask too small");
+		}
+		sampleGrid(minX, minZ, width, height, step, worldScale, highResOcean, ALWAYS_OCEAN_ZOOM, out);
+	}
+
+	public void sampleElevationGrid(
+			double minX,
+			double minZ,
+			int width,
+			int height,
+			double step,
+			double worldScale,
+			OceanZoomPolicy oceanZoom,
+			double[] out
+	) {
+		sampleGrid(minX, minZ, width, height, step, worldScale, null, oceanZoom, out);
+	}
+
+	private void sampleGrid(
+			double minX,
+			double minZ,
+			int width,
+			int height,
+			double step,
+			double worldScale,
+			boolean @Nullable [] oceanZoomMask,
+			OceanZoomPolicy oceanZoom,
+			double[] out
+	) {
+		int area = width * height;
+		if (out.length < area) {
+			throw new IllegalArgumentException("Elevation grid buffer too small");
+		}
+		if (area <= 0) {
+			return;
+		}
+		if (worldScale <= 0.0) {
+			Arrays.fill(out, 0, area, 0.0);
+			return;
+		}
+
+		int downsample = downsampleStep(worldScale, RESOLUTION_METERS);
+		double blocksPerDegree = (EQUATOR_CIRCUMFERENCE / 360.0) / worldScale;
+		double[] columnX = new double[width];
+		double[] rowY = new double[height];
+		for (int dx = 0; dx < width; dx++) {
+			double blockX = minX + dx * step;
+			if (downsample > 1) {
+				blockX = downsampleBlock(blockX, downsample);
+			}
+			columnX[dx] = mercatorX(blockX / blocksPerDegree);
+		}
+		for (int dz = 0; dz < height; dz++) {
+			double blockZ = minZ + dz * step;
+			if (downsample > 1) {
+				blockZ = downsampleBlock(blockZ, downsample);
+			}
+			rowY[dz] = mercatorY(-blockZ / blocksPerDegree);
+		}
+
+		ElevationProvider local = this.localProvider;
+		int landZoom = Mth.clamp(selectZoom(worldScale), MIN_ZOOM, LAND_MAX_ZOOM);
+		TileWindow land = new TileWindow(landZoom, columnX, rowY);
+		TileWindow ocean = landZoom == OCEAN_MAX_ZOOM ? land : new TileWindow(OCEAN_MAX_ZOOM, columnX, rowY);
+		for (int dz = 0; dz < height; dz++) {
+			double normY = rowY[dz];
+			double blockZ = minZ + dz * step;
+			int row = dz * width;
+			for (int dx = 0; dx < width; dx++) {
+				int index = row + dx;
+				double blockX = minX + dx * step;
+				if (local != null) {
+					double localSample = local.sampleMeters(blockX / blocksPerDegree, -blockZ / blocksPerDegree);
+					if (!Double.isNaN(localSample)) {
+						out[index] = localSample;
+						continue;
+					}
+				}
+				double normX = columnX[dx];
+				if (Double.isNaN(normX) || Double.isNaN(normY)) {
+					out[index] = 0.0;
+					continue;
 				}
+				OceanZoomPolicy policy = oceanZoomMask == null
+						? oceanZoom
+						: oceanZoomMask[index] ? ALWAYS_OCEAN_ZOOM : NEVER_OCEAN_ZOOM;
+				out[index] = sampleNormalized(landZoom, normX, normY, land, ocean, policy, blockX, blockZ);
 			}
+		}
+	}
+
+	private double sampleNormalized(
+			int landZoom,
+			double normX,
+			double normY,
+			@Nullable TileWindow land,
+			@Nullable TileWindow ocean,
+			OceanZoomPolicy oceanZoom,
+			double blockX,
+			double blockZ
+	) {
+		int tilesPerAxis = 1 << landZoom;
+		double x = normX * tilesPerAxis;
+		double y = normY * tilesPerAxis;
+		int tileX = Mth.floor(x);
+		int tileY = Mth.floor(y);
+		ApronTile tile = land != null ? land.tile(tileX, tileY) : getApronTile(new TileKey(landZoom, tileX, tileY));
+		if (tile == null) {
+			double oceanSample = sampleAtZoom(OCEAN_MAX_ZOOM, normX, normY, ocean);
+			return Double.isNaN(oceanSample) ? 0.0 : oceanSample;
+		}
+
+		double localX = localPixel(landZoom, x, tileX);
+		double localY = localPixel(landZoom, y, tileY);
+		double sample = tile.sample(localX, localY);
+		if (sample > 0.0 || landZoom == OCEAN_MAX_ZOOM || !oceanZoom.useOceanZoom(blockX, blockZ)) {
 			return sample;
 		}
-		double oceanSample = sampleAtZoom(blockX, blockZ, worldScale, OCEAN_MAX_ZOOM);
-		if (!Double.isNaN(oceanSample)) {
-			return oceanSample;
+		// Tiles above the ocean zoom carry the ocean-zoom surface resampled onto their own pixels.
+		double oceanSample = landZoom > OCEAN_MAX_ZOOM
+				? tile.sampleOcean(localX, localY)
+				: sampleAtZoom(OCEAN_MAX_ZOOM, normX, normY, ocean);
+		return Double.isNaN(oceanSample) ? sample : oceanSample;
+	}
+
+	private double sampleAtZoom(int zoom, double normX, double normY, @Nullable TileWindow window) {
+		int tilesPerAxis = 1 << zoom;
+		double x = normX * tilesPerAxis;
+		double y = normY * tilesPerAxis;
+		int tileX = Mth.floor(x);
+		int tileY = Mth.floor(y);
+		ApronTile tile = window != null ? window.tile(tileX, tileY) : getApronTile(new TileKey(zoom, tileX, tileY));
+		if (tile == null) {
+			return Double.NaN;
 		}
-		return 0.0;
+		return tile.sample(localPixel(zoom, x, tileX), localPixel(zoom, y, tileY));
+	}
+
+	private static double localPixel(int zoom, double tileCoord, int tile) {
+		int maxPixel = (1 << zoom) * TILE_SIZE - 1;
+		return Math.min(tileCoord * TILE_SIZE, maxPixel) - tile * TILE_SIZE;
 	}
 
 	public void prefetchTiles(double blockX, double blockZ, double worldScale, int radius) {
@@ -110,34 +300,27 @@ public final class TellusElevationSource {
 		}
 	}
 
-	private double sampleAtZoom(double blockX, double blockZ, double worldScale, int zoom) {
-		double metersPerDegree = EQUATOR_CIRCUMFERENCE / 360.0;
-		double blocksPerDegree = metersPerDegree / worldScale;
-		double lon = blockX / blocksPerDegree;
-		double lat = -blockZ / blocksPerDegree;
-		if (lat < MIN_LAT || lat > MAX_LAT || lon < MIN_LON || lon > MAX_LON) {
+	private static double mercatorX(double lon) {
+		if (lon < MIN_LON || lon > MAX_LON) {
 			return Double.NaN;
 		}
-
-		double latRad = Math.toRadians(lat);
-		double n = Math.pow(2.0, zoom);
-		double x = (lon + 180.0) / 360.0 * n;
-		double y = (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * n;
-		if (x < 0.0 || y < 0.0 || x >= n || y >= n) {
+		double x = (lon + 180.0) / 360.0;
+		if (x < 0.0 || x >= 1.0) {
 			return Double.NaN;
 		}
+		return x;
+	}
 
-		int tileX = Mth.floor(x);
-		int tileY = Mth.floor(y);
-
-		ShortRaster raster = getTile(new TileKey(zoom, tileX, tileY));
-		if (raster == null) {
+	private static double mercatorY(double lat) {
+		if (lat < MIN_LAT || lat > MAX_LAT) {
 			return Double.NaN;
 		}
-
-		double globalX = x * TILE_SIZE;
-		double globalY = y * TILE_SIZE;
-		return sampleBilinearAcrossTiles(zoom, globalX, globalY, tileX, tileY, raster);
+		double latRad = Math.toRadians(lat);
+		double y = (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0;
+		if (y < 0.0 || y >= 1.0) {
+			return Double.NaN;
+		}
+		return y;
 	}
 
 	private static int downsampleStep(double worldScale, double resolutionMeters) {
@@ -194,59 +377,163 @@ public final class TellusElevationSource {
 		}
 	}
 
-	private static int intProperty(String key, int defaultValue) {
-		String value = System.getProperty(key);
-		if (value == null) {
-			return defaultValue;
-		}
+	private @Nullable ApronTile getApronTile(@NonNull TileKey key) {
 		try {
-			return Math.max(1, Integer.parseInt(value));
-		} catch (NumberFormatException ignored) {
-			return defaultValue;
+			return dependencyApronTile(key);
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to load elevation tile {}", key, e);
+			this.failedSamples.increment();
+			return null;
 		}
 	}
 
-	private ShortRaster getTile(@NonNull TileKey key) {
+	// Loads a tile that another cached tile is built from. Returns null only when the tile does not
+	// exist; any other failure is rethrown so the dependent tile is not cached in a degraded form.
+	private @Nullable ShortRaster dependencyTile(@NonNull TileKey key) throws IOException {
+		ShortRaster cached = this.cache.getIfPresent(key);
+		if (cached != null) {
+			return cached;
+		}
+		TileFetcher.shared().promote(tileUri(key));
 		try {
 			return this.cache.get(key);
-		} catch (Exception e) {
-			Tellus.LOGGER.warn("Failed to load elevation tile {}", key, e);
+		} catch (ExecutionException e) {
+			return rethrowUnlessMissing(key, e);
+		}
+	}
+
+	private @Nullable ApronTile dependencyApronTile(@NonNull TileKey key) throws IOException {
+		try {
+			return this.apronCache.get(key);
+		} catch (ExecutionException e) {
+			return rethrowUnlessMissing(key, e);
+		}
+	}
+
+	private static <T> @Nullable T rethrowUnlessMissing(TileKey key, ExecutionException e) throws IOException {
+		Throwable cause = e.getCause();
+		if (cause instanceof MissingTileException) {
 			return null;
 		}
+		if (cause instanceof IOException io) {
+			throw io;
+		}
+		throw new IOException("Failed to load elevation tile " + key, cause);
+	}
+
+	private ApronTile loadApronTile(@NonNull TileKey key) throws IOException {
+		ShortRaster base = dependencyTile(key);
+		if (base == null) {
+			throw new MissingTileException(key);
+		}
+		if (base.width() != TILE_SIZE || base.height() != TILE_SIZE) {
+			throw new IOException("Unexpected elevation tile size " + base.width() + "x" + base.height());
+		}
+		int tilesPerAxis = 1 << key.zoom();
+		boolean hasRight = key.x() + 1 < tilesPerAxis;
+		boolean hasBelow = key.y() + 1 < tilesPerAxis;
+		// Edges repeat only at the world edge or where the neighbour does not exist; a neighbour that
+		// failed to load fails the whole apron, which is then retried instead of cached with a seam.
+		ShortRaster right = hasRight ? dependencyTile(new TileKey(key.zoom(), key.x() + 1, key.y())) : null;
+		ShortRaster below = hasBelow ? dependencyTile(new TileKey(key.zoom(), key.x(), key.y() + 1)) : null;
+		ShortRaster belowRight = hasRight && hasBelow
+				? dependencyTile(new TileKey(key.zoom(), key.x() + 1, key.y() + 1))
+				: null;
+		ApronTile tile = ApronTile.build(base, sized(right), sized(below), sized(belowRight));
+		if (key.zoom() > OCEAN_MAX_ZOOM && tile.hasNonPositive()) {
+			tile = tile.withOcean(buildOceanLayer(key));
+		}
+		return tile;
+	}
+
+	// Ocean tiles that do not exist leave NaN (no ocean surface) in the layer; any other failure is
+	// propagated, since the layer is cached inside the composite tile.
+	private float[] buildOceanLayer(TileKey key) throws IOException {
+		int stride = TILE_SIZE + 1;
+		float[] layer = new float[stride * stride];
+		int oceanTiles = 1 << OCEAN_MAX_ZOOM;
+		// Zoom levels differ by a power of two, so every land pixel cell lies inside one ocean pixel cell
+		// and interpolating these resampled values reproduces the ocean-zoom bilinear surface.
+		double scale = 1.0 / (1 << (key.zoom() - OCEAN_MAX_ZOOM));
+		int cachedX = Integer.MIN_VALUE;
+		int cachedY = Integer.MIN_VALUE;
+		ApronTile cached = null;
+		for (int py = 0; py < stride; py++) {
+			double oceanY = ((double) key.y() * TILE_SIZE + py) * scale / TILE_SIZE;
+			int oceanTileY = Math.min(Mth.floor(oceanY), oceanTiles - 1);
+			for (int px = 0; px < stride; px++) {
+				double oceanX = ((double) key.x() * TILE_SIZE + px) * scale / TILE_SIZE;
+				int oceanTileX = Math.min(Mth.floor(oceanX), oceanTiles - 1);
+				if (oceanTileX != cachedX || oceanTileY != cachedY) {
+					cached = dependencyApronTile(new TileKey(OCEAN_MAX_ZOOM, oceanTileX, oceanTileY));
+					cachedX = oceanTileX;
+					cachedY = oceanTileY;
+				}
+				layer[px + py * stride] = cached == null
+						? Float.NaN
+						: (float) cached.sample(
+								localPixel(OCEAN_MAX_ZOOM, oceanX, oceanTileX),
+								localPixel(OCEAN_MAX_ZOOM, oceanY, oceanTileY)
+						);
+			}
+		}
+		return layer;
+	}
+
+	private static @Nullable ShortRaster sized(@Nullable ShortRaster raster) {
+		return raster != null && raster.width() == TILE_SIZE && raster.height() == TILE_SIZE ? raster : null;
 	}
 
 	private ShortRaster loadTile(@NonNull TileKey key) throws IOException {
+		ElevationTileStore store = this.store;
+		if (store != null) {
+			ShortRaster stored = store.get(key.zoom(), key.x(), key.y());
+			if (stored != null) {
+				return stored;
+			}
+		}
 		Path cachePath = this.cacheRoot.resolve(key.zoom() + "/" + key.x() + "/" + key.y() + ".png");
 		if (Files.exists(cachePath)) {
-			try (InputStream input = Files.newInputStream(cachePath)) {
-				return readPngRaster(input);
-			}
+			return storeTile(key, readPngRaster(Files.readAllBytes(cachePath)));
 		}
 		byte[] data = downloadTile(key);
 		if (data == null) {
-			return null;
+			throw new MissingTileException(key);
 		}
 
-		cacheTile(cachePath, data);
-		try (InputStream input = new ByteArrayInputStream(data)) {
-			return readPngRaster(input);
+		ShortRaster raster = readPngRaster(data);
+		if (store == null) {
+			cacheTile(cachePath, data);
+			return raster;
 		}
+		ShortRaster stored = storeTile(key, raster);
+		if (stored == raster) {
+			cacheTile(cachePath, data);
+		}
+		return stored;
 	}
 
-	private byte[] downloadTile(TileKey key) throws IOException {
-		URI uri = URI.create(String.format("%s/%d/%d/%d.png", ENDPOINT, key.zoom(), key.x(), key.y()));
-		HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-		connection.setConnectTimeout(8000);
-		connection.setReadTimeout(8000);
-		connection.setRequestProperty("User-Agent", "Tellus/1.0 (Minecraft Mod)");
-		if (connection.getResponseCode() == 404) {
-			return null;
+	private ShortRaster storeTile(TileKey key, ShortRaster raster) {
+		ElevationTileStore store = this.store;
+		if (store == null) {
+			return raster;
 		}
-		try (InputStream input = connection.getInputStream()) {
-			return input.readAllBytes();
+		try {
+			return store.put(key.zoom(), key.x(), key.y(), raster);
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to store elevation tile {}", key, e);
+			return raster;
 		}
 	}
 
+	private byte[] downloadTile(TileKey key) throws IOException {
+		return TileFetcher.shared().fetch(tileUri(key));
+	}
+
+	private static URI tileUri(TileKey key) {
+		return URI.create(String.format("%s/%d/%d/%d.png", ENDPOINT, key.zoom(), key.x(), key.y()));
+	}
+
 	private void cacheTile(Path cachePath, byte[] data) {
 		try {
 			Files.createDirectories(cachePath.getParent());
@@ -256,83 +543,6 @@ public final class TellusElevationSource {
 		}
 	}
 
-	private double sampleBilinearAcrossTiles(
-			int zoom,
-			double globalX,
-			double globalY,
-			int baseTileX,
-			int baseTileY,
-			ShortRaster baseRaster
-	) {
-		int tilesPerAxis = 1 << zoom;
-		int maxPixel = tilesPerAxis * TILE_SIZE - 1;
-		double clampedX = Mth.clamp(globalX, 0.0, maxPixel);
-		double clampedY = Mth.clamp(globalY, 0.0, maxPixel);
-		int x0 = Mth.floor(clampedX);
-		int y0 = Mth.floor(clampedY);
-		int x1 = Math.min(x0 + 1, maxPixel);
-		int y1 = Math.min(y0 + 1, maxPixel);
-
-		double dx = clampedX - x0;
-		double dy = clampedY - y0;
-
-		double v00 = samplePixel(zoom, x0, y0, baseTileX, baseTileY, baseRaster);
-		double v10 = samplePixel(zoom, x1, y0, baseTileX, baseTileY, baseRaster);
-		double v01 = samplePixel(zoom, x0, y1, baseTileX, baseTileY, baseRaster);
-		double v11 = samplePixel(zoom, x1, y1, baseTileX, baseTileY, baseRaster);
-		if (Double.isNaN(v00) || Double.isNaN(v10) || Double.isNaN(v01) || Double.isNaN(v11)) {
-			double localX = clampedX - baseTileX * TILE_SIZE;
-			double localY = clampedY - baseTileY * TILE_SIZE;
-			return sampleBilinearLocal(baseRaster, localX, localY);
-		}
-
-		double lerpX0 = Mth.lerp(dx, v00, v10);
-		double lerpX1 = Mth.lerp(dx, v01, v11);
-		return Mth.lerp(dy, lerpX0, lerpX1);
-	}
-
-	private double samplePixel(
-			int zoom,
-			int pixelX,
-			int pixelY,
-			int baseTileX,
-			int baseTileY,
-			ShortRaster baseRaster
-	) {
-		int tileX = Math.floorDiv(pixelX, TILE_SIZE);
-		int tileY = Math.floorDiv(pixelY, TILE_SIZE);
-		ShortRaster raster = (tileX == baseTileX && tileY == baseTileY)
-				? baseRaster
-				: getTile(new TileKey(zoom, tileX, tileY));
-		if (raster == null) {
-			return Double.NaN;
-		}
-		int localX = pixelX - tileX * TILE_SIZE;
-		int localY = pixelY - tileY * TILE_SIZE;
-		return raster.get(localX, localY);
-	}
-
-	private static double sampleBilinearLocal(ShortRaster raster, double x, double y) {
-		int maxX = raster.width() - 1;
-		int maxY = raster.height() - 1;
-		int x0 = Mth.clamp(Mth.floor(x), 0, maxX);
-		int y0 = Mth.clamp(Mth.floor(y), 0, maxY);
-		int x1 = Math.min(x0 + 1, maxX);
-		int y1 = Math.min(y0 + 1, maxY);
-
-		double dx = x - x0;
-		double dy = y - y0;
-
-		double v00 = raster.get(x0, y0);
-		double v10 = raster.get(x1, y0);
-		double v01 = raster.get(x0, y1);
-		double v11 = raster.get(x1, y1);
-
-		double lerpX0 = Mth.lerp(dx, v00, v10);
-		double lerpX1 = Mth.lerp(dx, v01, v11);
-		return Mth.lerp(dy, lerpX0, lerpX1);
-	}
-
 	private static int selectZoom(double worldScale) {
 		double zoom = zoomForScale(worldScale);
 		return Math.max((int) Math.round(zoom), MIN_ZOOM);
@@ -342,7 +552,17 @@ public final class TellusElevationSource {
 		return Math.log(EQUATOR_CIRCUMFERENCE / (TILE_SIZE * meters)) / Math.log(2.0);
 	}
 
-	private static ShortRaster readPngRaster(InputStream input) throws IOException {
+	private static ShortRaster readPngRaster(byte[] data) throws IOException {
+		TerrariumSink sink = new TerrariumSink();
+		if (PngDecoder.decode(data, sink)) {
+			return sink.raster;
+		}
+		try (InputStream input = new ByteArrayInputStream(data)) {
+			return readImageIoRaster(input);
+		}
+	}
+
+	private static ShortRaster readImageIoRaster(InputStream input) throws IOException {
 		BufferedImage image = ImageIO.read(input);
 		if (image == null) {
 			throw new IOException("Invalid tellus PNG tile");
@@ -366,6 +586,130 @@ public final class TellusElevationSource {
 		return raster;
 	}
 
+	@FunctionalInterface
+	public interface OceanZoomPolicy {
+		boolean useOceanZoom(double blockX, double blockZ);
+	}
+
 	private record TileKey(int zoom, int x, int y) {
 	}
+
+	// The tile server answered 404: the tile does not exist, as opposed to failing to download.
+	private static final class MissingTileException extends IOException {
+		private MissingTileException(TileKey key) {
+			super("Missing elevation tile " + key);
+		}
+	}
+
+	private static final class TerrariumSink implements PngDecoder.ScanlineSink {
+		private ShortRaster raster;
+		private short[] data;
+		private int width;
+		private int channels;
+
+		@Override
+		public boolean start(int width, int height, int channels, int bitDepth) {
+			// Gray and palette tiles still decode through ImageIO, which expands them to RGB.
+			if (channels < 3 || bitDepth != 8) {
+				return false;
+			}
+			this.raster = ShortRaster.create(width, height);
+			this.data = this.raster.data();
+			this.width = width;
+			this.channels = channels;
+			return true;
+		}
+
+		@Override
+		public void row(int y, byte[] scanline, int offset) {
+			short[] data = this.data;
+			int channels = this.channels;
+			int out = y * this.width;
+			int end = out + this.width;
+			for (int in = offset; out < end; out++, in += channels) {
+				int red = scanline[in] & 0xFF;
+				int green = scanline[in + 1] & 0xFF;
+				int blue = scanline[in + 2] & 0xFF;
+				// Equivalent to Math.round(red * 256 + green + blue / 256.0 - 32768).
+				data[out] = (short) ((red << 8) + green - 32768 + (blue >> 7));
+			}
+		}
+	}
+
+	private final class TileWindow {
+		private final int zoom;
+		private final int tilesPerAxis;
+		private final int minTileX;
+		private final int minTileY;
+		private final int spanX;
+		private final int spanY;
+		private final ApronTile[] tiles;
+		private final boolean[] resolved;
+
+		private TileWindow(int zoom, double[] columnX, double[] rowY) {
+			this.zoom = zoom;
+			this.tilesPerAxis = 1 << zoom;
+			int minX = tileRangeMin(columnX);
+			int maxX = tileRangeMax(columnX);
+			int minY = tileRangeMin(rowY);
+			int maxY = tileRangeMax(rowY);
+			int spanX = maxX - minX + 1;
+			int spanY = maxY - minY + 1;
+			if (spanX <= 0 || spanY <= 0 || (long) spanX * spanY > MAX_GRID_WINDOW_TILES) {
+				this.minTileX = 0;
+				this.minTileY = 0;
+				this.spanX = 0;
+				this.spanY = 0;
+				this.tiles = null;
+				this.resolved = null;
+				return;
+			}
+			this.minTileX = minX;
+			this.minTileY = minY;
+			this.spanX = spanX;
+			this.spanY = spanY;
+			this.tiles = new ApronTile[spanX * spanY];
+			this.resolved = new boolean[spanX * spanY];
+		}
+
+		private int tileRangeMin(double[] coords) {
+			double min = Double.POSITIVE_INFINITY;
+			for (double coord : coords) {
+				if (coord < min) {
+					min = coord;
+				}
+			}
+			if (min == Double.POSITIVE_INFINITY) {
+				return 0;
+			}
+			return Math.max(0, Mth.floor(min * this.tilesPerAxis));
+		}
+
+		private int tileRangeMax(double[] coords) {
+			double max = Double.NEGATIVE_INFINITY;
+			for (double coord : coords) {
+				if (coord > max) {
+					max = coord;
+				}
+			}
+			if (max == Double.NEGATIVE_INFINITY) {
+				return -1;
+			}
+			return Math.min(this.tilesPerAxis - 1, Mth.floor(max * this.tilesPerAxis));
+		}
+
+		private ApronTile tile(int tileX, int tileY) {
+			int localX = tileX - this.minTileX;
+			int localY = tileY - this.minTileY;
+			if (this.tiles == null || localX < 0 || localY < 0 || localX >= this.spanX || localY >= this.spanY) {
+				return getApronTile(new TileKey(this.zoom, tileX, tileY));
+			}
+			int index = localY * this.spanX + localX;
+			if (!this.resolved[index]) {
+				this.tiles[index] = getApronTile(new TileKey(this.zoom, tileX, tileY));
+				this.resolved[index] = true;
+			}
+			return this.tiles[index];
+		}
+	}
 }
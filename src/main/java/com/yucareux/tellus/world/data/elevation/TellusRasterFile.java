@@ -0,0 +1,201 @@
+package com.yucareux.tellus.world.data.elevation;
+
+import com.google.common.cache.CacheLoader;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jspecify.annotations.Nullable;
+
+final class TellusRasterFile implements AutoCloseable {
+	private final Path path;
+	private final FileChannel channel;
+	private final TellusRasterReader.Header header;
+	private final ChunkEntry @Nullable [] grid;
+	private final int chunkWidth;
+	private final int chunkHeight;
+	private final int columns;
+	private final @Nullable ShortRaster fallback;
+	private final ManagedCache<@NotNull Integer, short @NotNull []> chunkCache;
+
+	private TellusRasterFile(Path path, FileChannel channel, TellusRasterReader.Header header, List<ChunkEntry> chunks)
+			throws IOException {
+		this.path = path;
+		this.channel = channel;
+		this.header = header;
+		ChunkEntry first = chunks.isEmpty() ? null : chunks.get(0);
+		int chunkWidth = first != null ? first.width() : header.width();
+		int chunkHeight = first != null ? first.height() : header.height();
+		this.chunkWidth = chunkWidth;
+		this.chunkHeight = chunkHeight;
+		this.columns = ceilDiv(header.width(), chunkWidth);
+		int rows = ceilDiv(header.height(), chunkHeight);
+		this.grid = buildGrid(chunks, chunkWidth, chunkHeight, this.columns, rows);
+		// Files written with an irregular chunk layout cannot be indexed; decode them once instead.
+		this.fallback = this.grid == null ? readFully() : null;
+		this.chunkCache = ManagedCache.<@NotNull Integer, short @NotNull []>builder("dem-chunks", data -> (long) data.length * Short.BYTES)
+				.build(new CacheLoader<>() {
+					@Override
+					public short[] load(@NotNull Integer index) throws Exception {
+						return TellusRasterFile.this.loadChunk(index);
+					}
+				});
+	}
+
+	static TellusRasterFile open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			DataInputStream dataIn = new DataInputStream(Channels.newInputStream(channel.position(0)));
+			TellusRasterReader.Header header = TellusRasterReader.readHeader(dataIn);
+			List<ChunkEntry> chunks = scanChunks(channel, header.size());
+			return new TellusRasterFile(path, channel, header, chunks);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	Path path() {
+		return this.path;
+	}
+
+	int width() {
+		return this.header.width();
+	}
+
+	int height() {
+		return this.header.height();
+	}
+
+	TellusRasterReader.@Nullable GeoReference geo() {
+		return this.header.geo();
+	}
+
+	short get(int x, int y) throws IOException {
+		ShortRaster fallback = this.fallback;
+		if (fallback != null) {
+			return fallback.get(x, y);
+		}
+		int column = x / this.chunkWidth;
+		int row = y / this.chunkHeight;
+		int index = column + row * this.columns;
+		ChunkEntry entry = this.grid[index];
+		if (entry == null) {
+			return this.geoNoData();
+		}
+		short[] data;
+		try {
+			data = this.chunkCache.get(index);
+		} catch (Exception e) {
+			throw new IOException("Failed to decode chunk " + index + " of " + this.path, e);
+		}
+		return data[(x - entry.x()) + (y - entry.y()) * entry.width()];
+	}
+
+	@Override
+	public void close() {
+		this.chunkCache.invalidateAll();
+		try {
+			this.channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private short geoNoData() {
+		TellusRasterReader.GeoReference geo = this.header.geo();
+		return geo != null ? geo.noData() : Short.MIN_VALUE;
+	}
+
+	private short[] loadChunk(int index) throws IOException {
+		ChunkEntry entry = this.grid[index];
+		byte[] bytes = new byte[entry.length()];
+		readFully(ByteBuffer.wrap(bytes), entry.offset());
+		return TellusRasterReader.decodeChunk(bytes, 0, bytes.length).data();
+	}
+
+	private ShortRaster readFully() throws IOException {
+		return TellusRasterReader.readShortRaster(new BufferedInputStream(Channels.newInputStream(this.channel.position(0))));
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			int read = this.channel.read(buffer, offset);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of " + this.path);
+			}
+			offset += read;
+		}
+	}
+
+	private static List<ChunkEntry> scanChunks(FileChannel channel, long start) throws IOException {
+		List<ChunkEntry> chunks = new ArrayList<>();
+		long size = channel.size();
+		long position = start;
+		ByteBuffer header = ByteBuffer.allocate(4 + TellusRasterReader.CHUNK_HEADER_SIZE);
+		while (position + header.capacity() <= size) {
+			header.clear();
+			while (header.hasRemaining()) {
+				if (channel.read(header, position + header.position()) < 0) {
+					throw new EOFException("Truncated tellus raster chunk header");
+				}
+			}
+			header.flip();
+			int length = header.getInt();
+			int x = header.getInt();
+			int y = header.getInt();
+			int width = header.getInt();
+			int height = header.getInt();
+			if (length < TellusRasterReader.CHUNK_HEADER_SIZE || position + 4 + length > size) {
+				throw new EOFException("Truncated tellus raster chunk");
+			}
+			chunks.add(new ChunkEntry(x, y, width, height, position + 4, length));
+			position += 4L + length;
+		}
+		return chunks;
+	}
+
+	private static ChunkEntry @Nullable [] buildGrid(
+			List<ChunkEntry> chunks,
+			int chunkWidth,
+			int chunkHeight,
+			int columns,
+			int rows
+	) {
+		ChunkEntry[] grid = new ChunkEntry[columns * rows];
+		for (ChunkEntry chunk : chunks) {
+			if (chunk.x() < 0 || chunk.y() < 0
+					|| chunk.x() % chunkWidth != 0 || chunk.y() % chunkHeight != 0
+					|| chunk.width() > chunkWidth || chunk.height() > chunkHeight) {
+				return null;
+			}
+			int column = chunk.x() / chunkWidth;
+			int row = chunk.y() / chunkHeight;
+			if (column >= columns || row >= rows) {
+				return null;
+			}
+			int index = column + row * columns;
+			if (grid[index] != null) {
+				return null;
+			}
+			grid[index] = chunk;
+		}
+		return grid;
+	}
+
+	private static int ceilDiv(int value, int divisor) {
+		return (value + divisor - 1) / divisor;
+	}
+
+	private record ChunkEntry(int x, int y, int width, int height, long offset, int length) {
+	}
+}
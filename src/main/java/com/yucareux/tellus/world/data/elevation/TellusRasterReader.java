@@ -5,19 +5,60 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
 import org.tukaani.xz.SingleXZInputStream;
 
 final class TellusRasterReader {
-	private static final byte[] SIGNATURE = "TELLUS/RASTER".getBytes(StandardCharsets.US_ASCII);
-	private static final int FORMAT_SHORT = 2;
+	static final byte[] SIGNATURE = "TELLUS/RASTER".getBytes(StandardCharsets.US_ASCII);
+	static final int FORMAT_SHORT = 2;
+	static final int VERSION_PLAIN = 0;
+	static final int VERSION_GEOREFERENCED = 1;
+	static final int CHUNK_HEADER_SIZE = 17;
 
 	private TellusRasterReader() {
 	}
 
 	static ShortRaster readShortRaster(InputStream input) throws IOException {
 		DataInputStream dataIn = new DataInputStream(input);
+		Header header = readHeader(dataIn);
+		ShortRaster raster = ShortRaster.create(header.width(), header.height());
+		List<byte[]> chunks = new ArrayList<>();
+		while (true) {
+			int chunkLength;
+			try {
+				chunkLength = dataIn.readInt();
+			} catch (EOFException e) {
+				break;
+			}
+
+			byte[] chunkBytes = new byte[chunkLength];
+			dataIn.readFully(chunkBytes);
+			chunks.add(chunkBytes);
+		}
+
+		// Chunks cover disjoint areas of the raster, so they can be inflated independently.
+		try {
+			chunks.parallelStream().forEach(chunkBytes -> {
+				try {
+					Chunk chunk = decodeChunk(chunkBytes, 0, chunkBytes.length);
+					copyChunk(raster, chunk.data(), chunk.x(), chunk.y(), chunk.width(), chunk.height());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		return raster;
+	}
+
+	static Header readHeader(DataInputStream dataIn) throws IOException {
 		byte[] signature = new byte[SIGNATURE.length];
 		dataIn.readFully(signature);
 		if (!Arrays.equals(signature, SIGNATURE)) {
@@ -25,7 +66,7 @@ final class TellusRasterReader {
 		}
 
 		int version = dataIn.readUnsignedByte();
-		if (version != 0) {
+		if (version != VERSION_PLAIN && version != VERSION_GEOREFERENCED) {
 			throw new IOException("Unsupported tellus raster version " + version);
 		}
 
@@ -35,42 +76,50 @@ final class TellusRasterReader {
 		if (format != FORMAT_SHORT) {
 			throw new IOException("Expected short raster format");
 		}
-
-		ShortRaster raster = ShortRaster.create(width, height);
-		while (true) {
-			int chunkLength;
-			try {
-				chunkLength = dataIn.readInt();
-			} catch (EOFException e) {
-				break;
-			}
-
-			byte[] chunkBytes = new byte[chunkLength];
-			dataIn.readFully(chunkBytes);
-			readChunk(new ByteArrayInputStream(chunkBytes), raster);
+		if (width <= 0 || height <= 0) {
+			throw new IOException("Invalid tellus raster size " + width + "x" + height);
 		}
 
-		return raster;
+		int headerSize = SIGNATURE.length + 10;
+		@Nullable GeoReference geo = null;
+		if (version == VERSION_GEOREFERENCED) {
+			geo = new GeoReference(
+					dataIn.readDouble(),
+					dataIn.readDouble(),
+					dataIn.readDouble(),
+					dataIn.readDouble(),
+					dataIn.readDouble(),
+					dataIn.readDouble(),
+					dataIn.readShort()
+			);
+			headerSize += GeoReference.SIZE;
+		}
+		return new Header(width, height, geo, headerSize);
 	}
 
-	private static void readChunk(InputStream input, ShortRaster raster) throws IOException {
+	static Chunk decodeChunk(byte[] bytes, int offset, int length) throws IOException {
+		ByteArrayInputStream input = new ByteArrayInputStream(bytes, offset, length);
 		DataInputStream dataIn = new DataInputStream(input);
 		int chunkX = dataIn.readInt();
 		int chunkY = dataIn.readInt();
 		int chunkWidth = dataIn.readInt();
 		int chunkHeight = dataIn.readInt();
 		RasterFilter filter = RasterFilter.byId(dataIn.readUnsignedByte());
+		if (chunkWidth <= 0 || chunkHeight <= 0) {
+			throw new IOException("Invalid tellus raster chunk size " + chunkWidth + "x" + chunkHeight);
+		}
 
 		short[] raw = new short[chunkWidth * chunkHeight];
+		byte[] packed = new byte[raw.length * 2];
 		try (SingleXZInputStream xzIn = new SingleXZInputStream(input)) {
-			DataInputStream xzData = new DataInputStream(xzIn);
-			for (int i = 0; i < raw.length; i++) {
-				raw[i] = xzData.readShort();
-			}
+			new DataInputStream(xzIn).readFully(packed);
+		}
+		for (int i = 0; i < raw.length; i++) {
+			raw[i] = (short) (((packed[i * 2] & 0xFF) << 8) | (packed[i * 2 + 1] & 0xFF));
 		}
 
 		applyFilter(filter, raw, chunkWidth, chunkHeight);
-		copyChunk(raster, raw, chunkX, chunkY, chunkWidth, chunkHeight);
+		return new Chunk(chunkX, chunkY, chunkWidth, chunkHeight, raw);
 	}
 
 	private static void applyFilter(RasterFilter filter, short[] raw, int width, int height) {
@@ -109,7 +158,25 @@ final class TellusRasterReader {
 		}
 	}
 
-	private enum RasterFilter {
+	record Header(int width, int height, @Nullable GeoReference geo, int size) {
+	}
+
+	record GeoReference(
+			double originLon,
+			double originLat,
+			double pixelLon,
+			double pixelLat,
+			double valueScale,
+			double valueOffset,
+			short noData
+	) {
+		static final int SIZE = 6 * Double.BYTES + Short.BYTES;
+	}
+
+	record Chunk(int x, int y, int width, int height, short[] data) {
+	}
+
+	enum RasterFilter {
 		NONE {
 			@Override
 			int apply(int value, int left, int up, int upLeft) {
@@ -0,0 +1,146 @@
+package com.yucareux.tellus.world.data.elevation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.IntStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+final class TellusRasterWriter {
+	static final int CHUNK_SIZE = 256;
+
+	private TellusRasterWriter() {
+	}
+
+	static void write(
+			Path target,
+			int width,
+			int height,
+			TellusRasterReader.GeoReference geo,
+			WindowSource source
+	) throws IOException {
+		Path tempPath = target.resolveSibling(target.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+			out.write(TellusRasterReader.SIGNATURE);
+			out.writeByte(TellusRasterReader.VERSION_GEOREFERENCED);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeByte(TellusRasterReader.FORMAT_SHORT);
+			out.writeDouble(geo.originLon());
+			out.writeDouble(geo.originLat());
+			out.writeDouble(geo.pixelLon());
+			out.writeDouble(geo.pixelLat());
+			out.writeDouble(geo.valueScale());
+			out.writeDouble(geo.valueOffset());
+			out.writeShort(geo.noData());
+
+			int columns = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			for (int chunkY = 0; chunkY < height; chunkY += CHUNK_SIZE) {
+				int bandY = chunkY;
+				int bandHeight = Math.min(CHUNK_SIZE, height - chunkY);
+				short[][] band = new short[columns][];
+				for (int column = 0; column < columns; column++) {
+					int chunkX = column * CHUNK_SIZE;
+					int chunkWidth = Math.min(CHUNK_SIZE, width - chunkX);
+					band[column] = new short[chunkWidth * bandHeight];
+					source.read(chunkX, bandY, chunkWidth, bandHeight, band[column]);
+				}
+				byte[][] encoded = new byte[columns][];
+				try {
+					IntStream.range(0, columns).parallel().forEach(column -> {
+						int chunkX = column * CHUNK_SIZE;
+						int chunkWidth = Math.min(CHUNK_SIZE, width - chunkX);
+						try {
+							encoded[column] = encodeChunk(chunkX, bandY, chunkWidth, bandHeight, band[column]);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				for (byte[] chunk : encoded) {
+					out.writeInt(chunk.length);
+					out.write(chunk);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempPath);
+			throw e;
+		}
+		Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static byte[] encodeChunk(int chunkX, int chunkY, int width, int height, short[] values) throws IOException {
+		TellusRasterReader.RasterFilter filter = TellusRasterReader.RasterFilter.NONE;
+		short[] best = values;
+		long bestCost = cost(values);
+		short[] residual = new short[values.length];
+		for (TellusRasterReader.RasterFilter candidate : TellusRasterReader.RasterFilter.values()) {
+			if (candidate == TellusRasterReader.RasterFilter.NONE) {
+				continue;
+			}
+			applyResidual(candidate, values, residual, width, height);
+			long cost = cost(residual);
+			if (cost < bestCost) {
+				bestCost = cost;
+				filter = candidate;
+				best = residual.clone();
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(values.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(chunkX);
+		out.writeInt(chunkY);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeByte(filter.ordinal());
+		byte[] packed = new byte[best.length * 2];
+		for (int i = 0; i < best.length; i++) {
+			packed[i * 2] = (byte) (best[i] >> 8);
+			packed[i * 2 + 1] = (byte) best[i];
+		}
+		try (OutputStream xzOut = new XZOutputStream(out, new LZMA2Options())) {
+			xzOut.write(packed);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void applyResidual(
+			TellusRasterReader.RasterFilter filter,
+			short[] values,
+			short[] residual,
+			int width,
+			int height
+	) {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int index = x + y * width;
+				int left = x > 0 ? values[index - 1] : 0;
+				int up = y > 0 ? values[index - width] : 0;
+				int upLeft = (x > 0 && y > 0) ? values[index - width - 1] : 0;
+				residual[index] = (short) (values[index] - filter.apply(0, left, up, upLeft));
+			}
+		}
+	}
+
+	private static long cost(short[] values) {
+		long total = 0;
+		for (short value : values) {
+			total += Math.abs(value);
+		}
+		return total;
+	}
+
+	interface WindowSource {
+		void read(int x, int y, int width, int height, short[] out) throws IOException;
+	}
+}
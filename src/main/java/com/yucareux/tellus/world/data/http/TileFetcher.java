@@ -0,0 +1,319 @@
+package com.yucareux.tellus.world.data.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jspecify.annotations.Nullable;
+
+public final class TileFetcher {
+	private static final String USER_AGENT = "Tellus/2.0.0 (Minecraft Mod)";
+	private static final int MAX_PER_HOST = intProperty("tellus.http.maxPerHost", 6);
+	private static final int CONNECT_TIMEOUT_MS = intProperty("tellus.http.connectTimeoutMs", 8000);
+	private static final int REQUEST_TIMEOUT_MS = intProperty("tellus.http.timeoutMs", 15000);
+	// The request timeout only covers the response headers; this bounds the whole exchange,
+	// including a body that stalls halfway, and how long a caller waits for it.
+	private static final int TRANSFER_TIMEOUT_MS = intProperty("tellus.http.transferTimeoutMs", 60000);
+	private static final ThreadLocal<Priority> CURRENT_PRIORITY = ThreadLocal.withInitial(() -> Priority.BLOCKING);
+	private static final TileFetcher SHARED = createShared();
+
+	private final HttpClient client;
+	private final int maxPerHost;
+	private final Duration requestTimeout;
+	private final Duration transferTimeout;
+	private final ConcurrentMap<RequestKey, Job> inFlight = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, HostLane> lanes = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+
+	public TileFetcher(HttpClient client, int maxPerHost, Duration requestTimeout, Duration transferTimeout) {
+		this.client = Objects.requireNonNull(client, "client");
+		this.maxPerHost = Math.max(1, maxPerHost);
+		this.requestTimeout = Objects.requireNonNull(requestTimeout, "requestTimeout");
+		this.transferTimeout = Objects.requireNonNull(transferTimeout, "transferTimeout");
+	}
+
+	public static TileFetcher shared() {
+		return SHARED;
+	}
+
+	public static Priority currentPriority() {
+		return CURRENT_PRIORITY.get();
+	}
+
+	public static void runPrefetch(Runnable task) {
+		Priority previous = CURRENT_PRIORITY.get();
+		CURRENT_PRIORITY.set(Priority.PREFETCH);
+		try {
+			task.run();
+		} finally {
+			CURRENT_PRIORITY.set(previous);
+		}
+	}
+
+	public byte @Nullable [] fetch(URI uri) throws IOException {
+		Response response = this.await(uri, this.fetchAsync(uri, -1L, 0, currentPriority()));
+		if (response.status() == 404) {
+			return null;
+		}
+		if (response.status() != 200) {
+			throw new IOException("HTTP error " + response.status() + " for " + uri);
+		}
+		return response.body();
+	}
+
+	public byte[] fetchRange(URI uri, long offset, int length) throws IOException {
+		if (length <= 0) {
+			return new byte[0];
+		}
+		Response response = this.await(uri, this.fetchAsync(uri, offset, length, currentPriority()));
+		byte[] body = response.body();
+		if (response.status() == 206) {
+			if (body.length < length) {
+				throw new IOException("Short range response for " + uri);
+			}
+			return body.length == length ? body : Arrays.copyOf(body, length);
+		}
+		if (response.status() == 200) {
+			// Server ignored the Range header and sent the whole resource.
+			if (offset + length > body.length) {
+				throw new IOException("Range beyond end of " + uri);
+			}
+			return Arrays.copyOfRange(body, (int) offset, (int) offset + length);
+		}
+		throw new IOException("HTTP error " + response.status() + " for " + uri);
+	}
+
+	// Reads up to length bytes from the start of a resource, accepting a shorter body when the
+	// resource itself is shorter. Returns null when the resource does not exist.
+	public byte @Nullable [] fetchPrefix(URI uri, int length) throws IOException {
+		Response response = this.await(uri, this.fetchAsync(uri, 0L, length, currentPriority()));
+		if (response.status() == 404) {
+			return null;
+		}
+		if (response.status() != 206 && response.status() != 200) {
+			throw new IOException("HTTP error " + response.status() + " for " + uri);
+		}
+		byte[] body = response.body();
+		return body.length > length ? Arrays.copyOf(body, length) : body;
+	}
+
+	public CompletableFuture<Response> fetchAsync(URI uri, long offset, int length, Priority priority) {
+		RequestKey key = new RequestKey(uri, offset, length);
+		while (true) {
+			Job existing = this.inFlight.get(key);
+			if (existing != null) {
+				this.promote(existing, priority);
+				return existing.future;
+			}
+			Job job = new Job(key, priority, this.sequence.getAndIncrement());
+			if (this.inFlight.putIfAbsent(key, job) != null) {
+				continue;
+			}
+			job.future.whenComplete((response, error) -> {
+				this.inFlight.remove(key, job);
+				CompletableFuture<HttpResponse<byte[]>> request = job.request;
+				if (error != null && request != null) {
+					request.cancel(true);
+				}
+			});
+			this.lane(uri).submit(job);
+			return job.future;
+		}
+	}
+
+	public void promote(URI uri) {
+		Job job = this.inFlight.get(new RequestKey(uri, -1L, 0));
+		if (job != null) {
+			this.promote(job, Priority.BLOCKING);
+		}
+	}
+
+	private void promote(Job job, Priority priority) {
+		if (priority.ordinal() < job.priority.ordinal()) {
+			this.lane(job.key.uri()).promote(job, priority);
+		}
+	}
+
+	private HostLane lane(URI uri) {
+		String host = uri.getHost() != null ? uri.getHost() : "";
+		return this.lanes.computeIfAbsent(host, ignored -> new HostLane());
+	}
+
+	private CompletableFuture<HttpResponse<byte[]>> send(RequestKey key) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(key.uri())
+				.timeout(this.requestTimeout)
+				.header("User-Agent", USER_AGENT)
+				.GET();
+		if (key.offset() >= 0) {
+			builder.header("Range", "bytes=" + key.offset() + "-" + (key.offset() + key.length() - 1));
+		}
+		return this.client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+	}
+
+	// A timeout fails the shared job rather than just this caller: everyone coalesced onto it has
+	// been waiting as long, and failing the job also aborts the stalled exchange.
+	private Response await(URI uri, CompletableFuture<Response> future) throws IOException {
+		try {
+			return future.get(this.transferTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			HttpTimeoutException timeout = new HttpTimeoutException("Download timed out: " + uri);
+			future.completeExceptionally(timeout);
+			throw timeout;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for download");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			while (cause instanceof CompletionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException io) {
+				throw io;
+			}
+			if (cause instanceof TimeoutException) {
+				throw new HttpTimeoutException("Download timed out: " + uri);
+			}
+			throw new IOException("Download failed", cause);
+		}
+	}
+
+	private static TileFetcher createShared() {
+		AtomicInteger index = new AtomicInteger();
+		ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "tellus-http-" + index.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+				.executor(executor)
+				.build();
+		return new TileFetcher(
+				client,
+				MAX_PER_HOST,
+				Duration.ofMillis(REQUEST_TIMEOUT_MS),
+				Duration.ofMillis(TRANSFER_TIMEOUT_MS)
+		);
+	}
+
+	private static int intProperty(String key, int defaultValue) {
+		String value = System.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value));
+		} catch (NumberFormatException ignored) {
+			return defaultValue;
+		}
+	}
+
+	public enum Priority {
+		BLOCKING,
+		PREFETCH
+	}
+
+	public record Response(int status, byte[] body) {
+	}
+
+	private record RequestKey(URI uri, long offset, int length) {
+	}
+
+	private static final class Job {
+		private final RequestKey key;
+		private final long sequence;
+		private final CompletableFuture<Response> future = new CompletableFuture<>();
+		private volatile Priority priority;
+		private volatile @Nullable CompletableFuture<HttpResponse<byte[]>> request;
+
+		private Job(RequestKey key, Priority priority, long sequence) {
+			this.key = key;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+	}
+
+	private final class HostLane {
+		private final PriorityQueue<Job> queue = new PriorityQueue<>(
+				Comparator.<Job>comparingInt(job -> job.priority.ordinal()).thenComparingLong(job -> job.sequence)
+		);
+		private int active;
+
+		private synchronized void submit(Job job) {
+			this.queue.add(job);
+			this.drain();
+		}
+
+		private synchronized void promote(Job job, Priority priority) {
+			if (priority.ordinal() >= job.priority.ordinal()) {
+				return;
+			}
+			boolean queued = this.queue.remove(job);
+			job.priority = priority;
+			if (queued) {
+				this.queue.add(job);
+			}
+		}
+
+		private synchronized void finish() {
+			this.active--;
+			this.drain();
+		}
+
+		private void drain() {
+			while (this.active < TileFetcher.this.maxPerHost && !this.queue.isEmpty()) {
+				Job job = this.queue.poll();
+				if (job.future.isDone()) {
+					// Timed out while still queued.
+					continue;
+				}
+				this.active++;
+				CompletableFuture<HttpResponse<byte[]>> request;
+				try {
+					request = TileFetcher.this.send(job.key);
+				} catch (RuntimeException e) {
+					this.active--;
+					job.future.completeExceptionally(new IOException("Failed to start download " + job.key.uri(), e));
+					continue;
+				}
+				job.request = request;
+				if (job.future.isDone()) {
+					request.cancel(true);
+				}
+				request.orTimeout(TileFetcher.this.transferTimeout.toMillis(), TimeUnit.MILLISECONDS);
+				request.whenComplete((response, error) -> {
+					this.finish();
+					if (error instanceof TimeoutException) {
+						request.cancel(true);
+					}
+					if (error != null) {
+						job.future.completeExceptionally(error);
+					} else {
+						job.future.complete(new Response(response.statusCode(), response.body()));
+					}
+				});
+			}
+		}
+	}
+}
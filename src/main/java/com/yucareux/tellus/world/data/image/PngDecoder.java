@@ -0,0 +1,218 @@
+package com.yucareux.tellus.world.data.image;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public final class PngDecoder {
+	private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+	private static final int CHUNK_IHDR = 0x49484452;
+	private static final int CHUNK_IDAT = 0x49444154;
+	private static final int CHUNK_IEND = 0x49454E44;
+
+	private static final int COLOR_GRAY = 0;
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_PALETTE = 3;
+	private static final int COLOR_GRAY_ALPHA = 4;
+	private static final int COLOR_RGBA = 6;
+
+	private static final int FILTER_NONE = 0;
+	private static final int FILTER_SUB = 1;
+	private static final int FILTER_UP = 2;
+	private static final int FILTER_AVERAGE = 3;
+	private static final int FILTER_PAETH = 4;
+
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+	private PngDecoder() {
+	}
+
+	public static boolean decode(byte[] data, ScanlineSink sink) throws IOException {
+		if (data.length < 8 + 25 || readLong(data, 0) != SIGNATURE) {
+			throw new IOException("Invalid PNG signature");
+		}
+		int pos = 8;
+		int ihdrLength = readInt(data, pos);
+		if (ihdrLength != 13 || readInt(data, pos + 4) != CHUNK_IHDR) {
+			throw new IOException("Missing PNG header chunk");
+		}
+		int width = readInt(data, pos + 8);
+		int height = readInt(data, pos + 12);
+		int bitDepth = data[pos + 16] & 0xFF;
+		int colorType = data[pos + 17] & 0xFF;
+		int compression = data[pos + 18] & 0xFF;
+		int filterMethod = data[pos + 19] & 0xFF;
+		int interlace = data[pos + 20] & 0xFF;
+		pos += 12 + ihdrLength;
+		if (width <= 0 || height <= 0) {
+			throw new IOException("Invalid PNG size " + width + "x" + height);
+		}
+		int channels = channelsFor(colorType);
+		if (channels <= 0 || compression != 0 || filterMethod != 0 || interlace != 0 || !isSupportedDepth(colorType, bitDepth)) {
+			return false;
+		}
+
+		int bitsPerPixel = channels * bitDepth;
+		int bytesPerPixel = Math.max(1, bitsPerPixel >> 3);
+		long strideLong = ((long) width * bitsPerPixel + 7) >> 3;
+		if (strideLong > Integer.MAX_VALUE - 1) {
+			throw new IOException("PNG row too large");
+		}
+		int stride = (int) strideLong;
+		byte[] previous = new byte[stride + 1];
+		byte[] current = new byte[stride + 1];
+		if (!sink.start(width, height, channels, bitDepth)) {
+			return false;
+		}
+
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		int row = 0;
+		int rowFill = 0;
+		try {
+			while (pos + 8 <= data.length && row < height) {
+				int length = readInt(data, pos);
+				int type = readInt(data, pos + 4);
+				int payload = pos + 8;
+				if (length < 0 || length > data.length - payload) {
+					throw new EOFException("Truncated PNG chunk");
+				}
+				pos = payload + length + 4;
+				if (type == CHUNK_IEND) {
+					break;
+				}
+				if (type != CHUNK_IDAT) {
+					continue;
+				}
+				inflater.setInput(data, payload, length);
+				while (row < height) {
+					int read = inflater.inflate(current, rowFill, current.length - rowFill);
+					if (read == 0) {
+						if (inflater.needsInput() || inflater.finished()) {
+							break;
+						}
+						if (inflater.needsDictionary()) {
+							throw new IOException("PNG stream requires a preset dictionary");
+						}
+						continue;
+					}
+					rowFill += read;
+					if (rowFill < current.length) {
+						continue;
+					}
+					unfilter(current, previous, stride, bytesPerPixel);
+					sink.row(row, current, 1);
+					byte[] swap = previous;
+					previous = current;
+					current = swap;
+					rowFill = 0;
+					row++;
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt PNG image data", e);
+		} finally {
+			inflater.reset();
+		}
+		if (row != height) {
+			throw new EOFException("PNG image data ended after " + row + " of " + height + " rows");
+		}
+		return true;
+	}
+
+	private static void unfilter(byte[] current, byte[] previous, int stride, int bpp) throws IOException {
+		int filter = current[0] & 0xFF;
+		int end = stride + 1;
+		switch (filter) {
+			case FILTER_NONE -> {
+			}
+			case FILTER_SUB -> {
+				for (int i = 1 + bpp; i < end; i++) {
+					current[i] += current[i - bpp];
+				}
+			}
+			case FILTER_UP -> {
+				for (int i = 1; i < end; i++) {
+					current[i] += previous[i];
+				}
+			}
+			case FILTER_AVERAGE -> {
+				for (int i = 1; i < end; i++) {
+					int left = i > bpp ? current[i - bpp] & 0xFF : 0;
+					int up = previous[i] & 0xFF;
+					current[i] += (byte) ((left + up) >>> 1);
+				}
+			}
+			case FILTER_PAETH -> {
+				for (int i = 1; i < end; i++) {
+					int left = i > bpp ? current[i - bpp] & 0xFF : 0;
+					int up = previous[i] & 0xFF;
+					int upLeft = i > bpp ? previous[i - bpp] & 0xFF : 0;
+					current[i] += (byte) paeth(left, up, upLeft);
+				}
+			}
+			default -> throw new IOException("Invalid PNG filter type " + filter);
+		}
+	}
+
+	private static int paeth(int left, int up, int upLeft) {
+		int estimate = left + up - upLeft;
+		int deltaLeft = Math.abs(estimate - left);
+		int deltaUp = Math.abs(estimate - up);
+		int deltaUpLeft = Math.abs(estimate - upLeft);
+		if (deltaLeft <= deltaUp && deltaLeft <= deltaUpLeft) {
+			return left;
+		}
+		if (deltaUp <= deltaUpLeft) {
+			return up;
+		}
+		return upLeft;
+	}
+
+	private static int channelsFor(int colorType) {
+		return switch (colorType) {
+			case COLOR_GRAY, COLOR_PALETTE -> 1;
+			case COLOR_GRAY_ALPHA -> 2;
+			case COLOR_RGB -> 3;
+			case COLOR_RGBA -> 4;
+			default -> -1;
+		};
+	}
+
+	private static boolean isSupportedDepth(int colorType, int bitDepth) {
+		if (colorType == COLOR_GRAY || colorType == COLOR_PALETTE) {
+			return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+		}
+		return bitDepth == 8;
+	}
+
+	public static int sampleAt(byte[] scanline, int offset, int x, int channels, int bitDepth) {
+		if (bitDepth == 8) {
+			return scanline[offset + x * channels] & 0xFF;
+		}
+		int bitIndex = x * bitDepth;
+		int value = scanline[offset + (bitIndex >> 3)] & 0xFF;
+		int shift = 8 - bitDepth - (bitIndex & 7);
+		return (value >> shift) & ((1 << bitDepth) - 1);
+	}
+
+	private static int readInt(byte[] data, int pos) {
+		return ((data[pos] & 0xFF) << 24)
+				| ((data[pos + 1] & 0xFF) << 16)
+				| ((data[pos + 2] & 0xFF) << 8)
+				| (data[pos + 3] & 0xFF);
+	}
+
+	private static long readLong(byte[] data, int pos) {
+		return ((long) readInt(data, pos) << 32) | (readInt(data, pos + 4) & 0xFFFFFFFFL);
+	}
+
+	public interface ScanlineSink {
+		// Returning false declines the image before any row is decoded; decode then returns false
+		// so the caller can fall back to ImageIO.
+		boolean start(int width, int height, int channels, int bitDepth) throws IOException;
+
+		void row(int y, byte[] scanline, int offset);
+	}
+}
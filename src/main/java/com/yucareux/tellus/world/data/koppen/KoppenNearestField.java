@@ -0,0 +1,135 @@
+package com.yucareux.tellus.world.data.koppen;
+
+import com.yucareux.tellus.world.data.tiff.GeoTiffImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Precomputes, for every pixel of one raster level, the climate of the nearest valid pixel within
+// the search radius, so gap filling along coasts and around small islands becomes a single lookup.
+// The result matches the original circular scan exactly: squared Euclidean distance, ties going to
+// the upper row and then to the left column.
+final class KoppenNearestField {
+	private final ByteBuffer raw;
+	private final int width;
+	private final int height;
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int tilesPerRow;
+	private final int radius;
+	private final int validLimit;
+
+	KoppenNearestField(ByteBuffer raw, GeoTiffImage level, int radius, int validLimit) {
+		this.raw = raw;
+		this.width = level.width();
+		this.height = level.height();
+		this.tileWidth = level.tileWidth();
+		this.tileHeight = level.tileHeight();
+		this.tilesPerRow = level.tilesPerRow();
+		this.radius = radius;
+		this.validLimit = validLimit;
+	}
+
+	// Two separable passes over the tile plus a halo of radius rows: first the nearest valid
+	// column in each row, then the best of those over the rows within reach.
+	void fill(int tileIndex, byte[] tile) {
+		int radius = this.radius;
+		int tileWidth = this.tileWidth;
+		int originX = (tileIndex % this.tilesPerRow) * tileWidth;
+		int originY = (tileIndex / this.tilesPerRow) * this.tileHeight;
+		int rows = this.tileHeight + radius * 2;
+		int none = radius + 1;
+
+		int[] rowOffset = new int[rows * tileWidth];
+		byte[] rowValue = new byte[rows * tileWidth];
+		int span = tileWidth + radius * 2;
+		byte[] line = new byte[span];
+		boolean anyValid = false;
+		for (int row = 0; row < rows; row++) {
+			int y = originY - radius + row;
+			int base = row * tileWidth;
+			for (int i = 0; i < span; i++) {
+				line[i] = (byte) valid(originX - radius + i, y);
+			}
+			int last = Integer.MIN_VALUE / 2;
+			for (int i = 0; i < span; i++) {
+				if (line[i] != 0) {
+					last = i;
+				}
+				int column = i - radius;
+				if (column >= 0 && column < tileWidth) {
+					int distance = i - last;
+					rowOffset[base + column] = distance <= radius ? -distance : none;
+					rowValue[base + column] = distance <= radius ? line[last] : 0;
+				}
+			}
+			last = Integer.MAX_VALUE / 2;
+			for (int i = span - 1; i >= 0; i--) {
+				if (line[i] != 0) {
+					last = i;
+				}
+				int column = i - radius;
+				if (column >= 0 && column < tileWidth) {
+					int distance = last - i;
+					int current = Math.abs(rowOffset[base + column]);
+					if (distance <= radius && distance < current) {
+						rowOffset[base + column] = distance;
+						rowValue[base + column] = line[last];
+					}
+					if (rowOffset[base + column] != none) {
+						anyValid = true;
+					}
+				}
+			}
+		}
+
+		if (!anyValid) {
+			Arrays.fill(tile, (byte) 0);
+			return;
+		}
+		int maxDistance = radius * radius;
+		for (int localY = 0; localY < this.tileHeight; localY++) {
+			for (int localX = 0; localX < tileWidth; localX++) {
+				int centerRow = localY + radius;
+				int best = Integer.MAX_VALUE;
+				int bestDy = 0;
+				byte bestValue = 0;
+				for (int d = 0; d <= radius && d * d <= best; d++) {
+					for (int side = -1; side <= 1; side += 2) {
+						int dy = d * side;
+						if (d == 0 && side > 0) {
+							break;
+						}
+						int index = (centerRow + dy) * tileWidth + localX;
+						int dx = rowOffset[index];
+						if (dx == none) {
+							continue;
+						}
+						int distance = dx * dx + dy * dy;
+						if (distance > maxDistance) {
+							continue;
+						}
+						if (distance < best || (distance == best && dy < bestDy)) {
+							best = distance;
+							bestDy = dy;
+							bestValue = rowValue[index];
+						}
+					}
+				}
+				tile[localX + localY * tileWidth] = bestValue;
+			}
+		}
+	}
+
+	private int valid(int pixelX, int pixelY) {
+		if (pixelX < 0 || pixelY < 0 || pixelX >= this.width || pixelY >= this.height) {
+			return 0;
+		}
+		int tileX = pixelX / this.tileWidth;
+		int tileY = pixelY / this.tileHeight;
+		int tileIndex = tileY * this.tilesPerRow + tileX;
+		int localX = pixelX - tileX * this.tileWidth;
+		int localY = pixelY - tileY * this.tileHeight;
+		int value = Byte.toUnsignedInt(this.raw.get(tileIndex * this.tileWidth * this.tileHeight + localX + localY * this.tileWidth));
+		return value > 0 && value < this.validLimit ? value : 0;
+	}
+}
@@ -0,0 +1,175 @@
+package com.yucareux.tellus.world.data.koppen;
+
+import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.tiff.FileTiffSource;
+import com.yucareux.tellus.world.data.tiff.GeoTiffImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.jspecify.annotations.Nullable;
+
+// Writes one byte per pixel of every level of the Koppen raster into an uncompressed, tile-ordered
+// file and maps it read-only. Samples then read one byte straight from the page cache: no decoding,
+// no cache bookkeeping and no heap, and the pages are shared by every process on the host.
+final class KoppenRawCache {
+	private static final int MAGIC = 0x544b5243;
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 32;
+	private static final int LEVEL_BYTES = 24;
+	private static final long ALIGNMENT = 4096L;
+
+	private KoppenRawCache() {
+	}
+
+	static ByteBuffer @Nullable [] open(Path rawPath, Path sourcePath, List<GeoTiffImage> levels) {
+		return open(rawPath, sourcePath, 0L, levels, levels.stream().<TileFiller>map(level -> level::readTile).toList());
+	}
+
+	// Returns one mapped buffer per level, in the order given, or null when the cache cannot be
+	// built. The key identifies how the tiles were derived; a file written with another key, or
+	// for another source file, is rebuilt.
+	static ByteBuffer @Nullable [] open(
+			Path rawPath,
+			Path sourcePath,
+			long key,
+			List<GeoTiffImage> levels,
+			List<TileFiller> fillers
+	) {
+		for (GeoTiffImage level : levels) {
+			if (levelBytes(level) > Integer.MAX_VALUE) {
+				return null;
+			}
+		}
+		try {
+			long sourceSize = Files.size(sourcePath);
+			ByteBuffer[] mapped = map(rawPath, sourceSize, key, levels);
+			if (mapped != null) {
+				return mapped;
+			}
+			Tellus.LOGGER.info("Building Koppen cache {}", rawPath);
+			write(rawPath, sourceSize, key, levels, fillers);
+			return map(rawPath, sourceSize, key, levels);
+		} catch (IOException | RuntimeException e) {
+			Tellus.LOGGER.warn("Failed to prepare Koppen cache {}", rawPath, e);
+			return null;
+		}
+	}
+
+	private static ByteBuffer @Nullable [] map(
+			Path rawPath,
+			long sourceSize,
+			long key,
+			List<GeoTiffImage> levels
+	) throws IOException {
+		if (!Files.exists(rawPath)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(rawPath, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + levels.size() * LEVEL_BYTES);
+			if (channel.size() < header.capacity()) {
+				return null;
+			}
+			FileTiffSource.readFully(channel, header, 0L);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != sourceSize
+					|| header.getLong() != key) {
+				return null;
+			}
+			if (header.getInt() != levels.size()) {
+				return null;
+			}
+			header.getInt();
+			ByteBuffer[] buffers = new ByteBuffer[levels.size()];
+			for (int i = 0; i < buffers.length; i++) {
+				GeoTiffImage level = levels.get(i);
+				if (header.getInt() != level.width() || header.getInt() != level.height()
+						|| header.getInt() != level.tileWidth() || header.getInt() != level.tileHeight()) {
+					return null;
+				}
+				long offset = header.getLong();
+				long length = levelBytes(level);
+				if (offset + length > channel.size()) {
+					return null;
+				}
+				buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			}
+			return buffers;
+		}
+	}
+
+	private static void write(
+			Path rawPath,
+			long sourceSize,
+			long key,
+			List<GeoTiffImage> levels,
+			List<TileFiller> fillers
+	) throws IOException {
+		Files.createDirectories(rawPath.getParent());
+		Path temp = rawPath.resolveSibling(rawPath.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				temp,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE
+		)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + levels.size() * LEVEL_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(key).putInt(levels.size()).putInt(0);
+			long offset = align(header.capacity());
+			long[] offsets = new long[levels.size()];
+			for (int i = 0; i < levels.size(); i++) {
+				GeoTiffImage level = levels.get(i);
+				offsets[i] = offset;
+				header.putInt(level.width()).putInt(level.height()).putInt(level.tileWidth()).putInt(level.tileHeight());
+				header.putLong(offset);
+				offset = align(offset + levelBytes(level));
+			}
+			header.flip();
+			FileTiffSource.writeFully(channel, header, 0L);
+
+			for (int i = 0; i < levels.size(); i++) {
+				GeoTiffImage level = levels.get(i);
+				TileFiller filler = fillers.get(i);
+				int tileBytes = level.tileWidth() * level.tileHeight();
+				long levelOffset = offsets[i];
+				try {
+					IntStream.range(0, level.tileCount()).parallel().forEach(tileIndex -> {
+						byte[] tile = new byte[tileBytes];
+						try {
+							filler.fill(tileIndex, tile);
+							FileTiffSource.writeFully(channel, ByteBuffer.wrap(tile), levelOffset + (long) tileIndex * tileBytes);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+			}
+			channel.force(false);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		Files.move(temp, rawPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@FunctionalInterface
+	interface TileFiller {
+		void fill(int tileIndex, byte[] tile) throws IOException;
+	}
+
+	private static long levelBytes(GeoTiffImage level) {
+		return (long) level.tileCount() * level.tileWidth() * level.tileHeight();
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+}
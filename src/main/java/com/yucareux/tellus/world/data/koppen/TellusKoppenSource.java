@@ -1,22 +1,22 @@
 package com.yucareux.tellus.world.data.koppen;
 
 import com.yucareux.tellus.Tellus;
-import java.io.ByteArrayInputStream;
-import java.io.EOFException;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import com.yucareux.tellus.world.data.tiff.GeoTiffFile;
+import com.yucareux.tellus.world.data.tiff.GeoTiffImage;
+import com.yucareux.tellus.world.data.tiff.MappedTiffSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.zip.InflaterInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Mth;
+import org.jspecify.annotations.Nullable;
 
 public final class TellusKoppenSource {
 	private static final double EQUATOR_CIRCUMFERENCE = 40075017.0;
@@ -28,6 +28,10 @@ public final class TellusKoppenSource {
 	private static final int MAX_DOWNSAMPLE_STEP = 256;
 
 	private static final String RESOURCE_PATH = "tellus/koppen/koppen_geiger_0p00833333.tif";
+	private static final boolean RAW_CACHE =
+			Boolean.parseBoolean(System.getProperty("tellus.koppen.rawCache", "true"));
+	private static final boolean NEAREST_FIELD =
+			Boolean.parseBoolean(System.getProperty("tellus.koppen.nearestField", "true"));
 	private static final double SEARCH_RADIUS_METERS = 5000.0;
 	private static final int SMOOTH_RADIUS_PIXELS = 2;
 	private static final double WARP_AMPLITUDE_METERS = 800.0;
@@ -35,6 +39,8 @@ public final class TellusKoppenSource {
 	private static final long WARP_SEED_X = 0x243f6a8885a308d3L;
 	private static final long WARP_SEED_Z = 0x13198a2e03707344L;
 
+	public static final int NO_CLIMATE = 0;
+
 	private static final String[] KOPPEN_CODES = new String[31];
 
 	static {
@@ -79,45 +85,70 @@ public final class TellusKoppenSource {
 		this.raster = loadRaster();
 	}
 
-	public String sampleDitheredCode(double blockX, double blockZ, double worldScale) {
-		return sampleRawCode(blockX, blockZ, worldScale);
+	public static int climateCount() {
+		return KOPPEN_CODES.length;
 	}
 
-	public String sampleRawCode(double blockX, double blockZ, double worldScale) {
-		Pixel center = toPixel(blockX, blockZ, worldScale);
-		if (center == null) {
-			return null;
-		}
-		if (this.raster == GeoTiffRaster.MISSING) {
+	public static @Nullable String codeForId(int id) {
+		if (id <= NO_CLIMATE || id >= KOPPEN_CODES.length) {
 			return null;
 		}
-		return this.raster.sample(center);
+		return KOPPEN_CODES[id];
+	}
+
+	public String sampleDitheredCode(double blockX, double blockZ, double worldScale) {
+		return codeForId(sampleDitheredId(blockX, blockZ, worldScale));
+	}
+
+	public String sampleRawCode(double blockX, double blockZ, double worldScale) {
+		return codeForId(sampleRawId(blockX, blockZ, worldScale));
 	}
 
 	public String sampleSmoothedCode(double blockX, double blockZ, double worldScale) {
-		Pixel center = toPixel(blockX, blockZ, worldScale);
+		return codeForId(sampleSmoothedId(blockX, blockZ, worldScale));
+	}
+
+	public String findNearestCode(double blockX, double blockZ, double worldScale) {
+		return codeForId(findNearestId(blockX, blockZ, worldScale));
+	}
+
+	public int sampleDitheredId(double blockX, double blockZ, double worldScale) {
+		return sampleRawId(blockX, blockZ, worldScale);
+	}
+
+	public int sampleRawId(double blockX, double blockZ, double worldScale) {
+		GeoTiffRaster raster = rasterFor(worldScale);
+		Pixel center = toPixel(raster, blockX, blockZ, worldScale);
 		if (center == null) {
-			return null;
-		}
-		if (this.raster == GeoTiffRaster.MISSING) {
-			return null;
+			return NO_CLIMATE;
 		}
-		return this.raster.sampleSmoothed(center, SMOOTH_RADIUS_PIXELS);
+		return raster.sample(center);
 	}
 
-	public String findNearestCode(double blockX, double blockZ, double worldScale) {
-		Pixel center = toPixel(blockX, blockZ, worldScale);
+	public int sampleSmoothedId(double blockX, double blockZ, double worldScale) {
+		GeoTiffRaster raster = rasterFor(worldScale);
+		Pixel center = toPixel(raster, blockX, blockZ, worldScale);
 		if (center == null) {
-			return null;
+			return NO_CLIMATE;
 		}
-		if (this.raster == GeoTiffRaster.MISSING) {
-			return null;
+		return raster.sampleSmoothed(center, SMOOTH_RADIUS_PIXELS);
+	}
+
+	public int findNearestId(double blockX, double blockZ, double worldScale) {
+		GeoTiffRaster raster = rasterFor(worldScale);
+		Pixel center = toPixel(raster, blockX, blockZ, worldScale);
+		if (center == null) {
+			return NO_CLIMATE;
 		}
-		int radius = this.raster.radiusForMeters(SEARCH_RADIUS_METERS);
-		return this.raster.findNearest(center, radius);
+		int radius = raster.radiusForMeters(SEARCH_RADIUS_METERS);
+		return raster.findNearest(center, radius);
 	}
 
-	private Pixel toPixel(double blockX, double blockZ, double worldScale) {
+	private GeoTiffRaster rasterFor(double worldScale) {
+		return this.raster.forStep(downsampleStep(worldScale, this.raster.pixelSizeMeters()));
+	}
+
+	private Pixel toPixel(GeoTiffRaster raster, double blockX, double blockZ, double worldScale) {
 		if (worldScale <= 0.0) {
 			return null;
 		}
@@ -136,7 +167,7 @@ public final class TellusKoppenSource {
 		if (lat < MIN_LAT || lat > MAX_LAT || lon < MIN_LON || lon > MAX_LON) {
 			return null;
 		}
-		return this.raster.toPixel(lon, lat);
+		return raster.toPixel(lon, lat);
 	}
 
 	private static int downsampleStep(double worldScale, double resolutionMeters) {
@@ -222,7 +253,11 @@ public final class TellusKoppenSource {
 			if (!Files.exists(this.cachePath)) {
 				return GeoTiffRaster.MISSING;
 			}
-			return GeoTiffRaster.open(this.cachePath);
+			return GeoTiffRaster.open(
+					this.cachePath,
+					this.cachePath.resolveSibling("koppen_geiger_0p00833333.raw"),
+					this.cachePath.resolveSibling("koppen_geiger_0p00833333.nearest")
+			);
 		} catch (IOException e) {
 			Tellus.LOGGER.warn("Failed to load Koppen raster", e);
 			return GeoTiffRaster.MISSING;
@@ -251,122 +286,142 @@ public final class TellusKoppenSource {
 	}
 
 	private static final class GeoTiffRaster {
-		private static final int TAG_IMAGE_WIDTH = 256;
-		private static final int TAG_IMAGE_HEIGHT = 257;
-		private static final int TAG_TILE_WIDTH = 322;
-		private static final int TAG_TILE_HEIGHT = 323;
-		private static final int TAG_TILE_OFFSETS = 324;
-		private static final int TAG_TILE_BYTE_COUNTS = 325;
-		private static final int TAG_COMPRESSION = 259;
-		private static final int TAG_MODEL_PIXEL_SCALE = 33550;
-		private static final int TAG_MODEL_TIEPOINT = 33922;
-
-		private static final int TYPE_SHORT = 3;
-		private static final int TYPE_LONG = 4;
-
-		private static final int COMPRESSION_LZW = 5;
-		private static final int COMPRESSION_DEFLATE = 8;
-		private static final int MAX_TILE_CACHE = 64;
-
 		private static final GeoTiffRaster MISSING = new GeoTiffRaster();
 
 		private final Path path;
-		private final FileChannel channel;
+		private final @Nullable GeoTiffFile file;
+		private final @Nullable GeoTiffImage image;
 		private final int width;
 		private final int height;
 		private final int tileWidth;
 		private final int tileHeight;
 		private final int tilesPerRow;
-		private final int compression;
-		private final long[] tileOffsets;
-		private final int[] tileByteCounts;
-		private final double pixelScaleX;
-		private final double pixelScaleY;
-		private final double tieLon;
-		private final double tieLat;
 		private final double pixelSizeMeters;
-		private final Map<Integer, byte[]> tileCache;
+		private final int decimation;
+		private final GeoTiffRaster[] overviews;
+		private final @Nullable ByteBuffer raw;
+		private final @Nullable ByteBuffer nearest;
+		private final ManagedCache<Integer, byte[]> tileCache;
 
 		private GeoTiffRaster() {
 			this.path = null;
-			this.channel = null;
+			this.file = null;
+			this.image = null;
 			this.width = 0;
 			this.height = 0;
 			this.tileWidth = 0;
 			this.tileHeight = 0;
 			this.tilesPerRow = 0;
-			this.compression = 0;
-			this.tileOffsets = null;
-			this.tileByteCounts = null;
-			this.pixelScaleX = 0.0;
-			this.pixelScaleY = 0.0;
-			this.tieLon = 0.0;
-			this.tieLat = 0.0;
 			this.pixelSizeMeters = 0.0;
-			this.tileCache = Map.of();
+			this.decimation = 1;
+			this.overviews = new GeoTiffRaster[0];
+			this.raw = null;
+			this.nearest = null;
+			this.tileCache = newTileCache();
 		}
 
 		private GeoTiffRaster(
 				Path path,
-				FileChannel channel,
-				int width,
-				int height,
-				int tileWidth,
-				int tileHeight,
-				int compression,
-				long[] tileOffsets,
-				int[] tileByteCounts,
-				double pixelScaleX,
-				double pixelScaleY,
-				double tieLon,
-				double tieLat
+				@Nullable GeoTiffFile file,
+				GeoTiffImage image,
+				GeoTiffRaster[] overviews,
+				@Nullable ByteBuffer raw,
+				@Nullable ByteBuffer nearest
 		) {
 			this.path = path;
-			this.channel = channel;
-			this.width = width;
-			this.height = height;
-			this.tileWidth = tileWidth;
-			this.tileHeight = tileHeight;
-			this.tilesPerRow = (int) Math.ceil(width / (double) tileWidth);
-			this.compression = compression;
-			this.tileOffsets = tileOffsets;
-			this.tileByteCounts = tileByteCounts;
-			this.pixelScaleX = pixelScaleX;
-			this.pixelScaleY = pixelScaleY;
-			this.tieLon = tieLon;
-			this.tieLat = tieLat;
-			this.pixelSizeMeters = Math.abs(pixelScaleX) * (EQUATOR_CIRCUMFERENCE / 360.0);
-			this.tileCache = new LinkedHashMap<>(MAX_TILE_CACHE, 0.75f, true) {
-				@Override
-				protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
-					return size() > MAX_TILE_CACHE;
+			this.file = file;
+			this.image = image;
+			this.width = image.width();
+			this.height = image.height();
+			this.tileWidth = image.tileWidth();
+			this.tileHeight = image.tileHeight();
+			this.tilesPerRow = image.tilesPerRow();
+			this.pixelSizeMeters = pixelSizeMeters(image);
+			this.decimation = image.decimation();
+			this.overviews = overviews;
+			this.raw = raw;
+			this.nearest = nearest;
+			this.tileCache = newTileCache();
+		}
+
+		private static ManagedCache<Integer, byte[]> newTileCache() {
+			return ManagedCache.<Integer, byte[]>builder("koppen-tiles", tile -> tile.length).build();
+		}
+
+		GeoTiffRaster forStep(int step) {
+			GeoTiffRaster selected = this;
+			for (GeoTiffRaster overview : this.overviews) {
+				if (overview.decimation > step) {
+					break;
 				}
-			};
+				selected = overview;
+			}
+			return selected;
+		}
+
+		static GeoTiffRaster open(Path path, Path rawPath, Path nearestPath) throws IOException {
+			GeoTiffFile file = GeoTiffFile.open(MappedTiffSource.open(path));
+			List<GeoTiffImage> levels = new ArrayList<>();
+			levels.add(file.base());
+			levels.addAll(file.overviews());
+			ByteBuffer[] raw = RAW_CACHE ? KoppenRawCache.open(rawPath, path, levels) : null;
+			ByteBuffer[] nearest = raw != null && NEAREST_FIELD ? openNearest(nearestPath, path, levels, raw) : null;
+
+			GeoTiffRaster[] overviews = new GeoTiffRaster[levels.size() - 1];
+			for (int i = 0; i < overviews.length; i++) {
+				overviews[i] = new GeoTiffRaster(
+						path,
+						null,
+						levels.get(i + 1),
+						new GeoTiffRaster[0],
+						raw != null ? raw[i + 1] : null,
+						nearest != null ? nearest[i + 1] : null
+				);
+			}
+			return new GeoTiffRaster(
+					path,
+					file,
+					file.base(),
+					overviews,
+					raw != null ? raw[0] : null,
+					nearest != null ? nearest[0] : null
+			);
 		}
 
-		static GeoTiffRaster open(Path path) throws IOException {
-			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
-			try {
-				return readFromChannel(path, channel);
-			} catch (IOException e) {
-				channel.close();
-				throw e;
+		private static ByteBuffer @Nullable [] openNearest(
+				Path nearestPath,
+				Path path,
+				List<GeoTiffImage> levels,
+				ByteBuffer[] raw
+		) {
+			List<KoppenRawCache.TileFiller> fillers = new ArrayList<>();
+			for (int i = 0; i < levels.size(); i++) {
+				GeoTiffImage level = levels.get(i);
+				int radius = radiusForMeters(SEARCH_RADIUS_METERS, pixelSizeMeters(level));
+				fillers.add(new KoppenNearestField(raw[i], level, radius, KOPPEN_CODES.length)::fill);
 			}
+			long key = Double.doubleToLongBits(SEARCH_RADIUS_METERS) ^ KOPPEN_CODES.length;
+			return KoppenRawCache.open(nearestPath, path, key, levels, fillers);
+		}
+
+		private static double pixelSizeMeters(GeoTiffImage image) {
+			return Math.abs(image.pixelScaleX()) * (EQUATOR_CIRCUMFERENCE / 360.0);
 		}
 
 		Pixel toPixel(double lon, double lat) {
-			if (this == MISSING) {
+			GeoTiffImage image = this.image;
+			if (image == null) {
 				return null;
 			}
-			int pixelX = (int) Math.floor((lon - this.tieLon) / this.pixelScaleX);
-			int pixelY = (int) Math.floor((this.tieLat - lat) / this.pixelScaleY);
+			int pixelX = image.pixelX(lon);
+			int pixelY = image.pixelY(lat);
 			if (pixelX < 0 || pixelY < 0 || pixelX >= this.width || pixelY >= this.height) {
 				return null;
 			}
 			return new Pixel(pixelX, pixelY);
 		}
 
-		String sampleSmoothed(Pixel center, int radius) {
+		int sampleSmoothed(Pixel center, int radius) {
 			if (center == null || radius <= 0) {
 				return sample(center);
 			}
@@ -397,14 +452,18 @@ public final class TellusKoppenSource {
 				}
 			}
 			if (bestIndex <= 0) {
-				return null;
+				return NO_CLIMATE;
 			}
-			return KOPPEN_CODES[bestIndex];
+			return bestIndex;
 		}
 
-		String findNearest(Pixel center, int radius) {
+		int findNearest(Pixel center, int radius) {
 			if (center == null || radius <= 0) {
-				return null;
+				return NO_CLIMATE;
+			}
+			ByteBuffer nearest = this.nearest;
+			if (nearest != null) {
+				return Byte.toUnsignedInt(nearest.get(rawIndex(center.x, center.y)));
 			}
 			int bestValue = 0;
 			int bestDist = Integer.MAX_VALUE;
@@ -425,29 +484,33 @@ public final class TellusKoppenSource {
 					}
 				}
 			}
-			return bestValue > 0 ? KOPPEN_CODES[bestValue] : null;
+			return bestValue;
 		}
 
 		int radiusForMeters(double meters) {
-			if (this.pixelSizeMeters <= 0.0) {
+			return radiusForMeters(meters, this.pixelSizeMeters);
+		}
+
+		private static int radiusForMeters(double meters, double pixelSizeMeters) {
+			if (pixelSizeMeters <= 0.0) {
 				return 0;
 			}
-			return Math.max(1, (int) Math.ceil(meters / this.pixelSizeMeters));
+			return Math.max(1, (int) Math.ceil(meters / pixelSizeMeters));
 		}
 
 		double pixelSizeMeters() {
 			return this.pixelSizeMeters;
 		}
 
-		private String sample(Pixel pixel) {
+		private int sample(Pixel pixel) {
 			if (pixel == null) {
-				return null;
+				return NO_CLIMATE;
 			}
 			int value = sampleValue(pixel.x, pixel.y);
 			if (value <= 0 || value >= KOPPEN_CODES.length) {
-				return null;
+				return NO_CLIMATE;
 			}
-			return KOPPEN_CODES[value];
+			return value;
 		}
 
 		private int sampleValue(int pixelX, int pixelY) {
@@ -457,9 +520,16 @@ public final class TellusKoppenSource {
 			if (pixelX < 0 || pixelY < 0 || pixelX >= this.width || pixelY >= this.height) {
 				return 0;
 			}
+			ByteBuffer raw = this.raw;
+			if (raw != null) {
+				return Byte.toUnsignedInt(raw.get(rawIndex(pixelX, pixelY)));
+			}
+
 			int tileX = pixelX / this.tileWidth;
 			int tileY = pixelY / this.tileHeight;
 			int tileIndex = tileY * this.tilesPerRow + tileX;
+			int localX = pixelX - tileX * this.tileWidth;
+			int localY = pixelY - tileY * this.tileHeight;
 
 			byte[] tile;
 			try {
@@ -468,323 +538,37 @@ public final class TellusKoppenSource {
 				Tellus.LOGGER.warn("Failed to read Koppen tile {} in {}", tileIndex, this.path, e);
 				return 0;
 			}
+			return Byte.toUnsignedInt(tile[localX + localY * this.tileWidth]);
+		}
 
+		private int rawIndex(int pixelX, int pixelY) {
+			int tileX = pixelX / this.tileWidth;
+			int tileY = pixelY / this.tileHeight;
+			int tileIndex = tileY * this.tilesPerRow + tileX;
 			int localX = pixelX - tileX * this.tileWidth;
 			int localY = pixelY - tileY * this.tileHeight;
-			return Byte.toUnsignedInt(tile[localX + localY * this.tileWidth]);
+			return tileIndex * this.tileWidth * this.tileHeight + localX + localY * this.tileWidth;
 		}
 
 		private byte[] getTile(int tileIndex) throws IOException {
-			synchronized (this.tileCache) {
-				byte[] cached = this.tileCache.get(tileIndex);
-				if (cached != null) {
-					return cached;
-				}
+			byte[] cached = this.tileCache.getIfPresent(tileIndex);
+			if (cached != null) {
+				return cached;
 			}
-			byte[] tile = readTile(tileIndex);
-			synchronized (this.tileCache) {
-				this.tileCache.put(tileIndex, tile);
-			}
-			return tile;
-		}
-
-		private byte[] readTile(int tileIndex) throws IOException {
-			long offset = this.tileOffsets[tileIndex];
-			int length = this.tileByteCounts[tileIndex];
-			byte[] compressed = new byte[length];
-			readFully(this.channel, compressed, offset);
-			int expectedSize = this.tileWidth * this.tileHeight;
-			if (this.compression == COMPRESSION_DEFLATE) {
-				return inflate(compressed, expectedSize);
-			}
-			if (this.compression == COMPRESSION_LZW) {
-				return decompressLzw(compressed, expectedSize);
-			}
-			throw new IOException("Unsupported TIFF compression " + this.compression);
-		}
-
-		private static GeoTiffRaster readFromChannel(Path path, FileChannel channel) throws IOException {
-			ByteBuffer header = ByteBuffer.allocate(8);
-			readFully(channel, header, 0);
-			header.flip();
-
-			short order = header.getShort();
-			ByteOrder byteOrder = switch (order) {
-				case 0x4949 -> ByteOrder.LITTLE_ENDIAN;
-				case 0x4D4D -> ByteOrder.BIG_ENDIAN;
-				default -> throw new IOException("Invalid TIFF byte order");
-			};
-			header.order(byteOrder);
-
-			short magic = header.getShort();
-			if (magic != 42) {
-				throw new IOException("Invalid TIFF magic");
-			}
-
-			int ifdOffset = header.getInt();
-			ByteBuffer countBuffer = ByteBuffer.allocate(2).order(byteOrder);
-			readFully(channel, countBuffer, ifdOffset);
-			countBuffer.flip();
-			int entryCount = Short.toUnsignedInt(countBuffer.getShort());
-
-			ByteBuffer entries = ByteBuffer.allocate(entryCount * 12).order(byteOrder);
-			readFully(channel, entries, ifdOffset + 2L);
-			entries.flip();
-
-			int width = -1;
-			int height = -1;
-			int tileWidth = -1;
-			int tileHeight = -1;
-			int compression = -1;
-			long[] tileOffsets = null;
-			int[] tileByteCounts = null;
-			double[] pixelScale = null;
-			double[] tiepoint = null;
-
-			for (int i = 0; i < entryCount; i++) {
-				int tag = Short.toUnsignedInt(entries.getShort());
-				int type = Short.toUnsignedInt(entries.getShort());
-				int count = entries.getInt();
-				int value = entries.getInt();
-				switch (tag) {
-					case TAG_IMAGE_WIDTH -> width = readIntValue(type, count, value, byteOrder);
-					case TAG_IMAGE_HEIGHT -> height = readIntValue(type, count, value, byteOrder);
-					case TAG_TILE_WIDTH -> tileWidth = readIntValue(type, count, value, byteOrder);
-					case TAG_TILE_HEIGHT -> tileHeight = readIntValue(type, count, value, byteOrder);
-					case TAG_COMPRESSION -> compression = readIntValue(type, count, value, byteOrder);
-					case TAG_TILE_OFFSETS -> tileOffsets = readLongArray(channel, value, count, byteOrder);
-					case TAG_TILE_BYTE_COUNTS -> tileByteCounts = readIntArray(channel, value, count, byteOrder);
-					case TAG_MODEL_PIXEL_SCALE -> pixelScale = readDoubleArray(channel, value, count, byteOrder);
-					case TAG_MODEL_TIEPOINT -> tiepoint = readDoubleArray(channel, value, count, byteOrder);
-					default -> {
-					}
-				}
-			}
-
-			if (compression != COMPRESSION_DEFLATE && compression != COMPRESSION_LZW) {
-				throw new IOException("Unsupported TIFF compression " + compression);
-			}
-			if (width <= 0 || height <= 0 || tileWidth <= 0 || tileHeight <= 0) {
-				throw new IOException("Missing TIFF size tags");
-			}
-			if (tileOffsets == null || tileByteCounts == null) {
-				throw new IOException("Missing TIFF tile offsets");
-			}
-			if (pixelScale == null || pixelScale.length < 2 || tiepoint == null || tiepoint.length < 5) {
-				throw new IOException("Missing TIFF georeference tags");
-			}
-
-			return new GeoTiffRaster(
-					path,
-					channel,
-					width,
-					height,
-					tileWidth,
-					tileHeight,
-					compression,
-					tileOffsets,
-					tileByteCounts,
-					pixelScale[0],
-					pixelScale[1],
-					tiepoint[3],
-					tiepoint[4]
-			);
-		}
-
-		private static int readIntValue(int type, int count, int value, ByteOrder order) throws IOException {
-			if (count != 1) {
-				throw new IOException("Expected single TIFF value");
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(4).order(order);
-			buffer.putInt(value);
-			buffer.flip();
-			if (type == TYPE_SHORT) {
-				return Short.toUnsignedInt(buffer.getShort());
-			}
-			if (type == TYPE_LONG) {
-				return buffer.getInt();
-			}
-			throw new IOException("Unsupported TIFF value type " + type);
-		}
-
-		private static long[] readLongArray(FileChannel channel, long offset, int count, ByteOrder order) throws IOException {
-			if (count <= 0) {
-				return new long[0];
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(order);
-			readFully(channel, buffer, offset);
-			buffer.flip();
-			long[] values = new long[count];
-			for (int i = 0; i < count; i++) {
-				values[i] = Integer.toUnsignedLong(buffer.getInt());
-			}
-			return values;
-		}
-
-		private static int[] readIntArray(FileChannel channel, long offset, int count, ByteOrder order) throws IOException {
-			if (count <= 0) {
-				return new int[0];
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(order);
-			readFully(channel, buffer, offset);
-			buffer.flip();
-			int[] values = new int[count];
-			for (int i = 0; i < count; i++) {
-				values[i] = buffer.getInt();
-			}
-			return values;
-		}
-
-		private static double[] readDoubleArray(FileChannel channel, long offset, int count, ByteOrder order) throws IOException {
-			if (count <= 0) {
-				return new double[0];
-			}
-			ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(order);
-			readFully(channel, buffer, offset);
-			buffer.flip();
-			double[] values = new double[count];
-			for (int i = 0; i < count; i++) {
-				values[i] = buffer.getDouble();
-			}
-			return values;
-		}
-
-		private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
-			long position = offset;
-			while (buffer.hasRemaining()) {
-				int read = channel.read(buffer, position);
-				if (read < 0) {
-					throw new EOFException("Unexpected end of file");
-				}
-				position += read;
-			}
-		}
-
-		private static void readFully(FileChannel channel, byte[] dest, long offset) throws IOException {
-			readFully(channel, ByteBuffer.wrap(dest), offset);
-		}
-
-		private static byte[] inflate(byte[] compressed, int expectedSize) throws IOException {
-			byte[] output = new byte[expectedSize];
-			try (InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
-				int offset = 0;
-				while (offset < expectedSize) {
-					int read = inflater.read(output, offset, expectedSize - offset);
-					if (read < 0) {
-						break;
-					}
-					offset += read;
-				}
-				if (offset != expectedSize) {
-					throw new IOException("Unexpected inflated data length");
-				}
-				return output;
-			}
-		}
-
-		private static byte[] decompressLzw(byte[] compressed, int expectedSize) throws IOException {
-			byte[][] table = new byte[4096][];
-			for (int i = 0; i < 256; i++) {
-				table[i] = new byte[] { (byte) i };
-			}
-
-			int clearCode = 256;
-			int endCode = 257;
-			int codeSize = 9;
-			int nextCode = 258;
-			byte[] output = new byte[expectedSize];
-			int outPos = 0;
-
-			LzwBitReader reader = new LzwBitReader(compressed);
-			byte[] previous = null;
-
-			while (true) {
-				int code = reader.read(codeSize);
-				if (code < 0) {
-					break;
-				}
-				if (code == clearCode) {
-					for (int i = 0; i < 256; i++) {
-						table[i] = new byte[] { (byte) i };
-					}
-					for (int i = 256; i < table.length; i++) {
-						table[i] = null;
-					}
-					codeSize = 9;
-					nextCode = 258;
-					previous = null;
-					continue;
-				}
-				if (code == endCode) {
-					break;
-				}
-
-				byte[] entry;
-				if (code < nextCode && table[code] != null) {
-					entry = table[code];
-				} else if (code == nextCode && previous != null) {
-					entry = concat(previous, previous[0]);
-				} else {
-					throw new IOException("Invalid LZW code " + code);
-				}
-
-				if (outPos + entry.length > output.length) {
-					throw new IOException("Unexpected LZW output size");
-				}
-				System.arraycopy(entry, 0, output, outPos, entry.length);
-				outPos += entry.length;
-
-				if (previous != null && nextCode < table.length) {
-					table[nextCode++] = concat(previous, entry[0]);
-					int threshold = (1 << codeSize) - 1;
-					if (nextCode == threshold && codeSize < 12) {
-						codeSize++;
-					}
-				}
-
-				previous = entry;
-				if (outPos == output.length) {
-					break;
+			try {
+				return this.tileCache.get(tileIndex, () -> readTile(tileIndex));
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException io) {
+					throw io;
 				}
+				throw new IOException("Failed to decode Koppen tile " + tileIndex + " in " + this.path, e.getCause());
 			}
-
-			if (outPos != output.length) {
-				throw new IOException("Unexpected LZW output length " + outPos);
-			}
-			return output;
-		}
-
-		private static byte[] concat(byte[] prefix, byte suffix) {
-			byte[] combined = new byte[prefix.length + 1];
-			System.arraycopy(prefix, 0, combined, 0, prefix.length);
-			combined[prefix.length] = suffix;
-			return combined;
 		}
 
-		private static final class LzwBitReader {
-			private final byte[] data;
-			private int bitPos;
-
-			private LzwBitReader(byte[] data) {
-				this.data = data;
-			}
-
-			private int read(int bits) {
-				int totalBits = this.data.length * 8;
-				if (this.bitPos + bits > totalBits) {
-					return -1;
-				}
-				int value = 0;
-				for (int i = 0; i < bits; i++) {
-					int offset = this.bitPos + i;
-					int byteIndex = offset >> 3;
-					int bitIndex = 7 - (offset & 7);
-					int current = this.data[byteIndex] & 0xFF;
-					value = (value << 1) | ((current >> bitIndex) & 1);
-				}
-				this.bitPos += bits;
-				return value;
-			}
+		private byte[] readTile(int tileIndex) throws IOException {
+			byte[] tile = new byte[this.tileWidth * this.tileHeight];
+			this.image.readTile(tileIndex, tile);
+			return tile;
 		}
 	}
 }
@@ -0,0 +1,259 @@
+package com.yucareux.tellus.world.data.mask;
+
+import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.http.TileFetcher;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+
+// A sparse local copy of a remote PMTiles archive. The data file has the archive's full length but
+// only the 64 KiB blocks that were ever read hold data; a bitmap next to it records which ones.
+// Reads fetch missing blocks once, then are served from read-only mappings across restarts. The
+// index also keeps the archive header the blocks belong to, so a changed remote is detected.
+final class PmTilesMirror {
+	static final int ARCHIVE_HEADER_SIZE = 127;
+	private static final int INDEX_MAGIC = 0x544c4d42;
+	private static final int INDEX_VERSION = 2;
+	private static final int INDEX_ARCHIVE_HEADER_OFFSET = 16;
+	private static final int INDEX_HEADER_SIZE = 144;
+	private static final int BLOCK_SHIFT = 16;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final int SEGMENT_BYTES = 1 << SEGMENT_SHIFT;
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private final URI uri;
+	private final FileChannel dataChannel;
+	private final FileChannel indexChannel;
+	private long length;
+	private long storedLength;
+	private byte @Nullable [] storedHeader;
+	private long[] present = new long[0];
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+	private PmTilesMirror(URI uri, FileChannel dataChannel, FileChannel indexChannel) {
+		this.uri = uri;
+		this.dataChannel = dataChannel;
+		this.indexChannel = indexChannel;
+	}
+
+	static @Nullable PmTilesMirror open(Path root, URI uri) {
+		String name = Path.of(uri.getPath()).getFileName() + "-" + Integer.toHexString(uri.toString().hashCode());
+		Path dataPath = root.resolve(name);
+		Path indexPath = root.resolve(name + ".blocks");
+		FileChannel dataChannel = null;
+		FileChannel indexChannel = null;
+		try {
+			Files.createDirectories(root);
+			dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			PmTilesMirror mirror = new PmTilesMirror(uri, dataChannel, indexChannel);
+			mirror.loadIndex();
+			return mirror;
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to open PMTiles mirror {}", dataPath, e);
+			closeQuietly(dataChannel);
+			closeQuietly(indexChannel);
+			return null;
+		}
+	}
+
+	// Zero until attach has checked the archive header; reads need it to bound fetches.
+	synchronized long length() {
+		return this.length;
+	}
+
+	// The archive header recorded with the mirrored blocks, for use when the remote is unreachable.
+	synchronized byte @Nullable [] storedHeader() {
+		byte[] header = this.storedHeader;
+		return header != null ? header.clone() : null;
+	}
+
+	// Binds the mirror to the archive with the given header. Blocks mirrored from any other version of
+	// the archive are discarded. Nothing is mapped before this, so the data file can still be truncated.
+	synchronized void attach(byte[] header, long length) throws IOException {
+		if (header.length != ARCHIVE_HEADER_SIZE || length <= 0L) {
+			throw new IOException("Invalid PMTiles header for " + this.uri);
+		}
+		boolean matches = length == this.storedLength && Arrays.equals(header, this.storedHeader);
+		if (this.length != 0L) {
+			if (!matches) {
+				throw new IOException("PMTiles archive " + this.uri + " changed while in use");
+			}
+			return;
+		}
+		if (!matches) {
+			if (this.storedHeader != null) {
+				Tellus.LOGGER.info("PMTiles archive {} changed, discarding mirrored blocks", this.uri);
+			}
+			this.dataChannel.truncate(0L);
+			this.present = new long[(int) ((blockCount(length) + 63) >>> 6)];
+			ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_SIZE + this.present.length * Long.BYTES).order(ORDER);
+			index.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(length);
+			index.put(INDEX_ARCHIVE_HEADER_OFFSET, header);
+			this.indexChannel.truncate(0L);
+			writeFully(this.indexChannel, index.position(0), 0L);
+			this.indexChannel.force(false);
+			this.storedLength = length;
+			this.storedHeader = header.clone();
+		}
+		if (this.dataChannel.size() < length) {
+			writeFully(this.dataChannel, ByteBuffer.wrap(new byte[1]), length - 1);
+		}
+		this.length = length;
+		this.segments = mapSegments(length);
+	}
+
+	byte[] read(long offset, int length) throws IOException {
+		long archiveLength = length();
+		if (offset < 0L || offset + length > archiveLength) {
+			throw new EOFException("Range beyond end of mirrored " + this.uri);
+		}
+		if (length == 0) {
+			return new byte[0];
+		}
+		ensurePresent(offset, length);
+		MappedByteBuffer[] segments;
+		synchronized (this) {
+			segments = this.segments;
+		}
+		byte[] out = new byte[length];
+		int copied = 0;
+		while (copied < length) {
+			long position = offset + copied;
+			int within = (int) (position & (SEGMENT_BYTES - 1));
+			int count = Math.min(length - copied, SEGMENT_BYTES - within);
+			segments[(int) (position >>> SEGMENT_SHIFT)].get(within, out, copied, count);
+			copied += count;
+		}
+		return out;
+	}
+
+	private void ensurePresent(long offset, int length) throws IOException {
+		long lastBlock = (offset + length - 1) >>> BLOCK_SHIFT;
+		long block = offset >>> BLOCK_SHIFT;
+		while (block <= lastBlock) {
+			if (isPresent(block)) {
+				block++;
+				continue;
+			}
+			long runEnd = block;
+			while (runEnd < lastBlock && !isPresent(runEnd + 1)) {
+				runEnd++;
+			}
+			fetchBlocks(block, runEnd);
+			block = runEnd + 1;
+		}
+	}
+
+	// Concurrent readers may fetch the same block twice; both write identical bytes.
+	private void fetchBlocks(long firstBlock, long lastBlock) throws IOException {
+		long start = firstBlock << BLOCK_SHIFT;
+		long end = Math.min(length(), (lastBlock + 1) << BLOCK_SHIFT);
+		byte[] bytes = TileFetcher.shared().fetchRange(this.uri, start, (int) (end - start));
+		writeFully(this.dataChannel, ByteBuffer.wrap(bytes), start);
+		// The blocks must reach disk before the bitmap can claim them.
+		this.dataChannel.force(false);
+		markPresent(firstBlock, lastBlock);
+	}
+
+	private synchronized boolean isPresent(long block) {
+		int word = (int) (block >>> 6);
+		return word < this.present.length && (this.present[word] & (1L << block)) != 0L;
+	}
+
+	private synchronized void markPresent(long firstBlock, long lastBlock) throws IOException {
+		int firstWord = (int) (firstBlock >>> 6);
+		int lastWord = (int) (lastBlock >>> 6);
+		if (lastWord >= this.present.length) {
+			return;
+		}
+		for (long block = firstBlock; block <= lastBlock; block++) {
+			this.present[(int) (block >>> 6)] |= 1L << block;
+		}
+		ByteBuffer words = ByteBuffer.allocate((lastWord - firstWord + 1) * Long.BYTES).order(ORDER);
+		for (int word = firstWord; word <= lastWord; word++) {
+			words.putLong(this.present[word]);
+		}
+		words.flip();
+		writeFully(this.indexChannel, words, INDEX_HEADER_SIZE + (long) firstWord * Long.BYTES);
+	}
+
+	private void loadIndex() throws IOException {
+		long size = this.indexChannel.size();
+		if (size < INDEX_HEADER_SIZE) {
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ORDER);
+		readFully(this.indexChannel, header, 0L);
+		header.flip();
+		if (header.getInt() != INDEX_MAGIC || header.getInt() != INDEX_VERSION) {
+			return;
+		}
+		long length = header.getLong();
+		byte[] archiveHeader = new byte[ARCHIVE_HEADER_SIZE];
+		header.get(INDEX_ARCHIVE_HEADER_OFFSET, archiveHeader);
+		int words = (int) ((blockCount(length) + 63) >>> 6);
+		if (length <= 0L || size < INDEX_HEADER_SIZE + (long) words * Long.BYTES || this.dataChannel.size() < length) {
+			return;
+		}
+		ByteBuffer bitmap = ByteBuffer.allocate(words * Long.BYTES).order(ORDER);
+		readFully(this.indexChannel, bitmap, INDEX_HEADER_SIZE);
+		bitmap.flip();
+		long[] present = new long[words];
+		bitmap.asLongBuffer().get(present);
+		this.storedLength = length;
+		this.storedHeader = archiveHeader;
+		this.present = present;
+	}
+
+	private MappedByteBuffer[] mapSegments(long length) throws IOException {
+		int count = (int) ((length + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+		MappedByteBuffer[] segments = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = (long) i << SEGMENT_SHIFT;
+			segments[i] = this.dataChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, length - start));
+		}
+		return segments;
+	}
+
+	private static long blockCount(long length) {
+		return (length + (1L << BLOCK_SHIFT) - 1) >>> BLOCK_SHIFT;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file");
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void closeQuietly(@Nullable FileChannel channel) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
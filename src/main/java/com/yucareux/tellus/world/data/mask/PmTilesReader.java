@@ -1,19 +1,19 @@
 package com.yucareux.tellus.world.data.mask;
 
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import com.yucareux.tellus.world.data.http.TileFetcher;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Objects;
 import java.util.zip.GZIPInputStream;
 
@@ -21,21 +21,21 @@ import org.jetbrains.annotations.NotNull;
 import org.jspecify.annotations.Nullable;
 
 final class PmTilesReader {
-	private static final int HEADER_SIZE = 127;
+	private static final int HEADER_SIZE = PmTilesMirror.ARCHIVE_HEADER_SIZE;
 	private static final int MAX_DIRECTORY_DEPTH = 4;
-	private static final int MAX_DIRECTORY_CACHE = intProperty("tellus.landmask.dirCache", 256);
-	private static final int READ_TIMEOUT_MS = 15000;
-	private static final int CONNECT_TIMEOUT_MS = 10000;
+	private static final int MAX_RANGE_GAP = 64 * 1024;
+	private static final int MAX_RANGE_BYTES = 4 * 1024 * 1024;
 
-	private final String url;
-	private final LoadingCache<@NotNull DirectoryKey, @NotNull Directory> directoryCache;
+	private final URI uri;
+	private final @Nullable PmTilesMirror mirror;
+	private final ManagedCache<@NotNull DirectoryKey, @NotNull Directory> directoryCache;
 	private @Nullable PmTilesHeader header;
 	private @Nullable Directory rootDirectory;
 
-	PmTilesReader(String url) {
-		this.url = Objects.requireNonNull(url, "url");
-		this.directoryCache = CacheBuilder.newBuilder()
-				.maximumSize(MAX_DIRECTORY_CACHE)
+	PmTilesReader(String url, @Nullable Path mirrorRoot) {
+		this.uri = URI.create(Objects.requireNonNull(url, "url"));
+		this.mirror = mirrorRoot != null ? PmTilesMirror.open(mirrorRoot, this.uri) : null;
+		this.directoryCache = ManagedCache.<@NotNull DirectoryKey, @NotNull Directory>builder("pmtiles-directories", Directory::heapBytes)
 				.build(new CacheLoader<>() {
 					@Override
 					public Directory load(DirectoryKey key) throws Exception {
@@ -52,26 +52,80 @@ final class PmTilesReader {
 	}
 
 	byte @Nullable [] getTileBytes(int z, int x, int y) throws IOException {
+		TileLocation location = locateTile(z, x, y);
+		if (location == null) {
+			return null;
+		}
+		return readBytes(location.offset(), location.length());
+	}
+
+	// Reads several tiles of one zoom level with as few requests as possible. Tiles close on the
+	// Hilbert curve are stored next to each other, so after resolving every entry the byte ranges
+	// that lie within MAX_RANGE_GAP of each other are read in one go and split afterwards. The
+	// result is aligned with the inputs and holds null for tiles absent from the archive.
+	byte @Nullable [][] getTileBytes(int z, int[] xs, int[] ys) throws IOException {
+		int count = xs.length;
+		long[] offsets = new long[count];
+		int[] lengths = new int[count];
+		Integer[] order = new Integer[count];
+		int found = 0;
+		for (int i = 0; i < count; i++) {
+			TileLocation location = locateTile(z, xs[i], ys[i]);
+			if (location == null) {
+				continue;
+			}
+			offsets[i] = location.offset();
+			lengths[i] = location.length();
+			order[found++] = i;
+		}
+		Arrays.sort(order, 0, found, Comparator.comparingLong(i -> offsets[i]));
+
+		byte[][] tiles = new byte[count][];
+		int start = 0;
+		while (start < found) {
+			long rangeStart = offsets[order[start]];
+			long rangeEnd = rangeStart + lengths[order[start]];
+			int end = start + 1;
+			while (end < found) {
+				int next = order[end];
+				long nextEnd = Math.max(rangeEnd, offsets[next] + lengths[next]);
+				if (offsets[next] - rangeEnd > MAX_RANGE_GAP || nextEnd - rangeStart > MAX_RANGE_BYTES) {
+					break;
+				}
+				rangeEnd = nextEnd;
+				end++;
+			}
+			byte[] range = readBytes(rangeStart, (int) (rangeEnd - rangeStart));
+			for (int k = start; k < end; k++) {
+				int tile = order[k];
+				int from = (int) (offsets[tile] - rangeStart);
+				tiles[tile] = Arrays.copyOfRange(range, from, from + lengths[tile]);
+			}
+			start = end;
+		}
+		return tiles;
+	}
+
+	private @Nullable TileLocation locateTile(int z, int x, int y) throws IOException {
 		long tileId = zxyToTileId(z, x, y);
 		PmTilesHeader header = header();
 		Directory directory = getRootDirectory();
 
 		for (int depth = 0; depth < MAX_DIRECTORY_DEPTH; depth++) {
-			Entry entry = findTile(directory.entries, tileId);
-			if (entry == null) {
+			int entry = directory.find(tileId);
+			if (entry < 0) {
 				return null;
 			}
-			if (entry.runLength == 0) {
-				long dirOffset = header.leafDirectoryOffset + entry.offset;
-				long dirLength = entry.length;
-				directory = getDirectory(dirOffset, dirLength);
+			long offset = directory.offsets[entry];
+			long length = directory.lengths[entry];
+			if (directory.runLengths[entry] == 0) {
+				directory = getDirectory(header.leafDirectoryOffset + offset, length);
 				continue;
 			}
-			long dataOffset = header.tileDataOffset + entry.offset;
-			if (entry.length > Integer.MAX_VALUE) {
+			if (length > Integer.MAX_VALUE) {
 				throw new IOException("Tile too large");
 			}
-			return readBytes(dataOffset, (int) entry.length);
+			return new TileLocation(header.tileDataOffset + offset, (int) length);
 		}
 		return null;
 	}
@@ -96,7 +150,7 @@ final class PmTilesReader {
 	}
 
 	private PmTilesHeader readHeader() throws IOException {
-		byte[] headerBytes = readBytes(0, HEADER_SIZE);
+		byte[] headerBytes = fetchHeaderBytes();
 		if (!"PMTiles".equals(new String(headerBytes, 0, 7, StandardCharsets.US_ASCII))) {
 			throw new IOException("PMTiles header missing");
 		}
@@ -126,6 +180,14 @@ final class PmTilesReader {
 		if (tileType != 2) {
 			Tellus.LOGGER.warn("Unexpected PMTiles tile type {}", tileType);
 		}
+		PmTilesMirror mirror = this.mirror;
+		if (mirror != null) {
+			long archiveLength = Math.max(
+					Math.max(rootOffset + rootLength, metadataOffset + metadataLength),
+					Math.max(leafOffset + leafLength, tileOffset + tileLength)
+			);
+			mirror.attach(headerBytes, archiveLength);
+		}
 		return new PmTilesHeader(
 				rootOffset,
 				rootLength,
@@ -142,62 +204,63 @@ final class PmTilesReader {
 
 	private Directory readDirectory(long offset, long length) throws IOException {
 		if (length <= 0) {
-			return new Directory(List.of());
+			return new Directory(0);
 		}
 		byte[] compressed = readBytes(offset, (int) length);
 		byte[] decompressed = gunzip(compressed);
 		ByteArrayInputStream input = new ByteArrayInputStream(decompressed);
 		int numEntries = (int) readVarint(input);
-		List<Entry> entries = new ArrayList<>(numEntries);
+		Directory directory = new Directory(numEntries);
 		long lastId = 0;
 		for (int i = 0; i < numEntries; i++) {
 			long delta = readVarint(input);
 			long tileId = lastId + delta;
-			entries.add(new Entry(tileId, 0, 0, 0));
+			directory.tileIds[i] = tileId;
 			lastId = tileId;
 		}
 		for (int i = 0; i < numEntries; i++) {
-			entries.get(i).runLength = readVarint(input);
+			directory.runLengths[i] = readVarint(input);
 		}
 		for (int i = 0; i < numEntries; i++) {
-			entries.get(i).length = readVarint(input);
+			directory.lengths[i] = readVarint(input);
 		}
 		for (int i = 0; i < numEntries; i++) {
 			long tmp = readVarint(input);
 			if (i > 0 && tmp == 0) {
-				Entry prev = entries.get(i - 1);
-				entries.get(i).offset = prev.offset + prev.length;
+				directory.offsets[i] = directory.offsets[i - 1] + directory.lengths[i - 1];
 			} else {
-				entries.get(i).offset = tmp - 1;
+				directory.offsets[i] = tmp - 1;
 			}
 		}
-		return new Directory(entries);
+		return directory;
 	}
 
-	private byte[] readBytes(long offset, int length) throws IOException {
-		if (length <= 0) {
-			return new byte[0];
-		}
-		HttpURLConnection connection = (HttpURLConnection) URI.create(this.url).toURL().openConnection();
-		connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
-		connection.setInstanceFollowRedirects(true);
-		connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
-		connection.setReadTimeout(READ_TIMEOUT_MS);
-		int code = connection.getResponseCode();
-		try (InputStream input = connection.getInputStream()) {
-			if (code == HttpURLConnection.HTTP_OK) {
-				skipFully(input, offset);
-				return readFully(input, length);
-			}
-			if (code != HttpURLConnection.HTTP_PARTIAL) {
-				throw new IOException("PMTiles HTTP error " + code);
+	// The header always comes from the network when it is reachable, so a changed remote archive is
+	// noticed and its mirror dropped before any stale block is served. Offline, the header recorded
+	// with the mirror keeps the mirrored blocks usable.
+	private byte[] fetchHeaderBytes() throws IOException {
+		try {
+			return TileFetcher.shared().fetchRange(this.uri, 0, HEADER_SIZE);
+		} catch (IOException e) {
+			PmTilesMirror mirror = this.mirror;
+			byte[] stored = mirror != null ? mirror.storedHeader() : null;
+			if (stored == null) {
+				throw e;
 			}
-			return readFully(input, length);
-		} finally {
-			connection.disconnect();
+			Tellus.LOGGER.warn("Failed to fetch PMTiles header for {}, using the mirrored copy", this.uri, e);
+			return stored;
 		}
 	}
 
+	// Served from the local mirror once it is attached to the current archive header.
+	private byte[] readBytes(long offset, int length) throws IOException {
+		PmTilesMirror mirror = this.mirror;
+		if (mirror != null && mirror.length() > 0L) {
+			return mirror.read(offset, length);
+		}
+		return TileFetcher.shared().fetchRange(this.uri, offset, length);
+	}
+
 	private static byte[] gunzip(byte[] input) throws IOException {
 		try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(input));
 			 ByteArrayOutputStream output = new ByteArrayOutputStream()) {
@@ -210,34 +273,6 @@ final class PmTilesReader {
 		}
 	}
 
-	private static void skipFully(InputStream input, long bytes) throws IOException {
-		long remaining = bytes;
-		while (remaining > 0) {
-			long skipped = input.skip(remaining);
-			if (skipped <= 0) {
-				if (input.read() == -1) {
-					throw new EOFException("Unexpected EOF while skipping");
-				}
-				remaining--;
-			} else {
-				remaining -= skipped;
-			}
-		}
-	}
-
-	private static byte[] readFully(InputStream input, int length) throws IOException {
-		byte[] buffer = new byte[length];
-		int offset = 0;
-		while (offset < length) {
-			int read = input.read(buffer, offset, length - offset);
-			if (read == -1) {
-				throw new EOFException("Unexpected EOF while reading");
-			}
-			offset += read;
-		}
-		return buffer;
-	}
-
 	private static long readVarint(InputStream input) throws IOException {
 		long result = 0;
 		int shift = 0;
@@ -280,86 +315,69 @@ final class PmTilesReader {
 			int rx = (s & x);
 			int ry = (s & y);
 			acc += (((3L * rx) ^ ry)) << a;
-			int[] rotated = rotate(s, x, y, rx, ry);
-			x = rotated[0];
-			y = rotated[1];
-		}
-		return acc;
-	}
-
-	private static int[] rotate(int n, int x, int y, int rx, int ry) {
-		if (ry == 0) {
-			if (rx != 0) {
-				x = n - 1 - x;
-				y = n - 1 - y;
-			}
-			int t = x;
-			x = y;
-			y = t;
-		}
-		return new int[] { x, y };
-	}
-
-	private static Entry findTile(List<Entry> entries, long tileId) {
-		int m = 0;
-		int n = entries.size() - 1;
-		while (m <= n) {
-			int k = (n + m) >> 1;
-			long diff = tileId - entries.get(k).tileId;
-			if (diff > 0) {
-				m = k + 1;
-			} else if (diff < 0) {
-				n = k - 1;
-			} else {
-				return entries.get(k);
-			}
-		}
-		if (n >= 0) {
-			Entry entry = entries.get(n);
-			if (entry.runLength == 0) {
-				return entry;
-			}
-			if (tileId - entry.tileId < entry.runLength) {
-				return entry;
+			if (ry == 0) {
+				if (rx != 0) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
 			}
 		}
-		return null;
-	}
-
-	private static int intProperty(String key, int defaultValue) {
-		String value = System.getProperty(key);
-		if (value == null) {
-			return defaultValue;
-		}
-		try {
-			return Math.max(1, Integer.parseInt(value));
-		} catch (NumberFormatException ignored) {
-			return defaultValue;
-		}
+		return acc;
 	}
 
 	private record DirectoryKey(long offset, long length) {
 	}
 
-	private static final class Entry {
-		private final long tileId;
-		private long offset;
-		private long length;
-		private long runLength;
-
-		private Entry(long tileId, long offset, long length, long runLength) {
-			this.tileId = tileId;
-			this.offset = offset;
-			this.length = length;
-			this.runLength = runLength;
-		}
+	private record TileLocation(long offset, int length) {
 	}
 
+	// Entries as parallel primitive arrays, sorted by tile id.
 	private static final class Directory {
-		private final List<Entry> entries;
+		private static final long ENTRY_BYTES = 4L * Long.BYTES;
+
+		private final long[] tileIds;
+		private final long[] offsets;
+		private final long[] lengths;
+		private final long[] runLengths;
+
+		private Directory(int size) {
+			this.tileIds = new long[size];
+			this.offsets = new long[size];
+			this.lengths = new long[size];
+			this.runLengths = new long[size];
+		}
+
+		// Index of the entry covering tileId: an exact match, a leaf directory or a run that
+		// contains it; -1 when there is none.
+		private int find(long tileId) {
+			long[] tileIds = this.tileIds;
+			int m = 0;
+			int n = tileIds.length - 1;
+			while (m <= n) {
+				int k = (n + m) >>> 1;
+				long diff = tileId - tileIds[k];
+				if (diff > 0) {
+					m = k + 1;
+				} else if (diff < 0) {
+					n = k - 1;
+				} else {
+					return k;
+				}
+			}
+			if (n >= 0) {
+				long runLength = this.runLengths[n];
+				if (runLength == 0 || tileId - tileIds[n] < runLength) {
+					return n;
+				}
+			}
+			return -1;
+		}
 
-		private Directory(List<Entry> entries) {
-			this.entries = entries;
+		private long heapBytes() {
+			return this.tileIds.length * ENTRY_BYTES;
 		}
 	}
 
@@ -1,14 +1,18 @@
 package com.yucareux.tellus.world.data.mask;
 
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import com.yucareux.tellus.world.data.image.PngDecoder;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 import javax.imageio.ImageIO;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Mth;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
@@ -23,17 +27,20 @@ public final class TellusLandMaskSource {
 	private static final String DEFAULT_BASE_URL =
 			"https://github.com/Yucareux/Tellus-Land-Polygons/releases/download/v1.0.0/";
 	private static final String PMTILES_NAME = "tellus_landmask.pmtiles";
-	private static final int MAX_CACHE_TILES = intProperty("tellus.landmask.cacheTiles", 256);
+	private static final boolean MIRROR =
+			Boolean.parseBoolean(System.getProperty("tellus.landmask.mirror", "true"));
 
+	private final LongAdder failedSamples = new LongAdder();
 	private final PmTilesReader reader;
-	private final LoadingCache<TileKey, @Nullable LandMaskTile> cache;
+	private final ManagedCache<TileKey, LandMaskTile> cache;
 	private final int minZoom;
 	private final int maxZoom;
 	private final boolean available;
 
 	public TellusLandMaskSource() {
 		String baseUrl = System.getProperty("tellus.landmask.baseUrl", DEFAULT_BASE_URL);
-		this.reader = new PmTilesReader(normalizeBaseUrl(baseUrl) + PMTILES_NAME);
+		Path mirrorRoot = MIRROR ? FabricLoader.getInstance().getGameDir().resolve("tellus/cache/landmask") : null;
+		this.reader = new PmTilesReader(normalizeBaseUrl(baseUrl) + PMTILES_NAME, mirrorRoot);
 		int resolvedMin = 0;
 		int resolvedMax = 0;
 		boolean ok = false;
@@ -48,18 +55,28 @@ public final class TellusLandMaskSource {
 		this.available = ok;
 		this.minZoom = ok ? resolvedMin : 0;
 		this.maxZoom = ok ? resolvedMax : 0;
-		this.cache = CacheBuilder.newBuilder()
-				.maximumSize(MAX_CACHE_TILES)
+		this.cache = ManagedCache.<TileKey, LandMaskTile>builder("landmask", LandMaskTile::heapBytes)
 				.build(new CacheLoader<>() {
 					@Override
-					public @Nullable LandMaskTile load(TileKey key) throws Exception {
+					public LandMaskTile load(TileKey key) throws Exception {
 						return TellusLandMaskSource.this.loadTile(key);
 					}
 				});
 	}
 
+	// Counts samples answered as unknown because the archive or a tile failed to load, as opposed to
+	// places the mask does not cover. Callers that persist derived data compare it across a build and
+	// skip the write when it moved.
+	public long failedSampleCount() {
+		return this.failedSamples.sum();
+	}
+
 	public LandMaskSample sampleLandMask(double blockX, double blockZ, double worldScale) {
-		if (!this.available || worldScale <= 0.0) {
+		if (worldScale <= 0.0) {
+			return LandMaskSample.unknown();
+		}
+		if (!this.available) {
+			this.failedSamples.increment();
 			return LandMaskSample.unknown();
 		}
 		double metersPerDegree = EQUATOR_CIRCUMFERENCE / 360.0;
@@ -77,6 +94,7 @@ public final class TellusLandMaskSource {
 		}
 		LandMaskTile tile = getTile(key);
 		if (tile == null) {
+			this.failedSamples.increment();
 			return LandMaskSample.unknown();
 		}
 
@@ -111,9 +129,37 @@ public final class TellusLandMaskSource {
 		int maxX = Math.min(tilesPerAxis - 1, center.x() + radius);
 		int minY = Math.max(0, center.y() - radius);
 		int maxY = Math.min(tilesPerAxis - 1, center.y() + radius);
+		int capacity = (maxX - minX + 1) * (maxY - minY + 1);
+		int[] xs = new int[capacity];
+		int[] ys = new int[capacity];
+		int missing = 0;
 		for (int tileY = minY; tileY <= maxY; tileY++) {
 			for (int tileX = minX; tileX <= maxX; tileX++) {
-				getTile(new TileKey(zoom, tileX, tileY));
+				if (this.cache.getIfPresent(new TileKey(zoom, tileX, tileY)) == null) {
+					xs[missing] = tileX;
+					ys[missing] = tileY;
+					missing++;
+				}
+			}
+		}
+		if (missing == 0) {
+			return;
+		}
+
+		byte[][] tiles;
+		try {
+			tiles = this.reader.getTileBytes(zoom, Arrays.copyOf(xs, missing), Arrays.copyOf(ys, missing));
+		} catch (IOException e) {
+			Tellus.LOGGER.debug("Failed to prefetch land mask tiles around {}", center, e);
+			return;
+		}
+		for (int i = 0; i < missing; i++) {
+			TileKey key = new TileKey(zoom, xs[i], ys[i]);
+			byte[] bytes = tiles[i];
+			try {
+				this.cache.get(key, () -> decodeTile(bytes));
+			} catch (Exception e) {
+				Tellus.LOGGER.debug("Failed to decode land mask tile {}", key, e);
 			}
 		}
 	}
@@ -129,25 +175,35 @@ public final class TellusLandMaskSource {
 
 	private LandMaskTile loadTile(TileKey key) throws IOException {
 		TileKey resolvedKey = Objects.requireNonNull(key, "key");
-		byte[] bytes = this.reader.getTileBytes(resolvedKey.zoom(), resolvedKey.x(), resolvedKey.y());
+		return decodeTile(this.reader.getTileBytes(resolvedKey.zoom(), resolvedKey.x(), resolvedKey.y()));
+	}
+
+	private static LandMaskTile decodeTile(byte @Nullable [] bytes) throws IOException {
 		if (bytes == null) {
 			return LandMaskTile.empty();
 		}
+		MaskSink sink = new MaskSink();
+		if (PngDecoder.decode(bytes, sink)) {
+			return LandMaskTile.of(sink.width, sink.height, sink.bits);
+		}
 		BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
 		if (image == null) {
 			throw new IOException("Invalid land mask tile image");
 		}
 		int width = image.getWidth();
 		int height = image.getHeight();
-		byte[] mask = new byte[width * height];
+		long[] bits = LandMaskTile.newBits(width, height);
+		int[] samples = new int[width];
 		for (int y = 0; y < height; y++) {
+			image.getRaster().getSamples(0, y, width, 1, 0, samples);
 			int row = y * width;
 			for (int x = 0; x < width; x++) {
-				int value = image.getRaster().getSample(x, y, 0);
-				mask[row + x] = (byte) (value > 0 ? 1 : 0);
+				if (samples[x] > 0) {
+					LandMaskTile.setBit(bits, row + x);
+				}
 			}
 		}
-		return new LandMaskTile(width, height, mask, false);
+		return LandMaskTile.of(width, height, bits);
 	}
 
 	private int selectZoom(double worldScale) {
@@ -191,18 +247,6 @@ public final class TellusLandMaskSource {
 		return baseUrl + "/";
 	}
 
-	private static int intProperty(String key, int defaultValue) {
-		String value = System.getProperty(key);
-		if (value == null) {
-			return defaultValue;
-		}
-		try {
-			return Math.max(1, Integer.parseInt(value));
-		} catch (NumberFormatException ignored) {
-			return defaultValue;
-		}
-	}
-
 	public record LandMaskSample(boolean known, boolean land) {
 		public static LandMaskSample known(boolean land) {
 			return new LandMaskSample(true, land);
@@ -216,18 +260,52 @@ public final class TellusLandMaskSource {
 	private record TileKey(int zoom, int x, int y) {
 	}
 
+	private static final class MaskSink implements PngDecoder.ScanlineSink {
+		private int width;
+		private int height;
+		private int channels;
+		private int bitDepth;
+		private long[] bits;
+
+		@Override
+		public boolean start(int width, int height, int channels, int bitDepth) {
+			this.width = width;
+			this.height = height;
+			this.channels = channels;
+			this.bitDepth = bitDepth;
+			this.bits = LandMaskTile.newBits(width, height);
+			return true;
+		}
+
+		@Override
+		public void row(int y, byte[] scanline, int offset) {
+			int row = y * this.width;
+			for (int x = 0; x < this.width; x++) {
+				int value = PngDecoder.sampleAt(scanline, offset, x, this.channels, this.bitDepth);
+				if (value > 0) {
+					LandMaskTile.setBit(this.bits, row + x);
+				}
+			}
+		}
+	}
+
+	// One bit per pixel. Tiles that are entirely water or entirely land keep no bits and are
+	// shared; a missing tile is all water as well.
 	private static final class LandMaskTile {
-		private static final LandMaskTile EMPTY = new LandMaskTile(0, 0, new byte[0], true);
+		private static final LandMaskTile EMPTY = new LandMaskTile(0, 0, null, false, true);
+		private static final LandMaskTile LAND = new LandMaskTile(TILE_SIZE, TILE_SIZE, null, true, false);
 
 		private final int width;
 		private final int height;
-		private final byte[] mask;
+		private final long @Nullable [] bits;
+		private final boolean uniformLand;
 		private final boolean empty;
 
-		private LandMaskTile(int width, int height, byte[] mask, boolean empty) {
+		private LandMaskTile(int width, int height, long @Nullable [] bits, boolean uniformLand, boolean empty) {
 			this.width = width;
 			this.height = height;
-			this.mask = mask;
+			this.bits = bits;
+			this.uniformLand = uniformLand;
 			this.empty = empty;
 		}
 
@@ -235,6 +313,34 @@ public final class TellusLandMaskSource {
 			return EMPTY;
 		}
 
+		static long[] newBits(int width, int height) {
+			return new long[(width * height + 63) >>> 6];
+		}
+
+		static void setBit(long[] bits, int index) {
+			bits[index >>> 6] |= 1L << index;
+		}
+
+		static LandMaskTile of(int width, int height, long[] bits) {
+			int pixels = width * height;
+			long any = 0L;
+			long all = -1L;
+			for (int i = 0; i < bits.length; i++) {
+				long word = bits[i];
+				int used = Math.min(64, pixels - (i << 6));
+				long mask = used == 64 ? -1L : (1L << used) - 1L;
+				any |= word & mask;
+				all &= word | ~mask;
+			}
+			if (any == 0L) {
+				return EMPTY;
+			}
+			if (all == -1L) {
+				return LAND;
+			}
+			return new LandMaskTile(width, height, bits, false, false);
+		}
+
 		public boolean isEmpty() {
 			return this.empty;
 		}
@@ -243,19 +349,27 @@ public final class TellusLandMaskSource {
 			return this.width;
 		}
 
+		long heapBytes() {
+			return this.bits != null ? (long) this.bits.length * Long.BYTES : 0L;
+		}
+
 		public int height() {
 			return this.height;
 		}
 
 		public boolean isLand(int x, int y) {
-			if (this.empty || this.mask.length == 0) {
+			if (this.uniformLand) {
+				return true;
+			}
+			long[] bits = this.bits;
+			if (this.empty || bits == null) {
 				return false;
 			}
 			int index = y * this.width + x;
-			if (index < 0 || index >= this.mask.length) {
+			if (index < 0 || index >= this.width * this.height) {
 				return false;
 			}
-			return this.mask[index] != 0;
+			return (bits[index >>> 6] & (1L << index)) != 0L;
 		}
 	}
 }
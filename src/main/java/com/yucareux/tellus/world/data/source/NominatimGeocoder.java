@@ -1,14 +1,12 @@
 package com.yucareux.tellus.world.data.source;
 
 import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.http.TileFetcher;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -69,14 +67,10 @@ public class NominatimGeocoder implements Geocoder {
 	private JsonElement query(String place, int limit) throws IOException {
 		String encodedPlace = URLEncoder.encode(place, StandardCharsets.UTF_8);
 		URI uri = URI.create(String.format(SEARCH_URL, limit, encodedPlace));
-		HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-		connection.setRequestProperty("User-Agent", "Tellus/2.0.0 (Minecraft Mod)");
-		connection.setConnectTimeout(5000);
-		connection.setReadTimeout(5000);
-
-		try (InputStream input = connection.getInputStream();
-				InputStreamReader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
-			return JsonParser.parseReader(reader);
+		byte[] data = TileFetcher.shared().fetch(uri);
+		if (data == null) {
+			throw new IOException("Geocoder returned 404 for " + uri);
 		}
+		return JsonParser.parseString(new String(data, StandardCharsets.UTF_8));
 	}
 }
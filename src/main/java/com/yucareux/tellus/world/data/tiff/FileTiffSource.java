@@ -0,0 +1,60 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class FileTiffSource implements TiffByteSource {
+	private final Path path;
+	private final FileChannel channel;
+
+	private FileTiffSource(Path path, FileChannel channel) {
+		this.path = path;
+		this.channel = channel;
+	}
+
+	public static FileTiffSource open(Path path) throws IOException {
+		return new FileTiffSource(path, FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	@Override
+	public void read(ByteBuffer buffer, long offset) throws IOException {
+		int start = buffer.position();
+		try {
+			readFully(this.channel, buffer, offset);
+		} catch (ClosedChannelException e) {
+			// The owning tile was evicted while a sampler still held it; finish the read on a fresh channel.
+			buffer.position(start);
+			try (FileChannel reopened = FileChannel.open(this.path, StandardOpenOption.READ)) {
+				readFully(reopened, buffer, offset);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	public static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file");
+			}
+			position += read;
+		}
+	}
+
+	public static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
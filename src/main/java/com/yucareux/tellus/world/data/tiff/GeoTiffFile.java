@@ -0,0 +1,449 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+// Parses the IFD chain of a tiled or striped GeoTIFF once and exposes the base image plus any
+// reduced-resolution overviews, all reading tiles through the same byte source.
+public final class GeoTiffFile implements AutoCloseable {
+	private static final int TAG_NEW_SUBFILE_TYPE = 254;
+	private static final int TAG_IMAGE_WIDTH = 256;
+	private static final int TAG_IMAGE_HEIGHT = 257;
+	private static final int TAG_BITS_PER_SAMPLE = 258;
+	private static final int TAG_COMPRESSION = 259;
+	private static final int TAG_STRIP_OFFSETS = 273;
+	private static final int TAG_SAMPLES_PER_PIXEL = 277;
+	private static final int TAG_ROWS_PER_STRIP = 278;
+	private static final int TAG_STRIP_BYTE_COUNTS = 279;
+	private static final int TAG_PREDICTOR = 317;
+	private static final int TAG_TILE_WIDTH = 322;
+	private static final int TAG_TILE_HEIGHT = 323;
+	private static final int TAG_TILE_OFFSETS = 324;
+	private static final int TAG_TILE_BYTE_COUNTS = 325;
+	private static final int TAG_SAMPLE_FORMAT = 339;
+	private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+	private static final int TAG_MODEL_TIEPOINT = 33922;
+	private static final int TAG_GEO_KEY_DIRECTORY = 34735;
+	private static final int TAG_GDAL_NODATA = 42113;
+
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_LONG = 4;
+
+	private static final int GEO_KEY_MODEL_TYPE = 1024;
+	private static final int GEO_KEY_RASTER_TYPE = 1025;
+	private static final int MODEL_TYPE_PROJECTED = 1;
+	private static final int MODEL_TYPE_GEOGRAPHIC = 2;
+	private static final int RASTER_PIXEL_IS_POINT = 2;
+
+	private static final int SUBFILE_REDUCED = 1;
+	private static final int SUBFILE_MASK = 4;
+	private static final int MAX_IFDS = 32;
+
+	private final TiffByteSource source;
+	private final GeoTiffImage base;
+	private final List<GeoTiffImage> overviews;
+	private final int modelType;
+
+	private GeoTiffFile(TiffByteSource source, GeoTiffImage base, List<GeoTiffImage> overviews, int modelType) {
+		this.source = source;
+		this.base = base;
+		this.overviews = overviews;
+		this.modelType = modelType;
+	}
+
+	// Takes ownership of the source: it is closed here if parsing fails, and by close() otherwise.
+	public static GeoTiffFile open(TiffByteSource source) throws IOException {
+		try {
+			return read(source);
+		} catch (IOException | RuntimeException e) {
+			source.close();
+			throw e;
+		}
+	}
+
+	public GeoTiffImage base() {
+		return this.base;
+	}
+
+	// Ordered from finest to coarsest.
+	public List<GeoTiffImage> overviews() {
+		return this.overviews;
+	}
+
+	// Files without a GeoKey directory are neither; callers decide how much to trust their extent.
+	public boolean isProjected() {
+		return this.modelType == MODEL_TYPE_PROJECTED;
+	}
+
+	public boolean isGeographic() {
+		return this.modelType == MODEL_TYPE_GEOGRAPHIC;
+	}
+
+	public long heapBytes() {
+		long bytes = this.base.heapBytes();
+		for (GeoTiffImage overview : this.overviews) {
+			bytes += overview.heapBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.source.close();
+	}
+
+	private static GeoTiffFile read(TiffByteSource source) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		source.read(header, 0);
+		header.flip();
+
+		short order = header.getShort();
+		ByteOrder byteOrder = switch (order) {
+			case 0x4949 -> ByteOrder.LITTLE_ENDIAN;
+			case 0x4D4D -> ByteOrder.BIG_ENDIAN;
+			default -> throw new IOException("Invalid TIFF byte order");
+		};
+		header.order(byteOrder);
+
+		short magic = header.getShort();
+		if (magic != 42) {
+			throw new IOException("Invalid TIFF magic");
+		}
+
+		List<Ifd> ifds = new ArrayList<>();
+		long ifdOffset = Integer.toUnsignedLong(header.getInt());
+		while (ifdOffset != 0 && ifds.size() < MAX_IFDS) {
+			Ifd ifd = readIfd(source, ifdOffset, byteOrder);
+			ifds.add(ifd);
+			ifdOffset = ifd.nextOffset();
+		}
+		if (ifds.isEmpty()) {
+			throw new IOException("Missing TIFF image directory");
+		}
+
+		Ifd base = ifds.get(0);
+		if (!base.hasBlocks()) {
+			throw new IOException("Missing TIFF size tags or tile offsets");
+		}
+		if (!base.isDecodable()) {
+			throw new IOException("Unsupported TIFF layout: compression " + base.compression()
+					+ ", predictor " + base.predictor() + ", " + base.bitsPerSample() + " bits x "
+					+ base.samplesPerPixel() + " samples, format " + base.sampleFormat());
+		}
+		double[] pixelScale = base.pixelScale();
+		double[] tiepoint = base.tiepoint();
+		if (pixelScale == null || pixelScale.length < 2 || tiepoint == null || tiepoint.length < 5) {
+			throw new IOException("Missing TIFF georeference tags");
+		}
+		// The tiepoint may anchor any raster position, and point rasters anchor pixel centres.
+		double originLon = tiepoint[3] - tiepoint[0] * pixelScale[0];
+		double originLat = tiepoint[4] + tiepoint[1] * pixelScale[1];
+		if (base.geoKey(GEO_KEY_RASTER_TYPE) == RASTER_PIXEL_IS_POINT) {
+			originLon -= pixelScale[0] * 0.5;
+			originLat += pixelScale[1] * 0.5;
+		}
+
+		// Overviews carry no georeference of their own; their pixels cover the same extent as the base image.
+		List<GeoTiffImage> overviews = new ArrayList<>();
+		for (int i = 1; i < ifds.size(); i++) {
+			Ifd ifd = ifds.get(i);
+			if ((ifd.subfileType() & SUBFILE_REDUCED) == 0 || (ifd.subfileType() & SUBFILE_MASK) != 0) {
+				continue;
+			}
+			if (!ifd.hasBlocks() || !ifd.isDecodable()) {
+				continue;
+			}
+			double scaleX = pixelScale[0] * base.width() / (double) ifd.width();
+			double scaleY = pixelScale[1] * base.height() / (double) ifd.height();
+			int decimation = Math.max(1, (int) Math.round(base.width() / (double) ifd.width()));
+			overviews.add(image(source, ifd, byteOrder, base.noData(), scaleX, scaleY, originLon, originLat, decimation));
+		}
+		overviews.sort(Comparator.comparingInt(GeoTiffImage::decimation));
+
+		GeoTiffImage baseImage = image(source, base, byteOrder, base.noData(), pixelScale[0], pixelScale[1], originLon, originLat, 1);
+		return new GeoTiffFile(source, baseImage, List.copyOf(overviews), base.geoKey(GEO_KEY_MODEL_TYPE));
+	}
+
+	private static GeoTiffImage image(
+			TiffByteSource source,
+			Ifd ifd,
+			ByteOrder byteOrder,
+			double noData,
+			double pixelScaleX,
+			double pixelScaleY,
+			double tieLon,
+			double tieLat,
+			int decimation
+	) {
+		return new GeoTiffImage(
+				source,
+				ifd.width(),
+				ifd.height(),
+				ifd.tileWidth(),
+				ifd.tileHeight(),
+				ifd.striped(),
+				ifd.compression(),
+				ifd.predictor(),
+				ifd.bitsPerSample(),
+				ifd.sampleFormat(),
+				byteOrder,
+				noData,
+				ifd.tileOffsets(),
+				ifd.tileByteCounts(),
+				pixelScaleX,
+				pixelScaleY,
+				tieLon,
+				tieLat,
+				decimation
+		);
+	}
+
+	private static Ifd readIfd(TiffByteSource source, long ifdOffset, ByteOrder byteOrder) throws IOException {
+		ByteBuffer countBuffer = ByteBuffer.allocate(2).order(byteOrder);
+		source.read(countBuffer, ifdOffset);
+		countBuffer.flip();
+		int entryCount = Short.toUnsignedInt(countBuffer.getShort());
+
+		ByteBuffer entries = ByteBuffer.allocate(entryCount * 12 + 4).order(byteOrder);
+		source.read(entries, ifdOffset + 2L);
+		entries.flip();
+
+		int subfileType = 0;
+		int width = -1;
+		int height = -1;
+		int tileWidth = -1;
+		int tileHeight = -1;
+		int rowsPerStrip = -1;
+		int compression = TiffDecoder.COMPRESSION_NONE;
+		int predictor = TiffDecoder.PREDICTOR_NONE;
+		// Byte rasters were all this reader used to handle; files that omit the tag are read as such, as before.
+		int bitsPerSample = 8;
+		int samplesPerPixel = 1;
+		int sampleFormat = TiffDecoder.FORMAT_UINT;
+		long[] tileOffsets = null;
+		int[] tileByteCounts = null;
+		long[] stripOffsets = null;
+		int[] stripByteCounts = null;
+		double[] pixelScale = null;
+		double[] tiepoint = null;
+		int[] geoKeys = null;
+		double noData = Double.NaN;
+
+		for (int i = 0; i < entryCount; i++) {
+			int tag = Short.toUnsignedInt(entries.getShort());
+			int type = Short.toUnsignedInt(entries.getShort());
+			int count = entries.getInt();
+			int value = entries.getInt();
+			switch (tag) {
+				case TAG_NEW_SUBFILE_TYPE -> subfileType = readIntValue(type, count, value, byteOrder);
+				case TAG_IMAGE_WIDTH -> width = readIntValue(type, count, value, byteOrder);
+				case TAG_IMAGE_HEIGHT -> height = readIntValue(type, count, value, byteOrder);
+				case TAG_BITS_PER_SAMPLE -> bitsPerSample = count == 1 ? readIntValue(type, count, value, byteOrder) : -1;
+				case TAG_COMPRESSION -> compression = readIntValue(type, count, value, byteOrder);
+				case TAG_STRIP_OFFSETS -> stripOffsets = readLongArray(source, type, count, value, byteOrder);
+				case TAG_SAMPLES_PER_PIXEL -> samplesPerPixel = readIntValue(type, count, value, byteOrder);
+				case TAG_ROWS_PER_STRIP -> rowsPerStrip = readIntValue(type, count, value, byteOrder);
+				case TAG_STRIP_BYTE_COUNTS -> stripByteCounts = readIntArray(source, type, count, value, byteOrder);
+				case TAG_PREDICTOR -> predictor = readIntValue(type, count, value, byteOrder);
+				case TAG_TILE_WIDTH -> tileWidth = readIntValue(type, count, value, byteOrder);
+				case TAG_TILE_HEIGHT -> tileHeight = readIntValue(type, count, value, byteOrder);
+				case TAG_TILE_OFFSETS -> tileOffsets = readLongArray(source, type, count, value, byteOrder);
+				case TAG_TILE_BYTE_COUNTS -> tileByteCounts = readIntArray(source, type, count, value, byteOrder);
+				case TAG_SAMPLE_FORMAT -> sampleFormat = count == 1 ? readIntValue(type, count, value, byteOrder) : -1;
+				case TAG_MODEL_PIXEL_SCALE -> pixelScale = readDoubleArray(source, value, count, byteOrder);
+				case TAG_MODEL_TIEPOINT -> tiepoint = readDoubleArray(source, value, count, byteOrder);
+				case TAG_GEO_KEY_DIRECTORY -> geoKeys = readIntArray(source, type, count, value, byteOrder);
+				case TAG_GDAL_NODATA -> noData = parseNoData(valueBytes(source, type, count, value, byteOrder));
+				default -> {
+				}
+			}
+		}
+		long nextOffset = Integer.toUnsignedLong(entries.getInt());
+
+		// A striped image is read as a single column of full-width tiles, one per strip.
+		boolean striped = tileOffsets == null && stripOffsets != null;
+		if (striped) {
+			tileWidth = width;
+			tileHeight = rowsPerStrip > 0 && rowsPerStrip < height ? rowsPerStrip : height;
+			tileOffsets = stripOffsets;
+			tileByteCounts = stripByteCounts;
+		}
+		return new Ifd(
+				subfileType,
+				width,
+				height,
+				tileWidth,
+				tileHeight,
+				striped,
+				compression,
+				predictor,
+				bitsPerSample,
+				samplesPerPixel,
+				sampleFormat,
+				tileOffsets,
+				tileByteCounts,
+				pixelScale,
+				tiepoint,
+				geoKeys,
+				noData,
+				nextOffset
+		);
+	}
+
+	private static int readIntValue(int type, int count, int value, ByteOrder order) throws IOException {
+		if (count != 1) {
+			throw new IOException("Expected single TIFF value");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4).order(order);
+		buffer.putInt(value);
+		buffer.flip();
+		if (type == TYPE_SHORT) {
+			return Short.toUnsignedInt(buffer.getShort());
+		}
+		if (type == TYPE_LONG) {
+			return buffer.getInt();
+		}
+		throw new IOException("Unsupported TIFF value type " + type);
+	}
+
+	// Values that fit in four bytes are stored inline in the entry rather than behind a pointer.
+	private static ByteBuffer valueBytes(TiffByteSource source, int type, int count, int value, ByteOrder order) throws IOException {
+		int elementSize = switch (type) {
+			case 1, 2, 6, 7 -> 1;
+			case TYPE_SHORT, 8 -> 2;
+			case TYPE_LONG, 9, 11 -> 4;
+			case 5, 10, 12 -> 8;
+			default -> throw new IOException("Unsupported TIFF value type " + type);
+		};
+		long size = Integer.toUnsignedLong(count) * elementSize;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("TIFF tag too large");
+		}
+		ByteBuffer buffer;
+		if (size <= 4) {
+			buffer = ByteBuffer.allocate(4).order(order);
+			buffer.putInt(value);
+		} else {
+			buffer = ByteBuffer.allocate((int) size).order(order);
+			source.read(buffer, Integer.toUnsignedLong(value));
+		}
+		buffer.flip();
+		buffer.limit((int) size);
+		return buffer;
+	}
+
+	private static long[] readLongArray(TiffByteSource source, int type, int count, int value, ByteOrder order) throws IOException {
+		if (count <= 0) {
+			return new long[0];
+		}
+		if (type != TYPE_SHORT && type != TYPE_LONG) {
+			throw new IOException("Unsupported TIFF value type " + type);
+		}
+		ByteBuffer buffer = valueBytes(source, type, count, value, order);
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = type == TYPE_SHORT ? Short.toUnsignedInt(buffer.getShort()) : Integer.toUnsignedLong(buffer.getInt());
+		}
+		return values;
+	}
+
+	private static int[] readIntArray(TiffByteSource source, int type, int count, int value, ByteOrder order) throws IOException {
+		if (count <= 0) {
+			return new int[0];
+		}
+		if (type != TYPE_SHORT && type != TYPE_LONG) {
+			throw new IOException("Unsupported TIFF value type " + type);
+		}
+		ByteBuffer buffer = valueBytes(source, type, count, value, order);
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = type == TYPE_SHORT ? Short.toUnsignedInt(buffer.getShort()) : buffer.getInt();
+		}
+		return values;
+	}
+
+	private static double[] readDoubleArray(TiffByteSource source, int offset, int count, ByteOrder order) throws IOException {
+		if (count <= 0) {
+			return new double[0];
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(order);
+		source.read(buffer, Integer.toUnsignedLong(offset));
+		buffer.flip();
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = buffer.getDouble();
+		}
+		return values;
+	}
+
+	// GDAL writes nodata as an ASCII number; anything unparseable is treated as absent.
+	private static double parseNoData(ByteBuffer bytes) {
+		byte[] text = new byte[bytes.remaining()];
+		bytes.get(text);
+		try {
+			return Double.parseDouble(new String(text, StandardCharsets.US_ASCII).replace("\0", "").trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private record Ifd(
+			int subfileType,
+			int width,
+			int height,
+			int tileWidth,
+			int tileHeight,
+			boolean striped,
+			int compression,
+			int predictor,
+			int bitsPerSample,
+			int samplesPerPixel,
+			int sampleFormat,
+			long @Nullable [] tileOffsets,
+			int @Nullable [] tileByteCounts,
+			double @Nullable [] pixelScale,
+			double @Nullable [] tiepoint,
+			int @Nullable [] geoKeys,
+			double noData,
+			long nextOffset
+	) {
+		boolean hasBlocks() {
+			if (this.width <= 0 || this.height <= 0 || this.tileWidth <= 0 || this.tileHeight <= 0
+					|| this.tileOffsets == null || this.tileByteCounts == null
+					|| this.tileOffsets.length != this.tileByteCounts.length) {
+				return false;
+			}
+			long across = (this.width + (long) this.tileWidth - 1) / this.tileWidth;
+			long down = (this.height + (long) this.tileHeight - 1) / this.tileHeight;
+			return this.tileOffsets.length >= across * down;
+		}
+
+		boolean isDecodable() {
+			return this.samplesPerPixel == 1
+					&& TiffDecoder.isSupported(this.compression, this.predictor, this.bitsPerSample, this.sampleFormat);
+		}
+
+		// GeoKey directory: a four-short header, then (key, location, count, value) entries; only
+		// keys stored inline (location 0) are read.
+		int geoKey(int key) {
+			int[] keys = this.geoKeys;
+			if (keys == null || keys.length < 4) {
+				return -1;
+			}
+			int count = keys[3];
+			for (int i = 0; i < count && 4 + i * 4 + 3 < keys.length; i++) {
+				int base = 4 + i * 4;
+				if (keys[base] == key && keys[base + 1] == 0) {
+					return keys[base + 3];
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+// One single-band level of a GeoTIFF: either the full-resolution image or one of its
+// reduced-resolution overviews, georeferenced in degrees. Striped images are exposed as tiles
+// spanning the full width, so callers address both layouts by tile index.
+public final class GeoTiffImage {
+	private final TiffByteSource source;
+	private final int width;
+	private final int height;
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int tilesPerRow;
+	private final boolean striped;
+	private final int compression;
+	private final int predictor;
+	private final int bitsPerSample;
+	private final int sampleFormat;
+	private final ByteOrder byteOrder;
+	private final double noData;
+	private final long[] tileOffsets;
+	private final int[] tileByteCounts;
+	private final double pixelScaleX;
+	private final double pixelScaleY;
+	private final double tieLon;
+	private final double tieLat;
+	private final int decimation;
+
+	GeoTiffImage(
+			TiffByteSource source,
+			int width,
+			int height,
+			int tileWidth,
+			int tileHeight,
+			boolean striped,
+			int compression,
+			int predictor,
+			int bitsPerSample,
+			int sampleFormat,
+			ByteOrder byteOrder,
+			double noData,
+			long[] tileOffsets,
+			int[] tileByteCounts,
+			double pixelScaleX,
+			double pixelScaleY,
+			double tieLon,
+			double tieLat,
+			int decimation
+	) {
+		this.source = source;
+		this.width = width;
+		this.height = height;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.tilesPerRow = (int) Math.ceil(width / (double) tileWidth);
+		this.striped = striped;
+		this.compression = compression;
+		this.predictor = predictor;
+		this.bitsPerSample = bitsPerSample;
+		this.sampleFormat = sampleFormat;
+		this.byteOrder = byteOrder;
+		this.noData = noData;
+		this.tileOffsets = tileOffsets;
+		this.tileByteCounts = tileByteCounts;
+		this.pixelScaleX = pixelScaleX;
+		this.pixelScaleY = pixelScaleY;
+		this.tieLon = tieLon;
+		this.tieLat = tieLat;
+		this.decimation = decimation;
+	}
+
+	public int width() {
+		return this.width;
+	}
+
+	public int height() {
+		return this.height;
+	}
+
+	public int tileWidth() {
+		return this.tileWidth;
+	}
+
+	public int tileHeight() {
+		return this.tileHeight;
+	}
+
+	public int tilesPerRow() {
+		return this.tilesPerRow;
+	}
+
+	public int tileCount() {
+		return this.tileOffsets.length;
+	}
+
+	public int decimation() {
+		return this.decimation;
+	}
+
+	public int bitsPerSample() {
+		return this.bitsPerSample;
+	}
+
+	public boolean isSignedInteger() {
+		return this.sampleFormat == TiffDecoder.FORMAT_INT;
+	}
+
+	// NaN when the file declares no GDAL nodata value.
+	public double noData() {
+		return this.noData;
+	}
+
+	public double pixelScaleX() {
+		return this.pixelScaleX;
+	}
+
+	public double pixelScaleY() {
+		return this.pixelScaleY;
+	}
+
+	// Outer corner of pixel (0, 0).
+	public double originLon() {
+		return this.tieLon;
+	}
+
+	public double originLat() {
+		return this.tieLat;
+	}
+
+	public boolean isInside(int pixelX, int pixelY) {
+		return pixelX >= 0 && pixelY >= 0 && pixelX < this.width && pixelY < this.height;
+	}
+
+	public int pixelX(double lon) {
+		return (int) Math.floor((lon - this.tieLon) / this.pixelScaleX);
+	}
+
+	public int pixelY(double lat) {
+		return (int) Math.floor((this.tieLat - lat) / this.pixelScaleY);
+	}
+
+	public double lonForPixel(int pixelX) {
+		return this.tieLon + (pixelX + 0.5) * this.pixelScaleX;
+	}
+
+	public double latForPixel(int pixelY) {
+		return this.tieLat - (pixelY + 0.5) * this.pixelScaleY;
+	}
+
+	public void readTile(int tileIndex, byte[] destination) throws IOException {
+		if (destination.length != this.tileWidth * this.tileHeight) {
+			throw new IllegalArgumentException("Tile buffer size mismatch");
+		}
+		if (this.bitsPerSample != 8) {
+			throw new IOException("Expected 8-bit TIFF samples, found " + this.bitsPerSample + " bits");
+		}
+		TiffDecoder.decode(
+				this.source,
+				this.tileOffsets[tileIndex],
+				this.tileByteCounts[tileIndex],
+				this.compression,
+				this.predictor,
+				this.tileWidth,
+				1,
+				this.byteOrder,
+				destination,
+				this.tileSamples(tileIndex)
+		);
+	}
+
+	// Reads any supported sample type widened to doubles; rows past the end of a short final strip read as NaN.
+	public void readSamples(int tileIndex, double[] destination) throws IOException {
+		if (destination.length != this.tileWidth * this.tileHeight) {
+			throw new IllegalArgumentException("Tile buffer size mismatch");
+		}
+		TiffDecoder.decodeSamples(
+				this.source,
+				this.tileOffsets[tileIndex],
+				this.tileByteCounts[tileIndex],
+				this.compression,
+				this.predictor,
+				this.tileWidth,
+				this.bitsPerSample,
+				this.sampleFormat,
+				this.byteOrder,
+				destination,
+				this.tileSamples(tileIndex)
+		);
+	}
+
+	// Tiles are always stored whole, but the last strip only holds the rows that remain.
+	private int tileSamples(int tileIndex) {
+		if (!this.striped) {
+			return this.tileWidth * this.tileHeight;
+		}
+		int rows = Math.min(this.tileHeight, this.height - tileIndex * this.tileHeight);
+		return this.tileWidth * Math.max(0, rows);
+	}
+
+	public long heapBytes() {
+		return (long) this.tileOffsets.length * Long.BYTES + (long) this.tileByteCounts.length * Integer.BYTES;
+	}
+}
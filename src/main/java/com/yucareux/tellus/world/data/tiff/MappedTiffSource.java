@@ -0,0 +1,51 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.jspecify.annotations.Nullable;
+
+// Maps a complete GeoTIFF read-only. Tile reads become page-cache hits with no system call, and
+// the mapping stays valid after close, so samplers racing an evicted tile keep working.
+public final class MappedTiffSource implements TiffByteSource {
+	private final MappedByteBuffer buffer;
+
+	private MappedTiffSource(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	public static TiffByteSource open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return FileTiffSource.open(path);
+			}
+			return new MappedTiffSource(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+		}
+	}
+
+	@Override
+	public void read(ByteBuffer buffer, long offset) throws IOException {
+		int length = buffer.remaining();
+		if (offset < 0 || offset + length > this.buffer.capacity()) {
+			throw new EOFException("Unexpected end of file");
+		}
+		buffer.put(this.buffer.slice((int) offset, length));
+	}
+
+	@Override
+	public @Nullable ByteBuffer slice(long offset, int length) {
+		if (offset < 0 || offset + length > this.buffer.capacity()) {
+			return null;
+		}
+		return this.buffer.slice((int) offset, length);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,17 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jspecify.annotations.Nullable;
+
+public interface TiffByteSource extends AutoCloseable {
+	void read(ByteBuffer buffer, long offset) throws IOException;
+
+	// Sources backed by memory let decoders read tile bytes in place instead of copying them out.
+	default @Nullable ByteBuffer slice(long offset, int length) {
+		return null;
+	}
+
+	@Override
+	void close() throws IOException;
+}
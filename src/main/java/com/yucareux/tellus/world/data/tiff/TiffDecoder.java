@@ -0,0 +1,308 @@
+package com.yucareux.tellus.world.data.tiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Decodes one internal tile or strip straight into the caller's array. Each thread keeps its own
+// Inflater, input buffer and LZW tables, so steady-state decoding allocates nothing per tile.
+final class TiffDecoder {
+	static final int COMPRESSION_NONE = 1;
+	static final int COMPRESSION_LZW = 5;
+	static final int COMPRESSION_DEFLATE = 8;
+	static final int COMPRESSION_ADOBE_DEFLATE = 32946;
+	static final int PREDICTOR_NONE = 1;
+	static final int PREDICTOR_HORIZONTAL = 2;
+	static final int PREDICTOR_FLOATING_POINT = 3;
+	static final int FORMAT_UINT = 1;
+	static final int FORMAT_INT = 2;
+	static final int FORMAT_FLOAT = 3;
+
+	private static final int LZW_CLEAR = 256;
+	private static final int LZW_END = 257;
+	private static final int LZW_FIRST = 258;
+	private static final int LZW_MAX_CODES = 4096;
+
+	private static final ThreadLocal<TiffDecoder> DECODERS = ThreadLocal.withInitial(TiffDecoder::new);
+
+	private final Inflater inflater = new Inflater();
+	private final int[] lzwOffset = new int[LZW_MAX_CODES];
+	private final int[] lzwLength = new int[LZW_MAX_CODES];
+	private byte[] input = new byte[0];
+	private ByteBuffer inputBuffer = ByteBuffer.wrap(this.input);
+	private byte[] samples = new byte[0];
+	private byte[] row = new byte[0];
+
+	private TiffDecoder() {
+	}
+
+	static boolean isSupported(int compression, int predictor, int bitsPerSample, int sampleFormat) {
+		boolean compressionSupported = compression == COMPRESSION_NONE
+				|| compression == COMPRESSION_LZW
+				|| compression == COMPRESSION_DEFLATE
+				|| compression == COMPRESSION_ADOBE_DEFLATE;
+		boolean layoutSupported = switch (sampleFormat) {
+			case FORMAT_UINT, FORMAT_INT -> (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 32)
+					&& (predictor == PREDICTOR_NONE || predictor == PREDICTOR_HORIZONTAL);
+			case FORMAT_FLOAT -> (bitsPerSample == 32 || bitsPerSample == 64)
+					&& (predictor == PREDICTOR_NONE || predictor == PREDICTOR_FLOATING_POINT);
+			default -> false;
+		};
+		return compressionSupported && layoutSupported;
+	}
+
+	// Fills the first `length` bytes of the destination; a short final strip leaves the rest untouched.
+	static void decode(
+			TiffByteSource source,
+			long offset,
+			int byteCount,
+			int compression,
+			int predictor,
+			int rowWidth,
+			int bytesPerSample,
+			ByteOrder order,
+			byte[] destination,
+			int length
+	) throws IOException {
+		DECODERS.get().decodeInto(source, offset, byteCount, compression, predictor, rowWidth, bytesPerSample, order, destination, length);
+	}
+
+	// Widens every sample to a double. Samples past `sampleCount` (a short final strip) read as NaN.
+	static void decodeSamples(
+			TiffByteSource source,
+			long offset,
+			int byteCount,
+			int compression,
+			int predictor,
+			int rowWidth,
+			int bitsPerSample,
+			int sampleFormat,
+			ByteOrder order,
+			double[] destination,
+			int sampleCount
+	) throws IOException {
+		TiffDecoder decoder = DECODERS.get();
+		int bytesPerSample = bitsPerSample / 8;
+		int length = sampleCount * bytesPerSample;
+		if (decoder.samples.length < length) {
+			decoder.samples = new byte[length];
+		}
+		byte[] data = decoder.samples;
+		decoder.decodeInto(source, offset, byteCount, compression, predictor, rowWidth, bytesPerSample, order, data, length);
+
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, length).order(order);
+		for (int i = 0; i < sampleCount; i++) {
+			int position = i * bytesPerSample;
+			destination[i] = switch (sampleFormat) {
+				case FORMAT_FLOAT -> bytesPerSample == 4 ? buffer.getFloat(position) : buffer.getDouble(position);
+				case FORMAT_INT -> switch (bytesPerSample) {
+					case 1 -> buffer.get(position);
+					case 2 -> buffer.getShort(position);
+					default -> buffer.getInt(position);
+				};
+				default -> switch (bytesPerSample) {
+					case 1 -> buffer.get(position) & 0xFF;
+					case 2 -> buffer.getShort(position) & 0xFFFF;
+					default -> buffer.getInt(position) & 0xFFFFFFFFL;
+				};
+			};
+		}
+		Arrays.fill(destination, sampleCount, destination.length, Double.NaN);
+	}
+
+	private void decodeInto(
+			TiffByteSource source,
+			long offset,
+			int byteCount,
+			int compression,
+			int predictor,
+			int rowWidth,
+			int bytesPerSample,
+			ByteOrder order,
+			byte[] destination,
+			int length
+	) throws IOException {
+		ByteBuffer input = this.input(source, offset, byteCount);
+		switch (compression) {
+			case COMPRESSION_NONE -> {
+				if (input.remaining() < length) {
+					throw new IOException("Unexpected raw tile length");
+				}
+				input.get(destination, 0, length);
+			}
+			case COMPRESSION_LZW -> this.decompressLzw(input, destination, length);
+			case COMPRESSION_DEFLATE, COMPRESSION_ADOBE_DEFLATE -> this.inflate(input, destination, length);
+			default -> throw new IOException("Unsupported TIFF compression " + compression);
+		}
+		if (predictor == PREDICTOR_HORIZONTAL) {
+			undoHorizontalPredictor(destination, length, rowWidth, bytesPerSample, order);
+		} else if (predictor == PREDICTOR_FLOATING_POINT) {
+			this.undoFloatingPointPredictor(destination, length, rowWidth, bytesPerSample, order);
+		}
+	}
+
+	private ByteBuffer input(TiffByteSource source, long offset, int length) throws IOException {
+		ByteBuffer mapped = source.slice(offset, length);
+		if (mapped != null) {
+			return mapped;
+		}
+		if (this.input.length < length) {
+			this.input = new byte[Math.max(length, this.input.length * 2)];
+			this.inputBuffer = ByteBuffer.wrap(this.input);
+		}
+		ByteBuffer buffer = this.inputBuffer;
+		buffer.clear().limit(length);
+		source.read(buffer, offset);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void inflate(ByteBuffer input, byte[] destination, int length) throws IOException {
+		Inflater inflater = this.inflater;
+		inflater.reset();
+		inflater.setInput(input);
+		try {
+			int offset = 0;
+			while (offset < length) {
+				int read = inflater.inflate(destination, offset, length - offset);
+				if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				offset += read;
+			}
+			if (offset != length) {
+				throw new IOException("Unexpected inflated data length");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt deflate tile", e);
+		} finally {
+			inflater.reset();
+		}
+	}
+
+	// TIFF LZW: MSB-first codes with the "early change" width bump. Every multi-byte string is a
+	// run already written to the destination, so the table stores offsets and strings are copied
+	// out of the output instead of being built as arrays.
+	private void decompressLzw(ByteBuffer input, byte[] destination, int length) throws IOException {
+		int[] offsets = this.lzwOffset;
+		int[] lengths = this.lzwLength;
+		int position = input.position();
+		int limit = input.limit();
+		int bitBuffer = 0;
+		int bitCount = 0;
+		int codeSize = 9;
+		int nextCode = LZW_FIRST;
+		int previous = -1;
+		int previousStart = 0;
+		int outPos = 0;
+
+		while (outPos < length) {
+			while (bitCount < codeSize && position < limit) {
+				bitBuffer = (bitBuffer << 8) | (input.get(position++) & 0xFF);
+				bitCount += 8;
+			}
+			if (bitCount < codeSize) {
+				break;
+			}
+			int code = (bitBuffer >>> (bitCount - codeSize)) & ((1 << codeSize) - 1);
+			bitCount -= codeSize;
+
+			if (code == LZW_CLEAR) {
+				codeSize = 9;
+				nextCode = LZW_FIRST;
+				previous = -1;
+				continue;
+			}
+			if (code == LZW_END) {
+				break;
+			}
+
+			int entryLength;
+			if (code < 256) {
+				entryLength = 1;
+				destination[outPos] = (byte) code;
+			} else if (code >= LZW_FIRST && code < nextCode) {
+				entryLength = lengths[code];
+				if (outPos + entryLength > length) {
+					throw new IOException("Unexpected LZW output size");
+				}
+				System.arraycopy(destination, offsets[code], destination, outPos, entryLength);
+			} else if (code == nextCode && previous >= 0) {
+				int previousLength = previous < 256 ? 1 : lengths[previous];
+				entryLength = previousLength + 1;
+				if (outPos + entryLength > length) {
+					throw new IOException("Unexpected LZW output size");
+				}
+				System.arraycopy(destination, previousStart, destination, outPos, previousLength);
+				destination[outPos + previousLength] = destination[previousStart];
+			} else {
+				throw new IOException("Invalid LZW code " + code);
+			}
+
+			if (previous >= 0 && nextCode < LZW_MAX_CODES) {
+				offsets[nextCode] = previousStart;
+				lengths[nextCode] = (previous < 256 ? 1 : lengths[previous]) + 1;
+				nextCode++;
+				if (nextCode == (1 << codeSize) - 1 && codeSize < 12) {
+					codeSize++;
+				}
+			}
+			previous = code;
+			previousStart = outPos;
+			outPos += entryLength;
+		}
+
+		if (outPos != length) {
+			throw new IOException("Unexpected LZW output length " + outPos);
+		}
+	}
+
+	// Differences are taken per sample, so wider samples are summed as whole values in file byte order.
+	private static void undoHorizontalPredictor(byte[] data, int length, int rowWidth, int bytesPerSample, ByteOrder order) {
+		if (bytesPerSample == 1) {
+			for (int row = 0; row + rowWidth <= length; row += rowWidth) {
+				for (int i = row + 1; i < row + rowWidth; i++) {
+					data[i] = (byte) (data[i] + data[i - 1]);
+				}
+			}
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+		int rowBytes = rowWidth * bytesPerSample;
+		for (int row = 0; row + rowBytes <= length; row += rowBytes) {
+			for (int i = row + bytesPerSample; i < row + rowBytes; i += bytesPerSample) {
+				if (bytesPerSample == 2) {
+					buffer.putShort(i, (short) (buffer.getShort(i) + buffer.getShort(i - 2)));
+				} else {
+					buffer.putInt(i, buffer.getInt(i) + buffer.getInt(i - 4));
+				}
+			}
+		}
+	}
+
+	// The floating point predictor differences bytes across the row, then stores each byte plane
+	// separately, most significant first; the planes are re-interleaved into file byte order.
+	private void undoFloatingPointPredictor(byte[] data, int length, int rowWidth, int bytesPerSample, ByteOrder order) {
+		int rowBytes = rowWidth * bytesPerSample;
+		if (this.row.length < rowBytes) {
+			this.row = new byte[rowBytes];
+		}
+		byte[] row = this.row;
+		boolean littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+		for (int base = 0; base + rowBytes <= length; base += rowBytes) {
+			for (int i = base + 1; i < base + rowBytes; i++) {
+				data[i] = (byte) (data[i] + data[i - 1]);
+			}
+			for (int x = 0; x < rowWidth; x++) {
+				for (int b = 0; b < bytesPerSample; b++) {
+					int target = littleEndian ? bytesPerSample - 1 - b : b;
+					row[x * bytesPerSample + target] = data[base + b * rowWidth + x];
+				}
+			}
+			System.arraycopy(row, 0, data, base, rowBytes);
+		}
+	}
+}
@@ -5,7 +5,9 @@ import com.mojang.serialization.codecs.RecordCodecBuilder;
 import com.yucareux.tellus.world.data.biome.BiomeClassification;
 import com.yucareux.tellus.world.data.cover.TellusLandCoverSource;
 import com.yucareux.tellus.world.data.koppen.TellusKoppenSource;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -32,6 +34,7 @@ public final class EarthBiomeSource extends BiomeSource {
 	private static final int ESA_WATER = 80;
 	private static final int ESA_MANGROVES = 95;
 	private static final int ESA_NO_DATA = 0;
+	private static final int ESA_CLASS_COUNT = 256;
 
 	private static final TellusLandCoverSource LAND_COVER_SOURCE = TellusWorldgenSources.landCover();
 	private static final TellusKoppenSource KOPPEN_SOURCE = TellusWorldgenSources.koppen();
@@ -45,6 +48,7 @@ public final class EarthBiomeSource extends BiomeSource {
 	private final @NonNull Holder<Biome> frozenPeaks;
 	private final @NonNull Holder<Biome> mangrove;
 	private final @NonNull WaterSurfaceResolver waterResolver;
+	private final @NonNull Holder<Biome>[][] biomeTable;
 
 	public EarthBiomeSource(HolderGetter<Biome> biomeLookup, EarthGeneratorSettings settings) {
 		this.biomeLookup = Objects.requireNonNull(biomeLookup, "biomeLookup");
@@ -56,6 +60,7 @@ public final class EarthBiomeSource extends BiomeSource {
 		this.mangrove = resolveBiome(Biomes.MANGROVE_SWAMP, this.plains);
 		this.waterResolver = TellusWorldgenSources.waterResolver(this.settings);
 		this.possibleBiomes = buildPossibleBiomes();
+		this.biomeTable = buildBiomeTable();
 	}
 
 	public EarthGeneratorSettings settings() {
@@ -102,19 +107,33 @@ public final class EarthBiomeSource extends BiomeSource {
 			}
 		}
 
-		String koppen = KOPPEN_SOURCE.sampleDitheredCode(blockX, blockZ, this.settings.worldScale());
-		if (koppen == null) {
-			koppen = KOPPEN_SOURCE.findNearestCode(blockX, blockZ, this.settings.worldScale());
+		int koppen = KOPPEN_SOURCE.sampleDitheredId(blockX, blockZ, this.settings.worldScale());
+		if (koppen == TellusKoppenSource.NO_CLIMATE) {
+			koppen = KOPPEN_SOURCE.findNearestId(blockX, blockZ, this.settings.worldScale());
 		}
+		return this.biomeTable[coverClass & 0xFF][koppen];
+	}
 
-		ResourceKey<Biome> biomeKey = BiomeClassification.findBiomeKey(coverClass, koppen);
-		if (biomeKey == null) {
-			biomeKey = BiomeClassification.findFallbackKey(coverClass);
-		}
-		if (biomeKey == null) {
-			return this.plains;
+	// Every (cover class, climate) pair is resolved once, so a biome query is two array reads
+	// instead of code normalisation, nested map lookups and a registry query per column.
+	@SuppressWarnings("unchecked")
+	private @NonNull Holder<Biome>[][] buildBiomeTable() {
+		int climates = TellusKoppenSource.climateCount();
+		Map<ResourceKey<Biome>, Holder<Biome>> resolved = new HashMap<>();
+		Holder<Biome>[][] table = (Holder<Biome>[][]) new Holder<?>[ESA_CLASS_COUNT][climates];
+		for (int coverClass = 0; coverClass < ESA_CLASS_COUNT; coverClass++) {
+			ResourceKey<Biome> fallbackKey = BiomeClassification.findFallbackKey(coverClass);
+			for (int koppen = 0; koppen < climates; koppen++) {
+				ResourceKey<Biome> biomeKey = BiomeClassification.findBiomeKey(coverClass, TellusKoppenSource.codeForId(koppen));
+				if (biomeKey == null) {
+					biomeKey = fallbackKey;
+				}
+				table[coverClass][koppen] = biomeKey == null
+						? this.plains
+						: resolved.computeIfAbsent(biomeKey, key -> resolveBiome(key, this.plains));
+			}
 		}
-		return resolveBiome(biomeKey, this.plains);
+		return table;
 	}
 
 	private @NonNull Set<Holder<Biome>> buildPossibleBiomes() {
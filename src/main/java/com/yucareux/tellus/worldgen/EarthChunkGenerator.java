@@ -139,6 +139,11 @@ public final class EarthChunkGenerator extends ChunkGenerator {
 		return new EarthChunkGenerator(new EarthBiomeSource(registries.lookupOrThrow(Registries.BIOME), settings), settings);
 	}
 
+	// Called when a server stops so the water stores of its worlds are flushed, unlocked and closed.
+	public static void releaseSharedResources() {
+		TellusWorldgenSources.closeWaterResolvers();
+	}
+
 	public EarthGeneratorSettings settings() {
 		return this.settings;
 	}
@@ -292,14 +297,7 @@ public final class EarthChunkGenerator extends ChunkGenerator {
 		int[] heightGrid = new int[gridSize * gridSize];
 		int gridMinX = pos.getMinBlockX() - step;
 		int gridMinZ = pos.getMinBlockZ() - step;
-		for (int dz = 0; dz < gridSize; dz++) {
-			int worldZ = gridMinZ + dz;
-			int row = dz * gridSize;
-			for (int dx = 0; dx < gridSize; dx++) {
-				int worldX = gridMinX + dx;
-				heightGrid[row + dx] = sampleSurfaceHeight(worldX, worldZ);
-			}
-		}
+		sampleSurfaceHeights(gridMinX, gridMinZ, gridSize, gridSize, 1, heightGrid);
 
 		int[] coverClasses = new int[16 * 16];
 		int[] terrainSurfaces = new int[16 * 16];
@@ -615,8 +613,29 @@ public final class EarthChunkGenerator extends ChunkGenerator {
 	}
 
 	private int sampleSurfaceHeight(int blockX, int blockZ) {
-		boolean oceanZoom = useOceanZoom(blockX, blockZ);
-		double elevation = ELEVATION_SOURCE.sampleElevationMeters(blockX, blockZ, this.settings.worldScale(), oceanZoom);
+		double elevation = ELEVATION_SOURCE.sampleElevationMeters(blockX, blockZ, this.settings.worldScale(), this::useOceanZoom);
+		return toSurfaceHeight(elevation);
+	}
+
+	public void sampleSurfaceHeights(int minX, int minZ, int width, int height, int step, int[] out) {
+		int area = width * height;
+		double[] elevations = new double[area];
+		ELEVATION_SOURCE.sampleElevationGrid(
+				minX,
+				minZ,
+				width,
+				height,
+				step,
+				this.settings.worldScale(),
+				this::useOceanZoom,
+				elevations
+		);
+		for (int i = 0; i < area; i++) {
+			out[i] = toSurfaceHeight(elevations[i]);
+		}
+	}
+
+	private int toSurfaceHeight(double elevation) {
 		double heightScale = elevation >= 0.0 ? this.settings.terrestrialHeightScale() : this.settings.oceanicHeightScale();
 		double scaled = elevation * heightScale / this.settings.worldScale();
 		int offset = this.settings.heightOffset();
@@ -866,8 +885,11 @@ public final class EarthChunkGenerator extends ChunkGenerator {
 	}
 
 	public WaterSurfaceResolver.WaterColumnData resolveLodWaterColumn(int worldX, int worldZ, int coverClass) {
+		return resolveLodWaterColumnForSurface(sampleSurfaceHeight(worldX, worldZ), coverClass);
+	}
+
+	public WaterSurfaceResolver.WaterColumnData resolveLodWaterColumnForSurface(int surface, int coverClass) {
 		// LODs use a lightweight water approximation to avoid the full resolver cost.
-		int surface = sampleSurfaceHeight(worldX, worldZ);
 		boolean noData = coverClass == ESA_NO_DATA;
 		boolean hasWater = coverClass == ESA_WATER
 				|| coverClass == ESA_MANGROVES
@@ -2,6 +2,7 @@ package com.yucareux.tellus.worldgen;
 
 import com.yucareux.tellus.world.data.cover.TellusLandCoverSource;
 import com.yucareux.tellus.world.data.elevation.TellusElevationSource;
+import com.yucareux.tellus.world.data.http.TileFetcher;
 import com.yucareux.tellus.world.data.koppen.TellusKoppenSource;
 import com.yucareux.tellus.world.data.mask.TellusLandMaskSource;
 import java.util.Objects;
@@ -67,6 +68,16 @@ final class TellusWorldgenSources {
 		return Objects.requireNonNull(resolver, "waterResolver");
 	}
 
+	// Releases every resolver's persistent stores; a later world gets fresh resolvers.
+	static void closeWaterResolvers() {
+		for (EarthGeneratorSettings settings : WATER_RESOLVERS.keySet()) {
+			WaterSurfaceResolver resolver = WATER_RESOLVERS.remove(settings);
+			if (resolver != null) {
+				resolver.close();
+			}
+		}
+	}
+
 	static void prefetchForChunk(ChunkPos pos, EarthGeneratorSettings settings) {
 		if (!PREFETCH_ENABLED || PREFETCH_EXECUTOR == null) {
 			return;
@@ -91,7 +102,7 @@ final class TellusWorldgenSources {
 	private static void submitPrefetch(Runnable task) {
 		try {
             assert PREFETCH_EXECUTOR != null;
-            PREFETCH_EXECUTOR.execute(task);
+            PREFETCH_EXECUTOR.execute(() -> TileFetcher.runPrefetch(task));
 		} catch (RuntimeException ignored) {
 			// Prefetch is best-effort; ignore rejections.
 		}
@@ -0,0 +1,739 @@
+package com.yucareux.tellus.worldgen;
+
+import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jspecify.annotations.Nullable;
+
+// A coarse index of inland water bodies that is shared by every water region. A region only sees
+// its margin, so a lake or river wider than that used to get its spill height, ocean test and
+// river axis from whichever slice each region happened to see. The index samples one column per
+// 16-block cell, groups cells into 128x128 pages, and flood fills connected inland water across
+// pages once per body. Pages keep the sampled cells and the body label of each cell; body
+// summaries go to an append-only log, so both survive restarts. A persisted index is shared by
+// every resolver that uses its directory, and its log is locked against other processes, so body
+// ids are only ever handed out by one owner.
+final class WaterBodyIndex {
+	static final int CELL_BLOCKS = 16;
+	static final int PAGE_CELLS = 128;
+	static final int PAGE_AREA = PAGE_CELLS * PAGE_CELLS;
+	static final byte CELL_LAND = 0;
+	static final byte CELL_WATER = 1;
+	static final byte CELL_OCEAN = 2;
+	static final byte CELL_MASK_LAND = 4;
+	private static final byte CELL_KIND = 3;
+	private static final int CELL_SHIFT = 4;
+	private static final int PAGE_SHIFT = 7;
+	// Bodies that keep growing past either cap are left open: oceans-by-another-name and continental
+	// river networks, which no single summary describes well. Regions fall back to local stats. The
+	// page cap also bounds a fill's pinned pages to about 7 MiB.
+	private static final int MAX_BODY_CELLS = 1 << 18;
+	private static final int MAX_BODY_PAGES = 64;
+	private static final int FLOOD_STRIPE_BITS = 6;
+	private static final int FLOOD_STRIPES = 1 << FLOOD_STRIPE_BITS;
+	private static final int PAGE_MAGIC = 0x50425754;
+	private static final int LOG_MAGIC = 0x4c425754;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int LABELS_OFFSET = HEADER_SIZE + PAGE_AREA * (1 + Short.BYTES);
+	private static final int PAGE_BYTES = LABELS_OFFSET + PAGE_AREA * Integer.BYTES;
+	private static final int RECORD_SIZE = 68;
+	private static final int FLAG_OPEN = 1;
+	private static final int FLAG_TOUCHES_OCEAN = 2;
+	private static final int FLAG_TOUCHES_LOW_LAND = 4;
+	private static final int FLAG_DEGRADED = 8;
+	private static final int PROVISIONAL = -1;
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int[] NEIGHBOR_OFFSETS = { 1, 0, -1, 0, 0, 1, 0, -1 };
+	private static final Map<Path, WaterBodyIndex> OPEN = new HashMap<>();
+
+	@FunctionalInterface
+	interface PageSampler {
+		// Fills the class byte and surface height of every cell in the page at the given block origin.
+		// Returns false when some cell fell back to a default because its data failed to load.
+		boolean sample(int minX, int minZ, byte[] classes, short[] heights);
+	}
+
+	private volatile @Nullable Path root;
+	private final int inlandLevel;
+	private final double spillPercentile;
+	private final PageSampler sampler;
+	private final ManagedCache<Long, Page> pages;
+	private final ConcurrentMap<Integer, WaterBody> bodies = new ConcurrentHashMap<>();
+	private final ReentrantLock[] floodStripes = new ReentrantLock[FLOOD_STRIPES];
+	private final Object logLock = new Object();
+	private volatile @Nullable FileChannel log;
+	private int nextId = 1;
+	// Guarded by OPEN.
+	private int references;
+
+	private WaterBodyIndex(int inlandLevel, double spillPercentile, PageSampler sampler) {
+		this.inlandLevel = inlandLevel;
+		this.spillPercentile = spillPercentile;
+		this.sampler = sampler;
+		this.pages = ManagedCache.<Long, Page>builder("water-body-pages", Page::heapBytes).build();
+		for (int i = 0; i < FLOOD_STRIPES; i++) {
+			this.floodStripes[i] = new ReentrantLock();
+		}
+	}
+
+	// Returns the index persisted under root, opening it on first use, or a private in-memory index
+	// when root is null. Callers sharing a root resolve water identically, so whichever sampler
+	// opened it serves them all. Every acquire must be paired with one release.
+	static WaterBodyIndex acquire(@Nullable Path root, int inlandLevel, double spillPercentile, PageSampler sampler) {
+		if (root == null) {
+			return open(null, inlandLevel, spillPercentile, sampler);
+		}
+		Path key = root.toAbsolutePath().normalize();
+		synchronized (OPEN) {
+			WaterBodyIndex index = OPEN.get(key);
+			if (index == null) {
+				index = open(key, inlandLevel, spillPercentile, sampler);
+				OPEN.put(key, index);
+			}
+			index.references++;
+			return index;
+		}
+	}
+
+	// Stops persisting once the last user is gone. Pages and bodies already loaded stay readable.
+	void release() {
+		Path root;
+		synchronized (OPEN) {
+			if (--this.references > 0) {
+				return;
+			}
+			root = this.root;
+			if (root != null) {
+				OPEN.remove(root, this);
+			}
+		}
+		synchronized (this.logLock) {
+			FileChannel channel = this.log;
+			this.root = null;
+			this.log = null;
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					Tellus.LOGGER.warn("Failed to close water body log", e);
+				}
+			}
+		}
+	}
+
+	// Opens the index persisted under root, or keeps it in memory only when root is null or unusable.
+	private static WaterBodyIndex open(@Nullable Path root, int inlandLevel, double spillPercentile, PageSampler sampler) {
+		WaterBodyIndex index = new WaterBodyIndex(inlandLevel, spillPercentile, sampler);
+		if (root != null) {
+			try {
+				index.openLog(root);
+				index.root = root;
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to open water body index {}", root, e);
+				index.bodies.clear();
+				index.nextId = 1;
+			}
+		}
+		return index;
+	}
+
+	// The body whose cell holds the given column, or null when that cell is not inland water.
+	@Nullable WaterBody bodyAt(int blockX, int blockZ) {
+		int cellX = blockX >> CELL_SHIFT;
+		int cellZ = blockZ >> CELL_SHIFT;
+		int local = localIndex(cellX, cellZ);
+		Page page = page(cellX >> PAGE_SHIFT, cellZ >> PAGE_SHIFT);
+		if ((page.classes[local] & CELL_KIND) != CELL_WATER) {
+			return null;
+		}
+		WaterBody body = known(page.labels[local]);
+		return body != null ? body : flood(cellX, cellZ);
+	}
+
+	private @Nullable WaterBody known(int label) {
+		return label > 0 ? this.bodies.get(label) : null;
+	}
+
+	// Fills run under the stripe locks of the pages they cover, taken in stripe order, so fills of
+	// unrelated bodies run side by side. Pages are loaded, and sampled if new, with no lock held: a
+	// fill that reaches a page it has not loaded yet undoes its provisional labels, drops its locks,
+	// loads the page and starts over. Past MAX_BODY_PAGES the body is left open instead, which also
+	// bounds how many pages one fill keeps pinned outside the cache budget.
+	private WaterBody flood(int seedX, int seedZ) {
+		Map<Long, Page> pinned = new HashMap<>();
+		long missing = pack(seedX >> PAGE_SHIFT, seedZ >> PAGE_SHIFT);
+		while (true) {
+			int pageX = (int) (missing >> 32);
+			int pageZ = (int) missing;
+			pinned.put(missing, page(pageX, pageZ));
+			long stripes = stripes(pinned);
+			lockStripes(stripes);
+			try {
+				Page seedPage = pinned.get(pack(seedX >> PAGE_SHIFT, seedZ >> PAGE_SHIFT));
+				WaterBody body = known(seedPage.labels[localIndex(seedX, seedZ)]);
+				if (body != null) {
+					return body;
+				}
+				Fill fill = new Fill();
+				body = fill(seedX, seedZ, pinned, fill);
+				if (body != null) {
+					return body;
+				}
+				missing = fill.missingPage;
+			} finally {
+				unlockStripes(stripes);
+			}
+		}
+	}
+
+	// Breadth-first fill from one water cell. Cells are marked provisional while the fill runs and
+	// only get their final label once the body is logged, so a label on disk always names a logged
+	// body. Running into an already labelled cell means this fill is the rest of that body (an open
+	// one, or one whose labels were cut short), so the new cells join it instead. A fill that crossed
+	// a degraded page is kept in memory only: neither the body nor its labels are persisted. Returns
+	// null, with every provisional label undone, when the fill needs a page outside pinned.
+	private @Nullable WaterBody fill(int seedX, int seedZ, Map<Long, Page> pinned, Fill fill) {
+		LongArrayList cells = fill.cells;
+		IntArrayList borderHeights = new IntArrayList();
+		FloodStats stats = new FloodStats();
+		pinnedPage(pinned, seedX, seedZ).labels[localIndex(seedX, seedZ)] = PROVISIONAL;
+		cells.add(pack(seedX, seedZ));
+		WaterBody merged = null;
+		boolean complete = false;
+		try {
+			for (int head = 0; head < cells.size(); head++) {
+				long cell = cells.getLong(head);
+				int cellX = (int) (cell >> 32);
+				int cellZ = (int) cell;
+				Page page = pinnedPage(pinned, cellX, cellZ);
+				int local = localIndex(cellX, cellZ);
+				stats.degraded |= page.degraded;
+				stats.add(cellX, cellZ, page.classes[local], page.heights[local], this.inlandLevel);
+				for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 2) {
+					int nx = cellX + NEIGHBOR_OFFSETS[i];
+					int nz = cellZ + NEIGHBOR_OFFSETS[i + 1];
+					Page neighborPage = pinnedPage(pinned, nx, nz);
+					if (neighborPage == null) {
+						if (pinned.size() >= MAX_BODY_PAGES) {
+							stats.open = true;
+							continue;
+						}
+						fill.missingPage = pack(nx >> PAGE_SHIFT, nz >> PAGE_SHIFT);
+						return null;
+					}
+					int neighbor = localIndex(nx, nz);
+					stats.degraded |= neighborPage.degraded;
+					int kind = neighborPage.classes[neighbor] & CELL_KIND;
+					if (kind == CELL_OCEAN) {
+						stats.touchesOcean = true;
+					} else if (kind != CELL_WATER) {
+						int height = neighborPage.heights[neighbor];
+						borderHeights.add(height);
+						stats.touchesLowLand |= height <= this.inlandLevel;
+					} else {
+						int label = neighborPage.labels[neighbor];
+						if (label == PROVISIONAL) {
+							continue;
+						}
+						WaterBody labelled = known(label);
+						if (labelled != null) {
+							if (merged == null) {
+								merged = labelled;
+							}
+							continue;
+						}
+						if (cells.size() >= MAX_BODY_CELLS) {
+							stats.open = true;
+							continue;
+						}
+						neighborPage.labels[neighbor] = PROVISIONAL;
+						cells.add(pack(nx, nz));
+					}
+				}
+			}
+			complete = true;
+		} finally {
+			if (!complete) {
+				for (int i = 0; i < cells.size(); i++) {
+					long cell = cells.getLong(i);
+					int cellX = (int) (cell >> 32);
+					int cellZ = (int) cell;
+					pinnedPage(pinned, cellX, cellZ).labels[localIndex(cellX, cellZ)] = 0;
+				}
+			}
+		}
+
+		WaterBody body = merged;
+		if (body == null) {
+			synchronized (this.logLock) {
+				body = stats.summarize(this.nextId++, cells, borderHeights, this.spillPercentile);
+				this.bodies.put(body.id(), body);
+				if (!stats.degraded) {
+					appendRecord(body);
+				}
+			}
+		}
+		boolean persist = this.log != null && !stats.degraded;
+		for (int i = 0; i < cells.size(); i++) {
+			long cell = cells.getLong(i);
+			int cellX = (int) (cell >> 32);
+			int cellZ = (int) cell;
+			pinnedPage(pinned, cellX, cellZ).setLabel(localIndex(cellX, cellZ), body.id(), persist);
+		}
+		return body;
+	}
+
+	private static @Nullable Page pinnedPage(Map<Long, Page> pinned, int cellX, int cellZ) {
+		return pinned.get(pack(cellX >> PAGE_SHIFT, cellZ >> PAGE_SHIFT));
+	}
+
+	private static long stripes(Map<Long, Page> pinned) {
+		long stripes = 0L;
+		for (long key : pinned.keySet()) {
+			stripes |= 1L << ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - FLOOD_STRIPE_BITS));
+		}
+		return stripes;
+	}
+
+	private void lockStripes(long stripes) {
+		for (long remaining = stripes; remaining != 0L; remaining &= remaining - 1) {
+			this.floodStripes[Long.numberOfTrailingZeros(remaining)].lock();
+		}
+	}
+
+	private void unlockStripes(long stripes) {
+		for (long remaining = stripes; remaining != 0L; remaining &= remaining - 1) {
+			this.floodStripes[Long.numberOfTrailingZeros(remaining)].unlock();
+		}
+	}
+
+	private Page page(int pageX, int pageZ) {
+		try {
+			return this.pages.get(pack(pageX, pageZ), () -> loadPage(pageX, pageZ));
+		} catch (Exception e) {
+			Tellus.LOGGER.warn("Failed to load water body page {}:{}", pageX, pageZ, e);
+			return loadPage(pageX, pageZ);
+		}
+	}
+
+	private Page loadPage(int pageX, int pageZ) {
+		Path root = this.root;
+		Path file = root != null ? root.resolve(String.format("page.%d.%d.bin", pageX, pageZ)) : null;
+		if (file != null) {
+			try {
+				Page page = mapPage(file);
+				if (page != null) {
+					return page;
+				}
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to map water body page {}", file, e);
+			}
+		}
+		byte[] classes = new byte[PAGE_AREA];
+		short[] heights = new short[PAGE_AREA];
+		int blocks = PAGE_CELLS * CELL_BLOCKS;
+		if (!this.sampler.sample(pageX * blocks, pageZ * blocks, classes, heights)) {
+			// Kept out of the page files so a later session samples it again.
+			return new Page(classes, heights, new int[PAGE_AREA], null, true);
+		}
+		if (file != null) {
+			try {
+				writePage(file, classes, heights);
+				Page page = mapPage(file);
+				if (page != null) {
+					return page;
+				}
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to store water body page {}", file, e);
+			}
+		}
+		return new Page(classes, heights, new int[PAGE_AREA], null, false);
+	}
+
+	private static @Nullable Page mapPage(Path file) throws IOException {
+		if (!Files.isRegularFile(file) || Files.size(file) != PAGE_BYTES) {
+			return null;
+		}
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, PAGE_BYTES);
+		}
+		mapped.order(ORDER);
+		if (mapped.getInt(0) != PAGE_MAGIC || mapped.getInt(4) != VERSION) {
+			return null;
+		}
+		byte[] classes = new byte[PAGE_AREA];
+		short[] heights = new short[PAGE_AREA];
+		int[] labels = new int[PAGE_AREA];
+		mapped.get(HEADER_SIZE, classes);
+		mapped.slice(HEADER_SIZE + PAGE_AREA, PAGE_AREA * Short.BYTES).order(ORDER).asShortBuffer().get(heights);
+		mapped.slice(LABELS_OFFSET, PAGE_AREA * Integer.BYTES).order(ORDER).asIntBuffer().get(labels);
+		return new Page(classes, heights, labels, mapped, false);
+	}
+
+	// Pages are written whole to a temporary file and moved into place, so a page file either holds
+	// a complete sample or does not exist.
+	private static void writePage(Path file, byte[] classes, short[] heights) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(PAGE_BYTES).order(ORDER);
+		buffer.putInt(PAGE_MAGIC);
+		buffer.putInt(VERSION);
+		buffer.put(classes);
+		for (short height : heights) {
+			buffer.putShort(height);
+		}
+		Path temp = Files.createTempFile(file.getParent(), "page", ".tmp");
+		try {
+			Files.write(temp, buffer.array());
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void openLog(Path root) throws IOException {
+		Files.createDirectories(root);
+		FileChannel channel = FileChannel.open(
+				root.resolve("bodies.dat"),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE
+		);
+		try {
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("Water body index " + root + " is in use by another process");
+			}
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+			if (size < HEADER_SIZE) {
+				channel.truncate(0);
+				header.putInt(LOG_MAGIC);
+				header.putInt(VERSION);
+				header.flip();
+				writeFully(channel, header, 0);
+				this.log = channel;
+				return;
+			}
+			readFully(channel, header, 0);
+			header.flip();
+			if (header.getInt() != LOG_MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Unsupported water body log in " + root);
+			}
+			long recordCount = (size - HEADER_SIZE) / RECORD_SIZE;
+			ByteBuffer records = ByteBuffer.allocate((int) (recordCount * RECORD_SIZE)).order(ORDER);
+			readFully(channel, records, HEADER_SIZE);
+			records.flip();
+			for (long i = 0; i < recordCount; i++) {
+				WaterBody body = WaterBody.read(records);
+				this.bodies.put(body.id(), body);
+				this.nextId = Math.max(this.nextId, body.id() + 1);
+			}
+			// Drop any partially written trailing record so appends stay aligned.
+			channel.truncate(HEADER_SIZE + recordCount * RECORD_SIZE);
+			this.log = channel;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// A failed append stops all persistence for this session: labels written from then on would
+	// name bodies the log does not have.
+	private void appendRecord(WaterBody body) {
+		FileChannel channel = this.log;
+		if (channel == null) {
+			return;
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ORDER);
+		body.write(record);
+		record.flip();
+		try {
+			writeFully(channel, record, channel.size());
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to log water body {}, keeping the index in memory", body.id(), e);
+			this.log = null;
+			try {
+				channel.close();
+			} catch (IOException closeError) {
+				Tellus.LOGGER.warn("Failed to close water body log", closeError);
+			}
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset);
+			if (read < 0) {
+				throw new IOException("Unexpected end of water body log");
+			}
+			offset += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+	}
+
+	private static int localIndex(int cellX, int cellZ) {
+		return (cellZ & (PAGE_CELLS - 1)) * PAGE_CELLS + (cellX & (PAGE_CELLS - 1));
+	}
+
+	private static long pack(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	private static int cellCentre(int cell) {
+		return (cell << CELL_SHIFT) + CELL_BLOCKS / 2;
+	}
+
+	// One body as every region sees it. Bounds and the river axis are in block coordinates; the
+	// axis runs from the centre of the lowest cell towards the highest one.
+	record WaterBody(
+			int id,
+			int flags,
+			int cellCount,
+			int landMaskLandCount,
+			int belowSeaCellCount,
+			int spillHeight,
+			int maxHeight,
+			int minX,
+			int minZ,
+			int maxX,
+			int maxZ,
+			int axisX,
+			int axisZ,
+			float axisUx,
+			float axisUz,
+			float axisMinProj,
+			float axisLength
+	) {
+		boolean open() {
+			return (this.flags & FLAG_OPEN) != 0;
+		}
+
+		boolean touchesOcean() {
+			return (this.flags & FLAG_TOUCHES_OCEAN) != 0;
+		}
+
+		boolean touchesLowLand() {
+			return (this.flags & FLAG_TOUCHES_LOW_LAND) != 0;
+		}
+
+		// Built from pages that saw failed samples; such bodies only ever live in memory.
+		boolean degraded() {
+			return (this.flags & FLAG_DEGRADED) != 0;
+		}
+
+		int width() {
+			return this.maxX - this.minX + 1;
+		}
+
+		int height() {
+			return this.maxZ - this.minZ + 1;
+		}
+
+		int blockCount() {
+			return this.cellCount * CELL_BLOCKS * CELL_BLOCKS;
+		}
+
+		private void write(ByteBuffer out) {
+			out.putInt(this.id);
+			out.putInt(this.flags);
+			out.putInt(this.cellCount);
+			out.putInt(this.landMaskLandCount);
+			out.putInt(this.belowSeaCellCount);
+			out.putInt(this.spillHeight);
+			out.putInt(this.maxHeight);
+			out.putInt(this.minX);
+			out.putInt(this.minZ);
+			out.putInt(this.maxX);
+			out.putInt(this.maxZ);
+			out.putInt(this.axisX);
+			out.putInt(this.axisZ);
+			out.putFloat(this.axisUx);
+			out.putFloat(this.axisUz);
+			out.putFloat(this.axisMinProj);
+			out.putFloat(this.axisLength);
+		}
+
+		private static WaterBody read(ByteBuffer in) {
+			return new WaterBody(
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getInt(),
+					in.getFloat(),
+					in.getFloat(),
+					in.getFloat(),
+					in.getFloat()
+			);
+		}
+	}
+
+	private static final class Fill {
+		private final LongArrayList cells = new LongArrayList();
+		private long missingPage;
+	}
+
+	private static final class FloodStats {
+		private int cellCount;
+		private int landMaskLandCount;
+		private int belowSeaCellCount;
+		private long heightSum;
+		private int minCellX = Integer.MAX_VALUE;
+		private int minCellZ = Integer.MAX_VALUE;
+		private int maxCellX = Integer.MIN_VALUE;
+		private int maxCellZ = Integer.MIN_VALUE;
+		private int minHeight = Integer.MAX_VALUE;
+		private int maxHeight = Integer.MIN_VALUE;
+		private long minHeightCell;
+		private long maxHeightCell;
+		private boolean touchesOcean;
+		private boolean touchesLowLand;
+		private boolean open;
+		private boolean degraded;
+
+		// Ties on the lowest and highest cell go to the smaller packed coordinate, so the summary of
+		// a closed body does not depend on which of its cells the fill started from.
+		private void add(int cellX, int cellZ, byte cellClass, int height, int inlandLevel) {
+			this.cellCount++;
+			this.heightSum += height;
+			if ((cellClass & CELL_MASK_LAND) != 0) {
+				this.landMaskLandCount++;
+			}
+			if (height <= inlandLevel) {
+				this.belowSeaCellCount++;
+			}
+			this.minCellX = Math.min(this.minCellX, cellX);
+			this.minCellZ = Math.min(this.minCellZ, cellZ);
+			this.maxCellX = Math.max(this.maxCellX, cellX);
+			this.maxCellZ = Math.max(this.maxCellZ, cellZ);
+			long cell = pack(cellX, cellZ);
+			if (height < this.minHeight || (height == this.minHeight && cell < this.minHeightCell)) {
+				this.minHeight = height;
+				this.minHeightCell = cell;
+			}
+			if (height > this.maxHeight || (height == this.maxHeight && cell < this.maxHeightCell)) {
+				this.maxHeight = height;
+				this.maxHeightCell = cell;
+			}
+		}
+
+		private WaterBody summarize(int id, LongArrayList cells, IntArrayList borderHeights, double spillPercentile) {
+			int spillHeight = borderHeights.isEmpty()
+					? (int) Math.round(this.heightSum / (double) this.cellCount)
+					: WaterSurfaceResolver.percentile(borderHeights, spillPercentile);
+			int originX = cellCentre((int) (this.minHeightCell >> 32));
+			int originZ = cellCentre((int) this.minHeightCell);
+			double axisX = cellCentre((int) (this.maxHeightCell >> 32)) - originX;
+			double axisZ = cellCentre((int) this.maxHeightCell) - originZ;
+			double axisLength = Math.sqrt(axisX * axisX + axisZ * axisZ);
+			double ux = 0.0;
+			double uz = 0.0;
+			double minProj = 0.0;
+			double length = 1.0;
+			if (axisLength >= 1.0) {
+				ux = axisX / axisLength;
+				uz = axisZ / axisLength;
+				minProj = Double.POSITIVE_INFINITY;
+				double maxProj = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < cells.size(); i++) {
+					long cell = cells.getLong(i);
+					double proj = (cellCentre((int) (cell >> 32)) - originX) * ux + (cellCentre((int) cell) - originZ) * uz;
+					minProj = Math.min(minProj, proj);
+					maxProj = Math.max(maxProj, proj);
+				}
+				length = Math.max(1.0, maxProj - minProj);
+			}
+			int flags = (this.open ? FLAG_OPEN : 0)
+					| (this.touchesOcean ? FLAG_TOUCHES_OCEAN : 0)
+					| (this.touchesLowLand ? FLAG_TOUCHES_LOW_LAND : 0)
+					| (this.degraded ? FLAG_DEGRADED : 0);
+			return new WaterBody(
+					id,
+					flags,
+					this.cellCount,
+					this.landMaskLandCount,
+					this.belowSeaCellCount,
+					spillHeight,
+					this.maxHeight,
+					this.minCellX << CELL_SHIFT,
+					this.minCellZ << CELL_SHIFT,
+					(this.maxCellX << CELL_SHIFT) + CELL_BLOCKS - 1,
+					(this.maxCellZ << CELL_SHIFT) + CELL_BLOCKS - 1,
+					originX,
+					originZ,
+					(float) ux,
+					(float) uz,
+					(float) minProj,
+					(float) length
+			);
+		}
+	}
+
+	// Labels live on the heap for lookups; pages backed by a file also write them through to the
+	// mapping so they are still there after a restart.
+	private static final class Page {
+		private final byte[] classes;
+		private final short[] heights;
+		private final int[] labels;
+		private final @Nullable MappedByteBuffer mapped;
+		private final boolean degraded;
+
+		private Page(byte[] classes, short[] heights, int[] labels, @Nullable MappedByteBuffer mapped, boolean degraded) {
+			this.classes = classes;
+			this.heights = heights;
+			this.labels = labels;
+			this.mapped = mapped;
+			this.degraded = degraded;
+		}
+
+		private void setLabel(int index, int label, boolean persist) {
+			this.labels[index] = label;
+			if (persist && this.mapped != null) {
+				this.mapped.putInt(LABELS_OFFSET + index * Integer.BYTES, label);
+			}
+		}
+
+		private long heapBytes() {
+			return (long) this.classes.length + (long) this.heights.length * Short.BYTES
+					+ (long) this.labels.length * Integer.BYTES;
+		}
+	}
+}
@@ -0,0 +1,368 @@
+package com.yucareux.tellus.worldgen;
+
+import com.yucareux.tellus.Tellus;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jspecify.annotations.Nullable;
+
+// Resolved water regions persisted across restarts. Each store directory belongs to one set of
+// water-affecting settings, so entries never need invalidating: a settings change opens a
+// different directory. Heights are kept as shorts, and dry regions (where the water surface is
+// the terrain and no column is flagged) store only their terrain. Resolvers for settings that map
+// to the same directory share one store through acquire and release; the index file is locked so
+// a second process cannot append to it at the same time.
+final class WaterRegionStore implements AutoCloseable {
+	private static final byte[] INDEX_SIGNATURE = "TELLUS/WATERSTOR".getBytes(StandardCharsets.US_ASCII);
+	private static final int INDEX_VERSION = 1;
+	private static final int INDEX_HEADER_SIZE = INDEX_SIGNATURE.length + 4;
+	private static final int INDEX_ENTRY_SIZE = 24;
+	private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int KIND_DRY = 0;
+	private static final int KIND_WET = 1;
+	private static final Map<Path, WaterRegionStore> OPEN = new HashMap<>();
+
+	private final Path root;
+	private final int area;
+	private final FileChannel indexChannel;
+	private final ConcurrentMap<Long, Location> locations = new ConcurrentHashMap<>();
+	private final Object writeLock = new Object();
+	private volatile Segment[] segments = new Segment[0];
+	private int writeSegment;
+	private int writeOffset;
+	private volatile boolean closed;
+	// Guarded by OPEN.
+	private int references;
+
+	private WaterRegionStore(Path root, int area, FileChannel indexChannel) {
+		this.root = root;
+		this.area = area;
+		this.indexChannel = indexChannel;
+	}
+
+	// Returns the store for root, opening it on first use. Every successful acquire must be paired
+	// with one release.
+	static @Nullable WaterRegionStore acquire(Path root, int area) {
+		Path key = root.toAbsolutePath().normalize();
+		synchronized (OPEN) {
+			WaterRegionStore store = OPEN.get(key);
+			if (store == null) {
+				store = open(key, area);
+				if (store == null) {
+					return null;
+				}
+				OPEN.put(key, store);
+			}
+			store.references++;
+			return store;
+		}
+	}
+
+	void release() {
+		synchronized (OPEN) {
+			if (--this.references > 0) {
+				return;
+			}
+			OPEN.remove(this.root, this);
+		}
+		close();
+	}
+
+	private static @Nullable WaterRegionStore open(Path root, int area) {
+		try {
+			Files.createDirectories(root);
+			FileChannel indexChannel = FileChannel.open(
+					root.resolve("index.dat"),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE
+			);
+			WaterRegionStore store = new WaterRegionStore(root, area, indexChannel);
+			try {
+				store.lock();
+				store.loadIndex();
+			} catch (IOException e) {
+				store.close();
+				throw e;
+			}
+			return store;
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to open water region store {}", root, e);
+			return null;
+		}
+	}
+
+	// Decodes a stored region into the given arrays. Returns false when the region was never stored.
+	boolean read(int regionX, int regionZ, int[] terrainOut, int[] waterOut, byte[] flagsOut) {
+		Location location = this.locations.get(key(regionX, regionZ));
+		if (location == null || this.closed) {
+			return false;
+		}
+		try {
+			ByteBuffer bytes = slice(segment(location.segment()), location.offset(), location.length(), true);
+			ShortBuffer terrain = bytes.asShortBuffer();
+			for (int i = 0; i < this.area; i++) {
+				terrainOut[i] = terrain.get(i);
+			}
+			if (location.kind() == KIND_DRY) {
+				System.arraycopy(terrainOut, 0, waterOut, 0, this.area);
+				Arrays.fill(flagsOut, 0, this.area, (byte) 0);
+				return true;
+			}
+			int waterOffset = this.area * Short.BYTES;
+			ShortBuffer water = bytes.position(waterOffset).slice().order(ORDER).asShortBuffer();
+			for (int i = 0; i < this.area; i++) {
+				waterOut[i] = water.get(i);
+			}
+			bytes.position(waterOffset * 2);
+			bytes.get(flagsOut, 0, this.area);
+			return true;
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to map stored water region {}:{}", regionX, regionZ, e);
+			return false;
+		}
+	}
+
+	void put(int regionX, int regionZ, int[] terrain, int[] water, byte[] flags) throws IOException {
+		long key = key(regionX, regionZ);
+		if (this.locations.containsKey(key) || !fitsShort(terrain) || !fitsShort(water)) {
+			return;
+		}
+		boolean dry = isDry(terrain, water, flags);
+		int kind = dry ? KIND_DRY : KIND_WET;
+		int byteSize = dry ? this.area * Short.BYTES : this.area * (Short.BYTES * 2 + 1);
+		synchronized (this.writeLock) {
+			if (this.closed || this.locations.containsKey(key)) {
+				return;
+			}
+			if (this.writeOffset + byteSize > SEGMENT_BYTES) {
+				this.writeSegment++;
+				this.writeOffset = 0;
+			}
+			Location location = new Location(this.writeSegment, this.writeOffset, byteSize, kind);
+			MappedByteBuffer segment = segment(location.segment());
+			ByteBuffer target = slice(segment, location.offset(), byteSize, false);
+			for (int i = 0; i < this.area; i++) {
+				target.putShort((short) terrain[i]);
+			}
+			if (!dry) {
+				for (int i = 0; i < this.area; i++) {
+					target.putShort((short) water[i]);
+				}
+				target.put(flags, 0, this.area);
+			}
+			this.writeOffset += byteSize;
+			// The payload must reach disk before an index entry can point at it.
+			segment.force(location.offset(), byteSize);
+			appendIndexEntry(key, location);
+			this.locations.put(key, location);
+		}
+	}
+
+	// Closing releases the index lock with the channel. Mappings handed out earlier stay valid.
+	@Override
+	public void close() {
+		synchronized (this.writeLock) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+		}
+		try {
+			this.indexChannel.close();
+		} catch (IOException e) {
+			Tellus.LOGGER.warn("Failed to close water region store index", e);
+		}
+		Segment[] segments;
+		synchronized (this) {
+			segments = this.segments;
+		}
+		for (Segment segment : segments) {
+			if (segment == null) {
+				continue;
+			}
+			try {
+				segment.channel().close();
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to close water region segment", e);
+			}
+		}
+	}
+
+	private boolean isDry(int[] terrain, int[] water, byte[] flags) {
+		for (int i = 0; i < this.area; i++) {
+			if (flags[i] != 0 || water[i] != terrain[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean fitsShort(int[] values) {
+		for (int i = 0; i < this.area; i++) {
+			int value = values[i];
+			if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int expectedLength(int kind) {
+		return kind == KIND_DRY ? this.area * Short.BYTES : this.area * (Short.BYTES * 2 + 1);
+	}
+
+	private void lock() throws IOException {
+		FileLock lock;
+		try {
+			lock = this.indexChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			throw new IOException("Water region store " + this.root + " is in use by another process");
+		}
+	}
+
+	private void loadIndex() throws IOException {
+		long size = this.indexChannel.size();
+		if (size < INDEX_HEADER_SIZE) {
+			this.indexChannel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ORDER);
+			header.put(INDEX_SIGNATURE);
+			header.putInt(INDEX_VERSION);
+			header.flip();
+			writeFully(header, 0);
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ORDER);
+		readFully(header, 0);
+		header.flip();
+		byte[] signature = new byte[INDEX_SIGNATURE.length];
+		header.get(signature);
+		int version = header.getInt();
+		if (!Arrays.equals(signature, INDEX_SIGNATURE) || version != INDEX_VERSION) {
+			throw new IOException("Unsupported water region store index in " + this.root);
+		}
+
+		long entryCount = (size - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE;
+		ByteBuffer entries = ByteBuffer.allocate((int) (entryCount * INDEX_ENTRY_SIZE)).order(ORDER);
+		readFully(entries, INDEX_HEADER_SIZE);
+		entries.flip();
+		int lastSegment = 0;
+		int lastEnd = 0;
+		for (long i = 0; i < entryCount; i++) {
+			long key = entries.getLong();
+			int segment = entries.getInt();
+			int offset = entries.getInt();
+			int length = entries.getInt();
+			int kind = entries.getInt();
+			int end = offset + length;
+			if (segment < 0 || offset < 0 || (kind != KIND_DRY && kind != KIND_WET)
+					|| length != expectedLength(kind) || end > SEGMENT_BYTES) {
+				continue;
+			}
+			this.locations.put(key, new Location(segment, offset, length, kind));
+			if (segment > lastSegment || (segment == lastSegment && end > lastEnd)) {
+				lastSegment = segment;
+				lastEnd = end;
+			}
+		}
+		// Drop any partially written trailing entry so appends stay aligned.
+		this.indexChannel.truncate(INDEX_HEADER_SIZE + entryCount * INDEX_ENTRY_SIZE);
+		this.writeSegment = lastSegment;
+		this.writeOffset = lastEnd;
+	}
+
+	private void appendIndexEntry(long key, Location location) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ORDER);
+		entry.putLong(key);
+		entry.putInt(location.segment());
+		entry.putInt(location.offset());
+		entry.putInt(location.length());
+		entry.putInt(location.kind());
+		entry.flip();
+		writeFully(entry, this.indexChannel.size());
+	}
+
+	private static ByteBuffer slice(MappedByteBuffer segment, int offset, int length, boolean readOnly) {
+		ByteBuffer view = readOnly ? segment.asReadOnlyBuffer() : segment.duplicate();
+		view.position(offset).limit(offset + length);
+		return view.slice().order(ORDER);
+	}
+
+	private MappedByteBuffer segment(int index) throws IOException {
+		Segment[] current = this.segments;
+		if (index < current.length && current[index] != null) {
+			return current[index].buffer();
+		}
+		synchronized (this) {
+			current = this.segments;
+			if (index < current.length && current[index] != null) {
+				return current[index].buffer();
+			}
+			if (this.closed) {
+				throw new IOException("Water region store " + this.root + " is closed");
+			}
+			Segment[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+			FileChannel channel = FileChannel.open(
+					this.root.resolve(String.format("segment-%05d.bin", index)),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE
+			);
+			try {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+				grown[index] = new Segment(channel, buffer);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			this.segments = grown;
+			return grown[index].buffer();
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			int read = this.indexChannel.read(buffer, offset);
+			if (read < 0) {
+				throw new IOException("Unexpected end of water region store index");
+			}
+			offset += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			offset += this.indexChannel.write(buffer, offset);
+		}
+	}
+
+	private static long key(int regionX, int regionZ) {
+		return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+	}
+
+	private record Location(int segment, int offset, int length, int kind) {
+	}
+
+	private record Segment(FileChannel channel, MappedByteBuffer buffer) {
+	}
+}
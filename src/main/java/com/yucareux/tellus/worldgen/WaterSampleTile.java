@@ -0,0 +1,49 @@
+package com.yucareux.tellus.worldgen;
+
+// The raw per-column inputs of water resolution for one block-aligned square: land cover class,
+// land mask state and terrain surface height. Water regions sample a margin far wider than the
+// region itself, so neighbouring regions overlap almost entirely; caching these tiles means every
+// column is sampled once no matter how many region grids it falls into.
+final class WaterSampleTile {
+	static final int SIZE = 64;
+	static final int AREA = SIZE * SIZE;
+	static final byte MASK_KNOWN = 1;
+	static final byte MASK_LAND = 2;
+
+	private final byte[] cover;
+	private final byte[] maskFlags;
+	private final int[] surface;
+	private final boolean degraded;
+
+	WaterSampleTile(byte[] cover, byte[] maskFlags, int[] surface, boolean degraded) {
+		this.cover = cover;
+		this.maskFlags = maskFlags;
+		this.surface = surface;
+		this.degraded = degraded;
+	}
+
+	// True when some source failed while this tile was sampled, so it holds fallback values.
+	boolean degraded() {
+		return this.degraded;
+	}
+
+	// Copies length columns of one tile row, starting at localX, into the region grid at gridIndex.
+	void copyRow(
+			int localX,
+			int localZ,
+			int length,
+			byte[] coverOut,
+			byte[] maskOut,
+			int[] surfaceOut,
+			int gridIndex
+	) {
+		int index = localZ * SIZE + localX;
+		System.arraycopy(this.cover, index, coverOut, gridIndex, length);
+		System.arraycopy(this.maskFlags, index, maskOut, gridIndex, length);
+		System.arraycopy(this.surface, index, surfaceOut, gridIndex, length);
+	}
+
+	long heapBytes() {
+		return (long) this.cover.length + this.maskFlags.length + (long) this.surface.length * Integer.BYTES;
+	}
+}
@@ -1,14 +1,22 @@
 package com.yucareux.tellus.worldgen;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.yucareux.tellus.Tellus;
+import com.yucareux.tellus.world.data.cache.ManagedCache;
 import com.yucareux.tellus.world.data.cover.TellusLandCoverSource;
 import com.yucareux.tellus.world.data.elevation.TellusElevationSource;
 import com.yucareux.tellus.world.data.mask.TellusLandMaskSource;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Mth;
+import org.jspecify.annotations.Nullable;
 
 public final class WaterSurfaceResolver {
 	private static final int ESA_NO_DATA = 0;
@@ -17,7 +25,9 @@ public final class WaterSurfaceResolver {
 	private static final byte WATER_INLAND = 1;
 	private static final byte WATER_OCEAN = 2;
 	private static final int REGION_SIZE = 64;
-	private static final int MAX_REGION_CACHE = 512;
+	private static final int REGION_AREA = REGION_SIZE * REGION_SIZE;
+	// Part of the store directory name; bump whenever buildRegionData produces different output.
+	private static final int STORE_FORMAT = 3;
 
 	private static final int INLAND_SHORE_DEPTH1_LIMIT = 5;
 	private static final int INLAND_SHORE_DEPTH3_LIMIT = 8;
@@ -53,15 +63,34 @@ public final class WaterSurfaceResolver {
 			DIST_COST_CARDINAL, DIST_COST_CARDINAL, DIST_COST_CARDINAL, DIST_COST_CARDINAL,
 			DIST_COST_DIAGONAL, DIST_COST_DIAGONAL, DIST_COST_DIAGONAL, DIST_COST_DIAGONAL
 	};
+	// Stands in for "not reached" during chamfer sweeps; small enough that adding a step cost can't
+	// overflow, and far above any cost a sweep accepts.
+	private static final int CHAMFER_UNREACHED = Integer.MAX_VALUE / 2;
 	private static final boolean DEBUG_WATER = Boolean.getBoolean("tellus.debugWater");
+	// "auto" sweeps long distance fields with the chamfer transform and leaves short ones, where the
+	// bucket queue only ever touches a thin band around the sources, to the queue. "chamfer" and
+	// "queue" force one implementation for equivalence checks and benchmarks.
+	private static final String DISTANCE_MODE = System.getProperty("tellus.water.distance", "auto");
+	private static final int CHAMFER_MIN_BLOCKS = 16;
+	private static final boolean STORE_ENABLED =
+			Boolean.parseBoolean(System.getProperty("tellus.water.store", "true"));
+	private static final boolean BODY_INDEX_ENABLED =
+			Boolean.parseBoolean(System.getProperty("tellus.water.bodyIndex", "true"));
+	private static final int BUILD_PARALLELISM = Math.max(
+			1,
+			Integer.getInteger("tellus.water.parallelism", Runtime.getRuntime().availableProcessors() - 1)
+	);
+	private static final int MIN_STRIP_ROWS = 64;
+	private static final @Nullable ForkJoinPool BUILD_POOL = createBuildPool();
 	private static final ThreadLocal<RegionScratch> REGION_SCRATCH = ThreadLocal.withInitial(RegionScratch::new);
 
-	private final TellusLandCoverSource landCoverSource;
-	private final TellusLandMaskSource landMaskSource;
-	private final TellusElevationSource elevationSource;
+	private final Inputs inputs;
 	private final EarthGeneratorSettings settings;
 	private final int seaLevel;
-	private final Cache<Long, WaterRegionData> regionCache;
+	private final ManagedCache<Long, WaterRegionData> regionCache;
+	private final ManagedCache<Long, WaterSampleTile> sampleCache;
+	private final @Nullable WaterRegionStore store;
+	private final @Nullable WaterBodyIndex bodyIndex;
 	private final long regionSalt;
 	private final int riverLakeBlendDistance;
 	private final int oceanBlendDistance;
@@ -79,9 +108,12 @@ public final class WaterSurfaceResolver {
 			TellusElevationSource elevationSource,
 			EarthGeneratorSettings settings
 	) {
-		this.landCoverSource = landCoverSource;
-		this.landMaskSource = landMaskSource;
-		this.elevationSource = elevationSource;
+		this(Inputs.of(landCoverSource, landMaskSource, elevationSource), settings, storeRoot(settings));
+	}
+
+	// Builds against any inputs, e.g. a synthetic fixture; without a store root nothing is persisted.
+	WaterSurfaceResolver(Inputs inputs, EarthGeneratorSettings settings, @Nullable Path storeRoot) {
+		this.inputs = inputs;
 		this.settings = settings;
 		this.seaLevel = settings.resolveSeaLevel();
 
@@ -99,10 +131,62 @@ public final class WaterSurfaceResolver {
 		this.regionMargin = Math.min(rawRegionMargin, MAX_REGION_MARGIN_BLOCKS);
 		this.regionClamped = rawRegionMargin > this.regionMargin;
 
-		this.regionCache = CacheBuilder.newBuilder()
-				.maximumSize(MAX_REGION_CACHE)
+		this.regionCache = ManagedCache.<Long, WaterRegionData>builder("water-regions", WaterRegionData::heapBytes)
+				.build();
+		this.sampleCache = ManagedCache.<Long, WaterSampleTile>builder("water-samples", WaterSampleTile::heapBytes)
 				.build();
 		this.regionSalt = Double.doubleToLongBits(settings.worldScale()) ^ 0x9E3779B97F4A7C15L;
+		Path root = STORE_ENABLED ? storeRoot : null;
+		this.store = root != null ? WaterRegionStore.acquire(root, REGION_AREA) : null;
+		this.bodyIndex = BODY_INDEX_ENABLED
+				? WaterBodyIndex.acquire(
+						root != null ? root.resolve("bodies") : null,
+						this.seaLevel + SEA_LEVEL_TOLERANCE,
+						BORDER_HEIGHT_PERCENTILE,
+						this::sampleBodyPage
+				)
+				: null;
+	}
+
+	// Everything buildRegionData reads from the settings goes into the directory name, so worlds
+	// that would resolve water identically share a store and any other change starts a fresh one.
+	private static Path storeRoot(EarthGeneratorSettings settings) {
+		long hash = STORE_FORMAT;
+		hash = hash * 31 + Double.doubleToLongBits(settings.worldScale());
+		hash = hash * 31 + Double.doubleToLongBits(settings.terrestrialHeightScale());
+		hash = hash * 31 + Double.doubleToLongBits(settings.oceanicHeightScale());
+		hash = hash * 31 + settings.heightOffset();
+		hash = hash * 31 + settings.resolveSeaLevel();
+		hash = hash * 31 + settings.riverLakeShorelineBlend();
+		hash = hash * 31 + settings.oceanShorelineBlend();
+		hash = hash * 31 + (settings.shorelineBlendCliffLimit() ? 1 : 0);
+		// The water switches change region output too. Left at their defaults they add nothing, so
+		// existing stores keep their directory.
+		if (!BODY_INDEX_ENABLED) {
+			hash = hash * 31 + 1;
+		}
+		switch (DISTANCE_MODE) {
+			case "chamfer" -> hash = hash * 31 + 2;
+			case "queue" -> hash = hash * 31 + 3;
+			default -> {
+			}
+		}
+		return FabricLoader.getInstance().getGameDir()
+				.resolve("tellus/cache/water-regions")
+				.resolve(Long.toHexString(hash));
+	}
+
+	// Hands the shared store and body index back. The resolver keeps working afterwards, it just
+	// no longer persists anything.
+	void close() {
+		WaterRegionStore store = this.store;
+		if (store != null) {
+			store.release();
+		}
+		WaterBodyIndex bodyIndex = this.bodyIndex;
+		if (bodyIndex != null) {
+			bodyIndex.release();
+		}
 	}
 
 	public boolean isWaterClass(int coverClass) {
@@ -148,7 +232,7 @@ public final class WaterSurfaceResolver {
 	}
 
 	public WaterColumnData resolveColumnData(int blockX, int blockZ) {
-		int coverClass = this.landCoverSource.sampleCoverClass(blockX, blockZ, this.settings.worldScale());
+		int coverClass = this.inputs.sampleCoverClass(blockX, blockZ, this.settings.worldScale());
 		return resolveColumnData(blockX, blockZ, coverClass);
 	}
 
@@ -200,7 +284,7 @@ public final class WaterSurfaceResolver {
 			return;
 		}
 		try {
-			this.regionCache.get(key, () -> buildRegionData(regionX, regionZ));
+			this.regionCache.get(key, () -> loadRegionData(regionX, regionZ));
 		} catch (Exception e) {
 			Tellus.LOGGER.debug("Failed to prefetch water region {}:{}", regionX, regionZ, e);
 		}
@@ -209,13 +293,40 @@ public final class WaterSurfaceResolver {
 	private WaterRegionData resolveRegionData(int regionX, int regionZ) {
 		long key = pack(regionX, regionZ) ^ this.regionSalt;
 		try {
-			return this.regionCache.get(key, () -> buildRegionData(regionX, regionZ));
+			return this.regionCache.get(key, () -> loadRegionData(regionX, regionZ));
 		} catch (Exception e) {
 			Tellus.LOGGER.warn("Failed to build water region {}:{}", regionX, regionZ, e);
 			return buildRegionData(regionX, regionZ);
 		}
 	}
 
+	private WaterRegionData loadRegionData(int regionX, int regionZ) {
+		WaterRegionStore store = this.store;
+		if (store != null) {
+			int[] terrain = new int[REGION_AREA];
+			int[] water = new int[REGION_AREA];
+			byte[] flags = new byte[REGION_AREA];
+			if (store.read(regionX, regionZ, terrain, water, flags)) {
+				return new WaterRegionData(regionX * REGION_SIZE, regionZ * REGION_SIZE, terrain, water, flags);
+			}
+		}
+		long failedSamples = failedSampleCount();
+		WaterRegionData region = buildRegionData(regionX, regionZ);
+		if (store != null) {
+			// Regions built from fallback samples stay in memory only, so a transient failure is not
+			// written down as ocean or flat terrain for good.
+			if (REGION_SCRATCH.get().degraded || failedSampleCount() != failedSamples) {
+				return region;
+			}
+			try {
+				store.put(regionX, regionZ, region.terrainSurface, region.waterSurface, region.waterFlags);
+			} catch (IOException e) {
+				Tellus.LOGGER.warn("Failed to store water region {}:{}", regionX, regionZ, e);
+			}
+		}
+		return region;
+	}
+
 	private boolean hasWaterNearChunk(int chunkX, int chunkZ, int padding) {
 		int minX = (chunkX << 4) - padding;
 		int minZ = (chunkZ << 4) - padding;
@@ -223,7 +334,7 @@ public final class WaterSurfaceResolver {
 		int maxZ = (chunkZ << 4) + 15 + padding;
 		for (int z = minZ; z <= maxZ; z++) {
 			for (int x = minX; x <= maxX; x++) {
-				int coverClass = this.landCoverSource.sampleCoverClass(x, z, this.settings.worldScale());
+				int coverClass = this.inputs.sampleCoverClass(x, z, this.settings.worldScale());
 				if (coverClass == ESA_WATER) {
 					return false;
 				}
@@ -242,20 +353,10 @@ public final class WaterSurfaceResolver {
 		int minX = chunkX << 4;
 		int minZ = chunkZ << 4;
 		int[] terrainSurface = new int[16 * 16];
-		int[] waterSurface = new int[16 * 16];
 		byte[] waterFlags = new byte[16 * 16];
-		for (int dz = 0; dz < 16; dz++) {
-			int worldZ = minZ + dz;
-			int row = dz * 16;
-			for (int dx = 0; dx < 16; dx++) {
-				int worldX = minX + dx;
-				int index = row + dx;
-				int surface = sampleSurfaceHeight(worldX, worldZ);
-				terrainSurface[index] = surface;
-				waterSurface[index] = surface;
-				waterFlags[index] = WATER_NONE;
-			}
-		}
+		sampleSurfaceHeights(minX, minZ, 16, 16, new double[16 * 16], terrainSurface);
+		Arrays.fill(waterFlags, WATER_NONE);
+		int[] waterSurface = Arrays.copyOf(terrainSurface, terrainSurface.length);
 		return new WaterChunkData(terrainSurface, waterSurface, waterFlags);
 	}
 
@@ -283,43 +384,49 @@ public final class WaterSurfaceResolver {
 		boolean[] coarseInlandSeed = scratch.coarseInlandSeed;
 		Arrays.fill(coarseWater, 0, coarseArea, false);
 		Arrays.fill(coarseInlandSeed, 0, coarseArea, false);
-		boolean hasWater = false;
-
-		double worldScale = this.settings.worldScale();
-		for (int dz = 0; dz < gridSize; dz++) {
-			int worldZ = gridMinZ + dz;
-			int row = dz * gridSize;
-			int coarseZ = dz / coarseStep;
-			int coarseRow = coarseZ * coarseSize;
-			for (int dx = 0; dx < gridSize; dx++) {
-				int worldX = gridMinX + dx;
-				int coverClass = this.landCoverSource.sampleCoverClass(worldX, worldZ, worldScale);
-				int surface = sampleSurfaceHeight(worldX, worldZ);
-				boolean isNoData = coverClass == ESA_NO_DATA;
-				TellusLandMaskSource.LandMaskSample landMaskSample =
-						this.landMaskSource.sampleLandMask(worldX, worldZ, worldScale);
-				boolean maskKnown = landMaskSample.known();
-				boolean landMaskIsLand = maskKnown && landMaskSample.land();
-				boolean oceanMask;
-				if (maskKnown) {
-					oceanMask = !landMaskIsLand && (isNoData || coverClass == ESA_WATER);
-				} else {
-					oceanMask = isNoData;
-				}
-				boolean isWater = coverClass == ESA_WATER || (oceanMask && surface <= this.seaLevel);
-				int index = row + dx;
-				baseWaterMask[index] = isWater;
-				noDataMask[index] = oceanMask;
-				landMaskLand[index] = landMaskIsLand;
-				surfaceHeights[index] = surface;
-				if (isWater) {
-					hasWater = true;
-					if (!oceanMask && surface <= inlandLevel) {
-						int coarseIndex = coarseRow + (dx / coarseStep);
-						coarseWater[coarseIndex] = true;
+		byte[] gridCover = scratch.gridCover;
+		byte[] gridMaskFlags = scratch.gridMaskFlags;
+		scratch.degraded = fillSampleGrid(gridMinX, gridMinZ, gridSize, gridCover, gridMaskFlags, surfaceHeights);
+		StripPlan strips = StripPlan.of(gridSize);
+		boolean[] stripHasWater = new boolean[strips.count()];
+		runParallel(strips.count(), strip -> {
+			boolean found = false;
+			for (int dz = strips.start(strip); dz < strips.end(strip); dz++) {
+				int row = dz * gridSize;
+				int coarseZ = dz / coarseStep;
+				int coarseRow = coarseZ * coarseSize;
+				for (int dx = 0; dx < gridSize; dx++) {
+					int index = row + dx;
+					int coverClass = Byte.toUnsignedInt(gridCover[index]);
+					int surface = surfaceHeights[index];
+					boolean isNoData = coverClass == ESA_NO_DATA;
+					byte maskFlags = gridMaskFlags[index];
+					boolean maskKnown = (maskFlags & WaterSampleTile.MASK_KNOWN) != 0;
+					boolean landMaskIsLand = (maskFlags & WaterSampleTile.MASK_LAND) != 0;
+					boolean oceanMask;
+					if (maskKnown) {
+						oceanMask = !landMaskIsLand && (isNoData || coverClass == ESA_WATER);
+					} else {
+						oceanMask = isNoData;
+					}
+					boolean isWater = coverClass == ESA_WATER || (oceanMask && surface <= this.seaLevel);
+					baseWaterMask[index] = isWater;
+					noDataMask[index] = oceanMask;
+					landMaskLand[index] = landMaskIsLand;
+					if (isWater) {
+						found = true;
+						if (!oceanMask && surface <= inlandLevel) {
+							int coarseIndex = coarseRow + (dx / coarseStep);
+							coarseWater[coarseIndex] = true;
+						}
 					}
 				}
 			}
+			stripHasWater[strip] = found;
+		});
+		boolean hasWater = false;
+		for (boolean found : stripHasWater) {
+			hasWater |= found;
 		}
 
 		if (!hasWater) {
@@ -336,65 +443,56 @@ public final class WaterSurfaceResolver {
 			);
 		}
 
-		int[] componentIds = scratch.componentIds;
-		Arrays.fill(componentIds, 0, gridArea, -1);
-		ComponentData[] components = scratch.components;
-		int componentCount = 0;
-
-		for (int dz = 0; dz < gridSize; dz++) {
-			int row = dz * gridSize;
-			int coarseZ = dz / coarseStep;
-			int coarseRow = coarseZ * coarseSize;
-			for (int dx = 0; dx < gridSize; dx++) {
-				int index = row + dx;
-				if (!baseWaterMask[index] || noDataMask[index]) {
-					continue;
-				}
-				if (surfaceHeights[index] > inlandLevel) {
-					continue;
-				}
-				boolean touchesBelowSeaLand = false;
-				for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 2) {
-					int nx = dx + NEIGHBOR_OFFSETS[i];
-					int nz = dz + NEIGHBOR_OFFSETS[i + 1];
-					if (nx < 0 || nz < 0 || nx >= gridSize || nz >= gridSize) {
+		runParallel(strips.count(), strip -> {
+			for (int dz = strips.start(strip); dz < strips.end(strip); dz++) {
+				int row = dz * gridSize;
+				int coarseZ = dz / coarseStep;
+				int coarseRow = coarseZ * coarseSize;
+				for (int dx = 0; dx < gridSize; dx++) {
+					int index = row + dx;
+					if (!baseWaterMask[index] || noDataMask[index]) {
 						continue;
 					}
-					int neighbor = nz * gridSize + nx;
-					if (baseWaterMask[neighbor]) {
+					if (surfaceHeights[index] > inlandLevel) {
 						continue;
 					}
-					if (surfaceHeights[neighbor] <= inlandLevel) {
-						touchesBelowSeaLand = true;
-						break;
+					boolean touchesBelowSeaLand = false;
+					for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 2) {
+						int nx = dx + NEIGHBOR_OFFSETS[i];
+						int nz = dz + NEIGHBOR_OFFSETS[i + 1];
+						if (nx < 0 || nz < 0 || nx >= gridSize || nz >= gridSize) {
+							continue;
+						}
+						int neighbor = nz * gridSize + nx;
+						if (baseWaterMask[neighbor]) {
+							continue;
+						}
+						if (surfaceHeights[neighbor] <= inlandLevel) {
+							touchesBelowSeaLand = true;
+							break;
+						}
+					}
+					if (touchesBelowSeaLand) {
+						int coarseIndex = coarseRow + (dx / coarseStep);
+						coarseInlandSeed[coarseIndex] = true;
 					}
-				}
-				if (touchesBelowSeaLand) {
-					int coarseIndex = coarseRow + (dx / coarseStep);
-					coarseInlandSeed[coarseIndex] = true;
 				}
 			}
-		}
+		});
 
-		for (int index = 0; index < gridArea; index++) {
-			if (!baseWaterMask[index] || componentIds[index] != -1) {
-				continue;
-			}
-			ComponentData component = buildComponent(
-					index,
-					componentCount,
-					gridSize,
-					gridMinX,
-					gridMinZ,
-					baseWaterMask,
-					noDataMask,
-					landMaskLand,
-					surfaceHeights,
-					componentIds
-			);
-			components[componentCount] = component;
-			componentCount++;
-		}
+		int[] componentIds = scratch.componentIds;
+		ComponentData[] components = scratch.components;
+		int componentCount = labelComponents(
+				strips,
+				gridSize,
+				baseWaterMask,
+				noDataMask,
+				landMaskLand,
+				surfaceHeights,
+				scratch.componentParent,
+				componentIds,
+				components
+		);
 
 		int[] waterSurface = scratch.waterSurface;
 		int[] terrainSurface = scratch.terrainSurface;
@@ -403,9 +501,15 @@ public final class WaterSurfaceResolver {
 
 		System.arraycopy(surfaceHeights, 0, terrainSurface, 0, gridArea);
 		boolean[] inlandConnected = buildInlandConnectivity(scratch, coarseArea, coarseSize);
+		scratch.degraded |= attachIndexedBodies(gridMinX, gridMinZ, gridSize, noDataMask, componentIds, components);
 
 		for (int i = 0; i < componentCount; i++) {
 			ComponentData component = components[i];
+			WaterBodyIndex.WaterBody indexedBody = component.body;
+			if (indexedBody != null) {
+				applyIndexedBody(component, indexedBody, gridMinX, gridMinZ, gridSize, waterSurface);
+				continue;
+			}
 			int spillHeight = component.borderHeights.isEmpty()
 					? component.averageHeight()
 					: percentile(component.borderHeights, BORDER_HEIGHT_PERCENTILE);
@@ -441,7 +545,7 @@ public final class WaterSurfaceResolver {
 			if (!riverShape && component.touchesEdge && !this.regionClamped) {
 				riverShape = maxDim >= this.riverMinLength;
 			}
-			if (riverShape && shouldTreatRiverAsLake(component, width, height, minDim, aspect)) {
+			if (riverShape && shouldTreatRiverAsLake(component.cellCount, width, height, minDim, aspect)) {
 				riverShape = false;
 			}
 		if (riverShape) {
@@ -525,14 +629,45 @@ public final class WaterSurfaceResolver {
 
 		int[] waterDistanceCost = scratch.waterDistanceCost;
 		int maxDistanceBlocks = Math.min(this.maxDistanceToShore, this.regionMargin);
-		computeWeightedDistance(
-				waterDistanceCost,
-				inlandWaterMask,
-				shoreWater,
-				gridSize,
-				maxDistanceBlocks,
-				DIST_COST_CARDINAL
-		);
+		boolean[] blendLandMask = scratch.blendLandMask;
+		for (int index = 0; index < gridArea; index++) {
+			blendLandMask[index] = landMask[index]
+					&& (!this.limitShorelineBlendBySlope || !cliffLandMask[index]);
+		}
+		BlendField inlandBlend = scratch.inlandBlend;
+		BlendField oceanBlend = scratch.oceanBlend;
+		// The depth field and both shoreline fields only read the masks built above, so they are
+		// computed side by side; the results are still applied in the original order below.
+		runParallel(3, pass -> {
+			if (pass == 0) {
+				computeWeightedDistance(
+						waterDistanceCost,
+						inlandWaterMask,
+						shoreWater,
+						gridSize,
+						maxDistanceBlocks,
+						DIST_COST_CARDINAL
+				);
+			} else if (pass == 1) {
+				prepareShorelineBlend(
+						inlandBlend,
+						waterSurface,
+						inlandWaterMask,
+						blendLandMask,
+						gridSize,
+						this.riverLakeBlendDistance
+				);
+			} else {
+				prepareShorelineBlend(
+						oceanBlend,
+						waterSurface,
+						oceanComponentMask,
+						blendLandMask,
+						gridSize,
+						this.oceanBlendDistance
+				);
+			}
+		});
 		int maxDistanceCost = maxDistanceBlocks * DIST_COST_CARDINAL;
 
 		for (int index = 0; index < gridArea; index++) {
@@ -581,26 +716,8 @@ public final class WaterSurfaceResolver {
 			terrainSurface[index] = floor;
 		}
 
-		applyShorelineBlend(
-				terrainSurface,
-				surfaceHeights,
-				waterSurface,
-				inlandWaterMask,
-				landMask,
-				cliffLandMask,
-				gridSize,
-				this.riverLakeBlendDistance
-		);
-		applyShorelineBlend(
-				terrainSurface,
-				surfaceHeights,
-				waterSurface,
-				oceanComponentMask,
-				landMask,
-				cliffLandMask,
-				gridSize,
-				this.oceanBlendDistance
-		);
+		applyShorelineBlend(inlandBlend, terrainSurface, surfaceHeights, blendLandMask, gridSize, this.riverLakeBlendDistance);
+		applyShorelineBlend(oceanBlend, terrainSurface, surfaceHeights, blendLandMask, gridSize, this.oceanBlendDistance);
 
 		if (LAKE_SMOOTH_PASSES > 0) {
 			smoothLakeBeds(
@@ -616,9 +733,9 @@ public final class WaterSurfaceResolver {
 			);
 		}
 
-		int[] regionTerrain = new int[REGION_SIZE * REGION_SIZE];
-		int[] regionWater = new int[REGION_SIZE * REGION_SIZE];
-		byte[] regionFlags = new byte[REGION_SIZE * REGION_SIZE];
+		int[] regionTerrain = new int[REGION_AREA];
+		int[] regionWater = new int[REGION_AREA];
+		byte[] regionFlags = new byte[REGION_AREA];
 
 		for (int dz = 0; dz < REGION_SIZE; dz++) {
 			int worldZ = regionMinZ + dz;
@@ -654,6 +771,172 @@ public final class WaterSurfaceResolver {
 		return new WaterRegionData(regionMinX, regionMinZ, regionTerrain, regionWater, regionFlags);
 	}
 
+	// Fills the region grid from shared sample tiles. The grid rarely lines up with tile edges, so
+	// each tile contributes the rectangle where it overlaps the grid, copied row by row. Each row of
+	// tiles is its own task, so tiles missing from the cache are sampled in parallel. Returns true
+	// when any tile holds fallback samples.
+	private boolean fillSampleGrid(
+			int gridMinX,
+			int gridMinZ,
+			int gridSize,
+			byte[] coverOut,
+			byte[] maskOut,
+			int[] surfaceOut
+	) {
+		int gridMaxX = gridMinX + gridSize - 1;
+		int gridMaxZ = gridMinZ + gridSize - 1;
+		int minTileX = Math.floorDiv(gridMinX, WaterSampleTile.SIZE);
+		int maxTileX = Math.floorDiv(gridMaxX, WaterSampleTile.SIZE);
+		int minTileZ = Math.floorDiv(gridMinZ, WaterSampleTile.SIZE);
+		int maxTileZ = Math.floorDiv(gridMaxZ, WaterSampleTile.SIZE);
+		AtomicBoolean degraded = new AtomicBoolean();
+		runParallel(maxTileZ - minTileZ + 1, tileRow -> {
+			int tileZ = minTileZ + tileRow;
+			int tileMinZ = tileZ * WaterSampleTile.SIZE;
+			int startZ = Math.max(gridMinZ, tileMinZ);
+			int endZ = Math.min(gridMaxZ, tileMinZ + WaterSampleTile.SIZE - 1);
+			for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+				int tileMinX = tileX * WaterSampleTile.SIZE;
+				int startX = Math.max(gridMinX, tileMinX);
+				int endX = Math.min(gridMaxX, tileMinX + WaterSampleTile.SIZE - 1);
+				int length = endX - startX + 1;
+				WaterSampleTile tile = resolveSampleTile(tileX, tileZ);
+				if (tile.degraded()) {
+					degraded.set(true);
+				}
+				for (int worldZ = startZ; worldZ <= endZ; worldZ++) {
+					int gridIndex = (worldZ - gridMinZ) * gridSize + (startX - gridMinX);
+					tile.copyRow(startX - tileMinX, worldZ - tileMinZ, length, coverOut, maskOut, surfaceOut, gridIndex);
+				}
+			}
+		});
+		return degraded.get();
+	}
+
+	private WaterSampleTile resolveSampleTile(int tileX, int tileZ) {
+		long key = pack(tileX, tileZ) ^ this.regionSalt;
+		try {
+			WaterSampleTile tile = this.sampleCache.get(key, () -> buildSampleTile(tileX, tileZ));
+			if (tile.degraded()) {
+				this.sampleCache.invalidate(key);
+			}
+			return tile;
+		} catch (Exception e) {
+			Tellus.LOGGER.warn("Failed to sample water tile {}:{}", tileX, tileZ, e);
+			return buildSampleTile(tileX, tileZ);
+		}
+	}
+
+	private WaterSampleTile buildSampleTile(int tileX, int tileZ) {
+		int minX = tileX * WaterSampleTile.SIZE;
+		int minZ = tileZ * WaterSampleTile.SIZE;
+		double worldScale = this.settings.worldScale();
+		byte[] cover = new byte[WaterSampleTile.AREA];
+		byte[] maskFlags = new byte[WaterSampleTile.AREA];
+		int[] surface = new int[WaterSampleTile.AREA];
+		RegionScratch scratch = REGION_SCRATCH.get();
+		boolean[] oceanZoom = scratch.sampleOceanZoom;
+		long failedSamples = failedSampleCount();
+		for (int dz = 0; dz < WaterSampleTile.SIZE; dz++) {
+			int worldZ = minZ + dz;
+			int row = dz * WaterSampleTile.SIZE;
+			for (int dx = 0; dx < WaterSampleTile.SIZE; dx++) {
+				int worldX = minX + dx;
+				int coverClass = this.inputs.sampleCoverClass(worldX, worldZ, worldScale);
+				TellusLandMaskSource.LandMaskSample landMaskSample =
+						this.inputs.sampleLandMask(worldX, worldZ, worldScale);
+				boolean maskKnown = landMaskSample.known();
+				boolean landMaskIsLand = maskKnown && landMaskSample.land();
+				int index = row + dx;
+				cover[index] = (byte) coverClass;
+				byte flags = 0;
+				if (maskKnown) {
+					flags |= WaterSampleTile.MASK_KNOWN;
+				}
+				if (landMaskIsLand) {
+					flags |= WaterSampleTile.MASK_LAND;
+				}
+				maskFlags[index] = flags;
+				oceanZoom[index] = !maskKnown || (!landMaskIsLand && coverClass == ESA_NO_DATA);
+			}
+		}
+		sampleSurfaceHeights(
+				minX,
+				minZ,
+				WaterSampleTile.SIZE,
+				WaterSampleTile.SIZE,
+				oceanZoom,
+				scratch.sampleElevation,
+				surface,
+				0
+		);
+		return new WaterSampleTile(cover, maskFlags, surface, failedSampleCount() != failedSamples);
+	}
+
+	// Samples the centre column of every cell in one body index page and classifies it the way
+	// buildRegionData classifies full-resolution columns.
+	private boolean sampleBodyPage(int minX, int minZ, byte[] classes, short[] heights) {
+		long failedSamples = failedSampleCount();
+		int size = WaterBodyIndex.PAGE_CELLS;
+		int area = WaterBodyIndex.PAGE_AREA;
+		int step = WaterBodyIndex.CELL_BLOCKS;
+		int centre = step / 2;
+		double worldScale = this.settings.worldScale();
+		byte[] cover = new byte[area];
+		boolean[] maskKnown = new boolean[area];
+		boolean[] maskLand = new boolean[area];
+		boolean[] oceanZoom = new boolean[area];
+		for (int dz = 0; dz < size; dz++) {
+			int worldZ = minZ + dz * step + centre;
+			for (int dx = 0; dx < size; dx++) {
+				int worldX = minX + dx * step + centre;
+				int index = dz * size + dx;
+				int coverClass = this.inputs.sampleCoverClass(worldX, worldZ, worldScale);
+				TellusLandMaskSource.LandMaskSample landMaskSample =
+						this.inputs.sampleLandMask(worldX, worldZ, worldScale);
+				cover[index] = (byte) coverClass;
+				maskKnown[index] = landMaskSample.known();
+				maskLand[index] = landMaskSample.known() && landMaskSample.land();
+				oceanZoom[index] = !maskKnown[index] || (!maskLand[index] && coverClass == ESA_NO_DATA);
+			}
+		}
+		double[] elevations = new double[area];
+		this.inputs.sampleElevationGrid(
+				minX + centre,
+				minZ + centre,
+				size,
+				size,
+				step,
+				worldScale,
+				oceanZoom,
+				elevations
+		);
+		for (int index = 0; index < area; index++) {
+			int coverClass = Byte.toUnsignedInt(cover[index]);
+			int surface = toSurfaceHeight(elevations[index]);
+			boolean isNoData = coverClass == ESA_NO_DATA;
+			boolean oceanMask = maskKnown[index]
+					? !maskLand[index] && (isNoData || coverClass == ESA_WATER)
+					: isNoData;
+			boolean isWater = coverClass == ESA_WATER || (oceanMask && surface <= this.seaLevel);
+			byte cellClass = !isWater
+					? WaterBodyIndex.CELL_LAND
+					: oceanMask ? WaterBodyIndex.CELL_OCEAN : WaterBodyIndex.CELL_WATER;
+			if (maskLand[index]) {
+				cellClass |= WaterBodyIndex.CELL_MASK_LAND;
+			}
+			classes[index] = cellClass;
+			heights[index] = (short) Mth.clamp(surface, Short.MIN_VALUE, Short.MAX_VALUE);
+		}
+		return failedSampleCount() == failedSamples;
+	}
+
+	// Moves whenever any source answers with a fallback because its data failed to load. Sampling
+	// runs on shared pools, so a failure in another build can also move it; that only costs a write.
+	private long failedSampleCount() {
+		return this.inputs.failedSampleCount();
+	}
+
 	private WaterRegionData buildDryRegionData(
 			int regionX,
 			int regionZ,
@@ -665,9 +948,9 @@ public final class WaterSurfaceResolver {
 			int[] surfaceHeights,
 			long startNanos
 	) {
-		int[] regionTerrain = new int[REGION_SIZE * REGION_SIZE];
-		int[] regionWater = new int[REGION_SIZE * REGION_SIZE];
-		byte[] regionFlags = new byte[REGION_SIZE * REGION_SIZE];
+		int[] regionTerrain = new int[REGION_AREA];
+		int[] regionWater = new int[REGION_AREA];
+		byte[] regionFlags = new byte[REGION_AREA];
 
 		for (int dz = 0; dz < REGION_SIZE; dz++) {
 			int worldZ = regionMinZ + dz;
@@ -701,78 +984,177 @@ public final class WaterSurfaceResolver {
 		return new WaterRegionData(regionMinX, regionMinZ, regionTerrain, regionWater, regionFlags);
 	}
 
-	private ComponentData buildComponent(
-			int startIndex,
-			int componentId,
+	// Labels 4-connected water with a union-find per row strip, then joins the strips along their
+	// seams. Roots are always the smallest index of their set, so a single ascending pass hands out
+	// component ids in the same order a row-major flood fill would discover them. Component
+	// statistics are gathered per strip and merged in strip order, which keeps every cell list in
+	// ascending index order and breaks height ties towards the lowest index.
+	private int labelComponents(
+			StripPlan strips,
 			int gridSize,
-			int gridMinX,
-			int gridMinZ,
 			boolean[] waterMask,
 			boolean[] noDataMask,
 			boolean[] landMaskLand,
 			int[] surfaceHeights,
-			int[] componentIds
+			int[] parent,
+			int[] componentIds,
+			ComponentData[] components
 	) {
-		IntArrayList cells = new IntArrayList();
-		IntArrayList borderHeights = new IntArrayList();
-		ComponentData component = new ComponentData(componentId, cells, borderHeights);
-		cells.add(startIndex);
-		componentIds[startIndex] = componentId;
-
-		for (int queueIndex = 0; queueIndex < cells.size(); queueIndex++) {
-			int index = cells.getInt(queueIndex);
-			int x = index % gridSize;
-			int z = index / gridSize;
-			int height = surfaceHeights[index];
-
-			component.heightSum += height;
-			component.cellCount++;
-			if (height <= this.seaLevel + SEA_LEVEL_TOLERANCE) {
-				component.belowSeaCellCount++;
-			}
-			component.minX = Math.min(component.minX, x);
-			component.maxX = Math.max(component.maxX, x);
-			component.minZ = Math.min(component.minZ, z);
-			component.maxZ = Math.max(component.maxZ, z);
-			if (height < component.minHeight) {
-				component.minHeight = height;
-				component.minHeightIndex = index;
+		runParallel(strips.count(), strip -> {
+			int startRow = strips.start(strip);
+			for (int dz = startRow; dz < strips.end(strip); dz++) {
+				int row = dz * gridSize;
+				for (int dx = 0; dx < gridSize; dx++) {
+					int index = row + dx;
+					if (!waterMask[index]) {
+						continue;
+					}
+					parent[index] = index;
+					if (dx > 0 && waterMask[index - 1]) {
+						union(parent, index - 1, index);
+					}
+					if (dz > startRow && waterMask[index - gridSize]) {
+						union(parent, index - gridSize, index);
+					}
+				}
 			}
-			if (height > component.maxHeight) {
-				component.maxHeight = height;
-				component.maxHeightIndex = index;
+		});
+		for (int strip = 1; strip < strips.count(); strip++) {
+			int row = strips.start(strip) * gridSize;
+			for (int dx = 0; dx < gridSize; dx++) {
+				int index = row + dx;
+				if (waterMask[index] && waterMask[index - gridSize]) {
+					union(parent, index - gridSize, index);
+				}
 			}
+		}
 
-			if (noDataMask[index]) {
-				component.touchesNoData = true;
-			}
-			if (landMaskLand[index]) {
-				component.landMaskLandCount++;
-			}
-			if (x == 0 || z == 0 || x == gridSize - 1 || z == gridSize - 1) {
-				component.touchesEdge = true;
+		int gridArea = gridSize * gridSize;
+		int componentCount = 0;
+		for (int index = 0; index < gridArea; index++) {
+			if (!waterMask[index]) {
+				componentIds[index] = -1;
+			} else if (parent[index] == index) {
+				componentIds[index] = componentCount++;
+			} else {
+				componentIds[index] = componentIds[parent[index]];
 			}
+		}
 
-			for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 2) {
-				int nx = x + NEIGHBOR_OFFSETS[i];
-				int nz = z + NEIGHBOR_OFFSETS[i + 1];
-				if (nx < 0 || nz < 0 || nx >= gridSize || nz >= gridSize) {
-					component.touchesEdge = true;
-					continue;
-				}
-				int neighbor = nz * gridSize + nx;
-				if (!waterMask[neighbor]) {
-					borderHeights.add(surfaceHeights[neighbor]);
-					continue;
+		int count = componentCount;
+		ComponentData[][] partials = new ComponentData[strips.count()][];
+		IntArrayList[] touched = new IntArrayList[strips.count()];
+		runParallel(strips.count(), strip -> {
+			ComponentData[] local = new ComponentData[count];
+			IntArrayList localTouched = new IntArrayList();
+			for (int z = strips.start(strip); z < strips.end(strip); z++) {
+				int row = z * gridSize;
+				for (int x = 0; x < gridSize; x++) {
+					int index = row + x;
+					int componentId = componentIds[index];
+					if (componentId < 0) {
+						continue;
+					}
+					ComponentData component = local[componentId];
+					if (component == null) {
+						component = new ComponentData(componentId, new IntArrayList(), new IntArrayList());
+						local[componentId] = component;
+						localTouched.add(componentId);
+					}
+					addComponentCell(component, index, x, z, gridSize, waterMask, noDataMask, landMaskLand, surfaceHeights);
 				}
-				if (componentIds[neighbor] == -1) {
-					componentIds[neighbor] = componentId;
-					cells.add(neighbor);
+			}
+			partials[strip] = local;
+			touched[strip] = localTouched;
+		});
+		Arrays.fill(components, 0, componentCount, null);
+		for (int strip = 0; strip < strips.count(); strip++) {
+			ComponentData[] local = partials[strip];
+			IntArrayList localTouched = touched[strip];
+			for (int i = 0; i < localTouched.size(); i++) {
+				int componentId = localTouched.getInt(i);
+				ComponentData partial = local[componentId];
+				if (components[componentId] == null) {
+					components[componentId] = partial;
+				} else {
+					components[componentId].merge(partial);
 				}
 			}
 		}
+		return componentCount;
+	}
 
-		return component;
+	private void addComponentCell(
+			ComponentData component,
+			int index,
+			int x,
+			int z,
+			int gridSize,
+			boolean[] waterMask,
+			boolean[] noDataMask,
+			boolean[] landMaskLand,
+			int[] surfaceHeights
+	) {
+		int height = surfaceHeights[index];
+		component.cells.add(index);
+		component.heightSum += height;
+		component.cellCount++;
+		if (height <= this.seaLevel + SEA_LEVEL_TOLERANCE) {
+			component.belowSeaCellCount++;
+		}
+		component.minX = Math.min(component.minX, x);
+		component.maxX = Math.max(component.maxX, x);
+		component.minZ = Math.min(component.minZ, z);
+		component.maxZ = Math.max(component.maxZ, z);
+		if (height < component.minHeight) {
+			component.minHeight = height;
+			component.minHeightIndex = index;
+		}
+		if (height > component.maxHeight) {
+			component.maxHeight = height;
+			component.maxHeightIndex = index;
+		}
+
+		if (noDataMask[index]) {
+			component.touchesNoData = true;
+		}
+		if (landMaskLand[index]) {
+			component.landMaskLandCount++;
+		}
+		if (x == 0 || z == 0 || x == gridSize - 1 || z == gridSize - 1) {
+			component.touchesEdge = true;
+		}
+
+		for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 2) {
+			int nx = x + NEIGHBOR_OFFSETS[i];
+			int nz = z + NEIGHBOR_OFFSETS[i + 1];
+			if (nx < 0 || nz < 0 || nx >= gridSize || nz >= gridSize) {
+				continue;
+			}
+			int neighbor = nz * gridSize + nx;
+			if (!waterMask[neighbor]) {
+				component.borderHeights.add(surfaceHeights[neighbor]);
+			}
+		}
+	}
+
+	private static int find(int[] parent, int index) {
+		while (parent[index] != index) {
+			parent[index] = parent[parent[index]];
+			index = parent[index];
+		}
+		return index;
+	}
+
+	// Links the larger root under the smaller one, so every parent pointer points backwards.
+	private static void union(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA < rootB) {
+			parent[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parent[rootA] = rootB;
+		}
 	}
 
 	private RiverSurface buildRiverSurface(ComponentData component, int inlandSurface, int gridSize) {
@@ -807,6 +1189,102 @@ public final class WaterSurfaceResolver {
 		return new RiverSurface(minX, minZ, ux, uz, minProj, length, flatSurface, flatSurface);
 	}
 
+	// Points each purely inland component at the largest indexed body one of its sample columns
+	// lies in. Only bodies wider than the region margin are taken from the index: anything smaller
+	// fits whole inside every grid that can see it, so its local stats never differ between regions.
+	// Components reaching ocean cells keep the local test, which already treats them as ocean.
+	// Returns true when an attached body was built from degraded pages.
+	private boolean attachIndexedBodies(
+			int gridMinX,
+			int gridMinZ,
+			int gridSize,
+			boolean[] noDataMask,
+			int[] componentIds,
+			ComponentData[] components
+	) {
+		WaterBodyIndex bodyIndex = this.bodyIndex;
+		if (bodyIndex == null) {
+			return false;
+		}
+		boolean degraded = false;
+		int centre = WaterBodyIndex.CELL_BLOCKS / 2;
+		int firstX = Math.floorMod(centre - gridMinX, WaterBodyIndex.CELL_BLOCKS);
+		int firstZ = Math.floorMod(centre - gridMinZ, WaterBodyIndex.CELL_BLOCKS);
+		for (int z = firstZ; z < gridSize; z += WaterBodyIndex.CELL_BLOCKS) {
+			for (int x = firstX; x < gridSize; x += WaterBodyIndex.CELL_BLOCKS) {
+				int index = z * gridSize + x;
+				int componentId = componentIds[index];
+				if (componentId < 0 || noDataMask[index]) {
+					continue;
+				}
+				ComponentData component = components[componentId];
+				if (component.touchesNoData) {
+					continue;
+				}
+				WaterBodyIndex.WaterBody body = bodyIndex.bodyAt(gridMinX + x, gridMinZ + z);
+				if (body == null || body.open() || Math.max(body.width(), body.height()) <= this.regionMargin) {
+					continue;
+				}
+				WaterBodyIndex.WaterBody current = component.body;
+				if (current == null || body.cellCount() > current.cellCount()
+						|| (body.cellCount() == current.cellCount() && (body.minZ() < current.minZ()
+						|| (body.minZ() == current.minZ() && body.minX() < current.minX())))) {
+					component.body = body;
+					degraded |= body.degraded();
+				}
+			}
+		}
+		return degraded;
+	}
+
+	// The same classification as the local path, fed from the whole body instead of the slice in
+	// this grid. The edge-touching river fallback is not needed: the body's real extent is known.
+	private void applyIndexedBody(
+			ComponentData component,
+			WaterBodyIndex.WaterBody body,
+			int gridMinX,
+			int gridMinZ,
+			int gridSize,
+			int[] waterSurface
+	) {
+		boolean belowSea = body.belowSeaCellCount() / (double) body.cellCount() >= BELOW_SEA_CELL_RATIO;
+		boolean landMaskInland = body.landMaskLandCount() / (double) body.cellCount() >= LANDMASK_INLAND_RATIO;
+		boolean isOcean = !landMaskInland && (body.touchesOcean() || (belowSea && !body.touchesLowLand()));
+		component.isOcean = isOcean;
+		int componentSurface = isOcean ? this.seaLevel : body.spillHeight();
+		fillComponentSurface(component, waterSurface, componentSurface);
+		if (isOcean) {
+			return;
+		}
+
+		int width = body.width();
+		int height = body.height();
+		int maxDim = Math.max(width, height);
+		int minDim = Math.max(1, Math.min(width, height));
+		double aspect = maxDim / (double) minDim;
+		boolean riverShape = maxDim >= this.riverMinLength
+				&& minDim <= this.riverMaxWidth
+				&& aspect >= RIVER_ASPECT_RATIO;
+		if (!riverShape || shouldTreatRiverAsLake(body.blockCount(), width, height, minDim, aspect)) {
+			return;
+		}
+		int flatSurface = Math.min(componentSurface, body.maxHeight());
+		RiverSurface riverSurface = new RiverSurface(
+				body.axisX() - gridMinX,
+				body.axisZ() - gridMinZ,
+				body.axisUx(),
+				body.axisUz(),
+				body.axisMinProj(),
+				body.axisLength(),
+				flatSurface,
+				flatSurface
+		);
+		for (int c = 0; c < component.cells.size(); c++) {
+			int cell = component.cells.getInt(c);
+			waterSurface[cell] = riverSurface.surfaceAt(cell % gridSize, cell / gridSize);
+		}
+	}
+
 	private int computeInlandDepth(double distance, int worldX, int worldZ) {
 		if (distance <= INLAND_SHORE_DEPTH1_LIMIT) {
 			return 1;
@@ -878,31 +1356,23 @@ public final class WaterSurfaceResolver {
 		return false;
 	}
 
-	private void applyShorelineBlend(
-			int[] terrainSurface,
-			int[] baseSurface,
+	private void prepareShorelineBlend(
+			BlendField field,
 			int[] waterSurface,
 			boolean[] waterMask,
-			boolean[] landMask,
-			boolean[] cliffLandMask,
+			boolean[] blendLandMask,
 			int gridSize,
 			int blendDistance
 	) {
+		field.active = false;
 		if (blendDistance <= 0) {
 			return;
 		}
 		int gridArea = gridSize * gridSize;
-		RegionScratch scratch = REGION_SCRATCH.get();
-		int[] landDistanceCost = scratch.landDistanceCost;
-		int[] nearestSurface = scratch.nearestSurface;
-		boolean[] landSource = scratch.landSource;
-		boolean[] blendLandMask = scratch.blendLandMask;
+		int[] nearestSurface = field.nearestSurface;
+		boolean[] landSource = field.landSource;
 		Arrays.fill(landSource, 0, gridArea, false);
-		for (int index = 0; index < gridArea; index++) {
-			blendLandMask[index] = landMask[index]
-					&& (!this.limitShorelineBlendBySlope || !cliffLandMask[index]);
-		}
-		IntArrayList shoreLand = scratch.shoreLand;
+		IntArrayList shoreLand = field.shoreLand;
 		shoreLand.clear();
 		for (int index = 0; index < gridArea; index++) {
 			if (!waterMask[index]) {
@@ -932,7 +1402,7 @@ public final class WaterSurfaceResolver {
 			return;
 		}
 		computeWeightedDistanceWithSurface(
-				landDistanceCost,
+				field.distanceCost,
 				nearestSurface,
 				blendLandMask,
 				shoreLand,
@@ -940,6 +1410,23 @@ public final class WaterSurfaceResolver {
 				blendDistance,
 				DIST_COST_CARDINAL
 		);
+		field.active = true;
+	}
+
+	private void applyShorelineBlend(
+			BlendField field,
+			int[] terrainSurface,
+			int[] baseSurface,
+			boolean[] blendLandMask,
+			int gridSize,
+			int blendDistance
+	) {
+		if (!field.active) {
+			return;
+		}
+		int gridArea = gridSize * gridSize;
+		int[] landDistanceCost = field.distanceCost;
+		int[] nearestSurface = field.nearestSurface;
 		int maxBlendCost = blendDistance * DIST_COST_CARDINAL;
 		for (int index = 0; index < gridArea; index++) {
 			if (!blendLandMask[index]) {
@@ -961,7 +1448,7 @@ public final class WaterSurfaceResolver {
 	}
 
 	private boolean shouldTreatRiverAsLake(
-			ComponentData component,
+			int cellCount,
 			int width,
 			int height,
 			int minDim,
@@ -981,7 +1468,7 @@ public final class WaterSurfaceResolver {
 		if (area <= 0) {
 			return false;
 		}
-		double fillRatio = component.cellCount / (double) area;
+		double fillRatio = cellCount / (double) area;
 		return fillRatio >= RIVER_LAKE_FILL_THRESHOLD;
 	}
 
@@ -1082,6 +1569,23 @@ public final class WaterSurfaceResolver {
 			int gridSize,
 			int maxDistanceBlocks,
 			int initialCost
+	) {
+		if (useChamfer(maxDistanceBlocks)) {
+			computeChamferDistance(distances, null, allowed, sources, gridSize, maxDistanceBlocks, initialCost);
+			return;
+		}
+		computeQueueDistance(distances, allowed, sources, gridSize, maxDistanceBlocks, initialCost);
+	}
+
+	// Bucket-queue Dijkstra over 10/14 costs. Shorter fields still use it, and the bench harness
+	// checks the chamfer against it.
+	static void computeQueueDistance(
+			int[] distances,
+			boolean[] allowed,
+			IntArrayList sources,
+			int gridSize,
+			int maxDistanceBlocks,
+			int initialCost
 	) {
 		int gridArea = gridSize * gridSize;
 		Arrays.fill(distances, 0, gridArea, Integer.MAX_VALUE);
@@ -1165,6 +1669,23 @@ public final class WaterSurfaceResolver {
 			int gridSize,
 			int maxDistanceBlocks,
 			int initialCost
+	) {
+		if (useChamfer(maxDistanceBlocks)) {
+			computeChamferDistance(distances, nearestSurface, allowed, sources, gridSize, maxDistanceBlocks, initialCost);
+			return;
+		}
+		computeQueueDistanceWithSurface(distances, nearestSurface, allowed, sources, gridSize, maxDistanceBlocks, initialCost);
+	}
+
+	// The queue above, also carrying each cell's nearest-source surface.
+	static void computeQueueDistanceWithSurface(
+			int[] distances,
+			int[] nearestSurface,
+			boolean[] allowed,
+			IntArrayList sources,
+			int gridSize,
+			int maxDistanceBlocks,
+			int initialCost
 	) {
 		int gridArea = gridSize * gridSize;
 		Arrays.fill(distances, 0, gridArea, Integer.MAX_VALUE);
@@ -1242,6 +1763,51 @@ public final class WaterSurfaceResolver {
 		clearBuckets(buckets, bucketUsed, usedBuckets);
 	}
 
+	private static boolean useChamfer(int maxDistanceBlocks) {
+		return switch (DISTANCE_MODE) {
+			case "chamfer" -> true;
+			case "queue" -> false;
+			default -> maxDistanceBlocks >= CHAMFER_MIN_BLOCKS;
+		};
+	}
+
+	// The same 10/14 costs as the bucket queue above, computed with alternating forward and backward
+	// raster sweeps instead. Two sweeps are exact when nothing blocks the way; cells left out of
+	// allowed can force paths to wind, so sweeps repeat until a pair of them changes nothing.
+	static void computeChamferDistance(
+			int[] distances,
+			int @Nullable [] nearestSurface,
+			boolean[] allowed,
+			IntArrayList sources,
+			int gridSize,
+			int maxDistanceBlocks,
+			int initialCost
+	) {
+		int gridArea = gridSize * gridSize;
+		Arrays.fill(distances, 0, gridArea, CHAMFER_UNREACHED);
+		int maxCost = Math.max(0, maxDistanceBlocks) * DIST_COST_CARDINAL;
+		if (initialCost <= maxCost && !sources.isEmpty()) {
+			ChamferSweep sweep = new ChamferSweep(distances, nearestSurface, allowed, gridSize, maxCost);
+			for (int i = 0; i < sources.size(); i++) {
+				int index = sources.getInt(i);
+				if (allowed[index]) {
+					distances[index] = initialCost;
+					sweep.rowStamp[index / gridSize] = 1;
+				}
+			}
+			boolean changed;
+			do {
+				changed = sweep.forward();
+				changed |= sweep.backward();
+			} while (changed);
+		}
+		for (int index = 0; index < gridArea; index++) {
+			if (distances[index] == CHAMFER_UNREACHED) {
+				distances[index] = Integer.MAX_VALUE;
+			}
+		}
+	}
+
 	private static void addBucket(
 			IntArrayList[] buckets,
 			boolean[] bucketUsed,
@@ -1279,8 +1845,61 @@ public final class WaterSurfaceResolver {
 	}
 
 	private int sampleSurfaceHeight(double blockX, double blockZ) {
-		boolean oceanZoom = useOceanZoom(blockX, blockZ);
-		double elevation = this.elevationSource.sampleElevationMeters(blockX, blockZ, this.settings.worldScale(), oceanZoom);
+		double elevation = this.inputs.sampleElevationMeters(blockX, blockZ, this.settings.worldScale(), this::useOceanZoom);
+		return toSurfaceHeight(elevation);
+	}
+
+	private void sampleSurfaceHeights(
+			int minX,
+			int minZ,
+			int width,
+			int height,
+			double[] elevations,
+			int[] out
+	) {
+		this.inputs.sampleElevationGrid(
+				minX,
+				minZ,
+				width,
+				height,
+				1.0,
+				this.settings.worldScale(),
+				this::useOceanZoom,
+				elevations
+		);
+		int area = width * height;
+		for (int i = 0; i < area; i++) {
+			out[i] = toSurfaceHeight(elevations[i]);
+		}
+	}
+
+	private void sampleSurfaceHeights(
+			int minX,
+			int minZ,
+			int width,
+			int height,
+			boolean[] oceanZoom,
+			double[] elevations,
+			int[] out,
+			int outOffset
+	) {
+		this.inputs.sampleElevationGrid(
+				minX,
+				minZ,
+				width,
+				height,
+				1.0,
+				this.settings.worldScale(),
+				oceanZoom,
+				elevations
+		);
+		int area = width * height;
+		for (int i = 0; i < area; i++) {
+			out[outOffset + i] = toSurfaceHeight(elevations[i]);
+		}
+	}
+
+	private int toSurfaceHeight(double elevation) {
 		double heightScale = elevation >= 0.0 ? this.settings.terrestrialHeightScale() : this.settings.oceanicHeightScale();
 		double scaled = elevation * heightScale / this.settings.worldScale();
 		int offset = this.settings.heightOffset();
@@ -1290,14 +1909,14 @@ public final class WaterSurfaceResolver {
 
 	private boolean useOceanZoom(double blockX, double blockZ) {
 		TellusLandMaskSource.LandMaskSample landSample =
-				this.landMaskSource.sampleLandMask(blockX, blockZ, this.settings.worldScale());
+				this.inputs.sampleLandMask(blockX, blockZ, this.settings.worldScale());
 		if (!landSample.known()) {
 			return true;
 		}
 		if (landSample.land()) {
 			return false;
 		}
-		int coverClass = this.landCoverSource.sampleCoverClass(blockX, blockZ, this.settings.worldScale());
+		int coverClass = this.inputs.sampleCoverClass(blockX, blockZ, this.settings.worldScale());
 		return coverClass == ESA_NO_DATA;
 	}
 
@@ -1311,7 +1930,7 @@ public final class WaterSurfaceResolver {
 		return Mth.clamp(blocks, 0, 10);
 	}
 
-	private static int percentile(IntArrayList values, double percentile) {
+	static int percentile(IntArrayList values, double percentile) {
 		int[] data = values.toIntArray();
 		if (data.length == 0) {
 			return 0;
@@ -1364,6 +1983,8 @@ public final class WaterSurfaceResolver {
 
 	private static final class RegionScratch {
 		private int capacity;
+		// Set by buildRegionData when any input came from a fallback sample.
+		private boolean degraded;
 		private boolean[] baseWaterMask;
 		private boolean[] noDataMask;
 		private boolean[] landMaskLand;
@@ -1382,11 +2003,10 @@ public final class WaterSurfaceResolver {
 		private boolean[] cliffWaterMask;
 		private boolean[] blendLandMask;
 		private int[] waterDistanceCost;
-		private int[] landDistanceCost;
-		private int[] nearestSurface;
-		private boolean[] landSource;
+		private int[] componentParent;
+		private final BlendField inlandBlend = new BlendField();
+		private final BlendField oceanBlend = new BlendField();
 		private final IntArrayList shoreWater = new IntArrayList();
-		private final IntArrayList shoreLand = new IntArrayList();
 		private int coarseCapacity;
 		private boolean[] coarseWater;
 		private boolean[] coarseInlandSeed;
@@ -1396,6 +2016,10 @@ public final class WaterSurfaceResolver {
 		private boolean[] bucketUsed;
 		private final IntArrayList usedBuckets = new IntArrayList();
 		private int bucketCapacity;
+		private byte[] gridCover;
+		private byte[] gridMaskFlags;
+		private final boolean[] sampleOceanZoom = new boolean[WaterSampleTile.AREA];
+		private final double[] sampleElevation = new double[WaterSampleTile.AREA];
 
 		private void ensureCapacity(int size) {
 			if (size <= this.capacity) {
@@ -1406,6 +2030,8 @@ public final class WaterSurfaceResolver {
 			this.noDataMask = new boolean[size];
 			this.landMaskLand = new boolean[size];
 			this.surfaceHeights = new int[size];
+			this.gridCover = new byte[size];
+			this.gridMaskFlags = new byte[size];
 			this.componentIds = new int[size];
 			this.components = new ComponentData[size];
 			this.waterSurface = new int[size];
@@ -1420,9 +2046,9 @@ public final class WaterSurfaceResolver {
 			this.cliffWaterMask = new boolean[size];
 			this.blendLandMask = new boolean[size];
 			this.waterDistanceCost = new int[size];
-			this.landDistanceCost = new int[size];
-			this.nearestSurface = new int[size];
-			this.landSource = new boolean[size];
+			this.componentParent = new int[size];
+			this.inlandBlend.ensureCapacity(size);
+			this.oceanBlend.ensureCapacity(size);
 		}
 
 		private void ensureCoarseCapacity(int size) {
@@ -1446,10 +2072,219 @@ public final class WaterSurfaceResolver {
 
 		private void resetLists() {
 			this.shoreWater.clear();
-			this.shoreLand.clear();
 		}
 	}
 
+	// One chamfer distance computation. A row only needs sweeping when it, or the row the sweep comes
+	// from, changed since this sweep direction last visited it, so rows out of reach of any source
+	// are skipped outright and later sweeps only revisit the rows that are still settling. Within a
+	// row the three neighbours of the previous row go first, which has no dependency along the row
+	// and vectorises, then the sequential pass along the row itself. nearestSurface, when given,
+	// follows whichever neighbour set the cost, keeping the earlier value on ties.
+	private static final class ChamferSweep {
+		private final int[] distances;
+		private final int @Nullable [] nearestSurface;
+		private final boolean[] allowed;
+		private final int gridSize;
+		private final int maxCost;
+		private final int[] rowStamp;
+		private final int[] rowForward;
+		private final int[] rowBackward;
+		private int clock = 1;
+
+		private ChamferSweep(int[] distances, int @Nullable [] nearestSurface, boolean[] allowed, int gridSize, int maxCost) {
+			this.distances = distances;
+			this.nearestSurface = nearestSurface;
+			this.allowed = allowed;
+			this.gridSize = gridSize;
+			this.maxCost = maxCost;
+			this.rowStamp = new int[gridSize];
+			this.rowForward = new int[gridSize];
+			this.rowBackward = new int[gridSize];
+		}
+
+		private boolean forward() {
+			boolean changed = false;
+			for (int z = 0; z < this.gridSize; z++) {
+				int seen = this.rowForward[z];
+				if (this.rowStamp[z] <= seen && (z == 0 || this.rowStamp[z - 1] <= seen)) {
+					continue;
+				}
+				boolean rowChanged = z > 0 && relaxFrom(z, z - 1);
+				rowChanged |= relaxRow(z, 1);
+				if (rowChanged) {
+					this.rowStamp[z] = ++this.clock;
+					changed = true;
+				}
+				this.rowForward[z] = this.clock;
+			}
+			return changed;
+		}
+
+		private boolean backward() {
+			boolean changed = false;
+			for (int z = this.gridSize - 1; z >= 0; z--) {
+				int seen = this.rowBackward[z];
+				if (this.rowStamp[z] <= seen && (z == this.gridSize - 1 || this.rowStamp[z + 1] <= seen)) {
+					continue;
+				}
+				boolean rowChanged = z < this.gridSize - 1 && relaxFrom(z, z + 1);
+				rowChanged |= relaxRow(z, -1);
+				if (rowChanged) {
+					this.rowStamp[z] = ++this.clock;
+					changed = true;
+				}
+				this.rowBackward[z] = this.clock;
+			}
+			return changed;
+		}
+
+		private boolean relaxFrom(int z, int sourceZ) {
+			int gridSize = this.gridSize;
+			int row = z * gridSize;
+			int sourceRow = sourceZ * gridSize;
+			int last = gridSize - 1;
+			boolean changed = relaxFromEdge(row, sourceRow, 0);
+			for (int x = 1; x < last; x++) {
+				int up = this.distances[sourceRow + x] + DIST_COST_CARDINAL;
+				int left = this.distances[sourceRow + x - 1] + DIST_COST_DIAGONAL;
+				int right = this.distances[sourceRow + x + 1] + DIST_COST_DIAGONAL;
+				int best = Math.min(up, Math.min(left, right));
+				int index = row + x;
+				if (best < this.distances[index] && best <= this.maxCost && this.allowed[index]) {
+					this.distances[index] = best;
+					if (this.nearestSurface != null) {
+						int from = best == up ? sourceRow + x : best == left ? sourceRow + x - 1 : sourceRow + x + 1;
+						this.nearestSurface[index] = this.nearestSurface[from];
+					}
+					changed = true;
+				}
+			}
+			if (last > 0) {
+				changed |= relaxFromEdge(row, sourceRow, last);
+			}
+			return changed;
+		}
+
+		private boolean relaxFromEdge(int row, int sourceRow, int x) {
+			int index = row + x;
+			if (!this.allowed[index]) {
+				return false;
+			}
+			int best = this.distances[index];
+			int from = -1;
+			for (int dx = -1; dx <= 1; dx++) {
+				int nx = x + dx;
+				if (nx < 0 || nx >= this.gridSize) {
+					continue;
+				}
+				int cost = this.distances[sourceRow + nx] + (dx == 0 ? DIST_COST_CARDINAL : DIST_COST_DIAGONAL);
+				if (cost < best) {
+					best = cost;
+					from = sourceRow + nx;
+				}
+			}
+			if (from < 0 || best > this.maxCost) {
+				return false;
+			}
+			this.distances[index] = best;
+			if (this.nearestSurface != null) {
+				this.nearestSurface[index] = this.nearestSurface[from];
+			}
+			return true;
+		}
+
+		private boolean relaxRow(int z, int step) {
+			int[] distances = this.distances;
+			boolean[] allowed = this.allowed;
+			int row = z * this.gridSize;
+			int first = step > 0 ? 1 : this.gridSize - 2;
+			int end = step > 0 ? this.gridSize : -1;
+			boolean changed = false;
+			for (int x = first; x != end; x += step) {
+				int index = row + x;
+				if (!allowed[index]) {
+					continue;
+				}
+				int cost = distances[index - step] + DIST_COST_CARDINAL;
+				if (cost < distances[index] && cost <= this.maxCost) {
+					distances[index] = cost;
+					if (this.nearestSurface != null) {
+						this.nearestSurface[index] = this.nearestSurface[index - step];
+					}
+					changed = true;
+				}
+			}
+			return changed;
+		}
+	}
+
+	private static final class BlendField {
+		private int[] distanceCost = new int[0];
+		private int[] nearestSurface = new int[0];
+		private boolean[] landSource = new boolean[0];
+		private final IntArrayList shoreLand = new IntArrayList();
+		private boolean active;
+
+		private void ensureCapacity(int size) {
+			this.distanceCost = new int[size];
+			this.nearestSurface = new int[size];
+			this.landSource = new boolean[size];
+		}
+	}
+
+	// Row bands of the region grid handed to separate fork/join tasks. Band heights are multiples
+	// of the coarse connectivity step, so no two bands ever write the same coarse cell.
+	private record StripPlan(int count, int rowsPerStrip, int rows) {
+		private static StripPlan of(int rows) {
+			int count = Math.max(1, Math.min(BUILD_PARALLELISM, rows / MIN_STRIP_ROWS));
+			int rowsPerStrip = (rows + count - 1) / count;
+			rowsPerStrip = ((rowsPerStrip + COARSE_CONNECT_STEP - 1) / COARSE_CONNECT_STEP) * COARSE_CONNECT_STEP;
+			count = (rows + rowsPerStrip - 1) / rowsPerStrip;
+			return new StripPlan(count, rowsPerStrip, rows);
+		}
+
+		private int start(int strip) {
+			return strip * this.rowsPerStrip;
+		}
+
+		private int end(int strip) {
+			return Math.min(this.rows, (strip + 1) * this.rowsPerStrip);
+		}
+	}
+
+	// Runs task(0) .. task(count - 1) on the region build pool and waits for all of them. Callers
+	// pass arrays from their own scratch explicitly; a task that reaches for REGION_SCRATCH would get
+	// the worker's scratch instead.
+	private static void runParallel(int count, IntConsumer task) {
+		ForkJoinPool pool = BUILD_POOL;
+		if (pool == null || count <= 1) {
+			for (int i = 0; i < count; i++) {
+				task.accept(i);
+			}
+			return;
+		}
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+		for (int i = 0; i < count; i++) {
+			int index = i;
+			tasks[i] = ForkJoinTask.adapt(() -> task.accept(index));
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+	}
+
+	private static @Nullable ForkJoinPool createBuildPool() {
+		if (BUILD_PARALLELISM <= 1) {
+			return null;
+		}
+		ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("tellus-water-" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ForkJoinPool(BUILD_PARALLELISM, factory, null, false);
+	}
+
 	private static int regionCoord(int blockCoord) {
 		return Math.floorDiv(blockCoord, REGION_SIZE);
 	}
@@ -1458,6 +2293,108 @@ public final class WaterSurfaceResolver {
 		return ((long) x << 32) ^ (z & 0xffffffffL);
 	}
 
+	// Everything the resolver samples. The mod reads the three network-backed sources; benchmarks
+	// substitute a fixture.
+	interface Inputs {
+		int sampleCoverClass(double blockX, double blockZ, double worldScale);
+
+		TellusLandMaskSource.LandMaskSample sampleLandMask(double blockX, double blockZ, double worldScale);
+
+		double sampleElevationMeters(
+				double blockX,
+				double blockZ,
+				double worldScale,
+				TellusElevationSource.OceanZoomPolicy oceanZoom
+		);
+
+		void sampleElevationGrid(
+				double minX,
+				double minZ,
+				int width,
+				int height,
+				double step,
+				double worldScale,
+				boolean @Nullable [] highResOcean,
+				double[] out
+		);
+
+		void sampleElevationGrid(
+				double minX,
+				double minZ,
+				int width,
+				int height,
+				double step,
+				double worldScale,
+				TellusElevationSource.OceanZoomPolicy oceanZoom,
+				double[] out
+		);
+
+		long failedSampleCount();
+
+		static Inputs of(
+				TellusLandCoverSource landCoverSource,
+				TellusLandMaskSource landMaskSource,
+				TellusElevationSource elevationSource
+		) {
+			return new Inputs() {
+				@Override
+				public int sampleCoverClass(double blockX, double blockZ, double worldScale) {
+					return landCoverSource.sampleCoverClass(blockX, blockZ, worldScale);
+				}
+
+				@Override
+				public TellusLandMaskSource.LandMaskSample sampleLandMask(double blockX, double blockZ, double worldScale) {
+					return landMaskSource.sampleLandMask(blockX, blockZ, worldScale);
+				}
+
+				@Override
+				public double sampleElevationMeters(
+						double blockX,
+						double blockZ,
+						double worldScale,
+						TellusElevationSource.OceanZoomPolicy oceanZoom
+				) {
+					return elevationSource.sampleElevationMeters(blockX, blockZ, worldScale, oceanZoom);
+				}
+
+				@Override
+				public void sampleElevationGrid(
+						double minX,
+						double minZ,
+						int width,
+						int height,
+						double step,
+						double worldScale,
+						boolean @Nullable [] highResOcean,
+						double[] out
+				) {
+					elevationSource.sampleElevationGrid(minX, minZ, width, height, step, worldScale, highResOcean, out);
+				}
+
+				@Override
+				public void sampleElevationGrid(
+						double minX,
+						double minZ,
+						int width,
+						int height,
+						double step,
+						double worldScale,
+						TellusElevationSource.OceanZoomPolicy oceanZoom,
+						double[] out
+				) {
+					elevationSource.sampleElevationGrid(minX, minZ, width, height, step, worldScale, oceanZoom, out);
+				}
+
+				@Override
+				public long failedSampleCount() {
+					return landCoverSource.failedSampleCount()
+							+ landMaskSource.failedSampleCount()
+							+ elevationSource.failedSampleCount();
+				}
+			};
+		}
+	}
+
 	public record WaterColumnData(boolean hasWater, boolean isOcean, int terrainSurface, int waterSurface) {
 	}
 
@@ -1528,6 +2465,12 @@ public final class WaterSurfaceResolver {
 			this.waterFlags = waterFlags;
 		}
 
+		private long heapBytes() {
+			return (long) this.terrainSurface.length * Integer.BYTES
+					+ (long) this.waterSurface.length * Integer.BYTES
+					+ this.waterFlags.length;
+		}
+
 		private WaterColumnData columnData(int blockX, int blockZ) {
 			int index = index(blockX, blockZ);
 			byte flag = this.waterFlags[index];
@@ -1573,6 +2516,7 @@ public final class WaterSurfaceResolver {
 		private boolean touchesEdge;
 		private boolean isOcean;
 		private int maxDistanceCost;
+		private WaterBodyIndex.@Nullable WaterBody body;
 
 		private ComponentData(int id, IntArrayList cells, IntArrayList borderHeights) {
 			this.id = id;
@@ -1580,6 +2524,29 @@ public final class WaterSurfaceResolver {
 			this.borderHeights = borderHeights;
 		}
 
+		private void merge(ComponentData other) {
+			this.cells.addAll(other.cells);
+			this.borderHeights.addAll(other.borderHeights);
+			this.minX = Math.min(this.minX, other.minX);
+			this.maxX = Math.max(this.maxX, other.maxX);
+			this.minZ = Math.min(this.minZ, other.minZ);
+			this.maxZ = Math.max(this.maxZ, other.maxZ);
+			if (other.minHeight < this.minHeight) {
+				this.minHeight = other.minHeight;
+				this.minHeightIndex = other.minHeightIndex;
+			}
+			if (other.maxHeight > this.maxHeight) {
+				this.maxHeight = other.maxHeight;
+				this.maxHeightIndex = other.maxHeightIndex;
+			}
+			this.heightSum += other.heightSum;
+			this.cellCount += other.cellCount;
+			this.landMaskLandCount += other.landMaskLandCount;
+			this.belowSeaCellCount += other.belowSeaCellCount;
+			this.touchesNoData |= other.touchesNoData;
+			this.touchesEdge |= other.touchesEdge;
+		}
+
 		private int averageHeight() {
 			if (this.cellCount <= 0) {
 				return this.minHeight == Integer.MAX_VALUE ? 0 : this.minHeight;